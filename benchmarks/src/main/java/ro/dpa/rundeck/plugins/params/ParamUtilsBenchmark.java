@@ -0,0 +1,68 @@
+package ro.dpa.rundeck.plugins.params;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the step configuration received from Rundeck
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParamUtilsBenchmark {
+    private static final String MULTI_LINE_KEY = "parameters";
+
+    @Param({"1", "10", "100"})
+    private int lines;
+
+    private Map<String, Object> options;
+
+    @Setup
+    public void setUp() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            value.append(i == 0 ? "" : "\n").append("name").append(i).append("=value").append(i);
+        }
+        options = new HashMap<>();
+        options.put(MULTI_LINE_KEY, value.toString());
+        options.put("host", "sqlserver.example.com");
+        options.put("port", "1433");
+    }
+
+    @Benchmark
+    public Map<String, String> getMapValues() {
+        return ParamUtils.getMapValues(MULTI_LINE_KEY, options);
+    }
+
+    @Benchmark
+    public List<String> getListValues() {
+        return ParamUtils.getListValues(MULTI_LINE_KEY, options);
+    }
+
+    @Benchmark
+    public String getStringValue() {
+        return ParamUtils.getStringValue("host", options);
+    }
+
+    @Benchmark
+    public int getIntValue() {
+        return ParamUtils.getIntValue("port", options);
+    }
+}
@@ -0,0 +1,123 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrowing connections from the {@link SqlServerConnectionPool}, backed by in-memory connections,
+ * so only the pool overhead is measured
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+    private static final String HOST = "sqlserver.example.com";
+    private static final int PORT = 1433;
+    private static final String USER = "rundeck";
+    private static final String PASSWORD = "secret";
+    private static final int MAX_SIZE = 4;
+
+    private SqlServerConnectionPool pool;
+
+    @Setup
+    public void setUp() {
+        pool = new SqlServerConnectionPool(new SqlServerConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection create(String host, int port, String user, String password,
+                                     AuthenticationMode authentication) {
+                return newConnection();
+            }
+        }, MAX_SIZE, TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public PooledConnection borrowAndRelease() throws SQLException {
+        PooledConnection pooled = pool.borrow(HOST, PORT, USER, PASSWORD);
+        pool.release(pooled);
+        return pooled;
+    }
+
+    @Benchmark
+    public PreparedStatement borrowPrepareAndRelease() throws SQLException {
+        PooledConnection pooled = pool.borrow(HOST, PORT, USER, PASSWORD);
+        try {
+            return pooled.prepareStatement("SELECT GETDATE()");
+        } finally {
+            pool.release(pooled);
+        }
+    }
+
+    /**
+     * More threads than connections, so borrowers queue on the server permits
+     */
+    @Benchmark
+    @Threads(8)
+    public PooledConnection borrowAndReleaseContended() throws SQLException {
+        PooledConnection pooled = pool.borrow(HOST, PORT, USER, PASSWORD);
+        pool.release(pooled);
+        return pooled;
+    }
+
+    private static Connection newConnection() {
+        final PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+                ConnectionPoolBenchmark.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                new DefaultValueHandler(null));
+        return (Connection) Proxy.newProxyInstance(ConnectionPoolBenchmark.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new DefaultValueHandler(statement));
+    }
+
+    /**
+     * Connection that is always valid and open, and returns the same statement for all the prepare calls
+     */
+    private static class DefaultValueHandler implements InvocationHandler {
+        private final PreparedStatement statement;
+
+        DefaultValueHandler(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Class<?> returnType = method.getReturnType();
+            if (method.getName().equals("isValid")) {
+                return true;
+            }
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == int.class) {
+                return 0;
+            }
+            if (PreparedStatement.class.isAssignableFrom(returnType)) {
+                return statement;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole job execution (resolve, start and wait) against a {@link LatencyInjectingJobDao}. The score minus the job
+ * duration is the overhead of the plugin: the start round trips plus the time needed to notice the end of the job.
+ * The shared monitor is not covered, it creates its own DAOs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobWaitBenchmark {
+
+    public enum WaitMode {
+        POLL_HELP_JOB(StatusQueryMode.HELP_JOB, CompletionDetectionMode.POLL),
+        POLL_ACTIVITY(StatusQueryMode.ACTIVITY, CompletionDetectionMode.POLL),
+        LONG_POLL(StatusQueryMode.ACTIVITY, CompletionDetectionMode.LONG_POLL);
+
+        private final StatusQueryMode statusQueryMode;
+        private final CompletionDetectionMode completionDetectionMode;
+
+        WaitMode(StatusQueryMode statusQueryMode, CompletionDetectionMode completionDetectionMode) {
+            this.statusQueryMode = statusQueryMode;
+            this.completionDetectionMode = completionDetectionMode;
+        }
+    }
+
+    @Param({"POLL_HELP_JOB", "POLL_ACTIVITY", "LONG_POLL"})
+    private WaitMode waitMode;
+
+    @Param({"1", "20"})
+    private long latencyMillis;
+
+    @Param({"250", "3000"})
+    private long jobDurationMillis;
+
+    @Benchmark
+    public void executeJob() throws SQLException, InterruptedException, ConfigurationException {
+        final SqlServerJobDao dao = new LatencyInjectingJobDao(latencyMillis, jobDurationMillis);
+        new SqlServerJob.SqlServerJobBuilder()
+                .serverName("benchmark")
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName(LatencyInjectingJobDao.JOB_NAME)
+                .statusQueryMode(waitMode.statusQueryMode)
+                .completionDetectionMode(waitMode.completionDetectionMode)
+                .daoFactory(new SqlServerJobDaoFactory() {
+                    @Override
+                    public SqlServerJobDao create(String serverName, int port, String userName, String password) {
+                        return dao;
+                    }
+                })
+                .build()
+                .execute();
+    }
+}
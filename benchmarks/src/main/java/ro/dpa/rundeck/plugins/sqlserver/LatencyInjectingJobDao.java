@@ -0,0 +1,173 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory SQL Agent, with a single job that runs for a fixed duration. Each call sleeps for the configured
+ * round trip latency, and the long poll call waits on the "server" side, like the real one.
+ */
+class LatencyInjectingJobDao implements SqlServerJobDao {
+    static final String JOB_ID = "6F9619FF-8B86-D011-B42D-00C04FC964FF";
+    static final String JOB_NAME = "benchmarkJob";
+
+    private final long latencyMillis;
+    private final long jobDurationMillis;
+    private volatile long startedAt;
+
+    LatencyInjectingJobDao(long latencyMillis, long jobDurationMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jobDurationMillis = jobDurationMillis;
+    }
+
+    @Override
+    public void startJob(String jobId, String stepName) throws SQLException {
+        this.roundTrip();
+        startedAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public long startJobAndGetLastHistoryInstanceId(String jobId, String stepName) throws SQLException {
+        this.startJob(jobId, stepName);
+        return 0;
+    }
+
+    @Override
+    public void stopJob(String jobId) throws SQLException {
+        this.roundTrip();
+        startedAt = System.currentTimeMillis() - jobDurationMillis;
+    }
+
+    @Override
+    public int getCurrentExecutionStatus(String jobId) throws SQLException {
+        this.roundTrip();
+        return this.isFinished() ? CurrentExecutionStatus.Idle.value() : CurrentExecutionStatus.Executing.value();
+    }
+
+    @Override
+    public int getLastExecutionStatus(String jobId) throws SQLException {
+        this.roundTrip();
+        return ExecutionStatus.Succeeded.value();
+    }
+
+    @Override
+    public JobRunStatus getHelpJobStatus(String jobId, JobHistoryFeed feed) throws SQLException {
+        this.roundTrip();
+        return this.isFinished() ? new JobRunStatus(CurrentExecutionStatus.Idle, ExecutionStatus.Succeeded, null, null, null)
+                : JobRunStatus.unfinished(CurrentExecutionStatus.Executing);
+    }
+
+    @Override
+    public Timestamp getServerTime() throws SQLException {
+        this.roundTrip();
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    @Override
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+        this.roundTrip();
+        return this.currentRunStatus();
+    }
+
+    @Override
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter, JobHistoryFeed feed) throws SQLException {
+        return this.getJobRunStatus(jobId, requestedAfter);
+    }
+
+    @Override
+    public Map<String, JobRunStatus> getLatestJobRunStatuses(Collection<String> jobIds, Timestamp requestedAfter) throws SQLException {
+        this.roundTrip();
+        Map<String, JobRunStatus> statuses = new HashMap<>();
+        for (String jobId : jobIds) {
+            statuses.put(jobId, this.currentRunStatus());
+        }
+        return statuses;
+    }
+
+    @Override
+    public JobRunStatus waitForJobRunCompletion(String jobId, Timestamp requestedAfter, int timeoutSeconds) throws SQLException {
+        this.roundTrip();
+        long wakeUpAt = Math.min(startedAt + jobDurationMillis, System.currentTimeMillis() + timeoutSeconds * 1000L);
+        sleep(wakeUpAt - System.currentTimeMillis());
+        return this.currentRunStatus();
+    }
+
+    @Override
+    public long getLastHistoryInstanceId(String jobId) throws SQLException {
+        this.roundTrip();
+        return 0;
+    }
+
+    @Override
+    public void readJobHistory(String jobId, JobHistoryFeed feed) throws SQLException {
+        this.roundTrip();
+    }
+
+    @Override
+    public void readStepOutputLogs(String jobId, Timestamp modifiedSince, StepOutputFeed feed) throws SQLException {
+        this.roundTrip();
+    }
+
+    @Override
+    public List<JobStepHistory> getRecentJobHistory(String jobId, int maxRows) throws SQLException {
+        this.roundTrip();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException {
+        this.roundTrip();
+        return Collections.singletonList(new JobMetadata(JOB_ID, JOB_NAME, new Timestamp(0), Collections.<String>emptyList()));
+    }
+
+    @Override
+    public List<JobLastRun> getLastJobRuns() throws SQLException {
+        this.roundTrip();
+        return Collections.singletonList(new JobLastRun(JOB_ID, ExecutionStatus.Succeeded, new Timestamp(0), 0));
+    }
+
+    @Override
+    public String getJobId(String jobName) throws SQLException {
+        this.roundTrip();
+        return JOB_ID;
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    private boolean isFinished() {
+        return System.currentTimeMillis() >= startedAt + jobDurationMillis;
+    }
+
+    private JobRunStatus currentRunStatus() {
+        Timestamp startDate = new Timestamp(startedAt);
+        if (this.isFinished()) {
+            return new JobRunStatus(CurrentExecutionStatus.Idle, ExecutionStatus.Succeeded, startDate, startDate,
+                    new Timestamp(startedAt + jobDurationMillis));
+        }
+        return new JobRunStatus(CurrentExecutionStatus.Executing, null, startDate, startDate, null);
+    }
+
+    private void roundTrip() throws SQLException {
+        sleep(latencyMillis);
+    }
+
+    private static void sleep(long millis) throws SQLException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(ex);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The steady state of the poll loop: a status check of a job that is still running, and the next delay of the
+ * schedule. Both are expected to allocate nothing, check gc.alloc.rate.norm in the gc profiler output.
+ * The tick of the shared monitor for a running job is measured too, it only allocates its bookkeeping of the waiters.
+ * The same check is measured through {@link SqlServerJobDaoImpl} and the connection pool, over a stub connection.
+ * There, the sp_help_job check is expected to allocate nothing either, while the activity check allocates the status
+ * holding the dates of the run. The stub is a {@link Proxy}, so the argument arrays of its calls may add to the count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PollLoopBenchmark {
+
+    @Param({"HELP_JOB", "ACTIVITY"})
+    private StatusQueryMode statusQueryMode;
+
+    private SqlServerJob job;
+    private Timestamp requestedAfter;
+    private PollSchedule schedule;
+
+    @Setup
+    public void setUp() throws Exception {
+        final SteadyStateJobDao dao = new SteadyStateJobDao();
+        this.job = new SqlServerJob.SqlServerJobBuilder()
+                .serverName("benchmark")
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName(SteadyStateJobDao.JOB_NAME)
+                .statusQueryMode(statusQueryMode)
+                .progressListener(new JobProgressListener() {
+                    @Override
+                    public void onStepHistory(String jobName, JobStepHistory history) {
+
+                    }
+                })
+                .daoFactory(new SqlServerJobDaoFactory() {
+                    @Override
+                    public SqlServerJobDao create(String serverName, int port, String userName, String password) {
+                        return dao;
+                    }
+                })
+                .build();
+        //a first run (two checks, about a second) resolves the job, opens the history feed and registers the metrics, like a real step
+        this.job.execute();
+        dao.keepRunning();
+        this.requestedAfter = new Timestamp(System.currentTimeMillis());
+        this.schedule = PollStrategy.ADAPTIVE.newSchedule(30000);
+    }
+
+    @Benchmark
+    public JobRunStatus checkRunningJob() throws Exception {
+        return job.checkStatus(requestedAfter, true);
+    }
+
+    @Benchmark
+    public long nextDelay() {
+        return schedule.nextDelayMillis(CurrentExecutionStatus.Executing);
+    }
+
+    /**
+     * The DAO calls of {@link SqlServerJob#checkStatus(Timestamp, boolean)} for a running job, without a history feed
+     */
+    @Benchmark
+    public Object checkRunningJobOverJdbc(JdbcState state) throws SQLException {
+        try (SqlServerJobDao dao = state.dao) {
+            if (statusQueryMode == StatusQueryMode.ACTIVITY) {
+                return dao.getJobRunStatus(SteadyStateJobDao.JOB_ID, requestedAfter);
+            }
+            return dao.getCurrentExecutionStatus(SteadyStateJobDao.JOB_ID);
+        }
+    }
+
+    @Benchmark
+    public int monitorTick(MonitorState state) {
+        state.monitor.tick();
+        return state.monitor.getWaiterCount();
+    }
+
+    /**
+     * A shared monitor with a single step waiting for a job that keeps running. The monitor is only ticked by the
+     * benchmark, its scheduled ticks are a day apart.
+     */
+    @State(Scope.Thread)
+    public static class MonitorState {
+        private ScheduledExecutorService scheduler;
+        private JobStatusMonitor monitor;
+
+        @Setup
+        public void setUp() throws Exception {
+            final SteadyStateJobDao dao = new SteadyStateJobDao();
+            dao.keepRunning();
+            this.scheduler = Executors.newSingleThreadScheduledExecutor();
+            this.monitor = new JobStatusMonitor("benchmark", 1433, "rundeck", "secret", new SqlServerJobDaoFactory() {
+                @Override
+                public SqlServerJobDao create(String serverName, int port, String userName, String password) {
+                    return dao;
+                }
+            }, scheduler, TimeUnit.DAYS.toMillis(1));
+            this.monitor.register(SteadyStateJobDao.JOB_ID, new Timestamp(System.currentTimeMillis()));
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * One DAO for the whole run, like {@link SqlServerJob}, borrowing a stub connection from the pool for each check
+     */
+    @State(Scope.Thread)
+    public static class JdbcState {
+        private SqlServerConnectionPool pool;
+        private SqlServerJobDao dao;
+
+        @Setup
+        public void setUp() throws Exception {
+            this.pool = new SqlServerConnectionPool(new SqlServerConnectionPool.ConnectionFactory() {
+                @Override
+                public Connection create(String host, int port, String user, String password,
+                                         AuthenticationMode authentication) {
+                    return newRunningJobConnection();
+                }
+            }, 1, TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(1));
+            this.dao = new SqlServerJobDaoImpl(pool, "benchmark", 1433, "rundeck", "secret");
+            this.dao.close();
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.pool.shutdown();
+        }
+    }
+
+    private static Connection newRunningJobConnection() {
+        ClassLoader classLoader = PollLoopBenchmark.class.getClassLoader();
+        ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(classLoader, new Class<?>[]{ResultSet.class},
+                new RunningJobHandler(null));
+        //the DAO prepares both plain and callable statements, the stub statement is both
+        CallableStatement statement = (CallableStatement) Proxy.newProxyInstance(classLoader,
+                new Class<?>[]{CallableStatement.class}, new RunningJobHandler(resultSet));
+        return (Connection) Proxy.newProxyInstance(classLoader, new Class<?>[]{Connection.class},
+                new RunningJobHandler(statement));
+    }
+
+    /**
+     * Answers the status queries with a single row of a job that started executing and hasn't stopped yet,
+     * and returns the given statement or result set to the calls that expect one
+     */
+    private static class RunningJobHandler implements InvocationHandler {
+        private static final Integer EXECUTING = CurrentExecutionStatus.Executing.value();
+        private static final Integer ZERO = 0;
+        private static final Timestamp STARTED_AT = new Timestamp(System.currentTimeMillis());
+
+        private final Object next;
+
+        RunningJobHandler(Object next) {
+            this.next = next;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            Class<?> returnType = method.getReturnType();
+            if (name.equals("isValid") || name.equals("next") || name.equals("wasNull")) {
+                //the run has no outcome yet, so run_status is null
+                return true;
+            }
+            if (name.equals("getInt")) {
+                return "current_execution_status".equals(args[0]) ? EXECUTING : ZERO;
+            }
+            if (name.equals("getTimestamp")) {
+                return "stop_execution_date".equals(args[0]) ? null : STARTED_AT;
+            }
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == int.class) {
+                return ZERO;
+            }
+            if (returnType.isInstance(next)) {
+                return next;
+            }
+            return null;
+        }
+    }
+}
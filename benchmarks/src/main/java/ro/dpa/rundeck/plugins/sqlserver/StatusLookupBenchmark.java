@@ -0,0 +1,47 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of the status codes read from SQL Server to the status enums, done for every status check
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatusLookupBenchmark {
+    //cycles through all the codes, including an unknown one, so the lookup can't be constant folded
+    private int code;
+
+    private int nextCode() {
+        code = (code + 1) & 7;
+        return code;
+    }
+
+    @Benchmark
+    public ExecutionStatus executionStatus() {
+        return ExecutionStatus.valueOf(nextCode());
+    }
+
+    @Benchmark
+    public CurrentExecutionStatus currentExecutionStatus() {
+        return CurrentExecutionStatus.valueOf(nextCode());
+    }
+
+    @Benchmark
+    public SsisExecutionStatus ssisExecutionStatus() {
+        return SsisExecutionStatus.valueOf(nextCode());
+    }
+}
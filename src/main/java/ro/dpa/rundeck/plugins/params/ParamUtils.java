@@ -1,6 +1,8 @@
 package ro.dpa.rundeck.plugins.params;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -71,4 +73,31 @@ public class ParamUtils {
 
         return params;
     }
+
+    /**
+     * Returns the lines of a multi-line parameter received from the executeStep method. Lines are trimmed and
+     * blank lines are skipped.
+     *
+     * @param key The key from the options map
+     * @param options The options map (all config params provided by Rundeck)
+     * @return
+     */
+    public static List<String> getListValues(String key, Map<String, Object> options) {
+        List<String> values = new ArrayList<>();
+
+        String val = ParamUtils.getStringValue(key, options);
+
+        if (val == null) {
+            return values;
+        }
+
+        for (String line : val.split(MULTIPLE_PARAMS_SEPARATOR)) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty()) {
+                values.add(trimmed);
+            }
+        }
+
+        return values;
+    }
 }
@@ -0,0 +1,16 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * How the connections of a step authenticate to SQL Server
+ */
+public enum AuthenticationMode {
+    /**
+     * SQL Server Authentication, with a login and password defined on the server
+     */
+    SQL_SERVER,
+    /**
+     * Windows Authentication with NTLM, for a domain account given as DOMAIN&#92;user. Works from any OS, without
+     * a Kerberos setup. Required by the SSIS catalog, which refuses to run packages for SQL Server logins.
+     */
+    NTLM
+}
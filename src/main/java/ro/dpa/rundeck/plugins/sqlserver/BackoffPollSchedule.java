@@ -0,0 +1,60 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Poll schedule that checks a freshly started job quickly and then backs off exponentially, up to a ceiling.
+ * <p>
+ * The cadence also follows the job state:
+ * <ul>
+ *     <li>Executing - exponential backoff</li>
+ *     <li>Waiting for thread - the job is about to start, the delay is kept short</li>
+ *     <li>Performing completion actions - the job is about to finish, the backoff is reset</li>
+ *     <li>Between retries / Suspended - nothing happens until the retry interval elapses or an operator
+ *     intervenes, so the ceiling is used directly</li>
+ * </ul>
+ * Every delay gets a random jitter of +/- 20%, so steps started together don't query msdb in lockstep.
+ */
+public class BackoffPollSchedule implements PollSchedule {
+
+    static final long INITIAL_DELAY_MILLIS = 500;
+    private static final long WAITING_FOR_THREAD_MAX_DELAY_MILLIS = 5000;
+    private static final double MULTIPLIER = 2.0;
+    private static final double JITTER = 0.2;
+
+    private final long maxDelayMillis;
+    private long currentDelayMillis;
+
+    public BackoffPollSchedule(long maxDelayMillis) {
+        this.maxDelayMillis = Math.max(maxDelayMillis, INITIAL_DELAY_MILLIS);
+        this.currentDelayMillis = INITIAL_DELAY_MILLIS;
+    }
+
+    @Override
+    public long nextDelayMillis(CurrentExecutionStatus lastStatus) {
+        long delay;
+        if (lastStatus == null || lastStatus == CurrentExecutionStatus.Idle
+                || lastStatus == CurrentExecutionStatus.PerformingCompletionActions) {
+            currentDelayMillis = INITIAL_DELAY_MILLIS;
+            delay = currentDelayMillis;
+        } else if (lastStatus == CurrentExecutionStatus.BetweenRetries || lastStatus == CurrentExecutionStatus.Suspended) {
+            delay = maxDelayMillis;
+        } else if (lastStatus == CurrentExecutionStatus.WaitingForThread) {
+            delay = Math.min(this.grow(), WAITING_FOR_THREAD_MAX_DELAY_MILLIS);
+        } else {
+            delay = this.grow();
+        }
+
+        return this.jitter(delay);
+    }
+
+    private long grow() {
+        currentDelayMillis = Math.min((long) (currentDelayMillis * MULTIPLIER), maxDelayMillis);
+        return currentDelayMillis;
+    }
+
+    private long jitter(long delay) {
+        double factor = 1 - JITTER + ThreadLocalRandom.current().nextDouble() * 2 * JITTER;
+        return Math.min((long) (delay * factor), maxDelayMillis);
+    }
+}
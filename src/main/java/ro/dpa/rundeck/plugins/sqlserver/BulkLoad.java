@@ -0,0 +1,412 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.google.common.base.Strings;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads a delimited file into a table with {@link SQLServerBulkCopy}, without staging it through SSIS.
+ * <p>
+ * The file is split into ranges of whole lines ({@link FileRange}), loaded in parallel on their own pooled connections.
+ * Each range is read through the file channel by a {@link DelimitedFileRecord}, so the memory used doesn't depend on
+ * the size of the file. Parallel ranges with the table lock only load concurrently into a heap (or a clustered
+ * columnstore); the bulk update locks of a table with a clustered index serialize them.
+ * <p>
+ * The ranges commit independently, batch by batch: if the load fails, the batches already committed stay in the table.
+ * The fields are mapped to the table columns by position, or by name when the file has a header line.
+ */
+public class BulkLoad {
+    private static final Logger logger = LoggerFactory.getLogger(BulkLoad.class);
+
+    private static final String PROPERTY_PREFIX = "ro.dpa.rundeck.sqlserver.bulkLoad.";
+    //files smaller than this are loaded in a single range, splitting them costs more than it saves
+    private static final long DEFAULT_MIN_RANGE_BYTES = Long.getLong(PROPERTY_PREFIX + "minRangeBytes", 16L * 1024 * 1024);
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final String COLUMNS_QUERY_PREFIX = "SELECT TOP 0 * FROM ";
+
+    private String serverName;
+    private int port;
+    private String userName;
+    private String password;
+    private String tableName;
+    private File file;
+    private char delimiter;
+    private boolean header;
+    private int parallelism;
+    private int batchSize;
+    private boolean tableLock;
+    private int timeoutSeconds;
+    private long minRangeBytes;
+    private SqlServerConnectionPool connectionPool;
+
+    //constructor is private, it can only be instantiated through the builder
+    private BulkLoad() {
+
+    }
+
+    /**
+     * Loads the file and waits for all its ranges
+     *
+     * @return The number of rows loaded
+     * @throws SQLException If a range fails, the other ranges are cancelled as soon as the failure is seen
+     */
+    public long execute() throws SQLException, InterruptedException {
+        logger.info("Executing bulk load with the following details: {}", this.toString());
+        long startedAt = System.currentTimeMillis();
+
+        final List<DelimitedFileRecord.Column> columns;
+        final List<FileRange> ranges;
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            long dataStart = 0;
+            List<String> headerNames = null;
+            if (this.header) {
+                dataStart = FileRange.nextLineStart(channel, 0);
+                headerNames = this.readHeader(channel, dataStart);
+            }
+            columns = this.getColumns(headerNames);
+            ranges = FileRange.split(channel, dataStart, this.parallelism, this.minRangeBytes);
+        } catch (IOException ex) {
+            throw new SQLException("Could not read file " + this.file, ex);
+        }
+        if (ranges.isEmpty()) {
+            logger.info("File {} has no rows to load into {}", this.file, this.tableName);
+            return 0;
+        }
+        logger.info("Loading {} into {} in {} ranges, columns={}", this.file, this.tableName, ranges.size(), columns);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, ranges.size()),
+                new BulkLoadThreadFactory());
+        try {
+            //the ranges are taken in the order they finish, so a failed range doesn't wait for the ones before it
+            CompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
+            for (final FileRange range : ranges) {
+                completionService.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return loadRange(range, columns);
+                    }
+                });
+            }
+
+            long rowCount = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                try {
+                    rowCount += completionService.take().get();
+                } catch (ExecutionException ex) {
+                    throw ex.getCause() instanceof SQLException ? (SQLException) ex.getCause() : new SQLException(ex.getCause());
+                }
+            }
+
+            long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+            logger.info("Bulk loaded {} rows into {} in {} ms ({} rows/s)", rowCount, this.tableName, elapsedMillis,
+                    rowCount * 1000 / elapsedMillis);
+            return rowCount;
+        } finally {
+            //cancels the ranges not started yet and interrupts the ones still reading, when a range failed
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> readHeader(FileChannel channel, long headerEnd) throws IOException, SQLException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(headerEnd, Integer.MAX_VALUE));
+        channel.read(bytes, 0);
+        String line = new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8).trim();
+        if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {
+            line = line.substring(1);
+        }
+        if (line.isEmpty()) {
+            throw new SQLException("The header line of " + this.file + " is empty");
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : DelimitedFileRecord.parseLine(line, this.delimiter)) {
+            names.add(name.trim());
+        }
+        return names;
+    }
+
+    /**
+     * Reads the columns of the table and returns the destination column of each field: the column with the same name
+     * when the file has a header, otherwise the column in the same position
+     */
+    private List<DelimitedFileRecord.Column> getColumns(List<String> headerNames) throws SQLException {
+        List<DelimitedFileRecord.Column> tableColumns = new ArrayList<>();
+        PooledConnection pooled = this.connectionPool.borrow(this.serverName, this.port, this.userName, this.password);
+        try (Statement stmt = pooled.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery(COLUMNS_QUERY_PREFIX + this.tableName)) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                tableColumns.add(new DelimitedFileRecord.Column(metaData.getColumnName(i), metaData.getColumnType(i),
+                        metaData.getPrecision(i), metaData.getScale(i)));
+            }
+        } finally {
+            this.connectionPool.release(pooled);
+        }
+
+        if (headerNames == null) {
+            return tableColumns;
+        }
+        Map<String, DelimitedFileRecord.Column> columnsByName = new HashMap<>();
+        for (DelimitedFileRecord.Column column : tableColumns) {
+            columnsByName.put(column.getName().toLowerCase(), column);
+        }
+        List<DelimitedFileRecord.Column> columns = new ArrayList<>();
+        for (String name : headerNames) {
+            DelimitedFileRecord.Column column = columnsByName.get(name.toLowerCase());
+            if (column == null) {
+                throw new SQLException("Column '" + name + "' of the header of " + this.file + " is not a column of " + this.tableName);
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    private long loadRange(FileRange range, List<DelimitedFileRecord.Column> columns) throws SQLException {
+        long startedAt = System.currentTimeMillis();
+        PooledConnection pooled = this.connectionPool.borrow(this.serverName, this.port, this.userName, this.password);
+        boolean loaded = false;
+        DelimitedFileRecord record = null;
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+             SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(pooled.getConnection())) {
+            SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+            options.setBatchSize(this.batchSize);
+            options.setTableLock(this.tableLock);
+            options.setBulkCopyTimeout(this.timeoutSeconds);
+            bulkCopy.setBulkCopyOptions(options);
+            bulkCopy.setDestinationTableName(this.tableName);
+            for (int i = 0; i < columns.size(); i++) {
+                bulkCopy.addColumnMapping(i + 1, columns.get(i).getName());
+            }
+
+            record = new DelimitedFileRecord(channel, range, this.delimiter, columns);
+            bulkCopy.writeToServer(record);
+            loaded = true;
+        } catch (IOException ex) {
+            throw new SQLException("Could not read range " + range.getNumber() + " of " + this.file, ex);
+        } catch (SQLException | RuntimeException ex) {
+            if (record != null && record.getFailure() != null) {
+                throw record.getFailure();
+            }
+            throw new SQLException("Bulk load of range " + range.getNumber() + " of " + this.file + " into " + this.tableName
+                    + " failed: " + ex.getMessage(), ex);
+        } finally {
+            if (!loaded) {
+                //a failed bulk copy can leave the session in the middle of a load, so the connection is not reused
+                closeQuietly(pooled);
+            }
+            this.connectionPool.release(pooled);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded range {} ({} rows) into {} in {} ms", range, record.getRowCount(), this.tableName,
+                    System.currentTimeMillis() - startedAt);
+        }
+        return record.getRowCount();
+    }
+
+    private static void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.getConnection().close();
+        } catch (SQLException ex) {
+            logger.warn("Could not close bulk load connection", ex);
+        }
+    }
+
+    private static class BulkLoadThreadFactory implements ThreadFactory {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sqlserver-bulk-load-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class BulkLoadBuilder {
+        private String nestedServerName;
+        private int nestedPort;
+        private String nestedUserName;
+        private String nestedPassword;
+        private String nestedTableName;
+        private File nestedFile;
+        private char nestedDelimiter = ',';
+        private boolean nestedHeader;
+        private int nestedParallelism;
+        private int nestedBatchSize;
+        private boolean nestedTableLock = true;
+        private int nestedTimeoutSeconds;
+        private long nestedMinRangeBytes;
+        private SqlServerConnectionPool nestedConnectionPool;
+
+        public BulkLoadBuilder() {
+
+        }
+
+        public BulkLoadBuilder serverName(String serverName) {
+            this.nestedServerName = serverName;
+            return this;
+        }
+
+        public BulkLoadBuilder port(int port) {
+            this.nestedPort = port;
+            return this;
+        }
+
+        public BulkLoadBuilder userName(String userName) {
+            this.nestedUserName = userName;
+            return this;
+        }
+
+        public BulkLoadBuilder password(String password) {
+            this.nestedPassword = password;
+            return this;
+        }
+
+        /**
+         * The destination table, with its database when it's not the default database of the user: Staging.dbo.Sales
+         */
+        public BulkLoadBuilder tableName(String tableName) {
+            this.nestedTableName = tableName;
+            return this;
+        }
+
+        /**
+         * The UTF-8 delimited file to load
+         */
+        public BulkLoadBuilder file(File file) {
+            this.nestedFile = file;
+            return this;
+        }
+
+        public BulkLoadBuilder delimiter(char delimiter) {
+            this.nestedDelimiter = delimiter;
+            return this;
+        }
+
+        /**
+         * Whether the first line of the file holds the column names
+         */
+        public BulkLoadBuilder header(boolean header) {
+            this.nestedHeader = header;
+            return this;
+        }
+
+        /**
+         * The maximum number of ranges loaded at the same time, 0 uses the default of 4
+         */
+        public BulkLoadBuilder parallelism(int parallelism) {
+            this.nestedParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Rows committed at a time by each range, 0 uses the default of 10000
+         */
+        public BulkLoadBuilder batchSize(int batchSize) {
+            this.nestedBatchSize = batchSize;
+            return this;
+        }
+
+        public BulkLoadBuilder tableLock(boolean tableLock) {
+            this.nestedTableLock = tableLock;
+            return this;
+        }
+
+        /**
+         * Max time each range may take to load, 0 for no timeout
+         */
+        public BulkLoadBuilder timeoutSeconds(int timeoutSeconds) {
+            this.nestedTimeoutSeconds = timeoutSeconds;
+            return this;
+        }
+
+        BulkLoadBuilder minRangeBytes(long minRangeBytes) {
+            this.nestedMinRangeBytes = minRangeBytes;
+            return this;
+        }
+
+        BulkLoadBuilder connectionPool(SqlServerConnectionPool connectionPool) {
+            this.nestedConnectionPool = connectionPool;
+            return this;
+        }
+
+        public BulkLoad build() throws ConfigurationException {
+            BulkLoad bulkLoad = new BulkLoad();
+            //check for mandatory params
+            if (Strings.isNullOrEmpty(this.nestedServerName) || Strings.isNullOrEmpty(this.nestedUserName)
+                    || Strings.isNullOrEmpty(this.nestedPassword) || Strings.isNullOrEmpty(this.nestedTableName)
+                    || this.nestedFile == null || this.nestedPort == 0) {
+                throw new ConfigurationException("Following parameters are mandatory: serverName, port, userName, password, " +
+                        "tableName, file");
+            }
+            if (!this.nestedFile.isFile()) {
+                throw new ConfigurationException("File not found: " + this.nestedFile);
+            }
+            if (this.nestedDelimiter == '"' || this.nestedDelimiter == '\n' || this.nestedDelimiter == '\r') {
+                throw new ConfigurationException("Invalid delimiter: " + this.nestedDelimiter);
+            }
+
+            bulkLoad.serverName = this.nestedServerName;
+            bulkLoad.port = this.nestedPort;
+            bulkLoad.userName = this.nestedUserName;
+            bulkLoad.password = this.nestedPassword;
+            bulkLoad.tableName = this.nestedTableName;
+            bulkLoad.file = this.nestedFile;
+            bulkLoad.delimiter = this.nestedDelimiter;
+            bulkLoad.header = this.nestedHeader;
+            bulkLoad.parallelism = this.nestedParallelism > 0 ? this.nestedParallelism : DEFAULT_PARALLELISM;
+            bulkLoad.batchSize = this.nestedBatchSize > 0 ? this.nestedBatchSize : DEFAULT_BATCH_SIZE;
+            bulkLoad.tableLock = this.nestedTableLock;
+            bulkLoad.timeoutSeconds = Math.max(0, this.nestedTimeoutSeconds);
+            bulkLoad.minRangeBytes = this.nestedMinRangeBytes > 0 ? this.nestedMinRangeBytes : DEFAULT_MIN_RANGE_BYTES;
+            bulkLoad.connectionPool = this.nestedConnectionPool == null ? SqlServerConnectionPool.getInstance()
+                    : this.nestedConnectionPool;
+
+            return bulkLoad;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoad{" +
+                "serverName='" + serverName + '\'' +
+                ", port=" + port +
+                ", userName='" + userName + '\'' +
+                ", tableName='" + tableName + '\'' +
+                ", file=" + file +
+                ", delimiter='" + delimiter + '\'' +
+                ", header=" + header +
+                ", parallelism=" + parallelism +
+                ", batchSize=" + batchSize +
+                ", tableLock=" + tableLock +
+                ", timeoutSeconds=" + timeoutSeconds +
+                '}';
+    }
+}
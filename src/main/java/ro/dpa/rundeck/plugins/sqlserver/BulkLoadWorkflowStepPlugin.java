@@ -0,0 +1,173 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepFailureReason;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.plugins.configuration.Describable;
+import com.dtolabs.rundeck.core.plugins.configuration.Description;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.step.StepPlugin;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.params.ParamUtils;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Workflow step that loads a delimited file of the Rundeck server into a table with SQLServerBulkCopy,
+ * see {@link BulkLoad}
+ */
+@Plugin(name = BulkLoadWorkflowStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowStep)
+public class BulkLoadWorkflowStepPlugin implements StepPlugin, Describable {
+    public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.BulkLoadWorkflowStepPlugin";
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkLoadWorkflowStepPlugin.class);
+    private static final String TABLE_NAME = "tableName";
+    private static final String FILE = "file";
+    private static final String DELIMITER = "delimiter";
+    private static final String HEADER = "header";
+    private static final String PARALLELISM = "parallelism";
+    private static final String BATCH_SIZE = "batchSize";
+    private static final String TABLE_LOCK = "tableLock";
+    private static final String TAB_DELIMITER = "tab";
+    private static final int INFO_LEVEL = 2;
+
+    @Override
+    public void executeStep(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws StepException {
+        BulkLoad bulkLoad = null;
+        try {
+            bulkLoad = this.buildBulkLoad(inputParams);
+        } catch (ConfigurationException ex) {
+            logger.error("Could not configure bulk load", ex);
+            throw new StepException("Could not configure bulk load: " + ex.getMessage(), StepFailureReason.ConfigurationFailure,
+                    inputParams);
+        }
+        try {
+            long startedAt = System.currentTimeMillis();
+            long rowCount = bulkLoad.execute();
+            long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+            pluginStepContext.getLogger().log(INFO_LEVEL, "Loaded " + rowCount + " rows into "
+                    + ParamUtils.getStringValue(TABLE_NAME, inputParams) + " in " + elapsedMillis + " ms ("
+                    + rowCount * 1000 / elapsedMillis + " rows/s)");
+        } catch (ServerUnavailableException ex) {
+            logger.error("SQL Server is unreachable", ex);
+            throw new StepException(ex, SqlServerFailureReason.ServerUnavailable);
+        } catch (SQLException ex) {
+            logger.error("SQL execution error", ex);
+            throw new StepException(ex, StepFailureReason.PluginFailed);
+        } catch (InterruptedException ex) {
+            logger.error("Bulk load was interrupted.", ex);
+            throw new StepException(ex, StepFailureReason.Interrupted);
+        }
+    }
+
+    private BulkLoad buildBulkLoad(Map<String, Object> inputParams) throws ConfigurationException {
+        String file = ParamUtils.getStringValue(FILE, inputParams);
+        String tableLock = ParamUtils.getStringValue(TABLE_LOCK, inputParams);
+
+        BulkLoad.BulkLoadBuilder builder = new BulkLoad.BulkLoadBuilder();
+        builder
+                .userName(ParamUtils.getStringValue(SqlServerJobProperties.USER, inputParams))
+                .password(ParamUtils.getStringValue(SqlServerJobProperties.PASSWORD, inputParams))
+                .serverName(ParamUtils.getStringValue(SqlServerJobProperties.HOST, inputParams))
+                .port(ParamUtils.getIntValue(SqlServerJobProperties.PORT, inputParams))
+                .tableName(ParamUtils.getStringValue(TABLE_NAME, inputParams))
+                .file(file == null ? null : new File(file.trim()))
+                .delimiter(getDelimiter(ParamUtils.getStringValue(DELIMITER, inputParams)))
+                .header(Boolean.parseBoolean(ParamUtils.getStringValue(HEADER, inputParams)))
+                .parallelism(ParamUtils.getIntValue(PARALLELISM, inputParams))
+                .batchSize(ParamUtils.getIntValue(BATCH_SIZE, inputParams))
+                .tableLock(tableLock == null || Boolean.parseBoolean(tableLock))
+                .timeoutSeconds(ParamUtils.getIntValue(SqlServerJobProperties.TIMEOUT, inputParams));
+
+        return builder.build();
+    }
+
+    private static char getDelimiter(String delimiter) throws ConfigurationException {
+        if (delimiter == null || delimiter.isEmpty()) {
+            return ',';
+        }
+        if (TAB_DELIMITER.equalsIgnoreCase(delimiter) || "\\t".equals(delimiter)) {
+            return '\t';
+        }
+        if (delimiter.length() != 1) {
+            throw new ConfigurationException("The delimiter must be a single character or 'tab': " + delimiter);
+        }
+        return delimiter.charAt(0);
+    }
+
+    @Override
+    public Description getDescription() {
+        DescriptionBuilder builder = DescriptionBuilder.builder()
+                .name(SERVICE_PROVIDER_NAME)
+                .title("Bulk Load Plugin")
+                .description("Loads a delimited file into a table with SQL Server bulk copy");
+        SqlServerJobProperties.addConnectionProperties(builder)
+                .property(PropertyBuilder.builder()
+                    .string(TABLE_NAME)
+                    .title("Table")
+                    .description("The destination table, with its database if it's not the default database of the user " +
+                            "(e.g. Staging.dbo.Sales)")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(FILE)
+                    .title("File")
+                    .description("Path of the UTF-8 delimited file on the Rundeck server. Fields can be quoted with double " +
+                            "quotes, but can't contain line breaks. Empty fields are loaded as NULL")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(DELIMITER)
+                    .title("Delimiter")
+                    .description("The field delimiter, a single character or 'tab'")
+                    .defaultValue(",")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .booleanType(HEADER)
+                    .title("Header")
+                    .description("The first line holds column names, the fields are loaded into the columns with the same " +
+                            "name. Without a header, the file must have a field for each column of the table, in order")
+                    .defaultValue("false")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(PARALLELISM)
+                    .title("Parallelism")
+                    .description("Files larger than 16 MB are split into this many ranges of lines, loaded at the same time " +
+                            "on separate connections")
+                    .defaultValue("4")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(BATCH_SIZE)
+                    .title("Batch size")
+                    .description("Rows committed at a time. Batches already committed stay in the table if the load fails")
+                    .defaultValue("10000")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .booleanType(TABLE_LOCK)
+                    .title("Table lock")
+                    .description("Loads with the TABLOCK hint: minimal logging, and parallel ranges load concurrently " +
+                            "into a heap")
+                    .defaultValue("true")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(SqlServerJobProperties.TIMEOUT)
+                    .title("Timeout")
+                    .description("Max time, in seconds, each range may take to load. 0 for no timeout")
+                    .defaultValue("0")
+                    .required(false)
+                    .build());
+        return builder.build();
+    }
+}
@@ -0,0 +1,22 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * How a step detects that the job it started has finished
+ */
+public enum CompletionDetectionMode {
+    /**
+     * The step checks the job status itself, see {@link StatusQueryMode} and {@link PollStrategy}
+     */
+    POLL,
+    /**
+     * The step registers the job with the {@link JobStatusMonitor} of its server and waits to be notified.
+     * A single query per server checks all the jobs in progress. Requires SELECT permission on the msdb activity tables.
+     */
+    SHARED_MONITOR,
+    /**
+     * The step asks SQL Server to wait for the run to finish (see {@link SqlServerJobDao#waitForJobRunCompletion}),
+     * in windows of 60 seconds. Detects the end of the job in less than a second with a handful of round trips,
+     * but keeps a connection busy for each waiting step. Requires SELECT permission on the msdb activity tables.
+     */
+    LONG_POLL
+}
@@ -0,0 +1,54 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.util.Arrays;
+
+/**
+ * Enum describing the current execution status of a SQL Server job.
+ * <p>
+ * Check parameter current_execution_status from sp_help_job documentation
+ * {@link https://docs.microsoft.com/en-us/sql/relational-databases/system-stored-procedures/sp-help-job-transact-sql}
+ */
+public enum CurrentExecutionStatus {
+    Executing(1),
+    WaitingForThread(2),
+    BetweenRetries(3),
+    Idle(4),
+    Suspended(5),
+    Obsolete(6),
+    PerformingCompletionActions(7),
+    Unknown(-1);
+
+    private static final CurrentExecutionStatus[] BY_STATUS;
+
+    static {
+        int maxStatus = 0;
+        for (CurrentExecutionStatus status : CurrentExecutionStatus.values()) {
+            maxStatus = Math.max(maxStatus, status.status);
+        }
+        BY_STATUS = new CurrentExecutionStatus[maxStatus + 1];
+        Arrays.fill(BY_STATUS, CurrentExecutionStatus.Unknown);
+        for (CurrentExecutionStatus status : CurrentExecutionStatus.values()) {
+            if (status.status >= 0) {
+                BY_STATUS[status.status] = status;
+            }
+        }
+    }
+
+    private final int status;
+
+    CurrentExecutionStatus(int status) {
+        this.status = status;
+    }
+
+    public static CurrentExecutionStatus valueOf(int statusValue) {
+        //codes are small and dense, so the lookup is a bounds check and an array read, without copying values()
+        if (statusValue < 0 || statusValue >= BY_STATUS.length) {
+            return CurrentExecutionStatus.Unknown;
+        }
+        return BY_STATUS[statusValue];
+    }
+
+    public int value() {
+        return this.status;
+    }
+}
@@ -0,0 +1,331 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkRecord;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Source of a {@link com.microsoft.sqlserver.jdbc.SQLServerBulkCopy}: the lines of a {@link FileRange} of a UTF-8
+ * delimited file, read through the file channel into a reused buffer, so the memory used doesn't depend on the size
+ * of the file.
+ * <p>
+ * Fields can be quoted with double quotes, to contain the delimiter (a quote inside a quoted field is doubled), but
+ * not line breaks: the file is split into ranges on line feeds. Empty fields are loaded as NULL. The text of each field
+ * is converted to the type of its destination column.
+ * <p>
+ * The driver only lets a bulk record throw its own exceptions, which can't be created outside of it. A line that can't
+ * be read or converted stops the load with an {@link IllegalStateException}, and the reason is kept in
+ * {@link #getFailure()}.
+ */
+public class DelimitedFileRecord implements ISQLServerBulkRecord {
+    private static final int BUFFER_BYTES = 65536;
+    private static final char QUOTE = '"';
+    //a UTF-8 byte order mark is skipped at the start of the file
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final FileChannel channel;
+    private final FileRange range;
+    private final char delimiter;
+    private final List<Column> columns;
+    private final Set<Integer> columnOrdinals;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private byte[] line = new byte[1024];
+    private int lineLength;
+    private long lineStart;
+    private long position;
+    private long rowCount;
+    private SQLException failure;
+
+    /**
+     * @param channel The file, it is not closed
+     * @param range The lines to read
+     * @param delimiter The field separator
+     * @param columns The destination column of each field, in the order of the fields
+     */
+    public DelimitedFileRecord(FileChannel channel, FileRange range, char delimiter, List<Column> columns) {
+        this.channel = channel;
+        this.range = range;
+        this.delimiter = delimiter;
+        this.columns = columns;
+        Set<Integer> ordinals = new LinkedHashSet<>();
+        for (int i = 1; i <= columns.size(); i++) {
+            ordinals.add(i);
+        }
+        this.columnOrdinals = Collections.unmodifiableSet(ordinals);
+        this.position = range.getStart();
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Splits a line into its fields
+     */
+    public static List<String> parseLine(String line, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        parseLine(line, delimiter, fields, new StringBuilder());
+        return fields;
+    }
+
+    private static void parseLine(String line, char delimiter, List<String> fields, StringBuilder field) {
+        fields.clear();
+        int length = line.length();
+        int i = 0;
+        while (true) {
+            field.setLength(0);
+            if (i < length && line.charAt(i) == QUOTE) {
+                i++;
+                while (i < length) {
+                    char c = line.charAt(i++);
+                    if (c != QUOTE) {
+                        field.append(c);
+                    } else if (i < length && line.charAt(i) == QUOTE) {
+                        field.append(QUOTE);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                //anything between the closing quote and the delimiter is ignored
+                while (i < length && line.charAt(i) != delimiter) {
+                    i++;
+                }
+            } else {
+                while (i < length && line.charAt(i) != delimiter) {
+                    field.append(line.charAt(i++));
+                }
+            }
+            fields.add(field.toString());
+            if (i >= length) {
+                return;
+            }
+            //skips the delimiter
+            i++;
+        }
+    }
+
+    @Override
+    public boolean next() {
+        try {
+            while (this.readLine()) {
+                String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+                if (lineStart == 0 && !text.isEmpty() && text.charAt(0) == BYTE_ORDER_MARK) {
+                    text = text.substring(1);
+                }
+                if (text.isEmpty()) {
+                    continue;
+                }
+                parseLine(text, delimiter, fields, field);
+                if (fields.size() != columns.size()) {
+                    throw this.fail("Expected " + columns.size() + " fields, found " + fields.size(), null);
+                }
+                rowCount++;
+                return true;
+            }
+            return false;
+        } catch (IOException ex) {
+            throw this.fail("Could not read the file", ex);
+        }
+    }
+
+    @Override
+    public Object[] getRowData() {
+        Object[] row = new Object[columns.size()];
+        for (int i = 0; i < row.length; i++) {
+            Column column = columns.get(i);
+            try {
+                row[i] = column.toValue(fields.get(i));
+            } catch (IllegalArgumentException ex) {
+                throw this.fail("Invalid value '" + fields.get(i) + "' for column " + column.name, ex);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reads the next line in the line buffer, without its line feed. A carriage return before the line feed is dropped.
+     *
+     * @return false at the end of the range
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        lineStart = position - buffer.remaining();
+        boolean read = false;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                if (position >= range.getEnd()) {
+                    break;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_BYTES, range.getEnd() - position));
+                int count = channel.read(buffer, position);
+                buffer.flip();
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+            byte b = buffer.get();
+            read = true;
+            if (b == '\n') {
+                break;
+            }
+            if (lineLength == line.length) {
+                byte[] larger = new byte[line.length * 2];
+                System.arraycopy(line, 0, larger, 0, lineLength);
+                line = larger;
+            }
+            line[lineLength++] = b;
+        }
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        return read;
+    }
+
+    private IllegalStateException fail(String reason, Throwable cause) {
+        String message = reason + " at offset " + lineStart + " of range " + range.getNumber();
+        this.failure = new SQLException(message, cause);
+        return new IllegalStateException(message, cause);
+    }
+
+    /**
+     * @return The reason the load was stopped by the record, null if it wasn't
+     */
+    public SQLException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return The number of lines read so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public Set<Integer> getColumnOrdinals() {
+        return columnOrdinals;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns.get(column - 1).name;
+    }
+
+    @Override
+    public int getColumnType(int column) {
+        return columns.get(column - 1).jdbcType;
+    }
+
+    @Override
+    public int getPrecision(int column) {
+        return columns.get(column - 1).precision;
+    }
+
+    @Override
+    public int getScale(int column) {
+        return columns.get(column - 1).scale;
+    }
+
+    @Override
+    public boolean isAutoIncrement(int column) {
+        return false;
+    }
+
+    /**
+     * A destination column, as described by the result set metadata of the table
+     */
+    public static class Column {
+        private final String name;
+        private final int jdbcType;
+        private final int precision;
+        private final int scale;
+
+        public Column(String name, int jdbcType, int precision, int scale) {
+            this.name = name;
+            this.jdbcType = jdbcType;
+            this.precision = precision;
+            this.scale = scale;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Converts the text of a field to the value expected by the driver for the column type. Character and
+         * unknown types are sent as text.
+         *
+         * @throws IllegalArgumentException If the text is not a valid value of the type
+         */
+        Object toValue(String text) {
+            if (text.isEmpty()) {
+                return null;
+            }
+            switch (jdbcType) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    return "1".equals(text) || "true".equalsIgnoreCase(text);
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                    return Short.valueOf(text.trim());
+                case Types.INTEGER:
+                    return Integer.valueOf(text.trim());
+                case Types.BIGINT:
+                    return Long.valueOf(text.trim());
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return new BigDecimal(text.trim());
+                case Types.REAL:
+                    return Float.valueOf(text.trim());
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return Double.valueOf(text.trim());
+                case Types.DATE:
+                    return Date.valueOf(text.trim());
+                case Types.TIME:
+                    return Time.valueOf(text.trim());
+                case Types.TIMESTAMP:
+                    return Timestamp.valueOf(text.trim());
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                    return parseHex(text.trim());
+                default:
+                    return text;
+            }
+        }
+
+        private static byte[] parseHex(String text) {
+            String hex = text.startsWith("0x") || text.startsWith("0X") ? text.substring(2) : text;
+            if (hex.length() % 2 != 0) {
+                throw new IllegalArgumentException("Odd number of hex digits");
+            }
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+            }
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + jdbcType;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes rows as UTF-8 delimited lines to a channel. Rows are collected in a small char buffer and encoded into a
+ * reused byte buffer, which is written to the channel when full, so the memory used doesn't depend on the number of rows.
+ * <p>
+ * Fields containing the delimiter, a double quote or a line break are quoted, with the quotes doubled, as most CSV
+ * readers and spreadsheets expect. NULL values and empty strings are both written as empty fields, the file doesn't
+ * tell them apart.
+ * <p>
+ * {@link DelimitedFileRecord} only reads back the files without line breaks in their fields: it splits the file on
+ * line feeds, quoted or not, and it loads every empty field as NULL.
+ */
+public class DelimitedFileWriter implements Closeable {
+    static final int BUFFER_BYTES = 65536;
+    //rows are encoded once this many chars are pending
+    private static final int FLUSH_CHARS = 16384;
+    private static final char QUOTE = '"';
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final WritableByteChannel channel;
+    private final char delimiter;
+    private final StringBuilder pending = new StringBuilder(FLUSH_CHARS + 1024);
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long bytesWritten;
+    private long rowCount;
+    private boolean closed;
+
+    /**
+     * @param channel The channel to write to, closed with the writer
+     * @param delimiter The field separator
+     */
+    public DelimitedFileWriter(WritableByteChannel channel, char delimiter) {
+        this.channel = channel;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Writes a line of fields, null values are written as empty fields, the same as empty strings
+     */
+    public void writeRow(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                pending.append(delimiter);
+            }
+            if (values[i] != null) {
+                this.appendField(values[i]);
+            }
+        }
+        pending.append(LINE_SEPARATOR);
+        rowCount++;
+        if (pending.length() >= FLUSH_CHARS) {
+            this.encodePending(false);
+        }
+    }
+
+    private void appendField(String value) {
+        boolean quoted = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == delimiter || c == QUOTE || c == '\n' || c == '\r') {
+                quoted = true;
+                break;
+            }
+        }
+        if (!quoted) {
+            pending.append(value);
+            return;
+        }
+        pending.append(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE) {
+                pending.append(QUOTE);
+            }
+            pending.append(c);
+        }
+        pending.append(QUOTE);
+    }
+
+    /**
+     * Encodes the pending chars into the byte buffer, writing the buffer to the channel each time it fills up
+     */
+    private void encodePending(boolean endOfInput) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(pending);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isOverflow()) {
+                this.writeBuffer();
+            } else {
+                break;
+            }
+        }
+        //pending always ends with a line separator, so no surrogate pair is left half encoded
+        pending.setLength(0);
+        if (endOfInput) {
+            while (encoder.flush(buffer).isOverflow()) {
+                this.writeBuffer();
+            }
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return The bytes written to the channel so far, before compression if the channel compresses them
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes the pending rows and closes the channel
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            this.encodePending(true);
+            this.writeBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+}
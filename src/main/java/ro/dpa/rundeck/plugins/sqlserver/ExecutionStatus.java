@@ -1,20 +1,44 @@
 package ro.dpa.rundeck.plugins.sqlserver;
 
+import java.util.Arrays;
+
 /**
  * Enum describing last run outcome for a SQL Server job.
  * <p>
  * Check parameter last_run_outcome from sp_help_job documentation
  * {@link https://docs.microsoft.com/en-us/sql/relational-databases/system-stored-procedures/sp-help-job-transact-sql}
+ * <p>
+ * The same codes are used by the run_status column of msdb.dbo.sysjobhistory, which adds
+ * Retry (2) and In Progress (4).
+ * <p>
+ * The state of a job that is still running is described by {@link CurrentExecutionStatus}.
  *
  * Created by dumitru.pascu on 3/29/2017.
  */
 public enum ExecutionStatus {
     Failed(0),
     Succeeded(1),
+    Retry(2),
     Canceled(3),
-    Idle(4),
+    InProgress(4),
     Unknown(5);
 
+    private static final ExecutionStatus[] BY_STATUS;
+
+    static {
+        int maxStatus = 0;
+        for (ExecutionStatus status : ExecutionStatus.values()) {
+            maxStatus = Math.max(maxStatus, status.status);
+        }
+        BY_STATUS = new ExecutionStatus[maxStatus + 1];
+        Arrays.fill(BY_STATUS, ExecutionStatus.Unknown);
+        for (ExecutionStatus status : ExecutionStatus.values()) {
+            if (status.status >= 0) {
+                BY_STATUS[status.status] = status;
+            }
+        }
+    }
+
     private final int status;
 
     ExecutionStatus(int status) {
@@ -22,13 +46,11 @@ public enum ExecutionStatus {
     }
 
     public static ExecutionStatus valueOf(int statusValue) {
-        for (ExecutionStatus status : ExecutionStatus.values()) {
-            if (statusValue == status.status) {
-                return status;
-            }
+        //codes are small and dense, so the lookup is a bounds check and an array read, without copying values()
+        if (statusValue < 0 || statusValue >= BY_STATUS.length) {
+            return ExecutionStatus.Unknown;
         }
-
-        return ExecutionStatus.Unknown;
+        return BY_STATUS[statusValue];
     }
 
     public int value() {
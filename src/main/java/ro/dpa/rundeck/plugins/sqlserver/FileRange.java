@@ -0,0 +1,95 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of whole lines of a delimited file, loaded independently from the other ranges of the file
+ */
+public class FileRange {
+    private static final int SCAN_BUFFER_BYTES = 4096;
+
+    private final int number;
+    private final long start;
+    private final long end;
+
+    public FileRange(int number, long start, long end) {
+        this.number = number;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits the file from the given offset into ranges of about the same size, each one ending after a line feed
+     * (or at the end of the file). Ranges are never smaller than minRangeBytes, so small files give a single range.
+     *
+     * @param channel The file
+     * @param start The offset of the first line, after the header if any
+     * @param maxRanges The maximum number of ranges
+     * @param minRangeBytes The minimum size of a range
+     */
+    public static List<FileRange> split(FileChannel channel, long start, int maxRanges, long minRangeBytes) throws IOException {
+        long size = channel.size();
+        long rangeBytes = Math.max(minRangeBytes, (size - start) / Math.max(1, maxRanges) + 1);
+        List<FileRange> ranges = new ArrayList<>();
+        long rangeStart = start;
+        while (rangeStart < size) {
+            long rangeEnd = size - rangeStart <= rangeBytes ? size : nextLineStart(channel, rangeStart + rangeBytes);
+            ranges.add(new FileRange(ranges.size() + 1, rangeStart, rangeEnd));
+            rangeStart = rangeEnd;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return The offset after the first line feed found from the given offset, the size of the file if there is none
+     */
+    public static long nextLineStart(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * @return The position of the range in the file, starting from 1
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return The offset after the last byte of the range
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRange{" +
+                "number=" + number +
+                ", start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
@@ -0,0 +1,18 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Checks the job status at a fixed interval, regardless of its state.
+ */
+public class FixedPollSchedule implements PollSchedule {
+
+    private final long intervalMillis;
+
+    public FixedPollSchedule(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public long nextDelayMillis(CurrentExecutionStatus lastStatus) {
+        return intervalMillis;
+    }
+}
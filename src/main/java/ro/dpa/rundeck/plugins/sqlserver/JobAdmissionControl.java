@@ -0,0 +1,185 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import ro.dpa.rundeck.plugins.sqlserver.metrics.PluginMetrics;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.ServerMetrics;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of jobs the steps run at the same time on a SQL Server instance, so a large workflow doesn't
+ * start dozens of jobs at once and saturate the SQL Agent worker threads and msdb.
+ * <p>
+ * A step over the limit waits in a local queue, parked without polling the server, until a running step releases
+ * its place. The queue is ordered by the priority of the step, higher first, and then by arrival, so steps of the
+ * same priority are admitted in the order they asked. A freed place is handed directly to the head of the queue, a
+ * step arriving at that moment can't take it. Priorities are strict: lower priority steps only run when no higher
+ * priority step is waiting.
+ * <p>
+ * The limit is plugin-wide, set with <b>ro.dpa.rundeck.sqlserver.admission.maxRunningJobs</b>, and applies to each
+ * server separately. It is not set by default, in which case the steps are never queued.
+ */
+public class JobAdmissionControl {
+    static final int UNLIMITED = 0;
+    private static final int DEFAULT_MAX_RUNNING_JOBS =
+            Integer.getInteger("ro.dpa.rundeck.sqlserver.admission.maxRunningJobs", UNLIMITED);
+
+    private static final ConcurrentMap<String, JobAdmissionControl> SERVERS = new ConcurrentHashMap<>();
+
+    private final int maxRunningJobs;
+    private final ServerMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    //guarded by lock
+    private int runningJobs;
+    private long nextSequence;
+
+    JobAdmissionControl(int maxRunningJobs, ServerMetrics metrics) {
+        this.maxRunningJobs = maxRunningJobs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the admission control shared by all the steps that run jobs on the given server
+     */
+    public static JobAdmissionControl forServer(String host, int port) {
+        String serverName = host.toLowerCase() + ":" + port;
+        JobAdmissionControl admission = SERVERS.get(serverName);
+        if (admission == null) {
+            JobAdmissionControl created = new JobAdmissionControl(DEFAULT_MAX_RUNNING_JOBS, PluginMetrics.forServer(host, port));
+            admission = SERVERS.putIfAbsent(serverName, created);
+            if (admission == null) {
+                admission = created;
+            }
+        }
+        return admission;
+    }
+
+    /**
+     * Waits until the server runs fewer jobs than the limit and no step before this one is waiting.
+     * Each successful call must be followed by a call to {@link #release()}.
+     *
+     * @param priority Steps with a higher priority are admitted first
+     * @param timeoutMillis Max time to wait, {@link Long#MAX_VALUE} to wait until admitted
+     * @return true if the step was admitted, false if the timeout expired first
+     * @throws InterruptedException If the thread is interrupted while waiting, the step is not admitted
+     */
+    public boolean acquire(int priority, long timeoutMillis) throws InterruptedException {
+        if (maxRunningJobs == UNLIMITED) {
+            return true;
+        }
+        long queuedAt = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            if (runningJobs < maxRunningJobs && waiters.isEmpty()) {
+                runningJobs++;
+                metrics.admittedWithoutWaiting();
+                return true;
+            }
+            Waiter waiter = new Waiter(priority, nextSequence++, lock.newCondition());
+            waiters.add(waiter);
+            metrics.admissionQueued();
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                while (!waiter.admitted) {
+                    if (remainingNanos <= 0) {
+                        waiters.remove(waiter);
+                        metrics.admissionDequeued(System.nanoTime() - queuedAt, false);
+                        return false;
+                    }
+                    remainingNanos = waiter.condition.awaitNanos(remainingNanos);
+                }
+            } catch (InterruptedException ex) {
+                if (waiter.admitted) {
+                    //admitted while being interrupted, the place goes to the next step
+                    runningJobs--;
+                    this.admitWaiters();
+                } else {
+                    waiters.remove(waiter);
+                }
+                metrics.admissionDequeued(System.nanoTime() - queuedAt, false);
+                throw ex;
+            }
+            metrics.admissionDequeued(System.nanoTime() - queuedAt, true);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the place of a step admitted by {@link #acquire(int, long)}, admitting the next waiting step
+     */
+    public void release() {
+        if (maxRunningJobs == UNLIMITED) {
+            return;
+        }
+        lock.lock();
+        try {
+            runningJobs--;
+            this.admitWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void admitWaiters() {
+        while (runningJobs < maxRunningJobs && !waiters.isEmpty()) {
+            Waiter waiter = waiters.poll();
+            waiter.admitted = true;
+            runningJobs++;
+            waiter.condition.signal();
+        }
+    }
+
+    public int getMaxRunningJobs() {
+        return maxRunningJobs;
+    }
+
+    int getRunningJobs() {
+        lock.lock();
+        try {
+            return runningJobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A step waiting to be admitted, the head of the queue has the highest priority and then the lowest sequence
+     */
+    private static class Waiter implements Comparable<Waiter> {
+        private final int priority;
+        private final long sequence;
+        private final Condition condition;
+        //guarded by lock
+        private boolean admitted;
+
+        Waiter(int priority, long sequence, Condition condition) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
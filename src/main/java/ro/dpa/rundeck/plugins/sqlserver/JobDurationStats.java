@@ -0,0 +1,61 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.util.Arrays;
+
+/**
+ * How long a job usually runs, from the recent successful runs recorded in msdb.dbo.sysjobhistory.
+ * See {@link JobDurationStatsCache}.
+ */
+public class JobDurationStats {
+    private final int sampleCount;
+    private final long p10Millis;
+    private final long medianMillis;
+    private final long p90Millis;
+
+    public JobDurationStats(int sampleCount, long p10Millis, long medianMillis, long p90Millis) {
+        this.sampleCount = sampleCount;
+        this.p10Millis = p10Millis;
+        this.medianMillis = medianMillis;
+        this.p90Millis = p90Millis;
+    }
+
+    /**
+     * @param durationsMillis The durations of the runs, at least one
+     */
+    public static JobDurationStats of(long[] durationsMillis) {
+        long[] sorted = Arrays.copyOf(durationsMillis, durationsMillis.length);
+        Arrays.sort(sorted);
+        return new JobDurationStats(sorted.length, percentile(sorted, 10), percentile(sorted, 50), percentile(sorted, 90));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getP10Millis() {
+        return p10Millis;
+    }
+
+    public long getMedianMillis() {
+        return medianMillis;
+    }
+
+    public long getP90Millis() {
+        return p90Millis;
+    }
+
+    @Override
+    public String toString() {
+        return "JobDurationStats{" +
+                "sampleCount=" + sampleCount +
+                ", p10Millis=" + p10Millis +
+                ", medianMillis=" + medianMillis +
+                ", p90Millis=" + p90Millis +
+                '}';
+    }
+}
@@ -0,0 +1,157 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration statistics of the jobs of a server, computed from the latest rows of msdb.dbo.sysjobhistory and
+ * used by {@link PredictivePollSchedule}.
+ * <p>
+ * Only the successful runs are counted, grouped by the step they started at: the history doesn't record it, so
+ * it is taken as the first step that wrote a row in the run. The statistics of a job are read again once they are
+ * older than the refresh interval, so they follow the runs started in the meantime.
+ * <p>
+ * Logins without SELECT permission on msdb.dbo.sysjobhistory get no statistics.
+ */
+public class JobDurationStatsCache {
+    private static final Logger logger = LoggerFactory.getLogger(JobDurationStatsCache.class);
+
+    private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    //SQL Agent keeps 100 rows per job by default, step rows included
+    private static final int MAX_HISTORY_ROWS = 1000;
+    //fewer runs don't tell how long the job usually takes
+    static final int MIN_SAMPLES = 3;
+    private static final int PERMISSION_DENIED_ERROR = 229;
+
+    private static final ConcurrentMap<SqlServerConnectionPool.ServerKey, JobDurationStatsCache> CACHES = new ConcurrentHashMap<>();
+
+    private final String serverName;
+    private final Map<String, Entry> entriesByJobId = new HashMap<>();
+    private boolean historyTableDenied;
+
+    JobDurationStatsCache(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * Returns the cache shared by all the steps that connect to the given server with the given credentials
+     */
+    public static JobDurationStatsCache forServer(String serverName, int port, String userName, String password) {
+        SqlServerConnectionPool.ServerKey key = new SqlServerConnectionPool.ServerKey(serverName, port, userName, password);
+        JobDurationStatsCache cache = CACHES.get(key);
+        if (cache == null) {
+            JobDurationStatsCache created = new JobDurationStatsCache(serverName);
+            cache = CACHES.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the duration statistics of the runs of a job
+     *
+     * @param dao The DAO used if the statistics need to be read
+     * @param jobId
+     * @param startStepName The step the job is started at, null for the start step of the job. The runs started
+     *                      without a step name are assumed to be the most frequent ones, e.g. the scheduled runs
+     * @return The statistics, null if the job has less than {@value #MIN_SAMPLES} successful runs started at that step
+     * @throws SQLException
+     */
+    public synchronized JobDurationStats get(SqlServerJobDao dao, String jobId, String startStepName) throws SQLException {
+        if (historyTableDenied) {
+            return null;
+        }
+        Entry entry = entriesByJobId.get(jobId);
+        if (entry == null || System.currentTimeMillis() - entry.readAt >= REFRESH_INTERVAL_MILLIS) {
+            try {
+                entry = new Entry(computeStats(dao.getRecentJobHistory(jobId, MAX_HISTORY_ROWS), MAX_HISTORY_ROWS));
+            } catch (SQLException ex) {
+                if (ex.getErrorCode() != PERMISSION_DENIED_ERROR) {
+                    throw ex;
+                }
+                logger.warn("No SELECT permission on msdb.dbo.sysjobhistory for server={}, job durations can't be predicted",
+                        serverName);
+                historyTableDenied = true;
+                return null;
+            }
+            entriesByJobId.put(jobId, entry);
+            logger.debug("Read job duration statistics for server={}, job_id={}: {}", serverName, jobId, entry.statsByStartStep);
+        }
+        return startStepName == null ? entry.mostSampled : entry.statsByStartStep.get(startStepName);
+    }
+
+    /**
+     * Groups the successful runs by start step and computes their statistics
+     *
+     * @param rows History rows ordered by instance_id
+     * @param maxRows The limit used to read the rows. When it was reached, the oldest run might be incomplete
+     */
+    static Map<String, JobDurationStats> computeStats(List<JobStepHistory> rows, int maxRows) {
+        Map<String, List<Long>> durationsByStartStep = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        //the step rows of a run come before its job outcome row
+        JobStepHistory startStep = null;
+        boolean skipRun = rows.size() >= maxRows;
+        for (JobStepHistory row : rows) {
+            if (!row.isJobOutcome()) {
+                if (startStep == null || row.getStepId() < startStep.getStepId()) {
+                    startStep = row;
+                }
+                continue;
+            }
+            if (!skipRun && startStep != null && row.getRunStatus() == ExecutionStatus.Succeeded) {
+                List<Long> durations = durationsByStartStep.get(startStep.getStepName());
+                if (durations == null) {
+                    durations = new ArrayList<>();
+                    durationsByStartStep.put(startStep.getStepName(), durations);
+                }
+                durations.add(TimeUnit.SECONDS.toMillis(row.getDurationSeconds()));
+            }
+            startStep = null;
+            skipRun = false;
+        }
+
+        Map<String, JobDurationStats> stats = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<Long>> entry : durationsByStartStep.entrySet()) {
+            List<Long> durations = entry.getValue();
+            if (durations.size() < MIN_SAMPLES) {
+                continue;
+            }
+            long[] values = new long[durations.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = durations.get(i);
+            }
+            stats.put(entry.getKey(), JobDurationStats.of(values));
+        }
+        return stats;
+    }
+
+    private static class Entry {
+        private final Map<String, JobDurationStats> statsByStartStep;
+        private final JobDurationStats mostSampled;
+        private final long readAt;
+
+        Entry(Map<String, JobDurationStats> statsByStartStep) {
+            this.statsByStartStep = statsByStartStep;
+            JobDurationStats mostSampled = null;
+            for (JobDurationStats stats : statsByStartStep.values()) {
+                if (mostSampled == null || stats.getSampleCount() > mostSampled.getSampleCount()) {
+                    mostSampled = stats;
+                }
+            }
+            this.mostSampled = mostSampled;
+            this.readAt = System.currentTimeMillis();
+        }
+    }
+}
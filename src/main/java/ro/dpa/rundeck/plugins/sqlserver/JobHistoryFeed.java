@@ -0,0 +1,49 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Incremental reader state for the history of a job run. It keeps the instance_id of the last row seen,
+ * so each read only fetches the rows written since, and hands the new rows to a {@link JobProgressListener}.
+ */
+public class JobHistoryFeed {
+    private final String jobName;
+    private final JobProgressListener listener;
+    private long lastInstanceId;
+    private JobStepHistory lastFailure;
+
+    /**
+     * @param jobName The name of the job, passed to the listener
+     * @param lastInstanceId The instance_id of the last row written before the run started, see
+     *                       {@link SqlServerJobDao#getLastHistoryInstanceId(String)}
+     * @param listener
+     */
+    public JobHistoryFeed(String jobName, long lastInstanceId, JobProgressListener listener) {
+        this.jobName = jobName;
+        this.lastInstanceId = lastInstanceId;
+        this.listener = listener;
+    }
+
+    public long getLastInstanceId() {
+        return lastInstanceId;
+    }
+
+    /**
+     * The last failed step of the run, null if no step failed
+     */
+    public JobStepHistory getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Called by the DAO for each new row. Rows at or below the high-water mark are ignored.
+     */
+    public void accept(JobStepHistory history) {
+        if (history.getInstanceId() <= lastInstanceId) {
+            return;
+        }
+        lastInstanceId = history.getInstanceId();
+        if (!history.isJobOutcome() && history.getRunStatus() == ExecutionStatus.Failed) {
+            lastFailure = history;
+        }
+        listener.onStepHistory(jobName, history);
+    }
+}
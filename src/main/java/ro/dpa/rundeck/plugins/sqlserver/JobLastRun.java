@@ -0,0 +1,52 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.Timestamp;
+
+/**
+ * The last run of a SQL Server job, as recorded by SQL Agent in msdb.dbo.sysjobservers
+ */
+public class JobLastRun {
+    private final String jobId;
+    private final ExecutionStatus outcome;
+    private final Timestamp runDate;
+    private final int durationSeconds;
+
+    /**
+     * @param jobId
+     * @param outcome The outcome of the last run, {@link ExecutionStatus#Unknown} if the job never ran
+     * @param runDate When the last run started, in server time. Null if the job never ran
+     * @param durationSeconds How long the last run took
+     */
+    public JobLastRun(String jobId, ExecutionStatus outcome, Timestamp runDate, int durationSeconds) {
+        this.jobId = jobId;
+        this.outcome = outcome;
+        this.runDate = runDate;
+        this.durationSeconds = durationSeconds;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public ExecutionStatus getOutcome() {
+        return outcome;
+    }
+
+    public Timestamp getRunDate() {
+        return runDate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "JobLastRun{" +
+                "jobId='" + jobId + '\'' +
+                ", outcome=" + outcome +
+                ", runDate=" + runDate +
+                ", durationSeconds=" + durationSeconds +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Definition of a SQL Server job, as read from msdb.dbo.sysjobs and msdb.dbo.sysjobsteps
+ */
+public class JobMetadata {
+    private final String jobId;
+    private final String name;
+    private final Timestamp dateModified;
+    private final List<String> stepNames;
+
+    /**
+     * @param jobId The job_id of the job
+     * @param name The job name
+     * @param dateModified When the job was last modified, null if not known
+     * @param stepNames The step names, ordered by step_id. Null if the steps are not known
+     */
+    public JobMetadata(String jobId, String name, Timestamp dateModified, List<String> stepNames) {
+        this.jobId = jobId;
+        this.name = name;
+        this.dateModified = dateModified;
+        this.stepNames = stepNames == null ? null : Collections.unmodifiableList(stepNames);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Timestamp getDateModified() {
+        return dateModified;
+    }
+
+    /**
+     * @return The step names ordered by step_id, or null if the steps are not known
+     */
+    public List<String> getStepNames() {
+        return stepNames;
+    }
+
+    public boolean areStepsKnown() {
+        return stepNames != null;
+    }
+
+    /**
+     * Checks if the job has a step with the given name. Step names are compared case insensitive,
+     * like SQL Server does with the default msdb collation.
+     */
+    public boolean hasStep(String stepName) {
+        if (stepNames == null) {
+            return false;
+        }
+        for (String name : stepNames) {
+            if (name.equalsIgnoreCase(stepName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "JobMetadata{" +
+                "jobId='" + jobId + '\'' +
+                ", name='" + name + '\'' +
+                ", dateModified=" + dateModified +
+                ", stepNames=" + stepNames +
+                '}';
+    }
+}
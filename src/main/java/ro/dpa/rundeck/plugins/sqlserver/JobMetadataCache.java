@@ -0,0 +1,198 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory copy of the job definitions of a server, used to resolve job names to job_id and to validate
+ * the step names before starting a job.
+ * <p>
+ * Entries are served from memory while the cache is fresh. Once it is older than the refresh interval,
+ * only the jobs modified since the previous refresh are read again (msdb.dbo.sysjobs.date_modified changes
+ * whenever a job or one of its steps is modified). A name that is not in the cache triggers a full refresh,
+ * which also drops the deleted jobs.
+ * <p>
+ * Logins without SELECT permission on msdb.dbo.sysjobs / sysjobsteps fall back to resolving each job
+ * with sp_help_job, in which case step names can't be validated before starting the job.
+ * <p>
+ * The cache is never locked while msdb is read.
+ */
+public class JobMetadataCache {
+    private static final Logger logger = LoggerFactory.getLogger(JobMetadataCache.class);
+
+    private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int PERMISSION_DENIED_ERROR = 229;
+    private static final Timestamp ALL_JOBS = new Timestamp(0);
+
+    private static final ConcurrentMap<SqlServerConnectionPool.ServerKey, JobMetadataCache> CACHES = new ConcurrentHashMap<>();
+
+    private final String serverName;
+    private final Map<String, JobMetadata> jobsByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, JobMetadata> jobsById = new HashMap<>();
+    private Timestamp lastDateModified;
+    private long lastRefreshAt;
+    private boolean metadataTablesDenied;
+    //sequence numbers of the reads of the job tables. All the fields are guarded by the cache monitor
+    private long lastReadStarted;
+    private long lastReadApplied;
+
+    JobMetadataCache(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * Returns the cache shared by all the steps that connect to the given server with the given credentials
+     */
+    public static JobMetadataCache forServer(String serverName, int port, String userName, String password) {
+        SqlServerConnectionPool.ServerKey key = new SqlServerConnectionPool.ServerKey(serverName, port, userName, password);
+        JobMetadataCache cache = CACHES.get(key);
+        if (cache == null) {
+            JobMetadataCache created = new JobMetadataCache(serverName);
+            cache = CACHES.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Resolves a job by name
+     *
+     * @param dao The DAO used if the cache needs to be refreshed
+     * @param jobName
+     * @return The job definition, or null if the job doesn't exist
+     * @throws SQLException
+     */
+    public JobMetadata resolve(SqlServerJobDao dao, String jobName) throws SQLException {
+        Timestamp modifiedSince;
+        boolean denied;
+        synchronized (this) {
+            JobMetadata job = jobsByName.get(jobName);
+            denied = metadataTablesDenied;
+            if (job != null && (denied || System.currentTimeMillis() - lastRefreshAt < REFRESH_INTERVAL_MILLIS)) {
+                return job;
+            }
+            modifiedSince = job == null ? ALL_JOBS : lastDateModified;
+        }
+
+        if (!denied) {
+            try {
+                this.refresh(dao, modifiedSince);
+                synchronized (this) {
+                    return jobsByName.get(jobName);
+                }
+            } catch (SQLException ex) {
+                if (ex.getErrorCode() != PERMISSION_DENIED_ERROR) {
+                    throw ex;
+                }
+                logger.warn("No SELECT permission on msdb job tables for server={}, jobs will be resolved with sp_help_job " +
+                        "and step names won't be validated", serverName);
+                synchronized (this) {
+                    metadataTablesDenied = true;
+                }
+            }
+        }
+        return this.resolveWithHelpJob(dao, jobName);
+    }
+
+    /**
+     * Returns all the jobs of the server. Once the cache is loaded, only the jobs modified since the previous
+     * refresh are read, so listing the jobs of a server with many jobs stays cheap.
+     * Deleted jobs are only dropped by a full refresh, the caller should check the jobs still exist.
+     *
+     * @param dao The DAO used to refresh the cache
+     * @return The jobs, ordered by name
+     * @throws SQLException Also when the login can't read the msdb job tables
+     */
+    public List<JobMetadata> getJobs(SqlServerJobDao dao) throws SQLException {
+        Timestamp modifiedSince;
+        synchronized (this) {
+            modifiedSince = jobsByName.isEmpty() || metadataTablesDenied ? ALL_JOBS : lastDateModified;
+        }
+        this.refresh(dao, modifiedSince);
+        synchronized (this) {
+            metadataTablesDenied = false;
+            return new ArrayList<>(jobsByName.values());
+        }
+    }
+
+    /**
+     * Drops a job from the cache, e.g. after a failed start, so its definition is read again on next use
+     */
+    public synchronized void invalidate(String jobName) {
+        JobMetadata job = jobsByName.remove(jobName);
+        if (job != null) {
+            jobsById.remove(job.getJobId());
+        }
+    }
+
+    /**
+     * Reads the job tables without holding the cache, so a slow or unreachable server doesn't block the steps that
+     * resolve cached jobs. The read is only applied if no read started after it was applied first.
+     */
+    private void refresh(SqlServerJobDao dao, Timestamp modifiedSince) throws SQLException {
+        boolean fullRefresh = modifiedSince == ALL_JOBS || modifiedSince == null;
+        long read;
+        synchronized (this) {
+            read = ++lastReadStarted;
+        }
+        List<JobMetadata> jobs = dao.getJobMetadata(fullRefresh ? ALL_JOBS : modifiedSince);
+
+        synchronized (this) {
+            if (read < lastReadApplied) {
+                logger.debug("Dropped job metadata read for server={}, a later read was applied first", serverName);
+                return;
+            }
+            lastReadApplied = read;
+            if (fullRefresh) {
+                jobsByName.clear();
+                jobsById.clear();
+            }
+
+            for (JobMetadata job : jobs) {
+                JobMetadata previous = jobsById.put(job.getJobId(), job);
+                if (previous != null) {
+                    //the job might have been renamed
+                    jobsByName.remove(previous.getName());
+                }
+                jobsByName.put(job.getName(), job);
+                if (lastDateModified == null || job.getDateModified().after(lastDateModified)) {
+                    lastDateModified = job.getDateModified();
+                }
+            }
+            lastRefreshAt = System.currentTimeMillis();
+        }
+        logger.debug("Refreshed job metadata for server={}: {} jobs read, full refresh={}", serverName, jobs.size(), fullRefresh);
+    }
+
+    private JobMetadata resolveWithHelpJob(SqlServerJobDao dao, String jobName) throws SQLException {
+        synchronized (this) {
+            JobMetadata job = jobsByName.get(jobName);
+            if (job != null) {
+                return job;
+            }
+        }
+        String jobId = dao.getJobId(jobName);
+        if (jobId == null) {
+            return null;
+        }
+        JobMetadata job = new JobMetadata(jobId, jobName, null, null);
+        synchronized (this) {
+            jobsByName.put(jobName, job);
+            jobsById.put(jobId, job);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,14 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Receives the progress of a running SQL Server job, as SQL Agent records it in msdb.dbo.sysjobhistory
+ */
+public interface JobProgressListener {
+    /**
+     * Called once for each new history row of the job, in the order the rows were written
+     *
+     * @param jobName The name of the job
+     * @param history The step outcome
+     */
+    void onStepHistory(String jobName, JobStepHistory history);
+}
@@ -0,0 +1,85 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.Timestamp;
+
+/**
+ * Durable record of a job run started by the plugin, see {@link JobRunStateStore}
+ */
+public class JobRunState {
+    private final String serverName;
+    private final int port;
+    private final String jobName;
+    private final String jobId;
+    private final Timestamp requestedAfter;
+    private final long startedAtMillis;
+    private final long lastHistoryInstanceId;
+    private final String executionId;
+
+    /**
+     * @param serverName
+     * @param port
+     * @param jobName
+     * @param jobId The job_id of the job that was started
+     * @param requestedAfter Server time captured before starting the job, null if the run is not tracked
+     * @param startedAtMillis Local time when the job was started
+     * @param lastHistoryInstanceId The last history row written before the run, 0 if not known
+     * @param executionId The Rundeck execution that started the run, null if not known
+     */
+    public JobRunState(String serverName, int port, String jobName, String jobId, Timestamp requestedAfter,
+                       long startedAtMillis, long lastHistoryInstanceId, String executionId) {
+        this.serverName = serverName;
+        this.port = port;
+        this.jobName = jobName;
+        this.jobId = jobId;
+        this.requestedAfter = requestedAfter;
+        this.startedAtMillis = startedAtMillis;
+        this.lastHistoryInstanceId = lastHistoryInstanceId;
+        this.executionId = executionId;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public Timestamp getRequestedAfter() {
+        return requestedAfter;
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public long getLastHistoryInstanceId() {
+        return lastHistoryInstanceId;
+    }
+
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    @Override
+    public String toString() {
+        return "JobRunState{" +
+                "serverName='" + serverName + '\'' +
+                ", port=" + port +
+                ", jobName='" + jobName + '\'' +
+                ", jobId='" + jobId + '\'' +
+                ", requestedAfter=" + requestedAfter +
+                ", startedAtMillis=" + startedAtMillis +
+                ", lastHistoryInstanceId=" + lastHistoryInstanceId +
+                ", executionId='" + executionId + '\'' +
+                '}';
+    }
+}
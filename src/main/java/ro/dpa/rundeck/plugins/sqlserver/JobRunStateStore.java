@@ -0,0 +1,149 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+/**
+ * Keeps a small properties file for each job run started by the plugin, until the run is seen finished. A step
+ * executed again while its run is still going (Rundeck restarted, step or job retried) attaches to that run instead
+ * of starting the job again, see {@link SqlServerJob#execute()}.
+ * <p>
+ * The files are kept in the directory given by the <b>ro.dpa.rundeck.sqlserver.stateDir</b> system property,
+ * by default sqlserver-plugin/runs in the Rundeck var dir (${rdeck.base}/var). Without either, runs are not recorded.
+ * Failing to write a record never fails the step, the run is only not recoverable.
+ */
+public class JobRunStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(JobRunStateStore.class);
+
+    private static final String STATE_DIR_PROPERTY = "ro.dpa.rundeck.sqlserver.stateDir";
+    private static final String RUNDECK_BASE_PROPERTY = "rdeck.base";
+    private static final String FILE_SUFFIX = ".properties";
+
+    private static final String SERVER_NAME = "serverName";
+    private static final String PORT = "port";
+    private static final String JOB_NAME = "jobName";
+    private static final String JOB_ID = "jobId";
+    private static final String REQUESTED_AFTER = "requestedAfter";
+    private static final String STARTED_AT = "startedAt";
+    private static final String LAST_HISTORY_INSTANCE_ID = "lastHistoryInstanceId";
+    private static final String EXECUTION_ID = "executionId";
+
+    private static final JobRunStateStore DEFAULT = createDefault();
+
+    private final File directory;
+
+    public JobRunStateStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The store in the configured directory, null if no directory is configured
+     */
+    public static JobRunStateStore getDefault() {
+        return DEFAULT;
+    }
+
+    private static JobRunStateStore createDefault() {
+        String stateDir = System.getProperty(STATE_DIR_PROPERTY);
+        if (stateDir != null) {
+            return new JobRunStateStore(new File(stateDir));
+        }
+        String rundeckBase = System.getProperty(RUNDECK_BASE_PROPERTY);
+        if (rundeckBase != null) {
+            return new JobRunStateStore(new File(rundeckBase, "var" + File.separator + "sqlserver-plugin" + File.separator + "runs"));
+        }
+        logger.info("Neither {} nor {} is set, job runs are not recorded", STATE_DIR_PROPERTY, RUNDECK_BASE_PROPERTY);
+        return null;
+    }
+
+    /**
+     * @return The recorded run of the job, null if there is none or it can't be read
+     */
+    public JobRunState load(String serverName, int port, String jobName) {
+        File file = this.getFile(serverName, port, jobName);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            String requestedAfter = properties.getProperty(REQUESTED_AFTER);
+            return new JobRunState(properties.getProperty(SERVER_NAME), Integer.parseInt(properties.getProperty(PORT)),
+                    properties.getProperty(JOB_NAME), properties.getProperty(JOB_ID),
+                    requestedAfter == null ? null : new Timestamp(Long.parseLong(requestedAfter)),
+                    Long.parseLong(properties.getProperty(STARTED_AT)),
+                    Long.parseLong(properties.getProperty(LAST_HISTORY_INSTANCE_ID, "0")),
+                    properties.getProperty(EXECUTION_ID));
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Ignoring unreadable job run record {}", file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Records the run, replacing the previous record of the job. The file is written next to the record and then
+     * moved over it, so a crash never leaves a partial record.
+     */
+    public void save(JobRunState state) {
+        Properties properties = new Properties();
+        properties.setProperty(SERVER_NAME, state.getServerName());
+        properties.setProperty(PORT, String.valueOf(state.getPort()));
+        properties.setProperty(JOB_NAME, state.getJobName());
+        properties.setProperty(JOB_ID, state.getJobId());
+        if (state.getRequestedAfter() != null) {
+            properties.setProperty(REQUESTED_AFTER, String.valueOf(state.getRequestedAfter().getTime()));
+        }
+        properties.setProperty(STARTED_AT, String.valueOf(state.getStartedAtMillis()));
+        properties.setProperty(LAST_HISTORY_INSTANCE_ID, String.valueOf(state.getLastHistoryInstanceId()));
+        if (state.getExecutionId() != null) {
+            properties.setProperty(EXECUTION_ID, state.getExecutionId());
+        }
+
+        File file = this.getFile(state.getServerName(), state.getPort(), state.getJobName());
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+            File tempFile = File.createTempFile("run", ".tmp", directory);
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                properties.store(out, "SQL Server job run started by Rundeck");
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.warn("Could not record the run of job with name='{}' in {}, it can't be reattached", state.getJobName(),
+                    file, ex);
+        }
+    }
+
+    /**
+     * Removes the record of the job, once its run is finished
+     */
+    public void remove(String serverName, int port, String jobName) {
+        File file = this.getFile(serverName, port, jobName);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Could not remove job run record {}", file);
+        }
+    }
+
+    private File getFile(String serverName, int port, String jobName) {
+        try {
+            return new File(directory, URLEncoder.encode(serverName.toLowerCase() + ":" + port + ":" + jobName, "UTF-8") + FILE_SUFFIX);
+        } catch (UnsupportedEncodingException ex) {
+            //UTF-8 is always supported
+            throw new IllegalStateException(ex);
+        }
+    }
+}
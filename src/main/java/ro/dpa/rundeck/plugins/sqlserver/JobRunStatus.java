@@ -0,0 +1,84 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.Timestamp;
+
+/**
+ * Snapshot of a single run of a SQL Server job: its current state, its outcome once it finished
+ * and the timestamps recorded by SQL Agent in msdb.dbo.sysjobactivity.
+ */
+public class JobRunStatus {
+    //statuses without outcome and timestamps are immutable, so a single instance per state is shared by all the checks
+    private static final JobRunStatus[] UNFINISHED;
+
+    static {
+        CurrentExecutionStatus[] states = CurrentExecutionStatus.values();
+        UNFINISHED = new JobRunStatus[states.length];
+        for (CurrentExecutionStatus state : states) {
+            UNFINISHED[state.ordinal()] = new JobRunStatus(state, null, null, null, null);
+        }
+    }
+
+    private final CurrentExecutionStatus currentStatus;
+    private final ExecutionStatus outcome;
+    private final Timestamp requestedDate;
+    private final Timestamp startDate;
+    private final Timestamp stopDate;
+
+    /**
+     * @param currentStatus The state of the run
+     * @param outcome The outcome of the run, null while the run is not finished
+     * @param requestedDate When the run was requested (sp_start_job), null if not known
+     * @param startDate When the run started executing, null if not known
+     * @param stopDate When the run stopped executing, null if not known
+     */
+    public JobRunStatus(CurrentExecutionStatus currentStatus, ExecutionStatus outcome, Timestamp requestedDate,
+                        Timestamp startDate, Timestamp stopDate) {
+        this.currentStatus = currentStatus;
+        this.outcome = outcome;
+        this.requestedDate = requestedDate;
+        this.startDate = startDate;
+        this.stopDate = stopDate;
+    }
+
+    /**
+     * @return The shared status of a run in the given state, for checks that don't read the run timestamps
+     */
+    public static JobRunStatus unfinished(CurrentExecutionStatus currentStatus) {
+        return UNFINISHED[currentStatus.ordinal()];
+    }
+
+    public boolean isFinished() {
+        return outcome != null;
+    }
+
+    public CurrentExecutionStatus getCurrentStatus() {
+        return currentStatus;
+    }
+
+    public ExecutionStatus getOutcome() {
+        return outcome;
+    }
+
+    public Timestamp getRequestedDate() {
+        return requestedDate;
+    }
+
+    public Timestamp getStartDate() {
+        return startDate;
+    }
+
+    public Timestamp getStopDate() {
+        return stopDate;
+    }
+
+    @Override
+    public String toString() {
+        return "JobRunStatus{" +
+                "currentStatus=" + currentStatus +
+                ", outcome=" + outcome +
+                ", requestedDate=" + requestedDate +
+                ", startDate=" + startDate +
+                ", stopDate=" + stopDate +
+                '}';
+    }
+}
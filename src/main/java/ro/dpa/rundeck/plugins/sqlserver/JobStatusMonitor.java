@@ -0,0 +1,212 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches all the jobs started by this Rundeck instance on a server.
+ * <p>
+ * Steps register the run they started and wait on the returned future, without holding a connection or polling
+ * themselves. On every tick, the monitor checks all the registered runs of the server with a single query
+ * (see {@link SqlServerJobDao#getLatestJobRunStatuses}) and completes the futures of the runs that finished.
+ * The monitor only ticks while it has registered runs.
+ * <p>
+ * The tick interval defaults to 1 second and can be changed with the
+ * <b>ro.dpa.rundeck.sqlserver.monitor.intervalMillis</b> system property.
+ */
+public class JobStatusMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(JobStatusMonitor.class);
+
+    private static final long TICK_INTERVAL_MILLIS = Long.getLong("ro.dpa.rundeck.sqlserver.monitor.intervalMillis", 1000);
+    //after this many failed ticks in a row, the waiting steps are failed
+    private static final int MAX_CONSECUTIVE_FAILURES = 5;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sqlserver-status-monitor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final ConcurrentMap<SqlServerConnectionPool.ServerKey, JobStatusMonitor> MONITORS = new ConcurrentHashMap<>();
+
+    private final String serverName;
+    private final int port;
+    private final String userName;
+    private final String password;
+    private final SqlServerJobDaoFactory daoFactory;
+    private final ScheduledExecutorService scheduler;
+    private final long tickIntervalMillis;
+    private final Set<Waiter> waiters = Collections.newSetFromMap(new ConcurrentHashMap<Waiter, Boolean>());
+    private ScheduledFuture<?> tickTask;
+    //only accessed from tick(), which never runs concurrently for the same monitor
+    private int consecutiveFailures;
+    //local time of the last tick that read the statuses successfully
+    private volatile long lastCheckedAtMillis;
+
+    JobStatusMonitor(String serverName, int port, String userName, String password, SqlServerJobDaoFactory daoFactory,
+                     ScheduledExecutorService scheduler, long tickIntervalMillis) {
+        this.serverName = serverName;
+        this.port = port;
+        this.userName = userName;
+        this.password = password;
+        this.daoFactory = daoFactory;
+        this.scheduler = scheduler;
+        this.tickIntervalMillis = tickIntervalMillis;
+    }
+
+    /**
+     * Returns the monitor shared by all the steps that connect to the given server with the given credentials
+     */
+    public static JobStatusMonitor forServer(String serverName, int port, String userName, String password) {
+        return forServer(serverName, port, userName, password, SqlServerJobDaoFactory.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #forServer(String, int, String, String)}, the factory is only used if the monitor is created
+     */
+    static JobStatusMonitor forServer(String serverName, int port, String userName, String password,
+                                      SqlServerJobDaoFactory daoFactory) {
+        SqlServerConnectionPool.ServerKey key = new SqlServerConnectionPool.ServerKey(serverName, port, userName, password);
+        JobStatusMonitor monitor = MONITORS.get(key);
+        if (monitor == null) {
+            JobStatusMonitor created = new JobStatusMonitor(serverName, port, userName, password,
+                    daoFactory, SCHEDULER, TICK_INTERVAL_MILLIS);
+            monitor = MONITORS.putIfAbsent(key, created);
+            if (monitor == null) {
+                monitor = created;
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * Starts watching a run of a job.
+     *
+     * @param jobId
+     * @param requestedAfter Server time captured before the job was started
+     * @return Future completed with the status of the run once it finishes. Cancelling it stops the watch.
+     */
+    public ListenableFuture<JobRunStatus> register(String jobId, Timestamp requestedAfter) {
+        Waiter waiter = new Waiter(jobId, requestedAfter);
+        waiters.add(waiter);
+        this.ensureScheduled();
+        return waiter.future;
+    }
+
+    int getWaiterCount() {
+        return waiters.size();
+    }
+
+    /**
+     * @return When the statuses of the registered runs were last read successfully, 0 if they never were
+     */
+    long getLastCheckedAtMillis() {
+        return lastCheckedAtMillis;
+    }
+
+    void tick() {
+        List<Waiter> pending = new ArrayList<>();
+        for (Waiter waiter : waiters) {
+            if (waiter.future.isDone()) {
+                //cancelled by the waiting step
+                waiters.remove(waiter);
+            } else {
+                pending.add(waiter);
+            }
+        }
+        if (pending.isEmpty()) {
+            this.stopIfIdle();
+            return;
+        }
+
+        Set<String> jobIds = new LinkedHashSet<>();
+        Timestamp oldestRequest = null;
+        for (Waiter waiter : pending) {
+            jobIds.add(waiter.jobId);
+            if (oldestRequest == null || waiter.requestedAfter.before(oldestRequest)) {
+                oldestRequest = waiter.requestedAfter;
+            }
+        }
+
+        Map<String, JobRunStatus> statuses;
+        try (SqlServerJobDao dao = daoFactory.create(serverName, port, userName, password)) {
+            statuses = dao.getLatestJobRunStatuses(jobIds, oldestRequest);
+            consecutiveFailures = 0;
+            lastCheckedAtMillis = System.currentTimeMillis();
+        } catch (SQLException ex) {
+            consecutiveFailures++;
+            logger.warn("Could not check the status of {} jobs on server={} ({} consecutive failures)",
+                    jobIds.size(), serverName, consecutiveFailures, ex);
+            if (consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+                for (Waiter waiter : pending) {
+                    waiter.future.setException(ex);
+                    waiters.remove(waiter);
+                }
+            }
+            return;
+        }
+
+        for (Waiter waiter : pending) {
+            JobRunStatus status = statuses.get(waiter.jobId);
+            //the run of another step, requested before this one, is ignored
+            if (status != null && status.isFinished() && !status.getRequestedDate().before(waiter.requestedAfter)) {
+                waiter.future.set(status);
+                waiters.remove(waiter);
+            }
+        }
+    }
+
+    private synchronized void ensureScheduled() {
+        if (tickTask == null) {
+            tickTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        tick();
+                    } catch (RuntimeException ex) {
+                        //an exception would cancel the scheduled task, leaving the steps waiting forever
+                        logger.error("Unexpected error while monitoring jobs on server={}", serverName, ex);
+                    }
+                }
+            }, tickIntervalMillis, tickIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopIfIdle() {
+        if (waiters.isEmpty() && tickTask != null) {
+            tickTask.cancel(false);
+            tickTask = null;
+        }
+    }
+
+    private static class Waiter {
+        private final String jobId;
+        private final Timestamp requestedAfter;
+        private final SettableFuture<JobRunStatus> future = SettableFuture.create();
+
+        Waiter(String jobId, Timestamp requestedAfter) {
+            this.jobId = jobId;
+            this.requestedAfter = requestedAfter;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * A row of msdb.dbo.sysjobhistory: the outcome of a job step, or of the whole job for step 0.
+ */
+public class JobStepHistory {
+    private final long instanceId;
+    private final int stepId;
+    private final String stepName;
+    private final ExecutionStatus runStatus;
+    private final int durationSeconds;
+    private final String message;
+
+    /**
+     * @param instanceId The instance_id of the row, increasing with each row written by SQL Agent
+     * @param stepId The step_id, 0 for the job outcome
+     * @param stepName The step_name, "(Job outcome)" for the job outcome
+     * @param runStatus The outcome of the step
+     * @param durationSeconds How long the step ran
+     * @param message The message recorded by SQL Agent
+     */
+    public JobStepHistory(long instanceId, int stepId, String stepName, ExecutionStatus runStatus, int durationSeconds,
+                          String message) {
+        this.instanceId = instanceId;
+        this.stepId = stepId;
+        this.stepName = stepName;
+        this.runStatus = runStatus;
+        this.durationSeconds = durationSeconds;
+        this.message = message;
+    }
+
+    public boolean isJobOutcome() {
+        return stepId == 0;
+    }
+
+    public long getInstanceId() {
+        return instanceId;
+    }
+
+    public int getStepId() {
+        return stepId;
+    }
+
+    public String getStepName() {
+        return stepName;
+    }
+
+    public ExecutionStatus getRunStatus() {
+        return runStatus;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "JobStepHistory{" +
+                "instanceId=" + instanceId +
+                ", stepId=" + stepId +
+                ", stepName='" + stepName + '\'' +
+                ", runStatus=" + runStatus +
+                ", durationSeconds=" + durationSeconds +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
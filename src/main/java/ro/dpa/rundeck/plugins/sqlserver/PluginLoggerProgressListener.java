@@ -0,0 +1,105 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.plugins.PluginLogger;
+
+/**
+ * Writes the progress and step output of SQL Agent jobs, the messages of SSIS packages and the output of T-SQL scripts
+ * to the Rundeck execution log of the step
+ */
+class PluginLoggerProgressListener implements JobProgressListener, StepOutputListener, SsisEventMessageListener,
+        TsqlScriptListener {
+    private static final String COLUMN_SEPARATOR = " | ";
+    private static final String NULL_VALUE = "NULL";
+
+    //log levels of the Rundeck execution log
+    private static final int ERROR_LEVEL = 0;
+    private static final int WARN_LEVEL = 1;
+    private static final int INFO_LEVEL = 2;
+    private static final int VERBOSE_LEVEL = 3;
+
+    private final PluginLogger pluginLogger;
+
+    PluginLoggerProgressListener(PluginLogger pluginLogger) {
+        this.pluginLogger = pluginLogger;
+    }
+
+    @Override
+    public void onStepHistory(String jobName, JobStepHistory history) {
+        StringBuilder line = new StringBuilder("[").append(jobName).append("] ");
+        if (history.isJobOutcome()) {
+            line.append("Job");
+        } else {
+            line.append("Step ").append(history.getStepId()).append(" '").append(history.getStepName()).append('\'');
+        }
+        line.append(' ').append(history.getRunStatus())
+                .append(" in ").append(formatDuration(history.getDurationSeconds()));
+        if (history.getMessage() != null) {
+            line.append(": ").append(history.getMessage());
+        }
+
+        pluginLogger.log(levelOf(history.getRunStatus()), line.toString());
+    }
+
+    @Override
+    public void onStepOutputLine(String jobName, int stepId, String stepName, String line) {
+        pluginLogger.log(INFO_LEVEL, "[" + jobName + "] Step " + stepId + " '" + stepName + "' output: " + line);
+    }
+
+    @Override
+    public void onEventMessage(String packageName, SsisEventMessage message) {
+        int level;
+        if (message.isError()) {
+            level = ERROR_LEVEL;
+        } else if (message.getMessageType() == SsisEventMessage.WARNING) {
+            level = WARN_LEVEL;
+        } else if (message.getMessageType() == SsisEventMessage.PROGRESS) {
+            level = VERBOSE_LEVEL;
+        } else {
+            level = INFO_LEVEL;
+        }
+
+        pluginLogger.log(level, "[" + packageName + "] " + message.getSourceName() + ": " + message.getMessage());
+    }
+
+    @Override
+    public void onResultColumns(String scriptName, int batchNumber, String[] columnNames) {
+        this.logRow(scriptName, batchNumber, columnNames);
+    }
+
+    @Override
+    public void onResultRow(String scriptName, int batchNumber, String[] values) {
+        this.logRow(scriptName, batchNumber, values);
+    }
+
+    @Override
+    public void onScriptMessage(String scriptName, int batchNumber, String message) {
+        pluginLogger.log(INFO_LEVEL, "[" + scriptName + ":" + batchNumber + "] " + message);
+    }
+
+    private void logRow(String scriptName, int batchNumber, String[] values) {
+        StringBuilder line = new StringBuilder("[").append(scriptName).append(':').append(batchNumber).append("] ");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(COLUMN_SEPARATOR);
+            }
+            line.append(values[i] == null ? NULL_VALUE : values[i]);
+        }
+        pluginLogger.log(INFO_LEVEL, line.toString());
+    }
+
+    private static int levelOf(ExecutionStatus status) {
+        switch (status) {
+            case Failed:
+                return ERROR_LEVEL;
+            case Retry:
+            case Canceled:
+                return WARN_LEVEL;
+            default:
+                return INFO_LEVEL;
+        }
+    }
+
+    private static String formatDuration(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
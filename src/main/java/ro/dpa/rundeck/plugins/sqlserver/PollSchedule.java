@@ -0,0 +1,18 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Decides how long to wait between two status checks of a running SQL Server job.
+ * <p>
+ * A schedule is stateful and is used for a single job execution, new instances are created
+ * through {@link PollStrategy#newSchedule(long)}.
+ */
+public interface PollSchedule {
+
+    /**
+     * Returns the delay before the next status check
+     *
+     * @param lastStatus The status returned by the previous check, or null before the first check
+     * @return The delay in milliseconds
+     */
+    long nextDelayMillis(CurrentExecutionStatus lastStatus);
+}
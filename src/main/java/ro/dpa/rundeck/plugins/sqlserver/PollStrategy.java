@@ -0,0 +1,76 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * The available strategies for scheduling the status checks of a running job
+ */
+public enum PollStrategy {
+    /**
+     * Checks the status every 5 seconds
+     */
+    FIXED {
+        @Override
+        public PollSchedule newSchedule(long maxIntervalMillis) {
+            return new FixedPollSchedule(FIXED_INTERVAL_MILLIS);
+        }
+    },
+    /**
+     * Fast first check, followed by a state aware exponential backoff. See {@link BackoffPollSchedule}
+     */
+    ADAPTIVE {
+        @Override
+        public PollSchedule newSchedule(long maxIntervalMillis) {
+            return new BackoffPollSchedule(maxIntervalMillis);
+        }
+    },
+    /**
+     * Checks rarely until the job is expected to finish, and often around that moment. The expected duration comes
+     * from the recent runs of the job, see {@link PredictivePollSchedule}. Same as {@link #ADAPTIVE} for the jobs
+     * without enough history
+     */
+    PREDICTIVE {
+        @Override
+        public PollSchedule newSchedule(long maxIntervalMillis) {
+            return new BackoffPollSchedule(maxIntervalMillis);
+        }
+
+        @Override
+        public PollSchedule newSchedule(long maxIntervalMillis, JobDurationStats expectedDuration, long startedAtMillis) {
+            if (expectedDuration == null) {
+                return this.newSchedule(maxIntervalMillis);
+            }
+            return new PredictivePollSchedule(expectedDuration, startedAtMillis, maxIntervalMillis);
+        }
+
+        @Override
+        public boolean usesJobHistory() {
+            return true;
+        }
+    };
+
+    private static final long FIXED_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Creates the schedule for a new job execution
+     *
+     * @param maxIntervalMillis The longest allowed delay between two checks
+     */
+    public abstract PollSchedule newSchedule(long maxIntervalMillis);
+
+    /**
+     * Creates the schedule for a new job execution, for the strategies that use the job history
+     *
+     * @param maxIntervalMillis The longest allowed delay between two checks once the job is late
+     * @param expectedDuration The usual duration of the job, null if not known
+     * @param startedAtMillis Local time when the job was started
+     */
+    public PollSchedule newSchedule(long maxIntervalMillis, JobDurationStats expectedDuration, long startedAtMillis) {
+        return this.newSchedule(maxIntervalMillis);
+    }
+
+    /**
+     * Whether the schedule needs the {@link JobDurationStats} of the job
+     */
+    public boolean usesJobHistory() {
+        return false;
+    }
+}
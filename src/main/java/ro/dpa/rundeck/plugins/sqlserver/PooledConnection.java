@@ -0,0 +1,124 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical SQL Server connection owned by the {@link SqlServerConnectionPool}.
+ * Borrowers use {@link #getConnection()} and hand the whole object back to the pool when they are done,
+ * they should never close the underlying connection themselves.
+ * <p>
+ * The connection keeps a cache of prepared statements, so the statements that are executed repeatedly
+ * (e.g. the status checks of a running job) are only prepared once. Cached statements are closed together
+ * with the connection, borrowers should only close the result sets.
+ */
+public class PooledConnection {
+    private static final Logger logger = LoggerFactory.getLogger(PooledConnection.class);
+
+    static final int STATEMENT_CACHE_SIZE = 32;
+
+    private final SqlServerConnectionPool.ServerKey key;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statementCache;
+    //callable statements are cached apart, in case the same SQL is also used as a prepared statement
+    private final Map<String, PreparedStatement> callCache;
+    private volatile long lastReturnedAt;
+
+    PooledConnection(SqlServerConnectionPool.ServerKey key, Connection connection) {
+        this.key = key;
+        this.connection = connection;
+        this.lastReturnedAt = System.currentTimeMillis();
+        this.statementCache = new StatementCache();
+        this.callCache = new StatementCache();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the cached prepared statement for the given SQL, preparing it on first use
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement stmt = statementCache.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statementCache.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    /**
+     * Returns the cached callable statement for the given SQL, preparing it on first use
+     */
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        PreparedStatement stmt = callCache.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareCall(sql);
+            callCache.put(sql, stmt);
+        }
+        return (CallableStatement) stmt;
+    }
+
+    /**
+     * Closes the cached statements and the physical connection
+     */
+    void close() throws SQLException {
+        for (PreparedStatement stmt : statementCache.values()) {
+            closeQuietly(stmt);
+        }
+        statementCache.clear();
+        for (PreparedStatement stmt : callCache.values()) {
+            closeQuietly(stmt);
+        }
+        callCache.clear();
+        connection.close();
+    }
+
+    SqlServerConnectionPool.ServerKey getKey() {
+        return key;
+    }
+
+    long getLastReturnedAt() {
+        return lastReturnedAt;
+    }
+
+    void markReturned(long now) {
+        this.lastReturnedAt = now;
+    }
+
+    /**
+     * Access ordered, the least recently used statement is closed when the cache is full
+     */
+    private static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+
+        StatementCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ex) {
+            logger.debug("Could not close cached statement", ex);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Poll schedule that uses the usual duration of the job, see {@link JobDurationStats}, to check it rarely while
+ * it can't be finished yet and often around the moment it is expected to finish.
+ * <ul>
+ *     <li>Before the expected completion window (p10 of the recent runs) - the delay is half the time left until the
+ *     window opens, so a job that finishes early is still noticed, but at most a tenth of the median duration or the
+ *     max poll interval, whichever is longer</li>
+ *     <li>Inside the window (up to the p90) - every {@value #DENSE_DELAY_MILLIS} ms</li>
+ *     <li>After the window, the job is late - {@link BackoffPollSchedule}, as if nothing was known about the job</li>
+ * </ul>
+ * The states that don't depend on the duration (not started yet, waiting for a thread, between retries) are
+ * left to the backoff schedule as well.
+ */
+public class PredictivePollSchedule implements PollSchedule {
+
+    static final long DENSE_DELAY_MILLIS = 800;
+    //sysjobhistory records whole seconds, the window is widened by the lost precision
+    private static final long DURATION_PRECISION_MILLIS = 1000;
+    private static final int MIN_CHECKS_BEFORE_WINDOW = 10;
+    private static final double JITTER = 0.2;
+
+    private final long startedAtMillis;
+    private final long windowOpensAfterMillis;
+    private final long windowClosesAfterMillis;
+    private final long maxSparseDelayMillis;
+    private final BackoffPollSchedule backoff;
+
+    /**
+     * @param stats The usual duration of the job
+     * @param startedAtMillis Local time when the job was started
+     * @param maxDelayMillis The max poll interval, used once the job is late
+     */
+    public PredictivePollSchedule(JobDurationStats stats, long startedAtMillis, long maxDelayMillis) {
+        this.startedAtMillis = startedAtMillis;
+        this.windowOpensAfterMillis = Math.max(0, stats.getP10Millis() - DURATION_PRECISION_MILLIS);
+        this.windowClosesAfterMillis = stats.getP90Millis() + DURATION_PRECISION_MILLIS;
+        this.maxSparseDelayMillis = Math.max(maxDelayMillis, stats.getMedianMillis() / MIN_CHECKS_BEFORE_WINDOW);
+        this.backoff = new BackoffPollSchedule(maxDelayMillis);
+    }
+
+    @Override
+    public long nextDelayMillis(CurrentExecutionStatus lastStatus) {
+        if (lastStatus == CurrentExecutionStatus.PerformingCompletionActions) {
+            return DENSE_DELAY_MILLIS;
+        }
+        if (lastStatus != CurrentExecutionStatus.Executing) {
+            return backoff.nextDelayMillis(lastStatus);
+        }
+
+        long elapsed = System.currentTimeMillis() - startedAtMillis;
+        if (elapsed < windowOpensAfterMillis) {
+            long untilWindow = windowOpensAfterMillis - elapsed;
+            if (untilWindow <= 2 * DENSE_DELAY_MILLIS) {
+                return untilWindow;
+            }
+            //the jitter keeps the steps started together apart, without overshooting the window
+            double factor = 1 - JITTER + ThreadLocalRandom.current().nextDouble() * 2 * JITTER;
+            return Math.min((long) (untilWindow / 2 * factor), maxSparseDelayMillis);
+        }
+        if (elapsed < windowClosesAfterMillis) {
+            return DENSE_DELAY_MILLIS;
+        }
+        return backoff.nextDelayMillis(lastStatus);
+    }
+}
@@ -0,0 +1,336 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the result of a query to a CSV or TSV file, optionally gzip compressed.
+ * <p>
+ * The query runs on a pooled connection with a forward-only, read-only statement, so the driver streams the rows
+ * instead of buffering the result set, and each row is written through a {@link DelimitedFileWriter} as soon as it is
+ * read. The file is written next to the target and moved over it once complete, so a downstream step never reads
+ * a partial export.
+ * <p>
+ * The query can change the session (SET options, open transactions, temp tables), so its connection is closed
+ * afterwards instead of going back to the pool.
+ */
+public class QueryExport {
+    private static final Logger logger = LoggerFactory.getLogger(QueryExport.class);
+
+    private static final String PROPERTY_PREFIX = "ro.dpa.rundeck.sqlserver.export.";
+    private static final int DEFAULT_FETCH_SIZE = Integer.getInteger(PROPERTY_PREFIX + "fetchSize", 1000);
+    private static final int GZIP_BUFFER_BYTES = 65536;
+
+    private String serverName;
+    private int port;
+    private String userName;
+    private String password;
+    private String database;
+    private String query;
+    private File file;
+    private Format format;
+    private boolean header;
+    private boolean gzip;
+    private int fetchSize;
+    private int queryTimeoutSeconds;
+    private SqlServerConnectionPool connectionPool;
+    //assigned by the export
+    private long rowCount;
+    private long bytesWritten;
+
+    //constructor is private, it can only be instantiated through the builder
+    private QueryExport() {
+
+    }
+
+    /**
+     * Runs the query and writes its rows to the file
+     *
+     * @throws SQLTimeoutException If the query runs longer than the query timeout
+     * @throws SQLException If the query fails or the file can't be written. The file is left unchanged.
+     * @throws InterruptedException If the thread is interrupted, the query is cancelled
+     */
+    public void execute() throws SQLException, InterruptedException {
+        logger.info("Executing query export with the following details: {}", this.toString());
+        long startedAt = System.currentTimeMillis();
+
+        File directory = this.file.getAbsoluteFile().getParentFile();
+        File tempFile;
+        try {
+            tempFile = File.createTempFile("export", ".tmp", directory);
+        } catch (IOException ex) {
+            throw new SQLException("Could not create a file in " + directory, ex);
+        }
+        boolean exported = false;
+        PooledConnection pooled = connectionPool.borrow(this.serverName, this.port, this.userName, this.password);
+        try {
+            this.export(pooled.getConnection(), tempFile);
+            Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exported = true;
+        } catch (IOException ex) {
+            throw new SQLException("Could not write file " + this.file, ex);
+        } finally {
+            closeQuietly(pooled.getConnection());
+            connectionPool.release(pooled);
+            if (!exported && !tempFile.delete()) {
+                logger.warn("Could not remove incomplete export {}", tempFile);
+            }
+        }
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+        logger.info("Exported {} rows to {} in {} ms ({} rows/s, {} bytes)", this.rowCount, this.file, elapsedMillis,
+                this.rowCount * 1000 / elapsedMillis, this.bytesWritten);
+    }
+
+    private void export(Connection conn, File tempFile) throws SQLException, IOException, InterruptedException {
+        if (this.database != null) {
+            conn.setCatalog(this.database);
+        }
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(this.fetchSize);
+            stmt.setQueryTimeout(this.queryTimeoutSeconds);
+            try (ResultSet rs = stmt.executeQuery(this.query);
+                 DelimitedFileWriter writer = new DelimitedFileWriter(this.openChannel(tempFile), this.format.delimiter)) {
+                this.writeRows(rs, writer);
+                this.rowCount = writer.getRowCount() - (this.header ? 1 : 0);
+            } catch (InterruptedException ex) {
+                logger.info("Cancelling export query to {}", this.file);
+                stmt.cancel();
+                throw ex;
+            } catch (SQLTimeoutException ex) {
+                throw new SQLTimeoutException("Export query to " + this.file + " timed out after " + this.queryTimeoutSeconds
+                        + " seconds", ex.getSQLState(), ex.getErrorCode(), ex);
+            }
+        }
+        this.bytesWritten = Files.size(tempFile.toPath());
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ex) {
+            logger.warn("Could not close export connection", ex);
+        }
+    }
+
+    private WritableByteChannel openChannel(File tempFile) throws IOException {
+        if (this.gzip) {
+            return Channels.newChannel(new GZIPOutputStream(new FileOutputStream(tempFile), GZIP_BUFFER_BYTES));
+        }
+        return FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeRows(ResultSet rs, DelimitedFileWriter writer) throws SQLException, IOException, InterruptedException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        //reused for the column labels and then for every row
+        String[] values = new String[columnCount];
+        if (this.header) {
+            for (int i = 0; i < columnCount; i++) {
+                values[i] = metaData.getColumnLabel(i + 1);
+            }
+            writer.writeRow(values);
+        }
+        while (rs.next()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            for (int i = 0; i < columnCount; i++) {
+                values[i] = rs.getString(i + 1);
+            }
+            writer.writeRow(values);
+        }
+    }
+
+    /**
+     * @return The number of rows exported, without the header
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The size of the exported file, after compression
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public enum Format {
+        CSV(','), TSV('\t');
+
+        private final char delimiter;
+
+        Format(char delimiter) {
+            this.delimiter = delimiter;
+        }
+    }
+
+    public static class QueryExportBuilder {
+        private String nestedServerName;
+        private int nestedPort;
+        private String nestedUserName;
+        private String nestedPassword;
+        private String nestedDatabase;
+        private String nestedQuery;
+        private File nestedFile;
+        private Format nestedFormat;
+        private boolean nestedHeader = true;
+        private boolean nestedGzip;
+        private int nestedFetchSize;
+        private int nestedQueryTimeoutSeconds;
+        private SqlServerConnectionPool nestedConnectionPool;
+
+        public QueryExportBuilder() {
+
+        }
+
+        public QueryExportBuilder serverName(String serverName) {
+            this.nestedServerName = serverName;
+            return this;
+        }
+
+        public QueryExportBuilder port(int port) {
+            this.nestedPort = port;
+            return this;
+        }
+
+        public QueryExportBuilder userName(String userName) {
+            this.nestedUserName = userName;
+            return this;
+        }
+
+        public QueryExportBuilder password(String password) {
+            this.nestedPassword = password;
+            return this;
+        }
+
+        /**
+         * The database the query runs in, the default database of the login if not set
+         */
+        public QueryExportBuilder database(String database) {
+            this.nestedDatabase = database;
+            return this;
+        }
+
+        public QueryExportBuilder query(String query) {
+            this.nestedQuery = query;
+            return this;
+        }
+
+        public QueryExportBuilder file(File file) {
+            this.nestedFile = file;
+            return this;
+        }
+
+        public QueryExportBuilder format(Format format) {
+            this.nestedFormat = format;
+            return this;
+        }
+
+        /**
+         * Whether the first line holds the column labels, true by default
+         */
+        public QueryExportBuilder header(boolean header) {
+            this.nestedHeader = header;
+            return this;
+        }
+
+        public QueryExportBuilder gzip(boolean gzip) {
+            this.nestedGzip = gzip;
+            return this;
+        }
+
+        /**
+         * Rows fetched from the server at a time, a hint for the driver. 0 uses the plugin default.
+         */
+        public QueryExportBuilder fetchSize(int fetchSize) {
+            this.nestedFetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Max time the query may run, 0 for no timeout
+         */
+        public QueryExportBuilder queryTimeoutSeconds(int queryTimeoutSeconds) {
+            this.nestedQueryTimeoutSeconds = queryTimeoutSeconds;
+            return this;
+        }
+
+        QueryExportBuilder connectionPool(SqlServerConnectionPool connectionPool) {
+            this.nestedConnectionPool = connectionPool;
+            return this;
+        }
+
+        public QueryExport build() throws ConfigurationException {
+            QueryExport export = new QueryExport();
+            //check for mandatory params
+            if (Strings.isNullOrEmpty(this.nestedServerName) || Strings.isNullOrEmpty(this.nestedUserName)
+                    || Strings.isNullOrEmpty(this.nestedPassword) || Strings.isNullOrEmpty(this.nestedQuery)
+                    || this.nestedFile == null || this.nestedPort == 0) {
+                throw new ConfigurationException("Following parameters are mandatory: serverName, port, userName, password, " +
+                        "query, file");
+            }
+            File directory = this.nestedFile.getAbsoluteFile().getParentFile();
+            if (directory == null || !directory.isDirectory()) {
+                throw new ConfigurationException("Directory not found for file: " + this.nestedFile);
+            }
+
+            export.serverName = this.nestedServerName;
+            export.port = this.nestedPort;
+            export.userName = this.nestedUserName;
+            export.password = this.nestedPassword;
+            export.database = Strings.emptyToNull(this.nestedDatabase);
+            export.query = this.nestedQuery;
+            export.file = this.nestedFile;
+            export.format = this.nestedFormat == null ? Format.CSV : this.nestedFormat;
+            export.header = this.nestedHeader;
+            export.gzip = this.nestedGzip;
+            export.fetchSize = this.nestedFetchSize > 0 ? this.nestedFetchSize : DEFAULT_FETCH_SIZE;
+            export.queryTimeoutSeconds = Math.max(0, this.nestedQueryTimeoutSeconds);
+            export.connectionPool = this.nestedConnectionPool == null ? SqlServerConnectionPool.getInstance()
+                    : this.nestedConnectionPool;
+
+            return export;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryExport{" +
+                "serverName='" + serverName + '\'' +
+                ", port=" + port +
+                ", userName='" + userName + '\'' +
+                ", database='" + database + '\'' +
+                ", file=" + file +
+                ", format=" + format +
+                ", header=" + header +
+                ", gzip=" + gzip +
+                ", fetchSize=" + fetchSize +
+                ", queryTimeoutSeconds=" + queryTimeoutSeconds +
+                '}';
+    }
+}
@@ -0,0 +1,167 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepFailureReason;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.plugins.configuration.Describable;
+import com.dtolabs.rundeck.core.plugins.configuration.Description;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.step.StepPlugin;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.params.ParamUtils;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+
+/**
+ * Workflow step that exports the result of a query to a CSV or TSV file on the Rundeck server, see {@link QueryExport}
+ */
+@Plugin(name = QueryExportWorkflowStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowStep)
+public class QueryExportWorkflowStepPlugin implements StepPlugin, Describable {
+    public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.QueryExportWorkflowStepPlugin";
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryExportWorkflowStepPlugin.class);
+    private static final String DATABASE = "database";
+    private static final String QUERY = "query";
+    private static final String FILE = "file";
+    private static final String FORMAT = "format";
+    private static final String HEADER = "header";
+    private static final String GZIP = "gzip";
+    private static final String FETCH_SIZE = "fetchSize";
+    private static final int INFO_LEVEL = 2;
+
+    @Override
+    public void executeStep(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws StepException {
+        QueryExport export = null;
+        try {
+            export = this.buildQueryExport(inputParams);
+        } catch (ConfigurationException ex) {
+            logger.error("Could not configure query export", ex);
+            throw new StepException("Could not configure query export: " + ex.getMessage(), StepFailureReason.ConfigurationFailure,
+                    inputParams);
+        }
+        try {
+            long startedAt = System.currentTimeMillis();
+            export.execute();
+            long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+            pluginStepContext.getLogger().log(INFO_LEVEL, "Exported " + export.getRowCount() + " rows to " + export.getFile()
+                    + " in " + elapsedMillis + " ms (" + export.getRowCount() * 1000 / elapsedMillis + " rows/s, "
+                    + export.getBytesWritten() + " bytes written)");
+        } catch (ServerUnavailableException ex) {
+            logger.error("SQL Server is unreachable", ex);
+            throw new StepException(ex, SqlServerFailureReason.ServerUnavailable);
+        } catch (SQLTimeoutException ex) {
+            logger.error("Export query timed out", ex);
+            throw new StepException(ex, SqlServerFailureReason.Timeout);
+        } catch (SQLException ex) {
+            logger.error("SQL execution error", ex);
+            throw new StepException(ex, StepFailureReason.PluginFailed);
+        } catch (InterruptedException ex) {
+            logger.error("Query export was interrupted.", ex);
+            throw new StepException(ex, StepFailureReason.Interrupted);
+        }
+    }
+
+    private QueryExport buildQueryExport(Map<String, Object> inputParams) throws ConfigurationException {
+        String file = ParamUtils.getStringValue(FILE, inputParams);
+        String format = ParamUtils.getStringValue(FORMAT, inputParams);
+        String header = ParamUtils.getStringValue(HEADER, inputParams);
+
+        QueryExport.QueryExportBuilder builder = new QueryExport.QueryExportBuilder();
+        builder
+                .userName(ParamUtils.getStringValue(SqlServerJobProperties.USER, inputParams))
+                .password(ParamUtils.getStringValue(SqlServerJobProperties.PASSWORD, inputParams))
+                .serverName(ParamUtils.getStringValue(SqlServerJobProperties.HOST, inputParams))
+                .port(ParamUtils.getIntValue(SqlServerJobProperties.PORT, inputParams))
+                .database(ParamUtils.getStringValue(DATABASE, inputParams))
+                .query(ParamUtils.getStringValue(QUERY, inputParams))
+                .file(file == null ? null : new File(file.trim()))
+                .header(header == null || Boolean.parseBoolean(header))
+                .gzip(Boolean.parseBoolean(ParamUtils.getStringValue(GZIP, inputParams)))
+                .fetchSize(ParamUtils.getIntValue(FETCH_SIZE, inputParams))
+                .queryTimeoutSeconds(ParamUtils.getIntValue(SqlServerJobProperties.TIMEOUT, inputParams));
+        if (format != null) {
+            try {
+                builder.format(QueryExport.Format.valueOf(format.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ConfigurationException("Unknown format: " + format);
+            }
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public Description getDescription() {
+        DescriptionBuilder builder = DescriptionBuilder.builder()
+                .name(SERVICE_PROVIDER_NAME)
+                .title("Query Export Plugin")
+                .description("Exports the result of a query to a CSV or TSV file");
+        SqlServerJobProperties.addConnectionProperties(builder)
+                .property(PropertyBuilder.builder()
+                    .string(DATABASE)
+                    .title("Database")
+                    .description("The database the query runs in. If not provided, the default database of the user")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(QUERY)
+                    .title("Query")
+                    .description("The query to export, its first result set is written to the file")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(FILE)
+                    .title("File")
+                    .description("Path of the file on the Rundeck server. It is replaced only once the export is complete")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .select(FORMAT)
+                    .title("Format")
+                    .description("'csv' separates the fields with commas, 'tsv' with tabs. Fields containing the separator, " +
+                            "quotes or line breaks are quoted. NULL values and empty strings are both empty fields. Files with " +
+                            "line breaks in their fields can't be loaded back with the bulk load step")
+                    .values("csv", "tsv")
+                    .defaultValue("csv")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .booleanType(HEADER)
+                    .title("Header")
+                    .description("Writes the column names on the first line")
+                    .defaultValue("true")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .booleanType(GZIP)
+                    .title("Gzip")
+                    .description("Compresses the file with gzip")
+                    .defaultValue("false")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(FETCH_SIZE)
+                    .title("Fetch size")
+                    .description("Rows fetched from the server at a time")
+                    .defaultValue("1000")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(SqlServerJobProperties.TIMEOUT)
+                    .title("Timeout")
+                    .description("Max time, in seconds, the query may run. When it expires the query is cancelled and " +
+                            "the step fails. 0 for no timeout")
+                    .defaultValue("0")
+                    .required(false)
+                    .build());
+        return builder.build();
+    }
+}
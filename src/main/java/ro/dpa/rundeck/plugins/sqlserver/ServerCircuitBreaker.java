@@ -0,0 +1,138 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.ServerMetrics;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+/**
+ * Health of a SQL Server instance, as seen by the connection attempts of the {@link SqlServerConnectionPool}.
+ * <p>
+ * After a number of consecutive failed connection attempts the breaker opens: for the open interval every step fails
+ * immediately with a {@link ServerUnavailableException}, instead of blocking for the login timeout of the driver.
+ * Once the interval is over, a single connection attempt is let through as a probe (half-open state). If it
+ * succeeds the breaker closes and all the steps connect again, otherwise it stays open for another interval.
+ * A probe that doesn't report back within the open interval (e.g. its step gave up waiting for a pool permit) is
+ * replaced by a new one.
+ * <p>
+ * Only the failures to reach the server count: a rejected login means the server is up.
+ */
+public class ServerCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(ServerCircuitBreaker.class);
+
+    //SQLSTATE class of the connection exceptions
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String serverName;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ServerMetrics metrics;
+    //written under the lock, read without it on the borrow fast path
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt;
+    private String lastFailure;
+
+    ServerCircuitBreaker(String serverName, int failureThreshold, long openMillis, ServerMetrics metrics) {
+        this.serverName = serverName;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Called before connecting to the server. Returns immediately while the server is healthy, and lets one caller
+     * through as a probe once the open interval is over.
+     *
+     * @throws ServerUnavailableException If the breaker is open, or half-open with a probe in progress
+     */
+    void beforeConnect() throws ServerUnavailableException {
+        if (state == State.CLOSED) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (state == State.OPEN && now - openedAt >= openMillis) {
+                logger.info("Probing SQL Server {}, unreachable since {} ms", serverName, now - openedAt);
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                return;
+            }
+            if (state == State.HALF_OPEN && now - probeStartedAt >= openMillis) {
+                logger.info("Probe of SQL Server {} did not report back, probing again", serverName);
+                probeStartedAt = now;
+                return;
+            }
+            if (state == State.CLOSED) {
+                return;
+            }
+            metrics.connectionRejected();
+            long retryAfterMillis = state == State.OPEN ? openedAt + openMillis - now : probeStartedAt + openMillis - now;
+            throw new ServerUnavailableException("SQL Server " + serverName + " is unreachable, not connecting for another "
+                    + Math.max(0, retryAfterMillis) + " ms. Last failure: " + lastFailure, Math.max(0, retryAfterMillis));
+        }
+    }
+
+    /**
+     * Called after a connection to the server was made, or a pooled one was found valid
+     */
+    void connected() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state != State.CLOSED) {
+                logger.info("SQL Server {} is reachable again", serverName);
+                state = State.CLOSED;
+                metrics.circuitClosed();
+            }
+        }
+    }
+
+    /**
+     * Called when connecting to the server failed
+     */
+    void connectFailed(SQLException ex) {
+        if (!isConnectionFailure(ex)) {
+            //the server answered
+            this.connected();
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures++;
+            lastFailure = ex.getMessage();
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                logger.warn("SQL Server {} is unreachable after {} failed connection attempts, failing fast for {} ms",
+                        serverName, consecutiveFailures, openMillis);
+                if (state == State.CLOSED) {
+                    metrics.circuitOpened();
+                }
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * Whether the exception means the server could not be reached, as opposed to e.g. a rejected login
+     */
+    static boolean isConnectionFailure(SQLException ex) {
+        if (ex instanceof SQLTimeoutException) {
+            return true;
+        }
+        String sqlState = ex.getSQLState();
+        return sqlState != null && sqlState.startsWith(CONNECTION_EXCEPTION_CLASS);
+    }
+}
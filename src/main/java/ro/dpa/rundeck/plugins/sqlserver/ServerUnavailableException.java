@@ -0,0 +1,27 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown without trying to connect while the {@link ServerCircuitBreaker} of a server is open, i.e. the last
+ * connection attempts to the server failed
+ */
+public class ServerUnavailableException extends SQLException {
+    private static final long serialVersionUID = 1L;
+    //SQLSTATE class 08, client unable to establish connection
+    private static final String SQL_STATE = "08001";
+
+    private final long retryAfterMillis;
+
+    public ServerUnavailableException(String reason, long retryAfterMillis) {
+        super(reason, SQL_STATE);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return Time until a new connection attempt is allowed
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,140 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepFailureReason;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.plugins.configuration.Describable;
+import com.dtolabs.rundeck.core.plugins.configuration.Description;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.step.StepPlugin;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.params.ParamUtils;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Workflow step that starts several SQL Server jobs of the same server in parallel and waits for all or any of them.
+ * Each line of the jobs property is a job name, optionally followed by the step to start from: jobName=stepName
+ */
+@Plugin(name = SqlServerAgentFanOutWorkflowStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowStep)
+public class SqlServerAgentFanOutWorkflowStepPlugin implements StepPlugin, Describable {
+    public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.SqlServerAgentFanOutWorkflowStepPlugin";
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlServerAgentFanOutWorkflowStepPlugin.class);
+    private static final String JOBS = "jobs";
+    private static final String MAX_PARALLELISM = "maxParallelism";
+    private static final String WAIT_MODE = "waitMode";
+    private static final String ERROR_MODE = "errorMode";
+    private static final String STEP_SEPARATOR = "=";
+
+    @Override
+    public void executeStep(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws StepException {
+        SqlServerJobGroup jobGroup = null;
+        try {
+            jobGroup = this.buildSqlServerJobGroup(pluginStepContext, inputParams);
+        } catch (ConfigurationException ex) {
+            logger.error("Could not configure SQL Server jobs", ex);
+            throw new StepException("Could not configure SQL Server jobs", StepFailureReason.ConfigurationFailure, inputParams);
+        }
+        try {
+            jobGroup.execute();
+        } catch (ServerUnavailableException ex) {
+            logger.error("SQL Server is unreachable", ex);
+            throw new StepException(ex, SqlServerFailureReason.ServerUnavailable);
+        } catch (SQLException ex) {
+            logger.error("SQL execution error", ex);
+            throw new StepException(ex, StepFailureReason.PluginFailed);
+        } catch (InterruptedException ex) {
+            logger.error("Job execution was interrupted.", ex);
+            throw new StepException(ex, StepFailureReason.Interrupted);
+        }
+    }
+
+    private SqlServerJobGroup buildSqlServerJobGroup(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws ConfigurationException {
+        List<String> jobLines = ParamUtils.getListValues(JOBS, inputParams);
+        String waitMode = ParamUtils.getStringValue(WAIT_MODE, inputParams);
+        String errorMode = ParamUtils.getStringValue(ERROR_MODE, inputParams);
+
+        logger.info("Building SqlServerJobGroup for jobs={}, maxParallelism={}, waitMode={}, errorMode={}", jobLines,
+                ParamUtils.getStringValue(MAX_PARALLELISM, inputParams), waitMode, errorMode);
+
+        SqlServerJobGroup.SqlServerJobGroupBuilder builder = new SqlServerJobGroup.SqlServerJobGroupBuilder();
+        JobProgressListener progressListener = new PluginLoggerProgressListener(pluginStepContext.getLogger());
+        for (String jobLine : jobLines) {
+            int separator = jobLine.indexOf(STEP_SEPARATOR);
+            String jobName = separator < 0 ? jobLine : jobLine.substring(0, separator).trim();
+            String stepName = separator < 0 ? null : jobLine.substring(separator + 1).trim();
+
+            builder.job(SqlServerJobProperties.newJobBuilder(pluginStepContext, inputParams)
+                    .jobName(jobName)
+                    .stepName(stepName)
+                    .progressListener(progressListener)
+                    .build());
+        }
+        builder.maxParallelism(ParamUtils.getIntValue(MAX_PARALLELISM, inputParams));
+        if (waitMode != null) {
+            try {
+                builder.waitMode(SqlServerJobGroup.WaitMode.valueOf(waitMode.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ConfigurationException("Unknown wait mode: " + waitMode);
+            }
+        }
+        if (errorMode != null) {
+            try {
+                builder.errorMode(SqlServerJobGroup.ErrorMode.valueOf(errorMode.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ConfigurationException("Unknown error mode: " + errorMode);
+            }
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public Description getDescription() {
+        DescriptionBuilder builder = DescriptionBuilder.builder()
+                .name(SERVICE_PROVIDER_NAME)
+                .title("Sql Server Agent Fan-Out Plugin")
+                .description("Executes several sql server jobs in parallel");
+        SqlServerJobProperties.addConnectionProperties(builder)
+                .property(PropertyBuilder.builder()
+                    .string(JOBS)
+                    .title("Jobs")
+                    .description("The SQL Server jobs to execute, one per line. A job can be started from a given step " +
+                            "with jobName=stepName")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(MAX_PARALLELISM)
+                    .title("Max parallelism")
+                    .description("The maximum number of jobs running at the same time")
+                    .defaultValue("5")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .select(WAIT_MODE)
+                    .title("Wait mode")
+                    .description("'all' succeeds when every job has succeeded, 'any' succeeds as soon as one job has succeeded")
+                    .values("all", "any")
+                    .defaultValue("all")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .select(ERROR_MODE)
+                    .title("Error mode")
+                    .description("'fail_fast' fails the step on the first failed job, 'collect_all' waits for the " +
+                            "remaining jobs and reports all the failures")
+                    .values("fail_fast", "collect_all")
+                    .defaultValue("fail_fast")
+                    .required(false)
+                    .build());
+        return SqlServerJobProperties.addMonitoringProperties(builder).build();
+    }
+}
@@ -17,6 +17,7 @@ import ro.dpa.rundeck.plugins.params.ParamUtils;
 
 
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.util.Map;
 
 /**
@@ -27,10 +28,6 @@ public class SqlServerAgentWorkflowStepPlugin implements StepPlugin, Describable
     public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.SqlServerAgentWorkflowStepPlugin";
 
     private static final Logger logger = LoggerFactory.getLogger(SqlServerAgentWorkflowStepPlugin.class);
-    private static final String USER = "user";
-    private static final String PASSWORD = "password";
-    private static final String HOST = "host";
-    private static final String PORT = "port";
     private static final String JOB_NAME = "jobName";
     private static final String STEP_NAME = "stepName";
 
@@ -38,13 +35,19 @@ public class SqlServerAgentWorkflowStepPlugin implements StepPlugin, Describable
     public void executeStep(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws StepException {
         SqlServerJob sqlServerJob = null;
         try {
-             sqlServerJob = this.buildSqlServerJob(inputParams);
+             sqlServerJob = this.buildSqlServerJob(pluginStepContext, inputParams);
         } catch (ConfigurationException ex) {
             logger.error("Could not configure SQL Server job", ex);
             throw new StepException("Could not configure SQL Server job", StepFailureReason.ConfigurationFailure, inputParams);
         }
         try {
             sqlServerJob.execute();
+        } catch (ServerUnavailableException ex) {
+            logger.error("SQL Server is unreachable", ex);
+            throw new StepException(ex, SqlServerFailureReason.ServerUnavailable);
+        } catch (SQLTimeoutException ex) {
+            logger.error("SQL Server job timed out", ex);
+            throw new StepException(ex, SqlServerFailureReason.Timeout);
         } catch (SQLException ex) {
             logger.error("SQL execution error", ex);
             throw new StepException(ex, StepFailureReason.PluginFailed);
@@ -54,11 +57,11 @@ public class SqlServerAgentWorkflowStepPlugin implements StepPlugin, Describable
         }
     }
 
-    private SqlServerJob buildSqlServerJob(Map<String, Object> inputParams) throws ConfigurationException {
-        String user = ParamUtils.getStringValue(USER, inputParams);
-        String password = ParamUtils.getStringValue(PASSWORD, inputParams);
-        String host = ParamUtils.getStringValue(HOST, inputParams);
-        int port = ParamUtils.getIntValue(PORT, inputParams);
+    private SqlServerJob buildSqlServerJob(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws ConfigurationException {
+        String user = ParamUtils.getStringValue(SqlServerJobProperties.USER, inputParams);
+        String password = ParamUtils.getStringValue(SqlServerJobProperties.PASSWORD, inputParams);
+        String host = ParamUtils.getStringValue(SqlServerJobProperties.HOST, inputParams);
+        int port = ParamUtils.getIntValue(SqlServerJobProperties.PORT, inputParams);
         String jobName = ParamUtils.getStringValue(JOB_NAME, inputParams);
         String stepName = ParamUtils.getStringValue(STEP_NAME, inputParams);
 
@@ -67,48 +70,22 @@ public class SqlServerAgentWorkflowStepPlugin implements StepPlugin, Describable
         logger.info(logMessage);
         System.out.println(logMessage);
 
-        SqlServerJob.SqlServerJobBuilder builder = new SqlServerJob.SqlServerJobBuilder();
+        SqlServerJob.SqlServerJobBuilder builder = SqlServerJobProperties.newJobBuilder(pluginStepContext, inputParams);
         builder
                 .jobName(jobName)
-                .userName(user)
-                .password(password)
-                .serverName(host)
-                .port(port)
-                .stepName(stepName);
+                .stepName(stepName)
+                .progressListener(new PluginLoggerProgressListener(pluginStepContext.getLogger()));
 
         return builder.build();
     }
 
     @Override
     public Description getDescription() {
-        return DescriptionBuilder.builder()
+        DescriptionBuilder builder = DescriptionBuilder.builder()
                 .name(SERVICE_PROVIDER_NAME)
                 .title("Sql Server Agent Plugin")
-                .description("Executes sql server job")
-                .property(PropertyBuilder.builder()
-                    .string(USER)
-                    .title("User")
-                    .description("User to connect to the SQL database")
-                    .required(true)
-                    .build())
-                .property(PropertyBuilder.builder()
-                    .string(PASSWORD)
-                    .title("Password")
-                    .description("Password used to connect to the SQL database")
-                    .required(true)
-                    .build())
-                .property(PropertyBuilder.builder()
-                    .string(HOST)
-                    .title("Host")
-                    .description("Host where the job is executed")
-                    .required(true)
-                    .build())
-                .property(PropertyBuilder.builder()
-                    .string(PORT)
-                    .title("Port")
-                    .description("Port for the SQL connection")
-                    .required(true)
-                    .build())
+                .description("Executes sql server job");
+        SqlServerJobProperties.addConnectionProperties(builder)
                 .property(PropertyBuilder.builder()
                     .string(JOB_NAME)
                     .title("Job Name")
@@ -120,7 +97,7 @@ public class SqlServerAgentWorkflowStepPlugin implements StepPlugin, Describable
                     .title("Step name")
                     .description("The job will start processing from the step indicated by this parameter. If not provided, job starts from the first step")
                     .required(false)
-                    .build())
-                .build();
+                    .build());
+        return SqlServerJobProperties.addMonitoringProperties(builder).build();
     }
 }
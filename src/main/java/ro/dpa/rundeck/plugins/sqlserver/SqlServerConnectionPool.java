@@ -0,0 +1,432 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.PluginMetrics;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.ServerMetrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plugin-wide pool of SQL Server connections, shared by all the workflow steps executed by this Rundeck instance.
+ * <p>
+ * Connections are grouped by server (host, port, credentials and {@link AuthenticationMode}), each server having its own upper limit of
+ * physical connections. Idle connections are validated when borrowed and closed by a background evictor
+ * once they stay unused for longer than the idle timeout.
+ * <p>
+ * Connection attempts go through a {@link ServerCircuitBreaker} per server (host and port), so the steps fail fast
+ * while a server is unreachable instead of each waiting for the login timeout.
+ * <p>
+ * Limits can be tuned through the following system properties:
+ * <ul>
+ *     <li><b>ro.dpa.rundeck.sqlserver.pool.maxSize</b> - max connections per server (default 10)</li>
+ *     <li><b>ro.dpa.rundeck.sqlserver.pool.idleTimeoutSeconds</b> - idle time before a connection is closed (default 300)</li>
+ *     <li><b>ro.dpa.rundeck.sqlserver.pool.borrowTimeoutSeconds</b> - max wait for a free connection (default 60)</li>
+ *     <li><b>ro.dpa.rundeck.sqlserver.breaker.failureThreshold</b> - consecutive failed connection attempts before the
+ *     steps fail fast (default 3)</li>
+ *     <li><b>ro.dpa.rundeck.sqlserver.breaker.openSeconds</b> - time the steps fail fast before a new attempt (default 30)</li>
+ * </ul>
+ * Rundeck doesn't notify plugins when they are unloaded, so the pool closes its connections from a JVM shutdown hook.
+ */
+public class SqlServerConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(SqlServerConnectionPool.class);
+
+    private static final String PROPERTY_PREFIX = "ro.dpa.rundeck.sqlserver.pool.";
+    private static final int DEFAULT_MAX_SIZE = Integer.getInteger(PROPERTY_PREFIX + "maxSize", 10);
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = Long.getLong(PROPERTY_PREFIX + "idleTimeoutSeconds", 300);
+    private static final long DEFAULT_BORROW_TIMEOUT_SECONDS = Long.getLong(PROPERTY_PREFIX + "borrowTimeoutSeconds", 60);
+    private static final int DEFAULT_FAILURE_THRESHOLD = Integer.getInteger("ro.dpa.rundeck.sqlserver.breaker.failureThreshold", 3);
+    private static final long DEFAULT_OPEN_SECONDS = Long.getLong("ro.dpa.rundeck.sqlserver.breaker.openSeconds", 30);
+    private static final long EVICTION_INTERVAL_SECONDS = 30;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    //connections returned less than this ago are handed out again without a validation round trip
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+    private static final SqlServerConnectionPool INSTANCE = new SqlServerConnectionPool(new DriverManagerConnectionFactory(),
+            DEFAULT_MAX_SIZE, TimeUnit.SECONDS.toMillis(DEFAULT_IDLE_TIMEOUT_SECONDS),
+            TimeUnit.SECONDS.toMillis(DEFAULT_BORROW_TIMEOUT_SECONDS));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("sqlserver-pool-shutdown") {
+            @Override
+            public void run() {
+                INSTANCE.shutdown();
+            }
+        });
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ConcurrentMap<ServerKey, ServerPool> pools = new ConcurrentHashMap<>();
+    //keyed by host:port, the credentials don't matter to reach the server
+    private final ConcurrentMap<String, ServerCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean shutdown;
+
+    SqlServerConnectionPool(ConnectionFactory connectionFactory, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis) {
+        this(connectionFactory, maxSize, idleTimeoutMillis, borrowTimeoutMillis, DEFAULT_FAILURE_THRESHOLD,
+                TimeUnit.SECONDS.toMillis(DEFAULT_OPEN_SECONDS));
+    }
+
+    SqlServerConnectionPool(ConnectionFactory connectionFactory, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis,
+                            int failureThreshold, long openMillis) {
+        this.connectionFactory = connectionFactory;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sqlserver-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static SqlServerConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrows a connection for the given server, reusing an idle one if available. Blocks while the server
+     * already has the maximum number of connections in use.
+     *
+     * @return The pooled connection. It must be handed back through {@link #release(PooledConnection)}
+     * @throws ServerUnavailableException If the last connection attempts to the server failed, see {@link ServerCircuitBreaker}
+     * @throws SQLTransientConnectionException If no connection was free in the configured borrow timeout. The server
+     * isn't at fault, so the error is transient for the monitoring of a running job, see {@link TransientErrorRecovery}
+     * @throws SQLException If the connection fails
+     */
+    public PooledConnection borrow(String host, int port, String user, String password) throws SQLException {
+        return this.borrow(host, port, user, password, AuthenticationMode.SQL_SERVER);
+    }
+
+    /**
+     * Same as {@link #borrow(String, int, String, String)}, for connections that authenticate as configured
+     */
+    public PooledConnection borrow(String host, int port, String user, String password, AuthenticationMode authentication)
+            throws SQLException {
+        return this.borrow(new ServerKey(host, port, user, password, authentication));
+    }
+
+    /**
+     * Same as {@link #borrow(String, int, String, String, AuthenticationMode)}, for callers that borrow repeatedly and keep the key
+     */
+    PooledConnection borrow(ServerKey key) throws SQLException {
+        if (shutdown) {
+            throw new SQLException("SQL Server connection pool is shut down");
+        }
+
+        long startedAt = System.nanoTime();
+        ServerPool pool = this.getServerPool(key);
+        ServerMetrics metrics = pool.metrics;
+        //checked before waiting for a permit, there's no point in queueing for a server that is down
+        pool.breaker.beforeConnect();
+        try {
+            if (!pool.permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                metrics.connectionAcquireTimedOut();
+                throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMillis
+                        + " ms waiting for a connection to " + key);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + key, ex);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = pool.pollIdle()) != null) {
+                if (this.isValid(pooled)) {
+                    pool.breaker.connected();
+                    metrics.connectionAcquired(System.nanoTime() - startedAt, false);
+                    return pooled;
+                }
+                logger.debug("Discarding stale connection to {}", key);
+                closeQuietly(pooled);
+            }
+
+            Connection conn;
+            try {
+                conn = connectionFactory.create(key.host, key.port, key.user, key.password, key.authentication);
+            } catch (SQLException ex) {
+                pool.breaker.connectFailed(ex);
+                throw ex;
+            }
+            pool.breaker.connected();
+            metrics.connectionAcquired(System.nanoTime() - startedAt, true);
+            return new PooledConnection(key, conn);
+        } catch (SQLException | RuntimeException ex) {
+            pool.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Hands a borrowed connection back to the pool. Closed connections, and all connections returned after
+     * {@link #shutdown()}, are discarded instead of being kept idle.
+     */
+    public void release(PooledConnection pooled) {
+        ServerPool pool = pools.get(pooled.getKey());
+        boolean reusable = !shutdown && pool != null && !isClosed(pooled);
+        if (reusable) {
+            pooled.markReturned(System.currentTimeMillis());
+            pool.pushIdle(pooled);
+        } else {
+            closeQuietly(pooled);
+        }
+
+        if (pool != null) {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Closes the idle connections and stops the evictor. Connections currently borrowed are closed when released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        evictor.shutdownNow();
+        for (ServerPool pool : pools.values()) {
+            for (PooledConnection pooled : pool.drainIdle(0)) {
+                closeQuietly(pooled);
+            }
+        }
+        logger.info("SQL Server connection pool shut down");
+    }
+
+    void evictIdle() {
+        long oldestAllowed = System.currentTimeMillis() - idleTimeoutMillis;
+        for (ServerPool pool : pools.values()) {
+            for (PooledConnection pooled : pool.drainIdle(oldestAllowed)) {
+                logger.debug("Closing connection to {} idle for more than {} ms", pooled.getKey(), idleTimeoutMillis);
+                closeQuietly(pooled);
+            }
+        }
+    }
+
+    int getIdleCount(String host, int port, String user, String password) {
+        ServerPool pool = pools.get(new ServerKey(host, port, user, password));
+        return pool == null ? 0 : pool.idleCount();
+    }
+
+    private ServerPool getServerPool(ServerKey key) {
+        ServerPool pool = pools.get(key);
+        if (pool == null) {
+            ServerPool created = new ServerPool(maxSize, PluginMetrics.forServer(key.host, key.port),
+                    this.getBreaker(key.host, key.port));
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    private ServerCircuitBreaker getBreaker(String host, int port) {
+        String serverName = host + ":" + port;
+        ServerCircuitBreaker breaker = breakers.get(serverName);
+        if (breaker == null) {
+            ServerCircuitBreaker created = new ServerCircuitBreaker(serverName, failureThreshold, openMillis,
+                    PluginMetrics.forServer(host, port));
+            breaker = breakers.putIfAbsent(serverName, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.getLastReturnedAt() < VALIDATION_BYPASS_MILLIS) {
+            return !isClosed(pooled);
+        }
+        try {
+            return pooled.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private static boolean isClosed(PooledConnection pooled) {
+        try {
+            return pooled.getConnection().isClosed();
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.close();
+        } catch (SQLException ex) {
+            logger.warn("Could not close connection to {}", pooled.getKey(), ex);
+        }
+    }
+
+    /**
+     * Creates the physical connections for the pool
+     */
+    interface ConnectionFactory {
+        Connection create(String host, int port, String user, String password, AuthenticationMode authentication)
+                throws SQLException;
+    }
+
+    private static class DriverManagerConnectionFactory implements ConnectionFactory {
+        DriverManagerConnectionFactory() {
+            try {
+                Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
+            } catch (ClassNotFoundException ex) {
+                //should never reach here, unless we have bad jdbc driver configuration in pom.xml
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        public Connection create(String host, int port, String user, String password, AuthenticationMode authentication)
+                throws SQLException {
+            Connection conn = DriverManager.getConnection(connectionUrl(host, port, user, password, authentication));
+            logger.info("Connected successfully to DB for server={}:{}, user={}, authentication={}", host, port, user,
+                    authentication);
+            return conn;
+        }
+    }
+
+    /**
+     * Builds the JDBC URL of a connection. With {@link AuthenticationMode#NTLM}, the domain is the part of the user
+     * name before the backslash.
+     */
+    static String connectionUrl(String host, int port, String user, String password, AuthenticationMode authentication) {
+        if (authentication == AuthenticationMode.NTLM) {
+            int separator = user.indexOf('\\');
+            String domain = separator < 0 ? "" : "domain=" + user.substring(0, separator) + ";";
+            return "jdbc:sqlserver://" + host + ":" + port + ";integratedSecurity=true;authenticationScheme=NTLM;" + domain
+                    + "user=" + user.substring(separator + 1) + ";password=" + password + ";";
+        }
+        return "jdbc:sqlserver://" + host + ":" + port + ";" + "username="
+                + user + ";password=" + password + ";";
+    }
+
+    /**
+     * Identifies a server pool. The password is part of the key, so a step configured with wrong credentials
+     * can never be handed a connection that was authenticated by another step.
+     */
+    static final class ServerKey {
+        private final String host;
+        private final int port;
+        private final String user;
+        private final String password;
+        private final AuthenticationMode authentication;
+
+        ServerKey(String host, int port, String user, String password) {
+            this(host, port, user, password, AuthenticationMode.SQL_SERVER);
+        }
+
+        ServerKey(String host, int port, String user, String password, AuthenticationMode authentication) {
+            this.host = host.toLowerCase();
+            this.port = port;
+            this.user = user;
+            this.password = password;
+            this.authentication = authentication;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ServerKey)) {
+                return false;
+            }
+            ServerKey other = (ServerKey) o;
+            return port == other.port && host.equals(other.host) && user.equals(other.user)
+                    && password.equals(other.password) && authentication == other.authentication;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = host.hashCode();
+            result = 31 * result + port;
+            result = 31 * result + user.hashCode();
+            result = 31 * result + password.hashCode();
+            result = 31 * result + authentication.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return user + "@" + host + ":" + port;
+        }
+    }
+
+    private static class ServerPool {
+        private final Semaphore permits;
+        //resolved once, so borrowing doesn't build the metrics key of the server
+        private final ServerMetrics metrics;
+        private final ServerCircuitBreaker breaker;
+        //most recently returned connections are at the head, so the ones at the tail are the first to expire
+        private final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+        ServerPool(int maxSize, ServerMetrics metrics, ServerCircuitBreaker breaker) {
+            this.permits = new Semaphore(maxSize, true);
+            this.metrics = metrics;
+            this.breaker = breaker;
+        }
+
+        synchronized PooledConnection pollIdle() {
+            return idle.pollFirst();
+        }
+
+        synchronized void pushIdle(PooledConnection pooled) {
+            idle.addFirst(pooled);
+        }
+
+        synchronized int idleCount() {
+            return idle.size();
+        }
+
+        /**
+         * Removes the idle connections returned before the given timestamp (all of them for a timestamp of 0 or less).
+         */
+        synchronized List<PooledConnection> drainIdle(long returnedBefore) {
+            List<PooledConnection> drained = new ArrayList<>();
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+                if (returnedBefore > 0 && pooled.getLastReturnedAt() >= returnedBefore) {
+                    break;
+                }
+                it.remove();
+                drained.add(pooled);
+            }
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.FailureReason;
+
+/**
+ * Step failure reasons specific to the SQL Server plugins, next to the generic {@link com.dtolabs.rundeck.core.execution.workflow.steps.StepFailureReason}
+ */
+public enum SqlServerFailureReason implements FailureReason {
+    /**
+     * The job did not finish within the timeout of the step and was stopped
+     */
+    Timeout,
+    /**
+     * The server could not be reached by the last connection attempts, the step failed without trying again,
+     * see {@link ServerCircuitBreaker}
+     */
+    ServerUnavailable
+}
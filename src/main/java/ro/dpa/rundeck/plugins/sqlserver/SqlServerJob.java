@@ -2,10 +2,17 @@ package ro.dpa.rundeck.plugins.sqlserver;
 
 import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.JobMetrics;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.PluginMetrics;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.ServerMetrics;
 
 import java.sql.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The class that implements the logic for launching and monitoring SQL Server jobs.
@@ -17,7 +24,23 @@ import java.sql.*;
 public class SqlServerJob {
     private static final Logger logger = LoggerFactory.getLogger(SqlServerJob.class);
 
-    private static final long SLEEP_INTERVAL_BETWEEN_JOB_CHECKS = 5;
+    //SQL Server doesn't change the job status immediately after sp_start_job, so an idle status
+    //is only trusted after this interval, unless the job was already seen running
+    private static final long STARTUP_GRACE_MILLIS = 5000;
+    private static final long DEFAULT_MAX_POLL_INTERVAL_MILLIS = 30000;
+    private static final int LONG_POLL_WINDOW_SECONDS = 60;
+    private static final int PERMISSION_DENIED_ERROR = 229;
+    //sp_stop_job error for a job that is not running
+    private static final int JOB_NOT_RUNNING_ERROR = 22022;
+    //after sp_stop_job, the step waits this long for SQL Agent to end the run before reporting
+    private static final long STOP_WAIT_MILLIS = 10000;
+    private static final long STOP_CHECK_INTERVAL_MILLIS = 500;
+    //a recorded run was requested between the server time captured before sp_start_job and the end of the call,
+    //a run requested later was started by someone else
+    private static final long RECORDED_RUN_REQUEST_MARGIN_MILLIS = 60000;
+    //plugin-wide timeout, used by the steps that don't set one. 0 means no timeout
+    private static final long DEFAULT_TIMEOUT_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("ro.dpa.rundeck.sqlserver.job.timeoutSeconds", 0));
 
     private String serverName;
     private int port;
@@ -25,6 +48,41 @@ public class SqlServerJob {
     private String password;
     private String jobName;
     private String stepName;
+    private PollStrategy pollStrategy;
+    private long maxPollIntervalMillis;
+    private StatusQueryMode statusQueryMode;
+    private CompletionDetectionMode completionDetectionMode;
+    private long timeoutMillis;
+    private JobProgressListener progressListener;
+    private StepOutputListener stepOutputListener;
+    private SqlServerJobDaoFactory daoFactory;
+    //one DAO for the whole run, closing it only releases its connection until the next use
+    private SqlServerJobDao dao;
+    private JobRunStateStore stateStore;
+    private String executionId;
+    private int priority;
+    //set by the tests, the shared monitor of the server and the default recovery window are used otherwise
+    private JobStatusMonitor statusMonitor;
+    private long recoveryMillis;
+    //resolved from the job name when the job is executed
+    private String jobId;
+    //streams the step history of the run to the progress listener, null if there is no listener
+    private JobHistoryFeed historyFeed;
+    //usual duration of the job, only read for the poll strategies that use it
+    private JobDurationStats durationStats;
+    //server time captured before the run, the step output logs written since are read once the run is finished
+    private Timestamp outputLogsAfter;
+    private ServerMetrics metrics;
+    private JobMetrics jobMetrics;
+    //local time when the job was started, and when the server time of the run was captured
+    private long startedAtMillis;
+    private long serverTimeCapturedAtMillis;
+    //local time the timeout counts from: when the step started, before waiting for admission, or when a reattached
+    //run was started
+    private long timeoutFromMillis;
+    private int statusChecks;
+    //the run was started by a previous execution of the step
+    private boolean reattached;
 
 
     //constructor is private, it can only be instantiated through the builder
@@ -34,62 +92,625 @@ public class SqlServerJob {
 
     public void execute() throws SQLException, InterruptedException {
         logger.info("Executing SQL Server job with the following details: {}", this.toString());
-        try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
-            this.startJob(dao);
-            this.waitForJobExecution(dao);
+        this.metrics = PluginMetrics.forServer(this.serverName, this.port);
+        JobAdmissionControl admission = JobAdmissionControl.forServer(this.serverName, this.port);
+        //the time waiting for admission counts towards the timeout of the step
+        this.timeoutFromMillis = System.currentTimeMillis();
+        //waits locally, before any connection is taken, if the server already runs as many jobs as allowed
+        if (!admission.acquire(this.priority, this.timeoutMillis > 0 ? this.timeoutMillis : Long.MAX_VALUE)) {
+            throw new SQLTimeoutException("Job with name='" + this.jobName + "' was not started within the timeout, " +
+                    admission.getMaxRunningJobs() + " jobs were already running on " + this.serverName);
+        }
+        try {
+            Timestamp requestedAfter;
+            //the connection is only held while starting the job, and then for each status check
+            try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+                this.jobId = this.resolveJob(dao).getJobId();
+                this.jobMetrics = this.metrics.forJob(this.jobName);
+                this.durationStats = this.getDurationStats(dao);
+                JobRunState previousRun = this.findRecoverableRun(dao);
+                if (previousRun != null) {
+                    requestedAfter = this.reattach(dao, previousRun);
+                    this.outputLogsAfter = requestedAfter;
+                } else {
+                    //runs requested after this moment are ours
+                    requestedAfter = this.isRunTracked() ? dao.getServerTime() : null;
+                    this.outputLogsAfter = requestedAfter != null || this.stepOutputListener == null ? requestedAfter
+                            : dao.getServerTime();
+                    this.serverTimeCapturedAtMillis = System.currentTimeMillis();
+                    this.startJob(dao);
+                    this.recordRun(requestedAfter);
+                }
+            }
+            this.metrics.runEntered(this.jobMetrics);
+            try {
+                this.waitForJobExecution(requestedAfter);
+            } finally {
+                this.metrics.runExited(this.jobMetrics);
+            }
+        } catch (InterruptedException | SQLTimeoutException | ServerUnavailableException ex) {
+            //reported as such by the step
+            throw ex;
         } catch (Exception ex) {
             throw new SQLException(ex);
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * Resolves the job through the {@link JobMetadataCache} of the server and checks that the step exists,
+     * so a wrong job or step name is reported before anything is started.
+     */
+    private JobMetadata resolveJob(SqlServerJobDao dao) throws SQLException {
+        JobMetadataCache cache = JobMetadataCache.forServer(this.serverName, this.port, this.userName, this.password);
+        JobMetadata job = cache.resolve(dao, this.jobName);
+        if (job == null) {
+            throw new SQLException("SQL Server Job with name='" + this.jobName + "' does not exist");
+        }
+        if (!Strings.isNullOrEmpty(this.stepName) && job.areStepsKnown() && !job.hasStep(this.stepName)) {
+            throw new SQLException("SQL Server Job with name='" + this.jobName + "' has no step with name='" + this.stepName +
+                    "'. Available steps: " + job.getStepNames());
+        }
+        logger.debug("Resolved job with name='{}' to {}", this.jobName, job);
+        return job;
+    }
+
+    /**
+     * Reads the usual duration of the job from the {@link JobDurationStatsCache} of the server, if the poll strategy
+     * uses it. The strategy falls back to its default schedule if it can't be read.
+     */
+    private JobDurationStats getDurationStats(SqlServerJobDao dao) {
+        if (!this.pollStrategy.usesJobHistory() || this.completionDetectionMode != CompletionDetectionMode.POLL) {
+            return null;
+        }
+        try {
+            JobDurationStats stats = JobDurationStatsCache.forServer(this.serverName, this.port, this.userName, this.password)
+                    .get(dao, this.jobId, Strings.emptyToNull(this.stepName));
+            logger.info("Job with name='{}' usually runs for {}", this.jobName, stats == null ? "an unknown time" : stats);
+            return stats;
+        } catch (SQLException ex) {
+            logger.warn("Could not read the duration of job with name='{}', polling without it", this.jobName, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Starts the history feed from the last history row of the job, for a reattached run whose feed position wasn't
+     * recorded. A started run reads that row together with the start, see {@link #startJob(SqlServerJobDao)}.
+     * Logins that can't read msdb.dbo.sysjobhistory get no progress, but the job still runs.
+     */
+    private JobHistoryFeed openHistoryFeed(SqlServerJobDao dao) throws SQLException {
+        if (this.progressListener == null) {
+            return null;
+        }
+        long lastInstanceId;
+        try {
+            lastInstanceId = dao.getLastHistoryInstanceId(this.jobId);
+        } catch (SQLException ex) {
+            if (ex.getErrorCode() != PERMISSION_DENIED_ERROR) {
+                throw ex;
+            }
+            lastInstanceId = -1;
+        }
+        return this.newHistoryFeed(lastInstanceId);
+    }
+
+    /**
+     * @param lastInstanceId The last history row of the job before the run, -1 if the login can't read
+     *                       msdb.dbo.sysjobhistory
+     */
+    private JobHistoryFeed newHistoryFeed(long lastInstanceId) {
+        if (lastInstanceId < 0) {
+            logger.warn("No permission to read msdb.dbo.sysjobhistory, the progress of job with name='{}' is not reported",
+                    this.jobName);
+            return null;
+        }
+        return new JobHistoryFeed(this.jobName, lastInstanceId, this.progressListener);
+    }
+
+    /**
+     * Looks for a run recorded by a previous execution of the step that can be reattached: a run that is still going,
+     * or a finished run started by this same Rundeck execution, whose outcome was never seen (e.g. the connection
+     * was lost while waiting and the step was retried). Other records are stale and removed.
+     * <p>
+     * The current run of the job must be the recorded one, and not a run started since by the job schedule or by
+     * hand. A tracked run is identified by its request date. An untracked run can't be told apart, it is only
+     * reattached by the Rundeck execution that started it.
+     */
+    private JobRunState findRecoverableRun(SqlServerJobDao dao) throws SQLException {
+        if (this.stateStore == null) {
+            return null;
+        }
+        JobRunState state = this.stateStore.load(this.serverName, this.port, this.jobName);
+        if (state == null) {
+            return null;
+        }
+        //a job with the same name, but another job_id, was recreated since the run
+        if (this.jobId.equalsIgnoreCase(state.getJobId())) {
+            CurrentExecutionStatus currentStatus = CurrentExecutionStatus.valueOf(dao.getCurrentExecutionStatus(this.jobId));
+            boolean running = currentStatus != CurrentExecutionStatus.Idle && currentStatus != CurrentExecutionStatus.Unknown;
+            boolean sameExecution = this.executionId != null && this.executionId.equals(state.getExecutionId());
+            if (state.getRequestedAfter() != null) {
+                JobRunStatus run = dao.getJobRunStatus(this.jobId, state.getRequestedAfter());
+                if (isRecordedRun(run, state)) {
+                    if (running && !run.isFinished()) {
+                        logger.info("Job with name='{}' is still running since it was started by execution={}, " +
+                                "reattaching to the run", this.jobName, state.getExecutionId());
+                        return state;
+                    }
+                    if (sameExecution && run.isFinished()) {
+                        logger.info("Job with name='{}' finished the run started by this execution, reporting its outcome",
+                                this.jobName);
+                        return state;
+                    }
+                }
+            } else if (running && sameExecution) {
+                logger.info("Job with name='{}' is still running since it was started by this execution, reattaching to the run",
+                        this.jobName);
+                return state;
+            }
+            if (running) {
+                logger.warn("Job with name='{}' is running, but not the run recorded by execution={}, it is left alone",
+                        this.jobName, state.getExecutionId());
+            }
+        }
+        this.stateStore.remove(this.serverName, this.port, this.jobName);
+        return null;
+    }
+
+    /**
+     * Whether the latest run of the job was requested when the recorded run was started
+     */
+    private static boolean isRecordedRun(JobRunStatus run, JobRunState state) {
+        Timestamp requestedDate = run.getRequestedDate();
+        return requestedDate != null && !requestedDate.before(state.getRequestedAfter())
+                && requestedDate.getTime() <= state.getRequestedAfter().getTime() + RECORDED_RUN_REQUEST_MARGIN_MILLIS;
+    }
+
+    /**
+     * Continues from the recorded run instead of starting the job. The history feed restarts from the beginning
+     * of the run, so the steps that finished before the step was executed again are reported too.
+     *
+     * @return The server time captured before the run was started
+     */
+    private Timestamp reattach(SqlServerJobDao dao, JobRunState state) throws SQLException {
+        this.reattached = true;
+        this.startedAtMillis = state.getStartedAtMillis();
+        this.serverTimeCapturedAtMillis = state.getStartedAtMillis();
+        long now = System.currentTimeMillis();
+        if (this.timeoutMillis > 0 && state.getStartedAtMillis() + this.timeoutMillis <= now) {
+            //the recorded start time may come from another host, or be left over from a crash long ago
+            logger.warn("Job with name='{}' was started {} ms ago, more than the timeout, the timeout counts from now",
+                    this.jobName, now - state.getStartedAtMillis());
+            this.timeoutFromMillis = now;
+        } else {
+            this.timeoutFromMillis = state.getStartedAtMillis();
+        }
+        if (this.progressListener != null && state.getLastHistoryInstanceId() > 0) {
+            this.historyFeed = new JobHistoryFeed(this.jobName, state.getLastHistoryInstanceId(), this.progressListener);
+        } else {
+            this.historyFeed = this.openHistoryFeed(dao);
+        }
+        if (state.getRequestedAfter() == null && this.isRunTracked()) {
+            //recorded without tracking, the run we reattach to is the latest one of the job
+            return new Timestamp(0);
+        }
+        return state.getRequestedAfter();
+    }
+
+    private void recordRun(Timestamp requestedAfter) {
+        if (this.stateStore != null) {
+            this.stateStore.save(new JobRunState(this.serverName, this.port, this.jobName, this.jobId, requestedAfter,
+                    this.startedAtMillis, this.historyFeed == null ? 0 : this.historyFeed.getLastInstanceId(), this.executionId));
+        }
+    }
+
+    /**
+     * Reads the history rows written since the last read, if the run has a history feed
+     */
+    private void readJobHistory(SqlServerJobDao dao) throws SQLException {
+        if (this.historyFeed != null) {
+            dao.readJobHistory(this.jobId, this.historyFeed);
         }
     }
 
     private void startJob(SqlServerJobDao dao) throws SQLException {
-        dao.startJob(this.jobName, this.stepName);
+        long startedAt = System.nanoTime();
+        try {
+            if (this.progressListener == null) {
+                dao.startJob(this.jobId, this.stepName);
+            } else {
+                //the starting point of the history feed is read in the same round trip as the start
+                this.historyFeed = this.newHistoryFeed(dao.startJobAndGetLastHistoryInstanceId(this.jobId, this.stepName));
+            }
+            this.startedAtMillis = System.currentTimeMillis();
+            this.metrics.jobStarted(System.nanoTime() - startedAt);
+        } catch (SQLException ex) {
+            //the job might have been deleted or changed since it was cached
+            JobMetadataCache.forServer(this.serverName, this.port, this.userName, this.password).invalidate(this.jobName);
+            throw ex;
+        }
+    }
+
+    public String getJobName() {
+        return jobName;
     }
 
     public SqlServerJobDao getSqlServerJobDao() throws SQLException {
-        SqlServerJobDao dao = new SqlServerJobDaoImpl(this.serverName, this.port, this.userName, this.password);
+        if (this.dao == null) {
+            this.dao = this.daoFactory.create(this.serverName, this.port, this.userName, this.password);
+        }
 
-        return dao;
+        return this.dao;
     }
 
     /**
-     * Methods that uses sp_help_job SQL Server stored procedure to check the stored procedure status.
+     * Whether the status checks identify the run we started, using the msdb activity tables
+     */
+    private boolean isRunTracked() {
+        return this.statusQueryMode == StatusQueryMode.ACTIVITY
+                || this.completionDetectionMode != CompletionDetectionMode.POLL;
+    }
+
+    /**
+     * Waits for the job to finish, as configured by the {@link CompletionDetectionMode}, and checks its outcome.
      *
-     * @param dao
+     * @param requestedAfter Server time captured before starting the job, null if the run is not tracked
      * @throws SQLException If the job fails, SQLException is thrown
      */
-    private void waitForJobExecution(SqlServerJobDao dao) throws SQLException, InterruptedException {
-        boolean isFinished = false;
-        while (!isFinished) {
-            //normally sleep should be at the end of the loop, but apparently SQL Server doesn't
-            //change the job status immediately, so we can risk not getting the correct status
-            //immediately after we start the job
-            logger.debug("Job with name={} in progress. Waiting for {} seconds until next check...", this.jobName, SLEEP_INTERVAL_BETWEEN_JOB_CHECKS);
-            Thread.sleep(SLEEP_INTERVAL_BETWEEN_JOB_CHECKS * 1000);
-
-            int currentExecutionStatus = dao.getCurrentExecutionStatus(this.jobName);
-            logger.debug("Job name='{}', current_execution_status={}", this.jobName, currentExecutionStatus);
-
-            ExecutionStatus currentStatus = ExecutionStatus.valueOf(currentExecutionStatus);
-            isFinished = ExecutionStatus.Idle == currentStatus;
-            logger.debug("isFinished={}", isFinished);
-            //job finished, check final status
-            if (isFinished) {
-                ExecutionStatus finalStatus = ExecutionStatus.valueOf(dao.getLastExecutionStatus(this.jobName));
-                if (finalStatus != ExecutionStatus.Succeeded) {
-                    //the job failed, raise SQL Exception
-                    logger.error("Job with name='{}' failed with status={}", this.jobName, finalStatus);
-                    throw new SQLException("SQL Server Job with name='{"+this.jobName+"}' " +
-                            "failed with status={"+finalStatus+"}. Check SQL Server logs for more details.");
-                } else {
-                    //Successful execution
-                    logger.info("Job with name='{}' processed successfully", this.jobName);
+    private void waitForJobExecution(Timestamp requestedAfter) throws SQLException, InterruptedException {
+        JobRunStatus status;
+        try {
+            if (this.completionDetectionMode == CompletionDetectionMode.SHARED_MONITOR) {
+                status = this.waitForSharedMonitor(requestedAfter);
+            } else if (this.completionDetectionMode == CompletionDetectionMode.LONG_POLL) {
+                status = this.waitForLongPoll(requestedAfter);
+            } else {
+                status = this.pollJobStatus(requestedAfter);
+            }
+        } catch (InterruptedException ex) {
+            //the Rundeck execution was killed, the job must not keep running without anyone waiting for it
+            logger.warn("Waiting for job with name='{}' was interrupted, stopping the job", this.jobName);
+            this.stopRun();
+            throw ex;
+        }
+        if (status == null) {
+            logger.error("Job with name='{}' did not finish in {} ms, stopping the job", this.jobName, this.timeoutMillis);
+            this.stopRun();
+            throw new SQLTimeoutException("SQL Server Job with name='{"+this.jobName+"}' did not finish in "
+                    + TimeUnit.MILLISECONDS.toSeconds(this.timeoutMillis) + " seconds and was stopped");
+        }
+        //the outcome is reported below, so the run is not reattached anymore
+        if (this.stateStore != null) {
+            this.stateStore.remove(this.serverName, this.port, this.jobName);
+        }
+        this.readStepOutputLogs();
+
+        //job finished, check final status
+        ExecutionStatus finalStatus = status.getOutcome();
+        this.metrics.runFinished(this.jobMetrics, finalStatus == ExecutionStatus.Succeeded,
+                System.currentTimeMillis() - this.startedAtMillis, this.statusChecks,
+                this.getCompletionLagMillis(status, requestedAfter));
+        if (finalStatus != ExecutionStatus.Succeeded) {
+            //the job failed, raise SQL Exception
+            logger.error("Job with name='{}' failed with status={}", this.jobName, finalStatus);
+            JobStepHistory failedStep = this.historyFeed == null ? null : this.historyFeed.getLastFailure();
+            if (failedStep != null) {
+                throw new SQLException("SQL Server Job with name='{"+this.jobName+"}' " +
+                        "failed with status={"+finalStatus+"} at step '"+failedStep.getStepName()+"': "+failedStep.getMessage());
+            }
+            throw new SQLException("SQL Server Job with name='{"+this.jobName+"}' " +
+                    "failed with status={"+finalStatus+"}. Check SQL Server logs for more details.");
+        } else {
+            //Successful execution
+            logger.info("Job with name='{}' processed successfully", this.jobName);
+        }
+    }
+
+    /**
+     * Streams the output logs written by the steps of the finished run to the step output listener, if there is one.
+     * The logs are only extra information, failing to read them doesn't fail the step.
+     */
+    private void readStepOutputLogs() {
+        if (this.stepOutputListener == null) {
+            return;
+        }
+        StepOutputFeed feed = new StepOutputFeed(this.jobName, this.stepOutputListener);
+        try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+            dao.readStepOutputLogs(this.jobId, this.outputLogsAfter == null ? new Timestamp(0) : this.outputLogsAfter, feed);
+            logger.debug("Read {} characters of step output logs for job with name='{}'", feed.getCharsRead(), this.jobName);
+        } catch (SQLException ex) {
+            logger.warn("Could not read the step output logs of job with name='{}'", this.jobName, ex);
+        }
+    }
+
+    /**
+     * Stops the run with sp_stop_job and waits up to {@value #STOP_WAIT_MILLIS} ms for SQL Agent to end it, so the
+     * step only reports once the job no longer runs. The step fails anyway, so errors are only logged.
+     */
+    private void stopRun() {
+        try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+            try {
+                dao.stopJob(this.jobId);
+            } catch (SQLException ex) {
+                if (ex.getErrorCode() != JOB_NOT_RUNNING_ERROR) {
+                    throw ex;
+                }
+                logger.info("Job with name='{}' finished before it could be stopped", this.jobName);
+            }
+            long deadline = System.currentTimeMillis() + STOP_WAIT_MILLIS;
+            while (CurrentExecutionStatus.valueOf(dao.getCurrentExecutionStatus(this.jobId)) != CurrentExecutionStatus.Idle) {
+                if (System.currentTimeMillis() >= deadline) {
+                    logger.warn("Job with name='{}' is still running {} ms after it was asked to stop", this.jobName,
+                            STOP_WAIT_MILLIS);
                     return;
                 }
+                Thread.sleep(STOP_CHECK_INTERVAL_MILLIS);
+            }
+            logger.info("Job with name='{}' was stopped", this.jobName);
+            //the run is over, there is nothing to reattach to
+            if (this.stateStore != null) {
+                this.stateStore.remove(this.serverName, this.port, this.jobName);
             }
+        } catch (SQLException ex) {
+            logger.error("Could not stop job with name='{}', it may still be running", this.jobName, ex);
+        } catch (InterruptedException ex) {
+            //interrupted again while waiting, the stop was already requested
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * @return The time left until the timeout of the step, {@link Long#MAX_VALUE} if the step has no timeout
+     */
+    private long getRemainingMillis() {
+        if (this.timeoutMillis <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return this.timeoutFromMillis + this.timeoutMillis - System.currentTimeMillis();
+    }
+
+    /**
+     * Time between the end of the run, as recorded by SQL Agent, and the moment we noticed it. The stop date uses the
+     * server clock, so it is compared to the server time captured before the start plus the local time elapsed since.
+     *
+     * @return The lag, or -1 if the stop date of the run is not known (sp_help_job status)
+     */
+    private long getCompletionLagMillis(JobRunStatus status, Timestamp requestedAfter) {
+        if (status.getStopDate() == null || requestedAfter == null) {
+            return -1;
+        }
+        long noticedAtServerMillis = requestedAfter.getTime() + System.currentTimeMillis() - this.serverTimeCapturedAtMillis;
+        return Math.max(0, noticedAtServerMillis - status.getStopDate().getTime());
+    }
+
+    /**
+     * Checks the job status until the job finishes, using either sp_help_job or the msdb activity tables,
+     * depending on the configured {@link StatusQueryMode}.
+     * The checks are spaced out by the {@link PollSchedule} of the configured {@link PollStrategy}.
+     *
+     * @param requestedAfter Server time captured before starting the job, only used for {@link StatusQueryMode#ACTIVITY}
+     * @return The status of the finished run, null if the timeout expired first
+     */
+    private JobRunStatus pollJobStatus(Timestamp requestedAfter) throws SQLException, InterruptedException {
+        PollSchedule schedule = this.pollStrategy.newSchedule(this.maxPollIntervalMillis, this.durationStats, this.startedAtMillis);
+        TransientErrorRecovery recovery = this.newRecovery();
+        long waitStartedAt = System.currentTimeMillis();
+        boolean seenRunning = this.reattached;
+        CurrentExecutionStatus currentStatus = null;
+        while (true) {
+            long remaining = this.getRemainingMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            //the last check is done when the timeout expires
+            long delay = Math.min(schedule.nextDelayMillis(currentStatus), remaining);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Job with name={} in progress. Waiting for {} ms until next check...", this.jobName, delay);
+            }
+            Thread.sleep(delay);
+
+            boolean trustIdle = seenRunning || System.currentTimeMillis() - waitStartedAt >= STARTUP_GRACE_MILLIS;
+            JobRunStatus status;
+            try {
+                status = this.checkStatus(requestedAfter, trustIdle);
+            } catch (SQLException ex) {
+                this.recover(recovery, ex);
+                continue;
+            }
+            recovery.succeeded();
+            if (status.isFinished()) {
+                return status;
+            }
+            currentStatus = status.getCurrentStatus();
+            seenRunning |= CurrentExecutionStatus.Idle != currentStatus;
+        }
+    }
+
+    /**
+     * A single status check of the poll loop. The DAO of the run only borrows a connection, whose statements are
+     * cached. With {@link StatusQueryMode#HELP_JOB}, checks of a running job allocate nothing besides what the driver
+     * needs, the statuses are shared instances. With {@link StatusQueryMode#ACTIVITY}, the status of a running job
+     * carries the dates of the run, so each check allocates one.
+     *
+     * @param requestedAfter Server time captured before starting the job, only used for {@link StatusQueryMode#ACTIVITY}
+     * @param trustIdle Whether an idle job is considered finished, only used for {@link StatusQueryMode#HELP_JOB}
+     */
+    JobRunStatus checkStatus(Timestamp requestedAfter, boolean trustIdle) throws SQLException {
+        JobRunStatus status;
+        long checkStartedAt = System.nanoTime();
+        try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+            //with either query, the history delta comes back in the same round trip as the status
+            if (this.statusQueryMode == StatusQueryMode.ACTIVITY) {
+                status = this.historyFeed == null ? dao.getJobRunStatus(this.jobId, requestedAfter)
+                        : dao.getJobRunStatus(this.jobId, requestedAfter, this.historyFeed);
+            } else {
+                status = this.getHelpJobStatus(dao, trustIdle);
+            }
+        }
+        this.statusChecks++;
+        this.metrics.statusChecked(System.nanoTime() - checkStartedAt);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Job name='{}', status={}", this.jobName, status);
+        }
+        return status;
+    }
+
+    /**
+     * Registers the run with the {@link JobStatusMonitor} of the server and waits until the monitor sees it finished.
+     *
+     * @param requestedAfter Server time captured before starting the job
+     * @return The status of the finished run, null if the timeout expired first
+     */
+    private JobRunStatus waitForSharedMonitor(Timestamp requestedAfter) throws SQLException, InterruptedException {
+        JobStatusMonitor monitor = this.statusMonitor != null ? this.statusMonitor
+                : JobStatusMonitor.forServer(this.serverName, this.port, this.userName, this.password, this.daoFactory);
+        TransientErrorRecovery recovery = this.newRecovery();
+        while (true) {
+            //registered again after the monitor gave up on an error, it finds the same run by its request time
+            long registeredAtMillis = System.currentTimeMillis();
+            ListenableFuture<JobRunStatus> future = monitor.register(this.jobId, requestedAfter);
+            try {
+                JobRunStatus status = this.awaitSharedMonitor(monitor, future, registeredAtMillis, recovery);
+                if (status == null) {
+                    future.cancel(false);
+                    return null;
+                }
+                //the rows written since the last read while waiting
+                if (this.historyFeed != null) {
+                    try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+                        this.readJobHistory(dao);
+                    }
+                }
+                return status;
+            } catch (InterruptedException ex) {
+                future.cancel(false);
+                throw ex;
+            } catch (ExecutionException ex) {
+                SQLException failure = ex.getCause() instanceof SQLException ? (SQLException) ex.getCause()
+                        : new SQLException("Could not monitor SQL Server job with name='" + this.jobName + "'", ex.getCause());
+                this.recover(recovery, failure);
+            } catch (SQLException ex) {
+                this.recover(recovery, ex);
+            }
+        }
+    }
+
+    /**
+     * Waits until the monitor sees the run finished. The monitor only reads the status of the runs, so while the run
+     * goes on, its history is read by the step itself, every max poll interval. The outage that made the monitor
+     * give up ends with the first successful check after the registration, so a later outage gets a whole recovery
+     * window again.
+     *
+     * @return The status of the finished run, null if the timeout expired first
+     */
+    private JobRunStatus awaitSharedMonitor(JobStatusMonitor monitor, ListenableFuture<JobRunStatus> future,
+                                            long registeredAtMillis, TransientErrorRecovery recovery)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            long remaining = this.getRemainingMillis();
+            long wait = Math.min(remaining, this.maxPollIntervalMillis);
+            try {
+                return future.get(wait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                if (wait == remaining) {
+                    return null;
+                }
+            }
+            if (monitor.getLastCheckedAtMillis() >= registeredAtMillis) {
+                recovery.succeeded();
+            }
+            if (this.historyFeed == null) {
+                continue;
+            }
+            //the progress is only extra information, the rows are read again after a failed read
+            try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+                this.readJobHistory(dao);
+                recovery.succeeded();
+            } catch (SQLException ex) {
+                logger.warn("Could not read the history of job with name='{}': {}", this.jobName, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lets SQL Server wait for the run to finish, in windows of {@value #LONG_POLL_WINDOW_SECONDS} seconds.
+     *
+     * @param requestedAfter Server time captured before starting the job
+     * @return The status of the finished run, null if the timeout expired first
+     */
+    private JobRunStatus waitForLongPoll(Timestamp requestedAfter) throws SQLException, InterruptedException {
+        TransientErrorRecovery recovery = this.newRecovery();
+        while (true) {
+            long remaining = this.getRemainingMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            //the last window ends when the timeout expires
+            int windowSeconds = (int) Math.min(LONG_POLL_WINDOW_SECONDS, (remaining + 999) / 1000);
+            JobRunStatus status;
+            try (SqlServerJobDao dao = this.getSqlServerJobDao()) {
+                status = dao.waitForJobRunCompletion(this.jobId, requestedAfter, windowSeconds);
+                this.readJobHistory(dao);
+            } catch (SQLException ex) {
+                this.recover(recovery, ex);
+                continue;
+            }
+            recovery.succeeded();
+            this.statusChecks++;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Job name='{}', status={}", this.jobName, status);
+            }
+
+            if (status.isFinished()) {
+                return status;
+            }
+            //the call blocks in the driver, so interrupts are only noticed between windows
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Interrupted while waiting for SQL Server job with name='" + this.jobName + "'");
+            }
+        }
+    }
+
+    /**
+     * Waits before the run is checked again after a transient error, see {@link TransientErrorRecovery}.
+     * The job was started already, so the step only resumes tracking it and never starts it again.
+     *
+     * @throws SQLException The given error, if it is not transient or the recovery window is over
+     */
+    private TransientErrorRecovery newRecovery() {
+        String runName = "job with name='" + this.jobName + "'";
+        return this.recoveryMillis > 0 ? new TransientErrorRecovery(runName, this.recoveryMillis)
+                : new TransientErrorRecovery(runName);
+    }
+
+    private void recover(TransientErrorRecovery recovery, SQLException ex) throws SQLException, InterruptedException {
+        recovery.recover(ex, this.getRemainingMillis());
+        this.metrics.monitorErrorRecovered();
+    }
+
+    /**
+     * Reads the job status with sp_help_job. The outcome is only read once the job is idle, with a second call.
+     *
+     * @param dao
+     * @param trustIdle SQL Server doesn't change the job status immediately after sp_start_job, so an idle job
+     *                  is only considered finished if it was seen running, or enough time passed since it was started
+     */
+    private JobRunStatus getHelpJobStatus(SqlServerJobDao dao, boolean trustIdle) throws SQLException {
+        if (this.historyFeed != null) {
+            JobRunStatus status = dao.getHelpJobStatus(this.jobId, this.historyFeed);
+            return status.isFinished() && !trustIdle ? JobRunStatus.unfinished(status.getCurrentStatus()) : status;
+        }
+        CurrentExecutionStatus currentStatus = CurrentExecutionStatus.valueOf(dao.getCurrentExecutionStatus(this.jobId));
+        if (CurrentExecutionStatus.Idle != currentStatus || !trustIdle) {
+            return JobRunStatus.unfinished(currentStatus);
+        }
+
+        ExecutionStatus outcome = ExecutionStatus.valueOf(dao.getLastExecutionStatus(this.jobId));
+        return new JobRunStatus(currentStatus, outcome, null, null, null);
+    }
+
     public static class SqlServerJobBuilder {
         private String nestedServerName;
         private int nestedPort;
@@ -97,6 +718,19 @@ public class SqlServerJob {
         private String nestedPassword;
         private String nestedJobName;
         private String nestedStepName;
+        private PollStrategy nestedPollStrategy = PollStrategy.ADAPTIVE;
+        private long nestedMaxPollIntervalMillis = DEFAULT_MAX_POLL_INTERVAL_MILLIS;
+        private StatusQueryMode nestedStatusQueryMode = StatusQueryMode.HELP_JOB;
+        private CompletionDetectionMode nestedCompletionDetectionMode = CompletionDetectionMode.POLL;
+        private long nestedTimeoutMillis;
+        private JobProgressListener nestedProgressListener;
+        private StepOutputListener nestedStepOutputListener;
+        private SqlServerJobDaoFactory nestedDaoFactory;
+        private JobRunStateStore nestedStateStore;
+        private String nestedExecutionId;
+        private int nestedPriority;
+        private JobStatusMonitor nestedStatusMonitor;
+        private long nestedRecoveryMillis;
 
         public SqlServerJobBuilder() {
 
@@ -132,6 +766,91 @@ public class SqlServerJob {
             return this;
         }
 
+        public SqlServerJobBuilder pollStrategy(PollStrategy pollStrategy) {
+            this.nestedPollStrategy = pollStrategy;
+            return this;
+        }
+
+        public SqlServerJobBuilder maxPollIntervalMillis(long maxPollIntervalMillis) {
+            this.nestedMaxPollIntervalMillis = maxPollIntervalMillis;
+            return this;
+        }
+
+        public SqlServerJobBuilder statusQueryMode(StatusQueryMode statusQueryMode) {
+            this.nestedStatusQueryMode = statusQueryMode;
+            return this;
+        }
+
+        public SqlServerJobBuilder completionDetectionMode(CompletionDetectionMode completionDetectionMode) {
+            this.nestedCompletionDetectionMode = completionDetectionMode;
+            return this;
+        }
+
+        /**
+         * Max run time of the job, after which it is stopped with sp_stop_job and the step fails.
+         * If not set, the plugin-wide default is used (<b>ro.dpa.rundeck.sqlserver.job.timeoutSeconds</b>, none by default)
+         */
+        public SqlServerJobBuilder timeoutMillis(long timeoutMillis) {
+            this.nestedTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public SqlServerJobBuilder progressListener(JobProgressListener progressListener) {
+            this.nestedProgressListener = progressListener;
+            return this;
+        }
+
+        /**
+         * Receives the output of the steps that log to table, once the run is finished. Not read if null
+         */
+        public SqlServerJobBuilder stepOutputListener(StepOutputListener stepOutputListener) {
+            this.nestedStepOutputListener = stepOutputListener;
+            return this;
+        }
+
+        /**
+         * Records the run, so a step executed again while it runs attaches to it. Runs are not recorded if null.
+         */
+        public SqlServerJobBuilder stateStore(JobRunStateStore stateStore) {
+            this.nestedStateStore = stateStore;
+            return this;
+        }
+
+        /**
+         * The Rundeck execution running the step, kept in the run record
+         */
+        public SqlServerJobBuilder executionId(String executionId) {
+            this.nestedExecutionId = executionId;
+            return this;
+        }
+
+        /**
+         * When the server already runs as many jobs as allowed by {@link JobAdmissionControl}, the waiting steps with
+         * a higher priority are started first. 0 by default
+         */
+        public SqlServerJobBuilder priority(int priority) {
+            this.nestedPriority = priority;
+            return this;
+        }
+
+        //lets the benchmarks run jobs against a fake DAO
+        SqlServerJobBuilder daoFactory(SqlServerJobDaoFactory daoFactory) {
+            this.nestedDaoFactory = daoFactory;
+            return this;
+        }
+
+        //lets the tests tick the shared monitor faster
+        SqlServerJobBuilder statusMonitor(JobStatusMonitor statusMonitor) {
+            this.nestedStatusMonitor = statusMonitor;
+            return this;
+        }
+
+        //lets the tests shorten the recovery window of the transient errors
+        SqlServerJobBuilder recoveryMillis(long recoveryMillis) {
+            this.nestedRecoveryMillis = recoveryMillis;
+            return this;
+        }
+
         public SqlServerJob build() throws ConfigurationException {
             SqlServerJob job = new SqlServerJob();
             //check for mandatory params
@@ -148,6 +867,21 @@ public class SqlServerJob {
             job.password = this.nestedPassword;
             job.jobName = this.nestedJobName;
             job.stepName = this.nestedStepName;
+            job.pollStrategy = this.nestedPollStrategy == null ? PollStrategy.ADAPTIVE : this.nestedPollStrategy;
+            job.maxPollIntervalMillis = this.nestedMaxPollIntervalMillis > 0 ? this.nestedMaxPollIntervalMillis
+                    : DEFAULT_MAX_POLL_INTERVAL_MILLIS;
+            job.statusQueryMode = this.nestedStatusQueryMode == null ? StatusQueryMode.HELP_JOB : this.nestedStatusQueryMode;
+            job.completionDetectionMode = this.nestedCompletionDetectionMode == null ? CompletionDetectionMode.POLL
+                    : this.nestedCompletionDetectionMode;
+            job.timeoutMillis = this.nestedTimeoutMillis > 0 ? this.nestedTimeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+            job.progressListener = this.nestedProgressListener;
+            job.stepOutputListener = this.nestedStepOutputListener;
+            job.daoFactory = this.nestedDaoFactory == null ? SqlServerJobDaoFactory.DEFAULT : this.nestedDaoFactory;
+            job.stateStore = this.nestedStateStore;
+            job.executionId = this.nestedExecutionId;
+            job.priority = this.nestedPriority;
+            job.statusMonitor = this.nestedStatusMonitor;
+            job.recoveryMillis = this.nestedRecoveryMillis;
 
             return job;
         }
@@ -162,6 +896,13 @@ public class SqlServerJob {
                 ", password='" + password + '\'' +
                 ", jobName='" + jobName + '\'' +
                 ", stepName='" + stepName + '\'' +
+                ", pollStrategy=" + pollStrategy +
+                ", maxPollIntervalMillis=" + maxPollIntervalMillis +
+                ", statusQueryMode=" + statusQueryMode +
+                ", completionDetectionMode=" + completionDetectionMode +
+                ", timeoutMillis=" + timeoutMillis +
+                ", priority=" + priority +
+                ", jobId='" + jobId + '\'' +
                 '}';
     }
 }
@@ -1,9 +1,15 @@
 package ro.dpa.rundeck.plugins.sqlserver;
 
-import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
+ * Jobs are addressed by job_id, resolved from the job name with {@link #getJobMetadata(Timestamp)}
+ * or {@link #getJobId(String)} (see {@link JobMetadataCache}).
+ *
  * Created by dumitru.pascu on 3/31/2017.
  */
 public interface SqlServerJobDao extends AutoCloseable {
@@ -12,39 +18,191 @@ public interface SqlServerJobDao extends AutoCloseable {
      * Refer {@https://docs.microsoft.com/en-us/sql/relational-databases/system-stored-procedures/sp-start-job-transact-sql here} for
      * detailed information about this stored procedure
      *
-     * @param jobName The job name
+     * @param jobId The job_id of the job
      * @param stepName The step name. If null or empty, job will start from the first step
      * @throws SQLException
      */
-    public void startJob(String jobName, String stepName) throws SQLException;
+    public void startJob(String jobId, String stepName) throws SQLException;
+
+    /**
+     * Same as {@link #startJob(String, String)}, but first reads the instance_id of the last msdb.dbo.sysjobhistory
+     * row of the job, in the same round trip. It is the starting point of the {@link JobHistoryFeed} of the run.
+     *
+     * @param jobId The job_id of the job
+     * @param stepName The step name. If null or empty, job will start from the first step
+     * @return The instance_id, 0 if the job has no history, -1 if the login can't read msdb.dbo.sysjobhistory
+     * @throws SQLException
+     */
+    public long startJobAndGetLastHistoryInstanceId(String jobId, String stepName) throws SQLException;
+
+    /**
+     * Stops the running job with sp_stop_job. SQL Agent cancels the current step and records the run as canceled.
+     * Refer {@https://docs.microsoft.com/en-us/sql/relational-databases/system-stored-procedures/sp-stop-job-transact-sql here}
+     *
+     * @param jobId The job_id of the job
+     * @throws SQLException Error 22022 if the job is not running
+     */
+    public void stopJob(String jobId) throws SQLException;
 
     /**
      * Returns the <b>current_execution_status</b> of the selected SQL Server job
      *
-     * @param jobName
+     * @param jobId
      * @return The execution status (int value, as it is in DB)
      * @throws SQLException
      */
-    public int getCurrentExecutionStatus(String jobName) throws SQLException;
+    public int getCurrentExecutionStatus(String jobId) throws SQLException;
 
     /**
      * Returns the <b>last_run_outcome</b> of the selected SQL Server job
      *
-     * @param jobName
+     * @param jobId
      * @return
      * @throws SQLException
      */
-    public int getLastExecutionStatus(String jobName) throws SQLException;
+    public int getLastExecutionStatus(String jobId) throws SQLException;
+
+    /**
+     * Reads the <b>current_execution_status</b> and <b>last_run_outcome</b> of the selected SQL Server job with
+     * sp_help_job, and the history rows written since the high-water mark of the feed, in the same round trip.
+     *
+     * @param jobId
+     * @param feed The history feed of the run
+     * @return An idle status with last_run_outcome as outcome if the job is idle, an unfinished status otherwise.
+     * Right after sp_start_job the job can still be idle, with the outcome of its previous run
+     * @throws SQLException
+     */
+    public JobRunStatus getHelpJobStatus(String jobId, JobHistoryFeed feed) throws SQLException;
 
     /**
-     * Creates a SQL Connection
+     * Returns the current date and time of the SQL Server. Used to identify the runs requested after this moment.
      *
-     * @param serverName
-     * @param port
-     * @param userName
-     * @param password
      * @return
      * @throws SQLException
      */
-    public Connection getConnection(String serverName, int port, String userName, String password) throws SQLException;
+    public Timestamp getServerTime() throws SQLException;
+
+    /**
+     * Returns the state of the latest run of the selected SQL Server job that was requested after the given moment,
+     * reading msdb.dbo.sysjobactivity and msdb.dbo.sysjobhistory in a single query.
+     *
+     * @param jobId
+     * @param requestedAfter Server time captured before the job was started, see {@link #getServerTime()}
+     * @return The run status. If SQL Agent didn't record the run yet, an idle, unfinished status is returned
+     * @throws SQLException
+     */
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException;
+
+    /**
+     * Same as {@link #getJobRunStatus(String, Timestamp)}, but also reads the history rows written since the
+     * high-water mark of the feed, in the same round trip, and hands them to the feed.
+     *
+     * @param jobId
+     * @param requestedAfter Server time captured before the job was started, see {@link #getServerTime()}
+     * @param feed The history feed of the run
+     * @return The run status
+     * @throws SQLException
+     */
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter, JobHistoryFeed feed) throws SQLException;
+
+    /**
+     * Returns the latest run of each of the selected SQL Server jobs, for the runs requested after the given moment.
+     * Works like {@link #getJobRunStatus(String, Timestamp)}, but checks all the jobs with a single query.
+     *
+     * @param jobIds
+     * @param requestedAfter
+     * @return The run status for each job_id (case insensitive). Jobs without a recorded run are missing from the map
+     * @throws SQLException
+     */
+    public Map<String, JobRunStatus> getLatestJobRunStatuses(Collection<String> jobIds, Timestamp requestedAfter) throws SQLException;
+
+    /**
+     * Waits on the server side until the latest run of the selected SQL Server job requested after the given moment
+     * finishes, or until the timeout expires. SQL Server checks msdb.dbo.sysjobactivity every 250 ms, in a
+     * WAITFOR DELAY loop, so the call returns less than a second after the run finishes, in a single round trip.
+     * The connection of the DAO is busy for the whole duration of the call.
+     *
+     * @param jobId
+     * @param requestedAfter Server time captured before the job was started, see {@link #getServerTime()}
+     * @param timeoutSeconds How long the server waits for the run to finish
+     * @return The run status, same as {@link #getJobRunStatus(String, Timestamp)}. Unfinished if the timeout expired
+     * @throws SQLException
+     */
+    public JobRunStatus waitForJobRunCompletion(String jobId, Timestamp requestedAfter, int timeoutSeconds) throws SQLException;
+
+    /**
+     * Returns the instance_id of the last msdb.dbo.sysjobhistory row of the selected SQL Server job, the starting
+     * point of a {@link JobHistoryFeed} for the next run.
+     *
+     * @param jobId
+     * @return The instance_id, 0 if the job has no history
+     * @throws SQLException
+     */
+    public long getLastHistoryInstanceId(String jobId) throws SQLException;
+
+    /**
+     * Reads the msdb.dbo.sysjobhistory rows of the selected SQL Server job written since the high-water mark
+     * of the feed, and hands them to the feed.
+     *
+     * @param jobId
+     * @param feed The history feed of the run
+     * @throws SQLException
+     */
+    public void readJobHistory(String jobId, JobHistoryFeed feed) throws SQLException;
+
+    /**
+     * Reads the output logs of the job steps that log to table, from msdb.dbo.sysjobstepslogs, and hands them to
+     * the feed. Each log is streamed, it is never held in memory as a whole.
+     *
+     * @param jobId
+     * @param modifiedSince Only the logs written since this moment are read, e.g. the server time captured before the run
+     * @param feed
+     * @throws SQLException
+     */
+    public void readStepOutputLogs(String jobId, Timestamp modifiedSince, StepOutputFeed feed) throws SQLException;
+
+    /**
+     * Reads the latest msdb.dbo.sysjobhistory rows of the selected SQL Server job, without their messages.
+     * Used to learn how long the job usually runs.
+     *
+     * @param jobId
+     * @param maxRows How many rows are read, counting both the step rows and the job outcome rows
+     * @return The rows, ordered by instance_id
+     * @throws SQLException
+     */
+    public List<JobStepHistory> getRecentJobHistory(String jobId, int maxRows) throws SQLException;
+
+    /**
+     * Reads the definition of the jobs modified since the given moment, from msdb.dbo.sysjobs and msdb.dbo.sysjobsteps
+     *
+     * @param modifiedSince Only the jobs with date_modified greater or equal to this value are returned
+     * @return
+     * @throws SQLException
+     */
+    public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException;
+
+    /**
+     * Reads the last run of every job of the server from msdb.dbo.sysjobservers, a single row per job
+     *
+     * @return The last runs, one for each existing job
+     * @throws SQLException
+     */
+    public List<JobLastRun> getLastJobRuns() throws SQLException;
+
+    /**
+     * Resolves the job_id of a job with sp_help_job, for logins that can't read msdb.dbo.sysjobs
+     *
+     * @param jobName
+     * @return The job_id, or null if the job doesn't exist
+     * @throws SQLException
+     */
+    public String getJobId(String jobName) throws SQLException;
+
+    /**
+     * Releases the connection used by the DAO, a closed DAO borrows a connection again when it is used
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException;
 }
@@ -0,0 +1,18 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.SQLException;
+
+/**
+ * Creates the DAOs used by the components that talk to a server on behalf of several jobs
+ */
+public interface SqlServerJobDaoFactory {
+
+    SqlServerJobDaoFactory DEFAULT = new SqlServerJobDaoFactory() {
+        @Override
+        public SqlServerJobDao create(String serverName, int port, String userName, String password) throws SQLException {
+            return new SqlServerJobDaoImpl(serverName, port, userName, password);
+        }
+    };
+
+    SqlServerJobDao create(String serverName, int port, String userName, String password) throws SQLException;
+}
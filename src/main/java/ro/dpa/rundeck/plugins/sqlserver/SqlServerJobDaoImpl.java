@@ -4,7 +4,17 @@ import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * DAO that manages the queries for creating / viewing
@@ -16,55 +26,197 @@ public class SqlServerJobDaoImpl implements SqlServerJobDao {
 
     private static final Logger logger = LoggerFactory.getLogger(SqlServerJobDaoImpl.class);
 
-    private Connection conn;
+    //statements are parameterized, so the server keeps a single plan for all the jobs, and are cached
+    //by the pooled connection, so they are prepared once per connection. They must not be closed after use.
+    private static final String START_JOB_CALL = "EXEC msdb.dbo.sp_start_job @job_id = ?, @step_name = ?";
+    //a login without SELECT permission on sysjobhistory can still start the job, the error is caught and -1 returned
+    private static final String START_JOB_AFTER_LAST_HISTORY_BATCH =
+            "SET NOCOUNT ON; " +
+            "DECLARE @job_id uniqueidentifier = ?, @step_name sysname = ?, @last_instance_id int = -1; " +
+            "BEGIN TRY " +
+            "SELECT @last_instance_id = ISNULL(MAX(instance_id), 0) FROM msdb.dbo.sysjobhistory WHERE job_id = @job_id; " +
+            "END TRY BEGIN CATCH END CATCH; " +
+            "EXEC msdb.dbo.sp_start_job @job_id = @job_id, @step_name = @step_name; " +
+            "SET NOCOUNT OFF; " +
+            "SELECT @last_instance_id";
+    private static final String STOP_JOB_CALL = "EXEC msdb.dbo.sp_stop_job @job_id = ?";
+    //the JOB aspect only returns the job result set, without the steps, schedules and target servers
+    private static final String HELP_JOB_CALL = "EXEC msdb.dbo.sp_help_job @job_id = ?, @job_aspect = N'JOB'";
+    private static final String HELP_JOB_BY_NAME_CALL = "EXEC msdb.dbo.sp_help_job @job_name = ?, @job_aspect = N'JOB'";
+    //sp_help_job error for a job that doesn't exist
+    private static final int JOB_NOT_FOUND_ERROR = 14262;
+    //the driver doesn't stop a blocked read when its thread is interrupted, so the metadata queries give up on their own
+    //instead of holding a pooled connection forever on a hung server
+    private static final int METADATA_QUERY_TIMEOUT_SECONDS =
+            Integer.getInteger("ro.dpa.rundeck.sqlserver.metadata.queryTimeoutSeconds", 30);
 
-    public SqlServerJobDaoImpl() {
+    private static final String JOB_METADATA_QUERY =
+            "SELECT j.job_id, j.name, j.date_modified, s.step_name " +
+            "FROM msdb.dbo.sysjobs j " +
+            "LEFT JOIN msdb.dbo.sysjobsteps s ON s.job_id = j.job_id " +
+            "WHERE j.date_modified >= ? " +
+            "ORDER BY j.job_id, s.step_id";
 
-    }
+    private static final String LAST_JOB_RUNS_QUERY =
+            "SELECT s.job_id, s.last_run_outcome, s.last_run_date, s.last_run_time, s.last_run_duration " +
+            "FROM msdb.dbo.sysjobservers s";
+
+    private static final String SERVER_TIME_QUERY = "SELECT GETDATE()";
+
+    //whether the run was requested before the last start of SQL Agent, which abandons the runs in progress
+    private static final String AGENT_RESTARTED_COLUMN =
+            "CASE WHEN a.session_id = (SELECT MAX(session_id) FROM msdb.dbo.syssessions) THEN 0 ELSE 1 END AS agent_restarted ";
+    //latest run of the job, together with its outcome (if finished). The run is matched by its request date and not by
+    //the current SQL Agent session, so a run cut short by a restart of SQL Agent is still found
+    private static final String JOB_RUN_STATUS_QUERY =
+            "SELECT TOP 1 a.run_requested_date, a.start_execution_date, a.stop_execution_date, h.run_status, " +
+            AGENT_RESTARTED_COLUMN +
+            "FROM msdb.dbo.sysjobactivity a " +
+            "LEFT JOIN msdb.dbo.sysjobhistory h ON h.instance_id = a.job_history_id " +
+            "WHERE a.job_id = ? AND a.run_requested_date >= ? " +
+            "ORDER BY a.run_requested_date DESC";
+
+    //history rows are only read past the high-water mark, the clustered index of sysjobhistory is on instance_id
+    private static final String JOB_HISTORY_QUERY =
+            "SELECT h.instance_id, h.step_id, h.step_name, h.run_status, h.run_duration, h.message " +
+            "FROM msdb.dbo.sysjobhistory h " +
+            "WHERE h.job_id = ? AND h.instance_id > ? " +
+            "ORDER BY h.instance_id";
+    private static final String JOB_RUN_STATUS_WITH_HISTORY_BATCH = JOB_RUN_STATUS_QUERY + "; " + JOB_HISTORY_QUERY;
+    private static final String HELP_JOB_WITH_HISTORY_BATCH = HELP_JOB_CALL + "; " + JOB_HISTORY_QUERY;
+    //the log is the last column, so the driver can stream it instead of buffering the row
+    private static final String STEP_OUTPUT_LOGS_QUERY =
+            "SELECT s.step_id, s.step_name, l.log " +
+            "FROM msdb.dbo.sysjobstepslogs l " +
+            "JOIN msdb.dbo.sysjobsteps s ON s.step_uid = l.step_uid " +
+            "WHERE s.job_id = ? AND l.date_modified >= ? " +
+            "ORDER BY s.step_id";
+    private static final String RECENT_JOB_HISTORY_QUERY =
+            "SELECT TOP (?) h.instance_id, h.step_id, h.step_name, h.run_status, h.run_duration " +
+            "FROM msdb.dbo.sysjobhistory h " +
+            "WHERE h.job_id = ? " +
+            "ORDER BY h.instance_id DESC";
+    private static final String LAST_HISTORY_INSTANCE_QUERY =
+            "SELECT ISNULL(MAX(instance_id), 0) FROM msdb.dbo.sysjobhistory WHERE job_id = ?";
+
+    //sysjobactivity has a single row per job and SQL Agent session, updated by each run. The rows come sorted by
+    //request date, so the latest run of each job is read last
+    private static final String JOB_RUN_STATUSES_QUERY =
+            "SELECT a.job_id, a.run_requested_date, a.start_execution_date, a.stop_execution_date, h.run_status, " +
+            AGENT_RESTARTED_COLUMN +
+            "FROM msdb.dbo.sysjobactivity a " +
+            "LEFT JOIN msdb.dbo.sysjobhistory h ON h.instance_id = a.job_history_id " +
+            "WHERE a.run_requested_date >= ? " +
+            "AND a.job_id IN (";
+    private static final String JOB_RUN_STATUSES_ORDER = ") ORDER BY a.run_requested_date";
+    private static final int MAX_JOBS_PER_QUERY = 100;
+    //the query text of each batch size is built once, so the monitor ticks don't rebuild it
+    private static final String[] JOB_RUN_STATUSES_QUERIES = new String[MAX_JOBS_PER_QUERY + 1];
+
+    //the batches turn NOCOUNT back off at the end, the setting would otherwise stay on the pooled session
+    //and hide the row counts of the script steps that reuse the connection
+    private static final String WAIT_FOR_JOB_RUN_COMPLETION_BATCH =
+            "SET NOCOUNT ON; " +
+            "DECLARE @job_id uniqueidentifier = ?, @requested_after datetime = ?, @deadline datetime = DATEADD(second, ?, GETDATE()); " +
+            "WHILE GETDATE() < @deadline AND NOT EXISTS (" +
+            "SELECT 1 FROM msdb.dbo.sysjobactivity a " +
+            "WHERE a.job_id = @job_id AND a.run_requested_date >= @requested_after " +
+            "AND (a.stop_execution_date IS NOT NULL AND a.job_history_id IS NOT NULL " +
+            "OR a.session_id <> (SELECT MAX(session_id) FROM msdb.dbo.syssessions))) " +
+            "WAITFOR DELAY '00:00:00.250'; " +
+            "SELECT TOP 1 a.run_requested_date, a.start_execution_date, a.stop_execution_date, h.run_status, " +
+            AGENT_RESTARTED_COLUMN +
+            "FROM msdb.dbo.sysjobactivity a " +
+            "LEFT JOIN msdb.dbo.sysjobhistory h ON h.instance_id = a.job_history_id " +
+            "WHERE a.job_id = @job_id AND a.run_requested_date >= @requested_after " +
+            "ORDER BY a.run_requested_date DESC; " +
+            "SET NOCOUNT OFF";
+    //extra time given to the driver, on top of the server side wait, before it gives up on the call
+    private static final int WAIT_FOR_JOB_RUN_COMPLETION_TIMEOUT_MARGIN_SECONDS = 30;
+
+    private final SqlServerConnectionPool pool;
+    private final SqlServerConnectionPool.ServerKey serverKey;
+    //null once closed, borrowed again on the next call
+    private PooledConnection pooledConn;
 
     public SqlServerJobDaoImpl(String server, int port, String user, String password) throws SQLException {
-        this.conn = this.getConnection(server, port, user, password);
+        this(SqlServerConnectionPool.getInstance(), server, port, user, password);
+    }
+
+    SqlServerJobDaoImpl(SqlServerConnectionPool pool, String server, int port, String user, String password) throws SQLException {
+        this.pool = pool;
+        this.serverKey = new SqlServerConnectionPool.ServerKey(server, port, user, password);
+        this.pooledConn = pool.borrow(serverKey);
     }
 
     @Override
-    public void startJob(String jobName, String stepName) throws SQLException {
-        String startJobCommand = "exec msdb.dbo.sp_start_job @job_name = N'"+jobName+"'";
-        if (!Strings.isNullOrEmpty(stepName)) {
-            startJobCommand += ", @step_name = N'"+stepName+"'";
+    public void startJob(String jobId, String stepName) throws SQLException {
+        logger.debug("Calling sp_start_job for job_id={}, step_name={}", jobId, stepName);
+
+        CallableStatement cstmt = this.connection().prepareCall(START_JOB_CALL);
+        cstmt.setString(1, jobId);
+        if (Strings.isNullOrEmpty(stepName)) {
+            //NULL is the default value of @step_name, the job starts from the first step
+            cstmt.setNull(2, Types.NVARCHAR);
+        } else {
+            cstmt.setString(2, stepName);
         }
+        cstmt.execute();
+        logger.debug("Executed sp_start_job successfully");
+    }
 
-        logger.debug("Calling sp_start_job: {}", startJobCommand);
+    @Override
+    public long startJobAndGetLastHistoryInstanceId(String jobId, String stepName) throws SQLException {
+        logger.debug("Calling sp_start_job for job_id={}, step_name={}", jobId, stepName);
 
-        try (CallableStatement cstmt = conn.prepareCall(startJobCommand)) {
-            cstmt.execute();
+        PreparedStatement stmt = this.connection().prepareStatement(START_JOB_AFTER_LAST_HISTORY_BATCH);
+        stmt.setString(1, jobId);
+        if (Strings.isNullOrEmpty(stepName)) {
+            stmt.setNull(2, Types.NVARCHAR);
+        } else {
+            stmt.setString(2, stepName);
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
             logger.debug("Executed sp_start_job successfully");
+            return rs.getLong(1);
         }
     }
 
     @Override
-    public int getCurrentExecutionStatus(String jobName) throws SQLException {
-        return getStatusForParam(jobName, "current_execution_status");
+    public void stopJob(String jobId) throws SQLException {
+        logger.debug("Calling sp_stop_job for job_id={}", jobId);
+
+        CallableStatement cstmt = this.connection().prepareCall(STOP_JOB_CALL);
+        cstmt.setString(1, jobId);
+        cstmt.execute();
+        logger.debug("Executed sp_stop_job successfully");
     }
 
     @Override
-    public int getLastExecutionStatus(String jobName) throws SQLException {
-        return getStatusForParam(jobName, "last_run_outcome");
+    public int getCurrentExecutionStatus(String jobId) throws SQLException {
+        return getStatusForParam(jobId, "current_execution_status");
+    }
+
+    @Override
+    public int getLastExecutionStatus(String jobId) throws SQLException {
+        return getStatusForParam(jobId, "last_run_outcome");
     }
 
     /**
      * Retrieves the job status. See {@https://docs.microsoft.com/en-us/sql/relational-databases/system-stored-procedures/sp-help-job-transact-sql here}
      * for detailed info regarding the <b>sp_help_job</b> stored procedure
      *
-     * @param jobName
+     * @param jobId
      * @param fieldName
      * @return
      * @throws SQLException
      */
-    private int getStatusForParam(String jobName, String fieldName) throws SQLException {
+    private int getStatusForParam(String jobId, String fieldName) throws SQLException {
         int currentExecutionStatus = -1;//unknown
-        String checkJobCommand = "exec msdb.dbo.sp_help_job @job_name = N'"+jobName+"'";
-        try (CallableStatement cstmt = conn.prepareCall(checkJobCommand)) {
-            ResultSet rs = cstmt.executeQuery();
+        CallableStatement cstmt = this.connection().prepareCall(HELP_JOB_CALL);
+        cstmt.setString(1, jobId);
+        try (ResultSet rs = cstmt.executeQuery()) {
             if (rs.next()) {
                 currentExecutionStatus = rs.getInt(fieldName);
             }
@@ -74,29 +226,314 @@ public class SqlServerJobDaoImpl implements SqlServerJobDao {
     }
 
     @Override
-    public Connection getConnection(String serverName, int port, String userName, String password) throws SQLException {
-        String connectionUrl = "jdbc:sqlserver://" + serverName + ":" + port + ";" + "username="
-                + userName + ";password=" + password + ";";
+    public JobRunStatus getHelpJobStatus(String jobId, JobHistoryFeed feed) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(HELP_JOB_WITH_HISTORY_BATCH);
+        stmt.setString(1, jobId);
+        stmt.setString(2, jobId);
+        stmt.setLong(3, feed.getLastInstanceId());
 
-        // Establish the connection.
-        try {
-            Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
-        } catch (ClassNotFoundException ex) {
-            //should never reach here, unless we have bad jdbc driver configuration in pom.xml
-            throw new RuntimeException(ex);
+        JobRunStatus status = JobRunStatus.unfinished(CurrentExecutionStatus.Unknown);
+        stmt.execute();
+        try (ResultSet rs = stmt.getResultSet()) {
+            if (rs.next()) {
+                CurrentExecutionStatus currentStatus = CurrentExecutionStatus.valueOf(rs.getInt("current_execution_status"));
+                status = CurrentExecutionStatus.Idle != currentStatus ? JobRunStatus.unfinished(currentStatus)
+                        : new JobRunStatus(currentStatus, ExecutionStatus.valueOf(rs.getInt("last_run_outcome")), null, null, null);
+            }
+        }
+        if (stmt.getMoreResults()) {
+            try (ResultSet rs = stmt.getResultSet()) {
+                readJobHistory(rs, feed);
+            }
         }
 
-        Connection conn = DriverManager.getConnection(connectionUrl);
-        logger.info("Connected successfully to DB for following URL={}", connectionUrl);
-        return conn;
+        return status;
     }
 
     @Override
-    public void close() throws SQLException {
-        conn.close();
+    public Timestamp getServerTime() throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(SERVER_TIME_QUERY);
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1);
+        }
+    }
+
+    @Override
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(JOB_RUN_STATUS_QUERY);
+        stmt.setString(1, jobId);
+        stmt.setTimestamp(2, requestedAfter);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                //sp_start_job returns before SQL Agent records the run request
+                return JobRunStatus.unfinished(CurrentExecutionStatus.Idle);
+            }
+            return readJobRunStatus(rs);
+        }
     }
 
-    public void setConn(Connection conn) {
-        this.conn = conn;
+    @Override
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter, JobHistoryFeed feed) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(JOB_RUN_STATUS_WITH_HISTORY_BATCH);
+        stmt.setString(1, jobId);
+        stmt.setTimestamp(2, requestedAfter);
+        stmt.setString(3, jobId);
+        stmt.setLong(4, feed.getLastInstanceId());
+
+        JobRunStatus status;
+        stmt.execute();
+        try (ResultSet rs = stmt.getResultSet()) {
+            //sp_start_job returns before SQL Agent records the run request
+            status = rs.next() ? readJobRunStatus(rs) : JobRunStatus.unfinished(CurrentExecutionStatus.Idle);
+        }
+        if (stmt.getMoreResults()) {
+            try (ResultSet rs = stmt.getResultSet()) {
+                readJobHistory(rs, feed);
+            }
+        }
+
+        return status;
+    }
+
+    @Override
+    public Map<String, JobRunStatus> getLatestJobRunStatuses(Collection<String> jobIds, Timestamp requestedAfter) throws SQLException {
+        Map<String, JobRunStatus> statuses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> ids = new ArrayList<>(jobIds);
+        for (int from = 0; from < ids.size(); from += MAX_JOBS_PER_QUERY) {
+            List<String> batch = ids.subList(from, Math.min(from + MAX_JOBS_PER_QUERY, ids.size()));
+            PreparedStatement stmt = this.connection().prepareStatement(getJobRunStatusesQuery(batch.size()));
+            stmt.setTimestamp(1, requestedAfter);
+            for (int i = 0; i < batch.size(); i++) {
+                stmt.setString(i + 2, batch.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    statuses.put(rs.getString("job_id"), readJobRunStatus(rs));
+                }
+            }
+        }
+
+        return statuses;
+    }
+
+    private static String getJobRunStatusesQuery(int jobCount) {
+        //racing threads build the same text, so it doesn't matter which one is kept
+        String query = JOB_RUN_STATUSES_QUERIES[jobCount];
+        if (query == null) {
+            StringBuilder builder = new StringBuilder(JOB_RUN_STATUSES_QUERY);
+            for (int i = 0; i < jobCount; i++) {
+                builder.append(i == 0 ? "?" : ", ?");
+            }
+            query = builder.append(JOB_RUN_STATUSES_ORDER).toString();
+            JOB_RUN_STATUSES_QUERIES[jobCount] = query;
+        }
+        return query;
+    }
+
+    @Override
+    public JobRunStatus waitForJobRunCompletion(String jobId, Timestamp requestedAfter, int timeoutSeconds) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(WAIT_FOR_JOB_RUN_COMPLETION_BATCH);
+        stmt.setQueryTimeout(timeoutSeconds + WAIT_FOR_JOB_RUN_COMPLETION_TIMEOUT_MARGIN_SECONDS);
+        stmt.setString(1, jobId);
+        stmt.setTimestamp(2, requestedAfter);
+        stmt.setInt(3, timeoutSeconds);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                return JobRunStatus.unfinished(CurrentExecutionStatus.Idle);
+            }
+            return readJobRunStatus(rs);
+        }
+    }
+
+    @Override
+    public long getLastHistoryInstanceId(String jobId) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(LAST_HISTORY_INSTANCE_QUERY);
+        stmt.setString(1, jobId);
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Override
+    public void readJobHistory(String jobId, JobHistoryFeed feed) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(JOB_HISTORY_QUERY);
+        stmt.setString(1, jobId);
+        stmt.setLong(2, feed.getLastInstanceId());
+        try (ResultSet rs = stmt.executeQuery()) {
+            readJobHistory(rs, feed);
+        }
+    }
+
+    @Override
+    public void readStepOutputLogs(String jobId, Timestamp modifiedSince, StepOutputFeed feed) throws SQLException {
+        PreparedStatement stmt = this.connection().prepareStatement(STEP_OUTPUT_LOGS_QUERY);
+        stmt.setString(1, jobId);
+        stmt.setTimestamp(2, modifiedSince);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                int stepId = rs.getInt("step_id");
+                String stepName = rs.getString("step_name");
+                try (Reader log = rs.getCharacterStream("log")) {
+                    if (log != null) {
+                        feed.accept(stepId, stepName, log);
+                    }
+                } catch (IOException ex) {
+                    throw new SQLException("Could not read the output log of step '" + stepName + "'", ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<JobStepHistory> getRecentJobHistory(String jobId, int maxRows) throws SQLException {
+        List<JobStepHistory> rows = new ArrayList<>();
+        PreparedStatement stmt = this.connection().prepareStatement(RECENT_JOB_HISTORY_QUERY);
+        stmt.setInt(1, maxRows);
+        stmt.setString(2, jobId);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new JobStepHistory(rs.getLong("instance_id"), rs.getInt("step_id"), rs.getString("step_name"),
+                        ExecutionStatus.valueOf(rs.getInt("run_status")), toSeconds(rs.getInt("run_duration")), null));
+            }
+        }
+        //read newest first, so TOP keeps the latest rows
+        Collections.reverse(rows);
+        return rows;
+    }
+
+    @Override
+    public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException {
+        List<JobMetadata> jobs = new ArrayList<>();
+        PreparedStatement stmt = this.connection().prepareStatement(JOB_METADATA_QUERY);
+        stmt.setQueryTimeout(METADATA_QUERY_TIMEOUT_SECONDS);
+        stmt.setTimestamp(1, modifiedSince);
+        try (ResultSet rs = stmt.executeQuery()) {
+            String jobId = null;
+            String name = null;
+            Timestamp dateModified = null;
+            List<String> stepNames = null;
+            //one row per step, ordered by job
+            while (rs.next()) {
+                String rowJobId = rs.getString("job_id");
+                if (!rowJobId.equals(jobId)) {
+                    if (jobId != null) {
+                        jobs.add(new JobMetadata(jobId, name, dateModified, stepNames));
+                    }
+                    jobId = rowJobId;
+                    name = rs.getString("name");
+                    dateModified = rs.getTimestamp("date_modified");
+                    stepNames = new ArrayList<>();
+                }
+                String stepName = rs.getString("step_name");
+                if (stepName != null) {
+                    stepNames.add(stepName);
+                }
+            }
+            if (jobId != null) {
+                jobs.add(new JobMetadata(jobId, name, dateModified, stepNames));
+            }
+        }
+
+        return jobs;
+    }
+
+    @Override
+    public List<JobLastRun> getLastJobRuns() throws SQLException {
+        List<JobLastRun> runs = new ArrayList<>();
+        PreparedStatement stmt = this.connection().prepareStatement(LAST_JOB_RUNS_QUERY);
+        stmt.setQueryTimeout(METADATA_QUERY_TIMEOUT_SECONDS);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                //the date and time are stored as YYYYMMDD and HHMMSS numbers, 0 if the job never ran
+                int runDate = rs.getInt("last_run_date");
+                int runTime = rs.getInt("last_run_time");
+                Timestamp runStartedAt = null;
+                if (runDate > 0) {
+                    Calendar calendar = new GregorianCalendar(runDate / 10000, runDate / 100 % 100 - 1, runDate % 100,
+                            runTime / 10000, runTime / 100 % 100, runTime % 100);
+                    runStartedAt = new Timestamp(calendar.getTimeInMillis());
+                }
+                runs.add(new JobLastRun(rs.getString("job_id"),
+                        runDate > 0 ? ExecutionStatus.valueOf(rs.getInt("last_run_outcome")) : ExecutionStatus.Unknown,
+                        runStartedAt, toSeconds(rs.getInt("last_run_duration"))));
+            }
+        }
+        return runs;
+    }
+
+    @Override
+    public String getJobId(String jobName) throws SQLException {
+        CallableStatement cstmt = this.connection().prepareCall(HELP_JOB_BY_NAME_CALL);
+        cstmt.setQueryTimeout(METADATA_QUERY_TIMEOUT_SECONDS);
+        cstmt.setString(1, jobName);
+        try (ResultSet rs = cstmt.executeQuery()) {
+            return rs.next() ? rs.getString("job_id") : null;
+        } catch (SQLException ex) {
+            if (ex.getErrorCode() == JOB_NOT_FOUND_ERROR) {
+                return null;
+            }
+            throw ex;
+        }
+    }
+
+    private static void readJobHistory(ResultSet rs, JobHistoryFeed feed) throws SQLException {
+        while (rs.next()) {
+            feed.accept(new JobStepHistory(rs.getLong("instance_id"), rs.getInt("step_id"), rs.getString("step_name"),
+                    ExecutionStatus.valueOf(rs.getInt("run_status")), toSeconds(rs.getInt("run_duration")), rs.getString("message")));
+        }
+    }
+
+    /**
+     * run_duration is stored as an HHMMSS number
+     */
+    private static int toSeconds(int runDuration) {
+        return runDuration / 10000 * 3600 + runDuration / 100 % 100 * 60 + runDuration % 100;
+    }
+
+    private static JobRunStatus readJobRunStatus(ResultSet rs) throws SQLException {
+        Timestamp requestedDate = rs.getTimestamp("run_requested_date");
+        Timestamp startDate = rs.getTimestamp("start_execution_date");
+        Timestamp stopDate = rs.getTimestamp("stop_execution_date");
+        int runStatus = rs.getInt("run_status");
+        boolean hasOutcome = !rs.wasNull();
+
+        if (stopDate != null && hasOutcome) {
+            return new JobRunStatus(CurrentExecutionStatus.Idle, ExecutionStatus.valueOf(runStatus),
+                    requestedDate, startDate, stopDate);
+        }
+        if (rs.getInt("agent_restarted") != 0) {
+            //SQL Agent was restarted while the job ran, the run will never finish
+            logger.warn("Run of job requested at {} was abandoned by a restart of SQL Agent", requestedDate);
+            return new JobRunStatus(CurrentExecutionStatus.Idle, ExecutionStatus.Canceled, requestedDate, startDate, stopDate);
+        }
+
+        CurrentExecutionStatus currentStatus;
+        if (stopDate != null) {
+            //the outcome is written to sysjobhistory after the run stops
+            currentStatus = CurrentExecutionStatus.PerformingCompletionActions;
+        } else if (startDate == null) {
+            currentStatus = CurrentExecutionStatus.WaitingForThread;
+        } else {
+            currentStatus = CurrentExecutionStatus.Executing;
+        }
+        return new JobRunStatus(currentStatus, null, requestedDate, startDate, stopDate);
+    }
+
+    private PooledConnection connection() throws SQLException {
+        if (pooledConn == null) {
+            pooledConn = pool.borrow(serverKey);
+        }
+        return pooledConn;
+    }
+
+    @Override
+    public void close() {
+        //the connection stays open, ready to be reused by the next step that targets this server
+        if (pooledConn != null) {
+            pool.release(pooledConn);
+            pooledConn = null;
+        }
     }
 }
@@ -0,0 +1,229 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several {@link SqlServerJob}s concurrently, at most maxParallelism at a time, and waits for them together.
+ * <p>
+ * With {@link WaitMode#ALL} the group succeeds once every job has succeeded, with {@link WaitMode#ANY} it succeeds
+ * as soon as one job has succeeded. With {@link ErrorMode#FAIL_FAST} the first failure ends the group, with
+ * {@link ErrorMode#COLLECT_ALL} the remaining jobs keep running and all the failures are reported together.
+ * When the group ends early, the jobs not started yet are skipped and the waits of the running ones are
+ * interrupted. The SQL Agent jobs that were already started are stopped with sp_stop_job, and the group gives them
+ * a few seconds to stop before it reports.
+ */
+public class SqlServerJobGroup {
+    private static final Logger logger = LoggerFactory.getLogger(SqlServerJobGroup.class);
+
+    private static final int DEFAULT_MAX_PARALLELISM = 5;
+    //time given to the interrupted jobs to be stopped, a bit more than each job waits for its run to stop
+    private static final long STOP_WAIT_SECONDS = 15;
+
+    private List<SqlServerJob> jobs;
+    private int maxParallelism;
+    private WaitMode waitMode;
+    private ErrorMode errorMode;
+
+    //constructor is private, it can only be instantiated through the builder
+    private SqlServerJobGroup() {
+
+    }
+
+    /**
+     * Starts the jobs and waits for them, as configured by the wait and error modes
+     *
+     * @throws SQLException If the group failed. Each job failure is chained through {@link SQLException#getNextException()}
+     */
+    public void execute() throws SQLException, InterruptedException {
+        logger.info("Executing {} SQL Server jobs with maxParallelism={}, waitMode={}, errorMode={}",
+                jobs.size(), maxParallelism, waitMode, errorMode);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallelism, jobs.size()),
+                new FanOutThreadFactory());
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            Map<Future<Void>, SqlServerJob> running = new IdentityHashMap<>();
+            for (final SqlServerJob job : jobs) {
+                Future<Void> future = completionService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        job.execute();
+                        return null;
+                    }
+                });
+                running.put(future, job);
+            }
+
+            this.awaitJobs(completionService, running);
+        } finally {
+            //skips the queued jobs and interrupts the waits still in progress, which stops their jobs
+            executor.shutdownNow();
+            this.awaitStop(executor);
+        }
+    }
+
+    private void awaitJobs(CompletionService<Void> completionService, Map<Future<Void>, SqlServerJob> running)
+            throws SQLException, InterruptedException {
+        List<String> failedJobs = new ArrayList<>();
+        List<SQLException> failures = new ArrayList<>();
+        int succeeded = 0;
+
+        while (!running.isEmpty()) {
+            Future<Void> future = completionService.take();
+            SqlServerJob job = running.remove(future);
+            try {
+                future.get();
+                succeeded++;
+                logger.info("SQL Server job with name='{}' succeeded ({} of {} jobs finished)", job.getJobName(),
+                        jobs.size() - running.size(), jobs.size());
+                if (waitMode == WaitMode.ANY) {
+                    this.cancel(running);
+                    return;
+                }
+            } catch (ExecutionException ex) {
+                logger.warn("SQL Server job with name='{}' failed ({} of {} jobs finished)", job.getJobName(),
+                        jobs.size() - running.size(), jobs.size(), ex.getCause());
+                failedJobs.add(job.getJobName());
+                failures.add(ex.getCause() instanceof SQLException ? (SQLException) ex.getCause()
+                        : new SQLException(ex.getCause()));
+                if (errorMode == ErrorMode.FAIL_FAST) {
+                    this.cancel(running);
+                    break;
+                }
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            String message = failures.size() + " of " + jobs.size() + " SQL Server jobs failed "
+                    + "(" + succeeded + " succeeded): " + failedJobs;
+            SQLException groupFailure = new SQLException(message);
+            if (this.allServerUnavailable(failures)) {
+                //reported as such by the step
+                groupFailure = new ServerUnavailableException(message,
+                        ((ServerUnavailableException) failures.get(0)).getRetryAfterMillis());
+            }
+            for (SQLException failure : failures) {
+                groupFailure.setNextException(failure);
+            }
+            throw groupFailure;
+        }
+    }
+
+    private boolean allServerUnavailable(List<SQLException> failures) {
+        for (SQLException failure : failures) {
+            if (!(failure instanceof ServerUnavailableException)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void cancel(Map<Future<Void>, SqlServerJob> running) {
+        if (running.isEmpty()) {
+            return;
+        }
+        List<String> cancelled = new ArrayList<>();
+        for (Map.Entry<Future<Void>, SqlServerJob> entry : running.entrySet()) {
+            entry.getKey().cancel(true);
+            cancelled.add(entry.getValue().getJobName());
+        }
+        running.clear();
+        logger.info("Stopping SQL Server jobs {}", cancelled);
+    }
+
+    /**
+     * Gives the interrupted jobs the time to be stopped on the server before the group reports
+     */
+    private void awaitStop(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(STOP_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("SQL Server jobs were not stopped in {} seconds, they may still be running", STOP_WAIT_SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public enum WaitMode {
+        ALL, ANY
+    }
+
+    public enum ErrorMode {
+        FAIL_FAST, COLLECT_ALL
+    }
+
+    private static class FanOutThreadFactory implements ThreadFactory {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sqlserver-fanout-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class SqlServerJobGroupBuilder {
+        private List<SqlServerJob> nestedJobs = new ArrayList<>();
+        private int nestedMaxParallelism;
+        private WaitMode nestedWaitMode;
+        private ErrorMode nestedErrorMode;
+
+        public SqlServerJobGroupBuilder() {
+
+        }
+
+        public SqlServerJobGroupBuilder job(SqlServerJob job) {
+            this.nestedJobs.add(job);
+            return this;
+        }
+
+        public SqlServerJobGroupBuilder maxParallelism(int maxParallelism) {
+            this.nestedMaxParallelism = maxParallelism;
+            return this;
+        }
+
+        public SqlServerJobGroupBuilder waitMode(WaitMode waitMode) {
+            this.nestedWaitMode = waitMode;
+            return this;
+        }
+
+        public SqlServerJobGroupBuilder errorMode(ErrorMode errorMode) {
+            this.nestedErrorMode = errorMode;
+            return this;
+        }
+
+        public SqlServerJobGroup build() throws ConfigurationException {
+            if (this.nestedJobs.isEmpty()) {
+                throw new ConfigurationException("At least one job is mandatory");
+            }
+
+            SqlServerJobGroup group = new SqlServerJobGroup();
+            group.jobs = Collections.unmodifiableList(new ArrayList<>(this.nestedJobs));
+            group.maxParallelism = this.nestedMaxParallelism > 0 ? this.nestedMaxParallelism : DEFAULT_MAX_PARALLELISM;
+            group.waitMode = this.nestedWaitMode == null ? WaitMode.ALL : this.nestedWaitMode;
+            group.errorMode = this.nestedErrorMode == null ? ErrorMode.FAIL_FAST : this.nestedErrorMode;
+
+            return group;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+import ro.dpa.rundeck.plugins.params.ParamUtils;
+
+import java.util.Map;
+
+/**
+ * Connection and monitoring properties shared by the workflow step plugins that run SQL Server jobs
+ */
+final class SqlServerJobProperties {
+    static final String USER = "user";
+    static final String PASSWORD = "password";
+    static final String HOST = "host";
+    static final String PORT = "port";
+    static final String POLL_STRATEGY = "pollStrategy";
+    static final String MAX_POLL_INTERVAL = "maxPollInterval";
+    static final String STATUS_QUERY = "statusQuery";
+    static final String COMPLETION_DETECTION = "completionDetection";
+    static final String TIMEOUT = "timeout";
+    static final String STEP_OUTPUT_LOG = "stepOutputLog";
+    static final String PRIORITY = "priority";
+
+    private SqlServerJobProperties() {
+
+    }
+
+    /**
+     * Returns a job builder configured with the connection and monitoring properties of the step. The runs are
+     * recorded in the default {@link JobRunStateStore}, under the id of the Rundeck execution.
+     *
+     * @param pluginStepContext The context of the step
+     * @param inputParams The config params provided by Rundeck
+     * @throws ConfigurationException If a property has an invalid value
+     */
+    static SqlServerJob.SqlServerJobBuilder newJobBuilder(PluginStepContext pluginStepContext, Map<String, Object> inputParams)
+            throws ConfigurationException {
+        String statusQuery = ParamUtils.getStringValue(STATUS_QUERY, inputParams);
+        String completionDetection = ParamUtils.getStringValue(COMPLETION_DETECTION, inputParams);
+
+        SqlServerJob.SqlServerJobBuilder builder = new SqlServerJob.SqlServerJobBuilder();
+        builder
+                .userName(ParamUtils.getStringValue(USER, inputParams))
+                .password(ParamUtils.getStringValue(PASSWORD, inputParams))
+                .serverName(ParamUtils.getStringValue(HOST, inputParams))
+                .port(ParamUtils.getIntValue(PORT, inputParams))
+                .pollStrategy(getPollStrategy(inputParams))
+                .maxPollIntervalMillis(getMaxPollIntervalMillis(inputParams))
+                .timeoutMillis(ParamUtils.getIntValue(TIMEOUT, inputParams) * 1000L)
+                .priority(ParamUtils.getIntValue(PRIORITY, inputParams))
+                .stateStore(JobRunStateStore.getDefault())
+                .executionId(getExecutionId(pluginStepContext));
+        if (statusQuery != null) {
+            try {
+                builder.statusQueryMode(StatusQueryMode.valueOf(statusQuery.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ConfigurationException("Unknown status query: " + statusQuery);
+            }
+        }
+        if (completionDetection != null) {
+            try {
+                builder.completionDetectionMode(CompletionDetectionMode.valueOf(completionDetection.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ConfigurationException("Unknown completion detection: " + completionDetection);
+            }
+        }
+
+        if (Boolean.parseBoolean(ParamUtils.getStringValue(STEP_OUTPUT_LOG, inputParams))) {
+            builder.stepOutputListener(new PluginLoggerProgressListener(pluginStepContext.getLogger()));
+        }
+
+        return builder;
+    }
+
+    /**
+     * @return The id of the Rundeck execution running the step, null if not available
+     */
+    static String getExecutionId(PluginStepContext pluginStepContext) {
+        Map<String, Map<String, String>> dataContext = pluginStepContext.getDataContext();
+        Map<String, String> job = dataContext == null ? null : dataContext.get("job");
+        return job == null ? null : job.get("execid");
+    }
+
+    /**
+     * @return The configured poll strategy, null if not set
+     * @throws ConfigurationException If the value is not a known strategy
+     */
+    static PollStrategy getPollStrategy(Map<String, Object> inputParams) throws ConfigurationException {
+        String pollStrategy = ParamUtils.getStringValue(POLL_STRATEGY, inputParams);
+        if (pollStrategy == null) {
+            return null;
+        }
+        try {
+            return PollStrategy.valueOf(pollStrategy.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new ConfigurationException("Unknown poll strategy: " + pollStrategy);
+        }
+    }
+
+    /**
+     * @return The configured max poll interval in millis, 0 if not set
+     */
+    static long getMaxPollIntervalMillis(Map<String, Object> inputParams) {
+        return ParamUtils.getIntValue(MAX_POLL_INTERVAL, inputParams) * 1000L;
+    }
+
+    static DescriptionBuilder addConnectionProperties(DescriptionBuilder builder) {
+        return builder
+                .property(PropertyBuilder.builder()
+                    .string(USER)
+                    .title("User")
+                    .description("User to connect to the SQL database")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(PASSWORD)
+                    .title("Password")
+                    .description("Password used to connect to the SQL database")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(HOST)
+                    .title("Host")
+                    .description("Host where the job is executed")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(PORT)
+                    .title("Port")
+                    .description("Port for the SQL connection")
+                    .required(true)
+                    .build());
+    }
+
+    static DescriptionBuilder addPollProperties(DescriptionBuilder builder) {
+        return addPollProperties(builder, false);
+    }
+
+    /**
+     * @param jobHistory Whether the predictive strategy is offered, it needs the history of SQL Agent jobs
+     */
+    static DescriptionBuilder addPollProperties(DescriptionBuilder builder, boolean jobHistory) {
+        String description = "How often the job status is checked. 'adaptive' checks quickly after the job starts and then backs off " +
+                "up to the max poll interval, 'fixed' checks every 5 seconds";
+        if (jobHistory) {
+            description += ", 'predictive' learns how long the job usually runs from msdb.dbo.sysjobhistory, checks rarely " +
+                    "until then and every 800 ms around the expected end (same as 'adaptive' until the job has 3 successful runs)";
+        }
+        return builder
+                .property(PropertyBuilder.builder()
+                    .select(POLL_STRATEGY)
+                    .title("Poll strategy")
+                    .description(description)
+                    .values(jobHistory ? new String[]{"adaptive", "fixed", "predictive"} : new String[]{"adaptive", "fixed"})
+                    .defaultValue("adaptive")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(MAX_POLL_INTERVAL)
+                    .title("Max poll interval")
+                    .description("The longest delay, in seconds, between two status checks of the adaptive poll strategy")
+                    .defaultValue("30")
+                    .required(false)
+                    .build());
+    }
+
+    static DescriptionBuilder addMonitoringProperties(DescriptionBuilder builder) {
+        return addPollProperties(builder, true)
+                .property(PropertyBuilder.builder()
+                    .select(STATUS_QUERY)
+                    .title("Status query")
+                    .description("How the job status is read. 'help_job' calls sp_help_job, 'activity' reads the state and outcome " +
+                            "of the started run from msdb.dbo.sysjobactivity and msdb.dbo.sysjobhistory in a single query " +
+                            "(requires SELECT permission on these tables)")
+                    .values("help_job", "activity")
+                    .defaultValue("help_job")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .select(COMPLETION_DETECTION)
+                    .title("Completion detection")
+                    .description("'poll' checks the job status from this step, 'shared_monitor' lets a single monitor per server " +
+                            "check all the running jobs with one query and wake up the waiting steps, 'long_poll' lets SQL Server " +
+                            "wait for the job to finish and detects the end of the job in under a second, but keeps a connection " +
+                            "busy for each waiting step. The last two require SELECT permission on the msdb activity tables")
+                    .values("poll", "shared_monitor", "long_poll")
+                    .defaultValue("poll")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(TIMEOUT)
+                    .title("Timeout")
+                    .description("Max time, in seconds, the step may take, including the time it waits for the other jobs of " +
+                            "the server to finish before starting. When it expires the job is stopped with sp_stop_job and the " +
+                            "step fails. 0 uses the plugin default (no timeout unless configured)")
+                    .defaultValue("0")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .booleanType(STEP_OUTPUT_LOG)
+                    .title("Step output log")
+                    .description("Once the job is finished, copy to this log the output of the job steps configured to " +
+                            "log to table (msdb.dbo.sysjobstepslogs)")
+                    .defaultValue("false")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(PRIORITY)
+                    .title("Priority")
+                    .description("When the plugin limits the jobs running at once on the server " +
+                            "(ro.dpa.rundeck.sqlserver.admission.maxRunningJobs), the waiting steps with a higher priority " +
+                            "are started first. Waiting for a place counts towards the timeout")
+                    .defaultValue("0")
+                    .required(false)
+                    .build());
+    }
+}
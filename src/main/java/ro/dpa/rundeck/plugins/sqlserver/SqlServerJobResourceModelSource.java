@@ -0,0 +1,333 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.common.INodeSet;
+import com.dtolabs.rundeck.core.common.NodeEntryImpl;
+import com.dtolabs.rundeck.core.common.NodeSetImpl;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.resources.ResourceModelSource;
+import com.dtolabs.rundeck.core.resources.ResourceModelSourceException;
+import com.google.common.base.Joiner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the SQL Agent jobs of several servers as Rundeck nodes, one node per job, with the last outcome of the job.
+ * <p>
+ * The servers are read in parallel, at most maxParallelism at a time. A server that fails or doesn't answer within
+ * the server timeout keeps the nodes of its previous successful read, so its jobs don't disappear on a transient error.
+ * The job definitions come from the {@link JobMetadataCache} of each server, which only reads the jobs modified since
+ * the previous refresh, and the last outcomes from msdb.dbo.sysjobservers, a single row per job.
+ * <p>
+ * Interrupting a thread doesn't stop a JDBC read, so the discovery queries have a query timeout of their own,
+ * <b>ro.dpa.rundeck.sqlserver.metadata.queryTimeoutSeconds</b> (default 30), after which the abandoned threads end.
+ */
+public class SqlServerJobResourceModelSource implements ResourceModelSource {
+    private static final Logger logger = LoggerFactory.getLogger(SqlServerJobResourceModelSource.class);
+
+    private static final int DEFAULT_MAX_PARALLELISM = 20;
+    private static final long DEFAULT_SERVER_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    //how often the timeouts of the servers being read are checked
+    private static final long TIMEOUT_CHECK_MILLIS = 100;
+
+    static final String JOB_TAG = "sqlserver-job";
+    static final String HOST_ATTRIBUTE = "sqlserver-host";
+    static final String PORT_ATTRIBUTE = "sqlserver-port";
+    static final String JOB_NAME_ATTRIBUTE = "sqlserver-job-name";
+    static final String JOB_ID_ATTRIBUTE = "sqlserver-job-id";
+    static final String STEPS_ATTRIBUTE = "sqlserver-job-steps";
+    static final String MODIFIED_ATTRIBUTE = "sqlserver-job-modified";
+    static final String LAST_OUTCOME_ATTRIBUTE = "sqlserver-last-outcome";
+    static final String LAST_RUN_ATTRIBUTE = "sqlserver-last-run";
+    static final String LAST_DURATION_ATTRIBUTE = "sqlserver-last-duration";
+
+    private List<Server> servers;
+    private String userName;
+    private String password;
+    private int maxParallelism;
+    private long serverTimeoutMillis;
+    private SqlServerJobDaoFactory daoFactory;
+    //the nodes of the last successful read of each server
+    private final Map<Server, List<INodeEntry>> lastNodes = new LinkedHashMap<>();
+
+    //constructor is private, it can only be instantiated through the builder
+    private SqlServerJobResourceModelSource() {
+
+    }
+
+    @Override
+    public synchronized INodeSet getNodes() throws ResourceModelSourceException {
+        long startedAt = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallelism, servers.size()),
+                new DiscoveryThreadFactory());
+        List<Discovery> discoveries = new ArrayList<>(servers.size());
+        NodeSetImpl nodeSet = new NodeSetImpl();
+        List<Server> failedServers = new ArrayList<>();
+        try {
+            for (Server server : servers) {
+                Discovery discovery = new Discovery(server);
+                discovery.future = executor.submit(discovery);
+                discoveries.add(discovery);
+            }
+            this.awaitDiscoveries(discoveries);
+
+            for (Discovery discovery : discoveries) {
+                List<INodeEntry> nodes;
+                try {
+                    nodes = discovery.future.get();
+                    lastNodes.put(discovery.server, nodes);
+                } catch (CancellationException ex) {
+                    logger.warn("Listing the jobs of server={} took longer than {} ms", discovery.server, serverTimeoutMillis);
+                    failedServers.add(discovery.server);
+                    nodes = lastNodes.get(discovery.server);
+                } catch (ExecutionException ex) {
+                    logger.warn("Could not list the jobs of server={}", discovery.server, ex.getCause());
+                    failedServers.add(discovery.server);
+                    nodes = lastNodes.get(discovery.server);
+                }
+                if (nodes != null) {
+                    for (INodeEntry node : nodes) {
+                        nodeSet.putNode(node);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ResourceModelSourceException("Interrupted while listing SQL Server jobs", ex);
+        } finally {
+            //abandons the servers that timed out, their threads end when the query timeout of the DAO expires
+            executor.shutdownNow();
+        }
+        if (failedServers.size() == servers.size() && nodeSet.getNodes().isEmpty()) {
+            throw new ResourceModelSourceException("Could not list the jobs of any server: " + failedServers);
+        }
+        logger.info("Listed {} SQL Server jobs of {} servers in {} ms, failed servers: {}", nodeSet.getNodes().size(),
+                servers.size(), System.currentTimeMillis() - startedAt, failedServers);
+        return nodeSet;
+    }
+
+    /**
+     * Waits for all the servers, cancelling the ones that run longer than the server timeout. The time a server
+     * waits for a free thread doesn't count.
+     */
+    private void awaitDiscoveries(List<Discovery> discoveries) throws InterruptedException {
+        List<Discovery> pending = new ArrayList<>(discoveries);
+        while (!pending.isEmpty()) {
+            long now = System.currentTimeMillis();
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                Discovery discovery = pending.get(i);
+                long discoveryStartedAt = discovery.startedAt;
+                if (discovery.future.isDone()) {
+                    pending.remove(i);
+                } else if (discoveryStartedAt > 0 && now - discoveryStartedAt >= serverTimeoutMillis) {
+                    discovery.future.cancel(true);
+                    pending.remove(i);
+                }
+            }
+            if (!pending.isEmpty()) {
+                Thread.sleep(TIMEOUT_CHECK_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Reads the jobs of a server and their last outcome
+     */
+    List<INodeEntry> discover(Server server) throws SQLException {
+        try (SqlServerJobDao dao = this.daoFactory.create(server.host, server.port, this.userName, this.password)) {
+            List<JobMetadata> jobs = JobMetadataCache.forServer(server.host, server.port, this.userName, this.password)
+                    .getJobs(dao);
+            Map<String, JobLastRun> lastRuns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (JobLastRun lastRun : dao.getLastJobRuns()) {
+                lastRuns.put(lastRun.getJobId(), lastRun);
+            }
+
+            List<INodeEntry> nodes = new ArrayList<>(jobs.size());
+            for (JobMetadata job : jobs) {
+                JobLastRun lastRun = lastRuns.get(job.getJobId());
+                //every job has a row in sysjobservers, the job was deleted since the cache was loaded
+                if (lastRun != null) {
+                    nodes.add(toNode(server, job, lastRun));
+                }
+            }
+            logger.debug("Listed {} jobs of server={}", nodes.size(), server);
+            return nodes;
+        }
+    }
+
+    private static INodeEntry toNode(Server server, JobMetadata job, JobLastRun lastRun) {
+        NodeEntryImpl node = new NodeEntryImpl(server.host, server + "/" + job.getName());
+        node.setDescription("SQL Agent job " + job.getName() + " on " + server);
+        Set<String> tags = new HashSet<>();
+        tags.add(JOB_TAG);
+        tags.add("last-" + lastRun.getOutcome().name().toLowerCase());
+        node.setTags(tags);
+        node.setAttribute(HOST_ATTRIBUTE, server.host);
+        node.setAttribute(PORT_ATTRIBUTE, String.valueOf(server.port));
+        node.setAttribute(JOB_NAME_ATTRIBUTE, job.getName());
+        node.setAttribute(JOB_ID_ATTRIBUTE, job.getJobId());
+        if (job.areStepsKnown()) {
+            node.setAttribute(STEPS_ATTRIBUTE, Joiner.on(", ").join(job.getStepNames()));
+        }
+        if (job.getDateModified() != null) {
+            node.setAttribute(MODIFIED_ATTRIBUTE, job.getDateModified().toString());
+        }
+        node.setAttribute(LAST_OUTCOME_ATTRIBUTE, lastRun.getOutcome().name());
+        if (lastRun.getRunDate() != null) {
+            node.setAttribute(LAST_RUN_ATTRIBUTE, lastRun.getRunDate().toString());
+            node.setAttribute(LAST_DURATION_ATTRIBUTE, String.valueOf(lastRun.getDurationSeconds()));
+        }
+        return node;
+    }
+
+    /**
+     * A server to list the jobs of
+     */
+    static class Server {
+        private final String host;
+        private final int port;
+
+        Server(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Server server = (Server) o;
+            return port == server.port && host.equalsIgnoreCase(server.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * host.toLowerCase().hashCode() + port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private class Discovery implements Callable<List<INodeEntry>> {
+        private final Server server;
+        private Future<List<INodeEntry>> future;
+        private volatile long startedAt;
+
+        Discovery(Server server) {
+            this.server = server;
+        }
+
+        @Override
+        public List<INodeEntry> call() throws Exception {
+            this.startedAt = System.currentTimeMillis();
+            return discover(server);
+        }
+    }
+
+    private static class DiscoveryThreadFactory implements ThreadFactory {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sqlserver-discovery-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class SqlServerJobResourceModelSourceBuilder {
+        private List<Server> nestedServers = new ArrayList<>();
+        private String nestedUserName;
+        private String nestedPassword;
+        private int nestedMaxParallelism;
+        private long nestedServerTimeoutMillis;
+        private SqlServerJobDaoFactory nestedDaoFactory;
+
+        public SqlServerJobResourceModelSourceBuilder() {
+
+        }
+
+        public SqlServerJobResourceModelSourceBuilder server(String host, int port) {
+            this.nestedServers.add(new Server(host, port));
+            return this;
+        }
+
+        public SqlServerJobResourceModelSourceBuilder userName(String userName) {
+            this.nestedUserName = userName;
+            return this;
+        }
+
+        public SqlServerJobResourceModelSourceBuilder password(String password) {
+            this.nestedPassword = password;
+            return this;
+        }
+
+        /**
+         * The maximum number of servers read at the same time
+         */
+        public SqlServerJobResourceModelSourceBuilder maxParallelism(int maxParallelism) {
+            this.nestedMaxParallelism = maxParallelism;
+            return this;
+        }
+
+        /**
+         * How long a server may take to list its jobs, after which its previous nodes are used
+         */
+        public SqlServerJobResourceModelSourceBuilder serverTimeoutMillis(long serverTimeoutMillis) {
+            this.nestedServerTimeoutMillis = serverTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Creates the DAOs used to read the servers. By default, the DAOs use the shared connection pool
+         */
+        public SqlServerJobResourceModelSourceBuilder daoFactory(SqlServerJobDaoFactory daoFactory) {
+            this.nestedDaoFactory = daoFactory;
+            return this;
+        }
+
+        public SqlServerJobResourceModelSource build() throws ConfigurationException {
+            if (this.nestedServers.isEmpty()) {
+                throw new ConfigurationException("At least one server is mandatory");
+            }
+            if (this.nestedUserName == null || this.nestedPassword == null) {
+                throw new ConfigurationException("User and password are mandatory");
+            }
+
+            SqlServerJobResourceModelSource source = new SqlServerJobResourceModelSource();
+            //a server listed twice is read once
+            source.servers = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(this.nestedServers)));
+            source.userName = this.nestedUserName;
+            source.password = this.nestedPassword;
+            source.maxParallelism = this.nestedMaxParallelism > 0 ? this.nestedMaxParallelism : DEFAULT_MAX_PARALLELISM;
+            source.serverTimeoutMillis = this.nestedServerTimeoutMillis > 0 ? this.nestedServerTimeoutMillis
+                    : DEFAULT_SERVER_TIMEOUT_MILLIS;
+            source.daoFactory = this.nestedDaoFactory == null ? SqlServerJobDaoFactory.DEFAULT : this.nestedDaoFactory;
+
+            return source;
+        }
+    }
+}
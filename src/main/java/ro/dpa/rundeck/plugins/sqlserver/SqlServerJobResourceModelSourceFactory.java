@@ -0,0 +1,114 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.plugins.configuration.Describable;
+import com.dtolabs.rundeck.core.plugins.configuration.Description;
+import com.dtolabs.rundeck.core.resources.ResourceModelSource;
+import com.dtolabs.rundeck.core.resources.ResourceModelSourceFactory;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+
+import java.util.Properties;
+
+/**
+ * Resource model source listing the SQL Agent jobs of a set of servers, see {@link SqlServerJobResourceModelSource}.
+ * Each line (or comma separated item) of the servers property is a host, optionally followed by the port: host:port
+ */
+@Plugin(name = SqlServerJobResourceModelSourceFactory.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.ResourceModelSource)
+public class SqlServerJobResourceModelSourceFactory implements ResourceModelSourceFactory, Describable {
+    public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.SqlServerJobResourceModelSourceFactory";
+
+    private static final String SERVERS = "servers";
+    private static final String MAX_PARALLELISM = "maxParallelism";
+    private static final String SERVER_TIMEOUT = "serverTimeout";
+    private static final String PORT_SEPARATOR = ":";
+    private static final int DEFAULT_PORT = 1433;
+
+    @Override
+    public ResourceModelSource createResourceModelSource(Properties configuration) throws ConfigurationException {
+        SqlServerJobResourceModelSource.SqlServerJobResourceModelSourceBuilder builder =
+                new SqlServerJobResourceModelSource.SqlServerJobResourceModelSourceBuilder();
+        String servers = configuration.getProperty(SERVERS, "");
+        for (String server : servers.split("[,\\n]")) {
+            server = server.trim();
+            if (server.isEmpty()) {
+                continue;
+            }
+            int separator = server.lastIndexOf(PORT_SEPARATOR);
+            if (separator < 0) {
+                builder.server(server, DEFAULT_PORT);
+                continue;
+            }
+            try {
+                builder.server(server.substring(0, separator), Integer.parseInt(server.substring(separator + 1)));
+            } catch (NumberFormatException ex) {
+                throw new ConfigurationException("Invalid port for server: " + server);
+            }
+        }
+        builder
+                .userName(configuration.getProperty(SqlServerJobProperties.USER))
+                .password(configuration.getProperty(SqlServerJobProperties.PASSWORD))
+                .maxParallelism(getIntValue(configuration, MAX_PARALLELISM))
+                .serverTimeoutMillis(getIntValue(configuration, SERVER_TIMEOUT) * 1000L);
+
+        return builder.build();
+    }
+
+    private static int getIntValue(Properties configuration, String key) throws ConfigurationException {
+        String value = configuration.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new ConfigurationException("Invalid " + key + ": " + value);
+        }
+    }
+
+    @Override
+    public Description getDescription() {
+        return DescriptionBuilder.builder()
+                .name(SERVICE_PROVIDER_NAME)
+                .title("Sql Server Agent Jobs")
+                .description("Lists the sql server agent jobs of several servers as nodes, with their last outcome")
+                .property(PropertyBuilder.builder()
+                    .string(SERVERS)
+                    .title("Servers")
+                    .description("The servers to list the jobs of, separated by commas or new lines. The port can be " +
+                            "given as host:port, 1433 by default")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(SqlServerJobProperties.USER)
+                    .title("User")
+                    .description("User to connect to the servers. Needs SELECT permission on msdb.dbo.sysjobs, " +
+                            "sysjobsteps and sysjobservers")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(SqlServerJobProperties.PASSWORD)
+                    .title("Password")
+                    .description("Password used to connect to the servers")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(MAX_PARALLELISM)
+                    .title("Max parallelism")
+                    .description("The maximum number of servers read at the same time")
+                    .defaultValue("20")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(SERVER_TIMEOUT)
+                    .title("Server timeout")
+                    .description("How long, in seconds, a server may take to list its jobs. A server that times out " +
+                            "or fails keeps the jobs of its previous listing")
+                    .defaultValue("30")
+                    .required(false)
+                    .build())
+                .build();
+    }
+}
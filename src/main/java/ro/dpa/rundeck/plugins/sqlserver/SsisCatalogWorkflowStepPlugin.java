@@ -0,0 +1,187 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepFailureReason;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.plugins.configuration.Describable;
+import com.dtolabs.rundeck.core.plugins.configuration.Description;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.step.StepPlugin;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.params.ParamUtils;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+
+/**
+ * Workflow step that runs an SSIS package deployed to the SSIS catalog, without a SQL Agent job.
+ * Each line of the parameters property is a parameter value: name=value, where the name can be prefixed with
+ * $Project::, $Package:: or $ServerOption::
+ * <p>
+ * The SSIS catalog refuses to run packages for SQL Server logins, the step connects with Windows Authentication
+ * (NTLM) when the authentication property is 'ntlm'.
+ */
+@Plugin(name = SsisCatalogWorkflowStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowStep)
+public class SsisCatalogWorkflowStepPlugin implements StepPlugin, Describable {
+    public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.SsisCatalogWorkflowStepPlugin";
+
+    private static final Logger logger = LoggerFactory.getLogger(SsisCatalogWorkflowStepPlugin.class);
+    private static final String FOLDER_NAME = "folderName";
+    private static final String PROJECT_NAME = "projectName";
+    private static final String PACKAGE_NAME = "packageName";
+    private static final String PARAMETERS = "parameters";
+    private static final String USE_32BIT_RUNTIME = "use32BitRuntime";
+    private static final String ENVIRONMENT_REFERENCE_ID = "environmentReferenceId";
+    private static final String AUTHENTICATION = "authentication";
+    private static final String VALUE_SEPARATOR = "=";
+
+    @Override
+    public void executeStep(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws StepException {
+        SsisPackageExecution execution = null;
+        try {
+            execution = this.buildSsisPackageExecution(pluginStepContext, inputParams);
+        } catch (ConfigurationException ex) {
+            logger.error("Could not configure SSIS package execution", ex);
+            throw new StepException("Could not configure SSIS package execution", StepFailureReason.ConfigurationFailure, inputParams);
+        }
+        try {
+            execution.execute();
+        } catch (ServerUnavailableException ex) {
+            logger.error("SQL Server is unreachable", ex);
+            throw new StepException(ex, SqlServerFailureReason.ServerUnavailable);
+        } catch (SQLTimeoutException ex) {
+            logger.error("SSIS package execution timed out", ex);
+            throw new StepException(ex, SqlServerFailureReason.Timeout);
+        } catch (SQLException ex) {
+            logger.error("SQL execution error", ex);
+            throw new StepException(ex, StepFailureReason.PluginFailed);
+        } catch (InterruptedException ex) {
+            logger.error("Package execution was interrupted.", ex);
+            throw new StepException(ex, StepFailureReason.Interrupted);
+        }
+    }
+
+    private SsisPackageExecution buildSsisPackageExecution(PluginStepContext pluginStepContext, Map<String, Object> inputParams)
+            throws ConfigurationException {
+        String folderName = ParamUtils.getStringValue(FOLDER_NAME, inputParams);
+        String projectName = ParamUtils.getStringValue(PROJECT_NAME, inputParams);
+        String packageName = ParamUtils.getStringValue(PACKAGE_NAME, inputParams);
+        String environmentReferenceId = ParamUtils.getStringValue(ENVIRONMENT_REFERENCE_ID, inputParams);
+        String authentication = ParamUtils.getStringValue(AUTHENTICATION, inputParams);
+
+        logger.info("Building SsisPackageExecution for folderName={}, projectName={}, packageName={}, environmentReferenceId={}",
+                folderName, projectName, packageName, environmentReferenceId);
+
+        SsisPackageExecution.SsisPackageExecutionBuilder builder = new SsisPackageExecution.SsisPackageExecutionBuilder();
+        builder
+                .userName(ParamUtils.getStringValue(SqlServerJobProperties.USER, inputParams))
+                .password(ParamUtils.getStringValue(SqlServerJobProperties.PASSWORD, inputParams))
+                .serverName(ParamUtils.getStringValue(SqlServerJobProperties.HOST, inputParams))
+                .port(ParamUtils.getIntValue(SqlServerJobProperties.PORT, inputParams))
+                .folderName(folderName)
+                .projectName(projectName)
+                .packageName(packageName)
+                .use32BitRuntime(Boolean.parseBoolean(ParamUtils.getStringValue(USE_32BIT_RUNTIME, inputParams)))
+                .pollStrategy(SqlServerJobProperties.getPollStrategy(inputParams))
+                .maxPollIntervalMillis(SqlServerJobProperties.getMaxPollIntervalMillis(inputParams))
+                .timeoutMillis(ParamUtils.getIntValue(SqlServerJobProperties.TIMEOUT, inputParams) * 1000L)
+                .messageListener(new PluginLoggerProgressListener(pluginStepContext.getLogger()));
+        if (authentication != null) {
+            try {
+                builder.authentication(AuthenticationMode.valueOf(authentication.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ConfigurationException("Unknown authentication: " + authentication);
+            }
+        }
+        if (environmentReferenceId != null && !environmentReferenceId.trim().isEmpty()) {
+            try {
+                builder.environmentReferenceId(Long.valueOf(environmentReferenceId.trim()));
+            } catch (NumberFormatException ex) {
+                throw new ConfigurationException("Invalid environment reference id: " + environmentReferenceId);
+            }
+        }
+        //values often contain '=' (e.g. connection strings), so only the first one separates the name
+        for (String line : ParamUtils.getListValues(PARAMETERS, inputParams)) {
+            int separator = line.indexOf(VALUE_SEPARATOR);
+            if (separator <= 0) {
+                throw new ConfigurationException("Incorrect format for parameter = " + line + ", expected name=value");
+            }
+            builder.parameter(line.substring(0, separator).trim(), line.substring(separator + 1));
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public Description getDescription() {
+        DescriptionBuilder builder = DescriptionBuilder.builder()
+                .name(SERVICE_PROVIDER_NAME)
+                .title("SSIS Catalog Plugin")
+                .description("Executes an SSIS package deployed to the SSIS catalog");
+        SqlServerJobProperties.addConnectionProperties(builder)
+                .property(PropertyBuilder.builder()
+                    .select(AUTHENTICATION)
+                    .title("Authentication")
+                    .description("'ntlm' connects with the Windows account given as DOMAIN\\user, 'sql_server' with a SQL Server " +
+                            "login. The SSIS catalog only runs packages for Windows accounts")
+                    .values("ntlm", "sql_server")
+                    .defaultValue("ntlm")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(FOLDER_NAME)
+                    .title("Folder")
+                    .description("The SSIS catalog folder of the project")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(PROJECT_NAME)
+                    .title("Project")
+                    .description("The name of the SSIS project")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(PACKAGE_NAME)
+                    .title("Package")
+                    .description("The name of the package, including the .dtsx extension")
+                    .required(true)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(PARAMETERS)
+                    .title("Parameters")
+                    .description("Parameter values, one per line: name=value. Prefix the name with $Project:: for project " +
+                            "parameters or $ServerOption:: for server options (e.g. $ServerOption::LOGGING_LEVEL=1), " +
+                            "names without prefix are package parameters")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .booleanType(USE_32BIT_RUNTIME)
+                    .title("Use 32-bit runtime")
+                    .description("Runs the package with the 32-bit runtime")
+                    .defaultValue("false")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(ENVIRONMENT_REFERENCE_ID)
+                    .title("Environment reference id")
+                    .description("The reference_id of the environment used by the execution, see SSISDB.catalog.environment_references")
+                    .required(false)
+                    .build());
+        SqlServerJobProperties.addPollProperties(builder)
+                .property(PropertyBuilder.builder()
+                    .integer(SqlServerJobProperties.TIMEOUT)
+                    .title("Timeout")
+                    .description("Max time, in seconds, the package may run. When it expires the execution is stopped with " +
+                            "catalog.stop_operation and the step fails. 0 uses the plugin default (no timeout unless configured)")
+                    .defaultValue("0")
+                    .required(false)
+                    .build());
+        return builder.build();
+    }
+}
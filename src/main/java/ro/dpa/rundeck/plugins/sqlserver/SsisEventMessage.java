@@ -0,0 +1,54 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * A row of SSISDB.catalog.event_messages, a message written by a running SSIS package
+ */
+public class SsisEventMessage {
+    //message_type values of catalog.event_messages
+    public static final int ERROR = 120;
+    public static final int WARNING = 110;
+    public static final int TASK_FAILED = 130;
+    public static final int PROGRESS = 60;
+
+    private final long eventMessageId;
+    private final int messageType;
+    private final String sourceName;
+    private final String message;
+
+    public SsisEventMessage(long eventMessageId, int messageType, String sourceName, String message) {
+        this.eventMessageId = eventMessageId;
+        this.messageType = messageType;
+        this.sourceName = sourceName;
+        this.message = message;
+    }
+
+    public boolean isError() {
+        return messageType == ERROR || messageType == TASK_FAILED;
+    }
+
+    public long getEventMessageId() {
+        return eventMessageId;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "SsisEventMessage{" +
+                "eventMessageId=" + eventMessageId +
+                ", messageType=" + messageType +
+                ", sourceName='" + sourceName + '\'' +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Incremental reader state for the event messages of an SSIS execution. It keeps the event_message_id of the last
+ * message seen, so each read only fetches the messages written since, and hands them to a {@link SsisEventMessageListener}.
+ * Only the last error is kept, so the memory used doesn't grow with the number of messages.
+ */
+public class SsisEventMessageFeed {
+    private final String packageName;
+    private final SsisEventMessageListener listener;
+    private long lastEventMessageId;
+    private SsisEventMessage lastError;
+
+    public SsisEventMessageFeed(String packageName, SsisEventMessageListener listener) {
+        this.packageName = packageName;
+        this.listener = listener;
+    }
+
+    public long getLastEventMessageId() {
+        return lastEventMessageId;
+    }
+
+    /**
+     * The last error message of the execution, null if there was no error
+     */
+    public SsisEventMessage getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Called by the DAO for each new message. Messages at or below the high-water mark are ignored.
+     */
+    public void accept(SsisEventMessage message) {
+        if (message.getEventMessageId() <= lastEventMessageId) {
+            return;
+        }
+        lastEventMessageId = message.getEventMessageId();
+        if (message.isError()) {
+            lastError = message;
+        }
+        if (listener != null) {
+            listener.onEventMessage(packageName, message);
+        }
+    }
+}
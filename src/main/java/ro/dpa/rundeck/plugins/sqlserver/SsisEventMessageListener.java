@@ -0,0 +1,14 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Receives the messages written by a running SSIS package, as the SSIS catalog records them in catalog.event_messages
+ */
+public interface SsisEventMessageListener {
+    /**
+     * Called once for each new message of the execution, in the order the messages were written
+     *
+     * @param packageName The name of the package
+     * @param message The event message
+     */
+    void onEventMessage(String packageName, SsisEventMessage message);
+}
@@ -0,0 +1,77 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.util.Arrays;
+
+/**
+ * Enum describing the status of an execution of the SSIS catalog.
+ * <p>
+ * Check column status from the catalog.executions documentation
+ * {@link https://docs.microsoft.com/en-us/sql/integration-services/system-views/catalog-executions-ssisdb-database}
+ */
+public enum SsisExecutionStatus {
+    Created(1),
+    Running(2),
+    Canceled(3),
+    Failed(4),
+    Pending(5),
+    EndedUnexpectedly(6),
+    Succeeded(7),
+    Stopping(8),
+    Completed(9),
+    Unknown(-1);
+
+    private static final SsisExecutionStatus[] BY_STATUS;
+
+    static {
+        int maxStatus = 0;
+        for (SsisExecutionStatus status : SsisExecutionStatus.values()) {
+            maxStatus = Math.max(maxStatus, status.status);
+        }
+        BY_STATUS = new SsisExecutionStatus[maxStatus + 1];
+        Arrays.fill(BY_STATUS, SsisExecutionStatus.Unknown);
+        for (SsisExecutionStatus status : SsisExecutionStatus.values()) {
+            if (status.status >= 0) {
+                BY_STATUS[status.status] = status;
+            }
+        }
+    }
+
+    private final int status;
+
+    SsisExecutionStatus(int status) {
+        this.status = status;
+    }
+
+    public static SsisExecutionStatus valueOf(int statusValue) {
+        //codes are small and dense, so the lookup is a bounds check and an array read, without copying values()
+        if (statusValue < 0 || statusValue >= BY_STATUS.length) {
+            return SsisExecutionStatus.Unknown;
+        }
+        return BY_STATUS[statusValue];
+    }
+
+    public int value() {
+        return this.status;
+    }
+
+    public boolean isFinished() {
+        return this == Canceled || this == Failed || this == EndedUnexpectedly || this == Succeeded || this == Completed;
+    }
+
+    public boolean isSuccessful() {
+        return this == Succeeded || this == Completed;
+    }
+
+    /**
+     * The equivalent SQL Agent job status, used to schedule the status checks with a {@link PollSchedule}
+     */
+    public CurrentExecutionStatus toCurrentExecutionStatus() {
+        if (this.isFinished()) {
+            return CurrentExecutionStatus.Idle;
+        }
+        if (this == Created || this == Pending) {
+            return CurrentExecutionStatus.WaitingForThread;
+        }
+        return CurrentExecutionStatus.Executing;
+    }
+}
@@ -0,0 +1,72 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.sql.SQLException;
+
+/**
+ * DAO for running SSIS packages deployed to the SSIS catalog (SSISDB), without a SQL Agent job.
+ * See {@https://docs.microsoft.com/en-us/sql/integration-services/system-stored-procedures/stored-procedures-integration-services-catalog here}
+ * for the catalog stored procedures.
+ */
+public interface SsisPackageDao extends AutoCloseable {
+    /**
+     * Creates an execution of a package with catalog.create_execution. The execution is not started.
+     *
+     * @param folderName
+     * @param projectName
+     * @param packageName The package name, including the .dtsx extension
+     * @param use32BitRuntime Whether the package runs with the 32-bit runtime
+     * @param referenceId The environment reference of the project, null for no environment
+     * @return The execution_id
+     * @throws SQLException
+     */
+    public long createExecution(String folderName, String projectName, String packageName, boolean use32BitRuntime,
+                                Long referenceId) throws SQLException;
+
+    /**
+     * Sets a parameter value of a created execution with catalog.set_execution_parameter_value. The value is
+     * converted to the data type of the parameter before it is set.
+     *
+     * @param executionId
+     * @param objectType 20 for a project parameter, 30 for a package parameter, 50 for a server option
+     * @param parameterName
+     * @param value
+     * @throws SQLException
+     */
+    public void setExecutionParameterValue(long executionId, int objectType, String parameterName, String value) throws SQLException;
+
+    /**
+     * Starts a created execution with catalog.start_execution. The call returns once the package is started.
+     *
+     * @param executionId
+     * @throws SQLException
+     */
+    public void startExecution(long executionId) throws SQLException;
+
+    /**
+     * Returns the status of the execution from catalog.executions, and reads the event messages written since the
+     * high-water mark of the feed, in the same round trip.
+     *
+     * @param executionId
+     * @param feed The message feed of the execution
+     * @return The status of the execution
+     * @throws SQLException
+     */
+    public SsisExecutionStatus getExecutionStatus(long executionId, SsisEventMessageFeed feed) throws SQLException;
+
+    /**
+     * Asks the SSIS catalog to stop a running execution with catalog.stop_operation. The call returns before the
+     * package is stopped, the execution then ends with status Canceled.
+     *
+     * @param executionId
+     * @throws SQLException
+     */
+    public void stopOperation(long executionId) throws SQLException;
+
+    /**
+     * Releases the connection used by the DAO
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException;
+}
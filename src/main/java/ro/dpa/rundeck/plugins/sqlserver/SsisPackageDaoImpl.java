@@ -0,0 +1,191 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * DAO that runs and monitors SSIS packages through the stored procedures and views of the SSIS catalog
+ */
+public class SsisPackageDaoImpl implements SsisPackageDao {
+
+    private static final Logger logger = LoggerFactory.getLogger(SsisPackageDaoImpl.class);
+
+    //the position of @execution_id changed between SQL Server versions, so it is passed by name from a batch
+    private static final String CREATE_EXECUTION_BATCH =
+            "SET NOCOUNT ON; " +
+            "DECLARE @execution_id bigint; " +
+            "EXEC SSISDB.catalog.create_execution @folder_name = ?, @project_name = ?, @package_name = ?, " +
+            "@reference_id = ?, @use32bitruntime = ?, @execution_id = @execution_id OUTPUT; " +
+            "SET NOCOUNT OFF; " +
+            "SELECT @execution_id";
+
+    //@parameter_value is a sql_variant that must have the data type of the parameter, so the value is converted
+    //as declared in catalog.object_parameters. Server options are not declared there, they are integers or booleans
+    private static final String SET_EXECUTION_PARAMETER_VALUE_BATCH =
+            "SET NOCOUNT ON; " +
+            "DECLARE @execution_id bigint = ?, @object_type smallint = ?, @parameter_name nvarchar(128) = ?, " +
+            "@value nvarchar(4000) = ?, @data_type nvarchar(128), @typed_value sql_variant; " +
+            "SELECT @data_type = p.data_type " +
+            "FROM SSISDB.catalog.executions e " +
+            "JOIN SSISDB.catalog.folders f ON f.name = e.folder_name " +
+            "JOIN SSISDB.catalog.projects pr ON pr.folder_id = f.folder_id AND pr.name = e.project_name " +
+            "JOIN SSISDB.catalog.object_parameters p ON p.project_id = pr.project_id " +
+            "WHERE e.execution_id = @execution_id AND p.object_type = @object_type AND p.parameter_name = @parameter_name " +
+            "AND (p.object_type = 20 OR p.object_name = e.package_name); " +
+            "SET @typed_value = CASE @data_type " +
+            "WHEN 'String' THEN CAST(@value AS sql_variant) " +
+            "WHEN 'Boolean' THEN CAST(CAST(@value AS bit) AS sql_variant) " +
+            "WHEN 'Byte' THEN CAST(CAST(@value AS tinyint) AS sql_variant) " +
+            "WHEN 'SByte' THEN CAST(CAST(@value AS smallint) AS sql_variant) " +
+            "WHEN 'Int16' THEN CAST(CAST(@value AS smallint) AS sql_variant) " +
+            "WHEN 'Int32' THEN CAST(CAST(@value AS int) AS sql_variant) " +
+            "WHEN 'UInt32' THEN CAST(CAST(@value AS bigint) AS sql_variant) " +
+            "WHEN 'Int64' THEN CAST(CAST(@value AS bigint) AS sql_variant) " +
+            "WHEN 'UInt64' THEN CAST(CAST(@value AS decimal(20, 0)) AS sql_variant) " +
+            "WHEN 'Single' THEN CAST(CAST(@value AS real) AS sql_variant) " +
+            "WHEN 'Double' THEN CAST(CAST(@value AS float) AS sql_variant) " +
+            "WHEN 'Decimal' THEN CAST(CAST(@value AS decimal(38, 18)) AS sql_variant) " +
+            "WHEN 'DateTime' THEN CAST(CAST(@value AS datetime) AS sql_variant) " +
+            "ELSE COALESCE(CAST(TRY_CAST(@value AS int) AS sql_variant), CAST(@value AS sql_variant)) END; " +
+            "EXEC SSISDB.catalog.set_execution_parameter_value @execution_id = @execution_id, " +
+            "@object_type = @object_type, @parameter_name = @parameter_name, @parameter_value = @typed_value; " +
+            "SET NOCOUNT OFF";
+
+    private static final String START_EXECUTION_CALL = "EXEC SSISDB.catalog.start_execution @execution_id = ?";
+    private static final String STOP_OPERATION_CALL = "EXEC SSISDB.catalog.stop_operation @operation_id = ?";
+
+    //messages are read in pages, each message is handed to the feed as soon as it is read, so a package that writes
+    //hundreds of thousands of messages never has more than a page buffered by the driver
+    private static final int EVENT_MESSAGES_PAGE_SIZE = 5000;
+    private static final String EVENT_MESSAGES_QUERY =
+            "SELECT TOP (?) m.event_message_id, m.message_type, m.message_source_name, m.message " +
+            "FROM SSISDB.catalog.event_messages m " +
+            "WHERE m.operation_id = ? AND m.event_message_id > ? " +
+            "ORDER BY m.event_message_id";
+    //the messages are read after the status, so all the messages of a finished execution are in the same round trip
+    private static final String EXECUTION_STATUS_WITH_MESSAGES_BATCH =
+            "SELECT e.status FROM SSISDB.catalog.executions e WHERE e.execution_id = ?; " + EVENT_MESSAGES_QUERY;
+
+    private final SqlServerConnectionPool pool;
+    private final PooledConnection pooledConn;
+
+    public SsisPackageDaoImpl(String server, int port, String user, String password, AuthenticationMode authentication)
+            throws SQLException {
+        this(SqlServerConnectionPool.getInstance(), server, port, user, password, authentication);
+    }
+
+    SsisPackageDaoImpl(SqlServerConnectionPool pool, String server, int port, String user, String password,
+                       AuthenticationMode authentication) throws SQLException {
+        this.pool = pool;
+        this.pooledConn = pool.borrow(server, port, user, password, authentication);
+    }
+
+    @Override
+    public long createExecution(String folderName, String projectName, String packageName, boolean use32BitRuntime,
+                                Long referenceId) throws SQLException {
+        logger.debug("Creating SSIS execution for folder={}, project={}, package={}", folderName, projectName, packageName);
+
+        PreparedStatement stmt = pooledConn.prepareStatement(CREATE_EXECUTION_BATCH);
+        stmt.setString(1, folderName);
+        stmt.setString(2, projectName);
+        stmt.setString(3, packageName);
+        if (referenceId == null) {
+            stmt.setNull(4, Types.BIGINT);
+        } else {
+            stmt.setLong(4, referenceId);
+        }
+        stmt.setBoolean(5, use32BitRuntime);
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            long executionId = rs.getLong(1);
+            logger.debug("Created SSIS execution_id={}", executionId);
+            return executionId;
+        }
+    }
+
+    @Override
+    public void setExecutionParameterValue(long executionId, int objectType, String parameterName, String value) throws SQLException {
+        PreparedStatement stmt = pooledConn.prepareStatement(SET_EXECUTION_PARAMETER_VALUE_BATCH);
+        stmt.setLong(1, executionId);
+        stmt.setInt(2, objectType);
+        stmt.setString(3, parameterName);
+        stmt.setString(4, value);
+        stmt.execute();
+    }
+
+    @Override
+    public void startExecution(long executionId) throws SQLException {
+        logger.debug("Calling catalog.start_execution for execution_id={}", executionId);
+
+        CallableStatement cstmt = pooledConn.prepareCall(START_EXECUTION_CALL);
+        cstmt.setLong(1, executionId);
+        cstmt.execute();
+        logger.debug("Executed catalog.start_execution successfully");
+    }
+
+    @Override
+    public void stopOperation(long executionId) throws SQLException {
+        logger.debug("Calling catalog.stop_operation for execution_id={}", executionId);
+
+        CallableStatement cstmt = pooledConn.prepareCall(STOP_OPERATION_CALL);
+        cstmt.setLong(1, executionId);
+        cstmt.execute();
+        logger.debug("Executed catalog.stop_operation successfully");
+    }
+
+    @Override
+    public SsisExecutionStatus getExecutionStatus(long executionId, SsisEventMessageFeed feed) throws SQLException {
+        PreparedStatement stmt = pooledConn.prepareStatement(EXECUTION_STATUS_WITH_MESSAGES_BATCH);
+        stmt.setLong(1, executionId);
+        stmt.setInt(2, EVENT_MESSAGES_PAGE_SIZE);
+        stmt.setLong(3, executionId);
+        stmt.setLong(4, feed.getLastEventMessageId());
+
+        SsisExecutionStatus status;
+        int messageCount = 0;
+        stmt.execute();
+        try (ResultSet rs = stmt.getResultSet()) {
+            status = rs.next() ? SsisExecutionStatus.valueOf(rs.getInt("status")) : SsisExecutionStatus.Unknown;
+        }
+        if (stmt.getMoreResults()) {
+            try (ResultSet rs = stmt.getResultSet()) {
+                messageCount = readEventMessages(rs, feed);
+            }
+        }
+
+        //a full page means there are more messages, they are read before the next status check
+        while (messageCount == EVENT_MESSAGES_PAGE_SIZE) {
+            PreparedStatement pageStmt = pooledConn.prepareStatement(EVENT_MESSAGES_QUERY);
+            pageStmt.setInt(1, EVENT_MESSAGES_PAGE_SIZE);
+            pageStmt.setLong(2, executionId);
+            pageStmt.setLong(3, feed.getLastEventMessageId());
+            try (ResultSet rs = pageStmt.executeQuery()) {
+                messageCount = readEventMessages(rs, feed);
+            }
+        }
+
+        return status;
+    }
+
+    private static int readEventMessages(ResultSet rs, SsisEventMessageFeed feed) throws SQLException {
+        int count = 0;
+        while (rs.next()) {
+            feed.accept(new SsisEventMessage(rs.getLong("event_message_id"), rs.getInt("message_type"),
+                    rs.getString("message_source_name"), rs.getString("message")));
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        //the connection stays open, ready to be reused by the next step that targets this server
+        pool.release(pooledConn);
+    }
+}
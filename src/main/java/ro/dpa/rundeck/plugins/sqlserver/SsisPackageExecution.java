@@ -0,0 +1,397 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class that implements the logic for running and monitoring SSIS packages deployed to the SSIS catalog.
+ * The package is executed directly with catalog.create_execution and catalog.start_execution, without a SQL Agent job,
+ * and its event messages are streamed to the {@link SsisEventMessageListener} while it runs.
+ * <p>
+ * The SSIS catalog only runs packages for Windows logins, so the step usually connects with
+ * {@link AuthenticationMode#NTLM} and a DOMAIN&#92;user account.
+ */
+public class SsisPackageExecution {
+    private static final Logger logger = LoggerFactory.getLogger(SsisPackageExecution.class);
+
+    private static final long DEFAULT_MAX_POLL_INTERVAL_MILLIS = 30000;
+    //plugin-wide timeout, shared with the SQL Agent steps and used when the step doesn't set one. 0 means no timeout
+    private static final long DEFAULT_TIMEOUT_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("ro.dpa.rundeck.sqlserver.job.timeoutSeconds", 0));
+    //after catalog.stop_operation, the step waits this long for the execution to end before reporting
+    private static final long STOP_WAIT_MILLIS = 10000;
+    private static final long STOP_CHECK_INTERVAL_MILLIS = 500;
+    //consecutive checks that don't find the execution in catalog.executions before the step fails
+    private static final int MAX_UNKNOWN_STATUS_CHECKS = 3;
+
+    //parameter name prefixes, as used by dtexec and the SSIS catalog UI
+    private static final String PROJECT_PARAMETER_PREFIX = "$Project::";
+    private static final String PACKAGE_PARAMETER_PREFIX = "$Package::";
+    private static final String SERVER_OPTION_PREFIX = "$ServerOption::";
+    //object_type values of catalog.set_execution_parameter_value
+    private static final int PROJECT_PARAMETER = 20;
+    private static final int PACKAGE_PARAMETER = 30;
+    private static final int SERVER_OPTION = 50;
+
+    private String serverName;
+    private int port;
+    private String userName;
+    private String password;
+    private AuthenticationMode authentication;
+    private String folderName;
+    private String projectName;
+    private String packageName;
+    private List<ParameterValue> parameters;
+    private boolean use32BitRuntime;
+    private Long environmentReferenceId;
+    private PollStrategy pollStrategy;
+    private long maxPollIntervalMillis;
+    private long timeoutMillis;
+    private SsisEventMessageListener messageListener;
+    //assigned when the execution is created
+    private long executionId;
+    //assigned when the execution is started
+    private long startedAtMillis;
+
+    //constructor is private, it can only be instantiated through the builder
+    private SsisPackageExecution() {
+
+    }
+
+    public void execute() throws SQLException, InterruptedException {
+        logger.info("Executing SSIS package with the following details: {}", this.toString());
+        //the connection is only held while creating the execution, and then for each status check
+        try (SsisPackageDao dao = this.getSsisPackageDao()) {
+            this.executionId = dao.createExecution(this.folderName, this.projectName, this.packageName,
+                    this.use32BitRuntime, this.environmentReferenceId);
+            for (ParameterValue parameter : this.parameters) {
+                dao.setExecutionParameterValue(this.executionId, parameter.objectType, parameter.name, parameter.value);
+            }
+            dao.startExecution(this.executionId);
+            this.startedAtMillis = System.currentTimeMillis();
+        }
+        logger.info("Started SSIS execution_id={} for package='{}'", this.executionId, this.packageName);
+
+        this.waitForExecution();
+    }
+
+    public SsisPackageDao getSsisPackageDao() throws SQLException {
+        return new SsisPackageDaoImpl(this.serverName, this.port, this.userName, this.password, this.authentication);
+    }
+
+    public long getExecutionId() {
+        return executionId;
+    }
+
+    /**
+     * Checks the execution status until the package finishes, streaming the new event messages with each check.
+     * The execution is stopped if the step is interrupted or the timeout expires.
+     *
+     * @throws SQLException If the package fails, SQLException is thrown
+     */
+    private void waitForExecution() throws SQLException, InterruptedException {
+        SsisEventMessageFeed feed = new SsisEventMessageFeed(this.packageName, this.messageListener);
+        SsisExecutionStatus status;
+        try {
+            status = this.pollExecutionStatus(feed);
+        } catch (InterruptedException ex) {
+            //the Rundeck execution was killed, the package must not keep running without anyone waiting for it
+            logger.warn("Waiting for SSIS execution_id={} was interrupted, stopping the execution", this.executionId);
+            this.stopExecution(feed);
+            throw ex;
+        }
+        if (status == null) {
+            logger.error("SSIS execution_id={} did not finish in {} ms, stopping the execution", this.executionId,
+                    this.timeoutMillis);
+            this.stopExecution(feed);
+            throw new SQLTimeoutException("SSIS package '" + this.packageName + "' (execution_id=" + this.executionId + ") "
+                    + "did not finish in " + TimeUnit.MILLISECONDS.toSeconds(this.timeoutMillis) + " seconds and was stopped");
+        }
+
+        if (!status.isSuccessful()) {
+            logger.error("SSIS execution_id={} of package='{}' failed with status={}", this.executionId, this.packageName, status);
+            SsisEventMessage lastError = feed.getLastError();
+            throw new SQLException("SSIS package '" + this.packageName + "' (execution_id=" + this.executionId + ") " +
+                    "failed with status=" + status + (lastError == null ? ". Check the SSIS catalog reports for more details."
+                    : ": " + lastError.getMessage()));
+        }
+        logger.info("SSIS execution_id={} of package='{}' processed successfully", this.executionId, this.packageName);
+    }
+
+    /**
+     * Checks the execution status until the package finishes. Transient errors are retried as described in
+     * {@link TransientErrorRecovery}.
+     *
+     * @return The status of the finished execution, null if the timeout expired first
+     * @throws SQLException If the execution can't be seen in catalog.executions, or a check fails for good
+     */
+    private SsisExecutionStatus pollExecutionStatus(SsisEventMessageFeed feed) throws SQLException, InterruptedException {
+        PollSchedule schedule = this.pollStrategy.newSchedule(this.maxPollIntervalMillis);
+        TransientErrorRecovery recovery = new TransientErrorRecovery("SSIS execution_id=" + this.executionId);
+        SsisExecutionStatus status = null;
+        int unknownChecks = 0;
+        while (true) {
+            long remaining = this.getRemainingMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            //the last check is done when the timeout expires
+            long delay = Math.min(schedule.nextDelayMillis(status == null ? null : status.toCurrentExecutionStatus()), remaining);
+            if (logger.isDebugEnabled()) {
+                logger.debug("SSIS execution_id={} in progress. Waiting for {} ms until next check...", this.executionId, delay);
+            }
+            Thread.sleep(delay);
+
+            try (SsisPackageDao dao = this.getSsisPackageDao()) {
+                status = dao.getExecutionStatus(this.executionId, feed);
+            } catch (SQLException ex) {
+                recovery.recover(ex, this.getRemainingMillis());
+                continue;
+            }
+            recovery.succeeded();
+            if (logger.isDebugEnabled()) {
+                logger.debug("SSIS execution_id={}, status={}", this.executionId, status);
+            }
+            if (status == SsisExecutionStatus.Unknown) {
+                //catalog.executions only shows the executions the login has permissions on
+                if (++unknownChecks >= MAX_UNKNOWN_STATUS_CHECKS) {
+                    throw new SQLException("SSIS execution_id=" + this.executionId + " of package '" + this.packageName
+                            + "' was not found in SSISDB.catalog.executions after " + unknownChecks + " checks. Check that the "
+                            + "login has READ permission on the project");
+                }
+                status = null;
+                continue;
+            }
+            unknownChecks = 0;
+            if (status.isFinished()) {
+                return status;
+            }
+        }
+    }
+
+    /**
+     * Stops the execution with catalog.stop_operation and waits up to {@value #STOP_WAIT_MILLIS} ms for it to end,
+     * so the step only reports once the package no longer runs. The step fails anyway, so errors are only logged.
+     */
+    private void stopExecution(SsisEventMessageFeed feed) {
+        try (SsisPackageDao dao = this.getSsisPackageDao()) {
+            dao.stopOperation(this.executionId);
+            long deadline = System.currentTimeMillis() + STOP_WAIT_MILLIS;
+            while (!dao.getExecutionStatus(this.executionId, feed).isFinished()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    logger.warn("SSIS execution_id={} is still running {} ms after it was asked to stop", this.executionId,
+                            STOP_WAIT_MILLIS);
+                    return;
+                }
+                Thread.sleep(STOP_CHECK_INTERVAL_MILLIS);
+            }
+            logger.info("SSIS execution_id={} was stopped", this.executionId);
+        } catch (SQLException ex) {
+            logger.error("Could not stop SSIS execution_id={}, it may still be running", this.executionId, ex);
+        } catch (InterruptedException ex) {
+            //interrupted again while waiting, the stop was already requested
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The time left until the timeout of the execution, {@link Long#MAX_VALUE} if there is no timeout
+     */
+    private long getRemainingMillis() {
+        if (this.timeoutMillis <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return this.startedAtMillis + this.timeoutMillis - System.currentTimeMillis();
+    }
+
+    private static class ParameterValue {
+        private final int objectType;
+        private final String name;
+        private final String value;
+
+        ParameterValue(int objectType, String name, String value) {
+            this.objectType = objectType;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return objectType + ":" + name;
+        }
+    }
+
+    public static class SsisPackageExecutionBuilder {
+        private String nestedServerName;
+        private int nestedPort;
+        private String nestedUserName;
+        private String nestedPassword;
+        private AuthenticationMode nestedAuthentication;
+        private String nestedFolderName;
+        private String nestedProjectName;
+        private String nestedPackageName;
+        private List<ParameterValue> nestedParameters = new ArrayList<>();
+        private boolean nestedUse32BitRuntime;
+        private Long nestedEnvironmentReferenceId;
+        private PollStrategy nestedPollStrategy;
+        private long nestedMaxPollIntervalMillis;
+        private long nestedTimeoutMillis;
+        private SsisEventMessageListener nestedMessageListener;
+
+        public SsisPackageExecutionBuilder() {
+
+        }
+
+        public SsisPackageExecutionBuilder serverName(String serverName) {
+            this.nestedServerName = serverName;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder port(int port) {
+            this.nestedPort = port;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder userName(String userName) {
+            this.nestedUserName = userName;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder password(String password) {
+            this.nestedPassword = password;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder authentication(AuthenticationMode authentication) {
+            this.nestedAuthentication = authentication;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder folderName(String folderName) {
+            this.nestedFolderName = folderName;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder projectName(String projectName) {
+            this.nestedProjectName = projectName;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder packageName(String packageName) {
+            this.nestedPackageName = packageName;
+            return this;
+        }
+
+        /**
+         * Adds a parameter value. The name can be prefixed with $Project::, $Package:: or $ServerOption::,
+         * names without prefix are package parameters.
+         */
+        public SsisPackageExecutionBuilder parameter(String name, String value) {
+            if (name.startsWith(PROJECT_PARAMETER_PREFIX)) {
+                this.nestedParameters.add(new ParameterValue(PROJECT_PARAMETER, name.substring(PROJECT_PARAMETER_PREFIX.length()), value));
+            } else if (name.startsWith(SERVER_OPTION_PREFIX)) {
+                this.nestedParameters.add(new ParameterValue(SERVER_OPTION, name.substring(SERVER_OPTION_PREFIX.length()), value));
+            } else if (name.startsWith(PACKAGE_PARAMETER_PREFIX)) {
+                this.nestedParameters.add(new ParameterValue(PACKAGE_PARAMETER, name.substring(PACKAGE_PARAMETER_PREFIX.length()), value));
+            } else {
+                this.nestedParameters.add(new ParameterValue(PACKAGE_PARAMETER, name, value));
+            }
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder use32BitRuntime(boolean use32BitRuntime) {
+            this.nestedUse32BitRuntime = use32BitRuntime;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder environmentReferenceId(Long environmentReferenceId) {
+            this.nestedEnvironmentReferenceId = environmentReferenceId;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder pollStrategy(PollStrategy pollStrategy) {
+            this.nestedPollStrategy = pollStrategy;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder maxPollIntervalMillis(long maxPollIntervalMillis) {
+            this.nestedMaxPollIntervalMillis = maxPollIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Max time the package may run, it is stopped with catalog.stop_operation when the time expires.
+         * 0 uses the plugin default
+         */
+        public SsisPackageExecutionBuilder timeoutMillis(long timeoutMillis) {
+            this.nestedTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public SsisPackageExecutionBuilder messageListener(SsisEventMessageListener messageListener) {
+            this.nestedMessageListener = messageListener;
+            return this;
+        }
+
+        public SsisPackageExecution build() throws ConfigurationException {
+            SsisPackageExecution execution = new SsisPackageExecution();
+            //check for mandatory params
+            if (Strings.isNullOrEmpty(this.nestedServerName) || Strings.isNullOrEmpty(this.nestedUserName)
+                    || Strings.isNullOrEmpty(this.nestedPassword) || Strings.isNullOrEmpty(this.nestedFolderName)
+                    || Strings.isNullOrEmpty(this.nestedProjectName) || Strings.isNullOrEmpty(this.nestedPackageName)
+                    || this.nestedPort == 0) {
+                throw new ConfigurationException("Following parameters are mandatory: serverName, port, userName, password, " +
+                        "folderName, projectName, packageName");
+            }
+
+            execution.serverName = this.nestedServerName;
+            execution.port = this.nestedPort;
+            execution.userName = this.nestedUserName;
+            execution.password = this.nestedPassword;
+            execution.authentication = this.nestedAuthentication == null ? AuthenticationMode.SQL_SERVER
+                    : this.nestedAuthentication;
+            execution.folderName = this.nestedFolderName;
+            execution.projectName = this.nestedProjectName;
+            execution.packageName = this.nestedPackageName;
+            execution.parameters = Collections.unmodifiableList(new ArrayList<>(this.nestedParameters));
+            execution.use32BitRuntime = this.nestedUse32BitRuntime;
+            execution.environmentReferenceId = this.nestedEnvironmentReferenceId;
+            execution.pollStrategy = this.nestedPollStrategy == null ? PollStrategy.ADAPTIVE : this.nestedPollStrategy;
+            execution.maxPollIntervalMillis = this.nestedMaxPollIntervalMillis > 0 ? this.nestedMaxPollIntervalMillis
+                    : DEFAULT_MAX_POLL_INTERVAL_MILLIS;
+            execution.timeoutMillis = this.nestedTimeoutMillis > 0 ? this.nestedTimeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+            execution.messageListener = this.nestedMessageListener;
+
+            return execution;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SsisPackageExecution{" +
+                "serverName='" + serverName + '\'' +
+                ", port=" + port +
+                ", userName='" + userName + '\'' +
+                ", authentication=" + authentication +
+                ", folderName='" + folderName + '\'' +
+                ", projectName='" + projectName + '\'' +
+                ", packageName='" + packageName + '\'' +
+                ", parameters=" + parameters +
+                ", use32BitRuntime=" + use32BitRuntime +
+                ", environmentReferenceId=" + environmentReferenceId +
+                ", pollStrategy=" + pollStrategy +
+                ", maxPollIntervalMillis=" + maxPollIntervalMillis +
+                ", timeoutMillis=" + timeoutMillis +
+                ", executionId=" + executionId +
+                '}';
+    }
+}
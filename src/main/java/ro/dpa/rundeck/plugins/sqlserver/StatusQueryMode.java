@@ -0,0 +1,16 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * How the status of a running job is read from msdb
+ */
+public enum StatusQueryMode {
+    /**
+     * Calls sp_help_job for the current status, and once more for the outcome when the job is idle
+     */
+    HELP_JOB,
+    /**
+     * Reads msdb.dbo.sysjobactivity and msdb.dbo.sysjobhistory directly. A single round trip returns
+     * the state, outcome and timestamps of the run we started. Requires SELECT permission on those tables.
+     */
+    ACTIVITY
+}
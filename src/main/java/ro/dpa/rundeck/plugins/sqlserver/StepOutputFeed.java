@@ -0,0 +1,71 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits the output logs of the job steps into lines and hands them to a {@link StepOutputListener}.
+ * <p>
+ * A log is read from its character stream in chunks of {@value #CHUNK_CHARS} characters, so the memory used doesn't
+ * depend on the size of the log: a step can log hundreds of MB to table.
+ */
+public class StepOutputFeed {
+    static final int CHUNK_CHARS = 8192;
+    static final int MAX_LINE_CHARS = 8192;
+
+    private final String jobName;
+    private final StepOutputListener listener;
+    //reused for every log of the run
+    private final char[] chunk = new char[CHUNK_CHARS];
+    private final StringBuilder line = new StringBuilder();
+    private long charsRead;
+
+    public StepOutputFeed(String jobName, StepOutputListener listener) {
+        this.jobName = jobName;
+        this.listener = listener;
+    }
+
+    /**
+     * Total characters read from the logs, for diagnostics
+     */
+    public long getCharsRead() {
+        return charsRead;
+    }
+
+    /**
+     * Called by the DAO for the output log of each step. The reader is not closed.
+     */
+    public void accept(int stepId, String stepName, Reader log) throws IOException {
+        line.setLength(0);
+        boolean afterCarriageReturn = false;
+        int read;
+        while ((read = log.read(chunk, 0, CHUNK_CHARS)) >= 0) {
+            charsRead += read;
+            for (int i = 0; i < read; i++) {
+                char c = chunk[i];
+                if (c == '\n') {
+                    //\r\n was already ended by the \r
+                    if (!afterCarriageReturn) {
+                        this.endLine(stepId, stepName);
+                    }
+                } else if (c == '\r') {
+                    this.endLine(stepId, stepName);
+                } else {
+                    line.append(c);
+                    if (line.length() >= MAX_LINE_CHARS) {
+                        this.endLine(stepId, stepName);
+                    }
+                }
+                afterCarriageReturn = c == '\r';
+            }
+        }
+        if (line.length() > 0) {
+            this.endLine(stepId, stepName);
+        }
+    }
+
+    private void endLine(int stepId, String stepName) {
+        listener.onStepOutputLine(jobName, stepId, stepName, line.toString());
+        line.setLength(0);
+    }
+}
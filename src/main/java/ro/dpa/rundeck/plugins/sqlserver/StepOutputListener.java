@@ -0,0 +1,16 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Receives the output of the job steps that log to table, as SQL Agent stores it in msdb.dbo.sysjobstepslogs
+ */
+public interface StepOutputListener {
+    /**
+     * Called once for each line of the output of a step, in order
+     *
+     * @param jobName The name of the job
+     * @param stepId The step_id of the step
+     * @param stepName The name of the step
+     * @param line The line, without the line terminator. Lines longer than {@link StepOutputFeed#MAX_LINE_CHARS} are split
+     */
+    void onStepOutputLine(String jobName, int stepId, String stepName, String line);
+}
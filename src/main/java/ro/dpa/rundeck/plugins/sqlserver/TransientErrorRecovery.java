@@ -0,0 +1,118 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets the monitoring of a running job or SSIS execution outlive transient errors, e.g. a network blip, a failover of the server or
+ * msdb choosing the status query as deadlock victim. The run goes on on the server meanwhile, so the step
+ * waits with a bounded exponential backoff and checks the same run again, on a new connection from the pool
+ * (a broken connection is closed by the driver and discarded when released).
+ * <p>
+ * The step fails if the errors go on for longer than the recovery window, configured with
+ * <b>ro.dpa.rundeck.sqlserver.job.recoverySeconds</b> (default 900, 0 disables the recovery).
+ */
+class TransientErrorRecovery {
+    private static final Logger logger = LoggerFactory.getLogger(TransientErrorRecovery.class);
+
+    private static final long DEFAULT_RECOVERY_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("ro.dpa.rundeck.sqlserver.job.recoverySeconds", 900));
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+    //SQLSTATE class of the connection exceptions, and the SQLSTATE of a serialization failure (deadlock)
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final int[] TRANSIENT_ERRORS = {
+            //deadlock victim, lock request timeout
+            1205, 1222,
+            //availability group database not accessible during a failover
+            976, 978, 983,
+            //transport-level errors
+            233, 10053, 10054, 10060,
+            //Azure SQL Database reconfiguration and throttling
+            40197, 40501, 40613
+    };
+
+    //describes the monitored run in the log messages, e.g. job with name='Nightly load'
+    private final String runName;
+    private final long recoveryMillis;
+    //first error of the current outage, 0 if the last check succeeded
+    private long failingSinceMillis;
+    private long nextBackoffMillis = INITIAL_BACKOFF_MILLIS;
+
+    TransientErrorRecovery(String runName) {
+        this(runName, DEFAULT_RECOVERY_MILLIS);
+    }
+
+    TransientErrorRecovery(String runName, long recoveryMillis) {
+        this.runName = runName;
+        this.recoveryMillis = recoveryMillis;
+    }
+
+    /**
+     * Called after a successful check of the run, ends the current outage
+     */
+    void succeeded() {
+        if (failingSinceMillis != 0) {
+            logger.info("Monitoring of {} recovered after {} ms", runName,
+                    System.currentTimeMillis() - failingSinceMillis);
+            failingSinceMillis = 0;
+            nextBackoffMillis = INITIAL_BACKOFF_MILLIS;
+        }
+    }
+
+    /**
+     * Waits before the run is checked again, if the error is transient and the recovery window isn't over
+     *
+     * @param ex The error of the last check
+     * @param remainingMillis Time left until the timeout of the run, the wait doesn't go past it
+     * @throws SQLException The given error, if the step must fail
+     */
+    void recover(SQLException ex, long remainingMillis) throws SQLException, InterruptedException {
+        if (!isTransient(ex)) {
+            throw ex;
+        }
+        long now = System.currentTimeMillis();
+        if (failingSinceMillis == 0) {
+            failingSinceMillis = now;
+        }
+        if (now - failingSinceMillis >= recoveryMillis) {
+            logger.error("Giving up monitoring {} after {} ms of errors", runName, now - failingSinceMillis);
+            throw ex;
+        }
+        long backoffMillis = Math.max(0, Math.min(nextBackoffMillis, remainingMillis));
+        logger.warn("Transient error while monitoring {}, the run is checked again in {} ms: {}", runName,
+                backoffMillis, ex.getMessage());
+        nextBackoffMillis = Math.min(nextBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+        Thread.sleep(backoffMillis);
+    }
+
+    /**
+     * Whether the error, or an error it was caused by, is a connection failure or a transient server condition
+     */
+    static boolean isTransient(SQLException ex) {
+        Throwable current = ex;
+        while (current instanceof SQLException) {
+            SQLException sqlEx = (SQLException) current;
+            if (sqlEx instanceof SQLTransientException || sqlEx instanceof SQLRecoverableException) {
+                return true;
+            }
+            String sqlState = sqlEx.getSQLState();
+            if (sqlState != null && (sqlState.startsWith(CONNECTION_EXCEPTION_CLASS) || sqlState.equals(SERIALIZATION_FAILURE))) {
+                return true;
+            }
+            for (int errorCode : TRANSIENT_ERRORS) {
+                if (sqlEx.getErrorCode() == errorCode) {
+                    return true;
+                }
+            }
+            current = sqlEx.getCause();
+        }
+        return false;
+    }
+}
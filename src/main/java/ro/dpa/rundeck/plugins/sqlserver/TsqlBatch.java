@@ -0,0 +1,52 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * A batch of a T-SQL script, the statements between two GO separators
+ */
+public class TsqlBatch {
+    private final int number;
+    private final String sql;
+    private final int startLine;
+    private final int repeatCount;
+
+    public TsqlBatch(int number, String sql, int startLine, int repeatCount) {
+        this.number = number;
+        this.sql = sql;
+        this.startLine = startLine;
+        this.repeatCount = repeatCount;
+    }
+
+    /**
+     * @return The position of the batch in the script, starting from 1
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return The line of the script where the batch starts, starting from 1
+     */
+    public int getStartLine() {
+        return startLine;
+    }
+
+    /**
+     * @return How many times the batch is executed, as given by GO count (1 for a plain GO)
+     */
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TsqlBatch{" +
+                "number=" + number +
+                ", startLine=" + startLine +
+                ", repeatCount=" + repeatCount +
+                '}';
+    }
+}
@@ -0,0 +1,197 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a T-SQL script into batches on the GO separator, the way sqlcmd and SSMS do: GO must be alone on its line,
+ * optionally followed by a repeat count and a -- comment. GO inside string literals, quoted identifiers and
+ * (nested) block comments is not a separator.
+ * <p>
+ * The script is read in chunks of {@value #CHUNK_CHARS} characters and only the current batch is kept in memory,
+ * so a script of any size can be executed.
+ */
+public class TsqlBatchSplitter {
+    static final int CHUNK_CHARS = 8192;
+
+    private static final Pattern GO_PATTERN = Pattern.compile("\\s*go(?:\\s+(\\d{1,9}))?\\s*(?:--.*)?", Pattern.CASE_INSENSITIVE);
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /**
+     * Lexical state at the end of the last line read, only lines starting in CODE can be separators
+     */
+    private enum State {
+        CODE, STRING, QUOTED_IDENTIFIER, BRACKETED_IDENTIFIER, BLOCK_COMMENT
+    }
+
+    private final Reader script;
+    private final char[] chunk = new char[CHUNK_CHARS];
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder batch = new StringBuilder();
+    private int chunkPosition;
+    private int chunkLength;
+    private boolean afterCarriageReturn;
+    private boolean startOfScript = true;
+    private State state = State.CODE;
+    private int commentDepth;
+    private int lineNumber;
+    private int batchCount;
+
+    /**
+     * @param script The script to split, it is not closed
+     */
+    public TsqlBatchSplitter(Reader script) {
+        this.script = script;
+    }
+
+    /**
+     * Reads the script up to the next separator.
+     *
+     * @return The next batch, null at the end of the script. Batches with only blank lines are skipped.
+     */
+    public TsqlBatch next() throws IOException {
+        batch.setLength(0);
+        boolean hasCode = false;
+        int startLine = 0;
+        while (true) {
+            boolean separatorCandidate = state == State.CODE;
+            if (!this.readLine()) {
+                break;
+            }
+            if (separatorCandidate) {
+                Matcher go = GO_PATTERN.matcher(line);
+                if (go.matches()) {
+                    if (!hasCode) {
+                        batch.setLength(0);
+                        continue;
+                    }
+                    return new TsqlBatch(++batchCount, batch.toString(), startLine, go.group(1) == null ? 1 : Integer.parseInt(go.group(1)));
+                }
+            }
+            if (!hasCode) {
+                if (isBlank(line)) {
+                    continue;
+                }
+                hasCode = true;
+                startLine = lineNumber;
+            }
+            batch.append(line).append('\n');
+        }
+        return hasCode ? new TsqlBatch(++batchCount, batch.toString(), startLine, 1) : null;
+    }
+
+    /**
+     * Reads the next line, without its terminator (\n, \r\n or \r), and updates the lexical state with it
+     *
+     * @return false at the end of the script
+     */
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        boolean read = false;
+        while (true) {
+            if (chunkPosition == chunkLength) {
+                chunkLength = script.read(chunk, 0, CHUNK_CHARS);
+                chunkPosition = 0;
+                if (chunkLength <= 0) {
+                    chunkLength = 0;
+                    break;
+                }
+            }
+            char c = chunk[chunkPosition++];
+            if (startOfScript) {
+                startOfScript = false;
+                if (c == BYTE_ORDER_MARK) {
+                    continue;
+                }
+            }
+            if (afterCarriageReturn) {
+                afterCarriageReturn = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            read = true;
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                afterCarriageReturn = true;
+                break;
+            }
+            line.append(c);
+        }
+        if (!read) {
+            return false;
+        }
+        lineNumber++;
+        this.scan(line);
+        return true;
+    }
+
+    private void scan(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            char next = i + 1 < length ? text.charAt(i + 1) : 0;
+            switch (state) {
+                case CODE:
+                    if (c == '\'') {
+                        state = State.STRING;
+                    } else if (c == '"') {
+                        state = State.QUOTED_IDENTIFIER;
+                    } else if (c == '[') {
+                        state = State.BRACKETED_IDENTIFIER;
+                    } else if (c == '-' && next == '-') {
+                        //the rest of the line is a comment
+                        return;
+                    } else if (c == '/' && next == '*') {
+                        state = State.BLOCK_COMMENT;
+                        commentDepth = 1;
+                        i++;
+                    }
+                    break;
+                //escaped quotes ('' and "") close and reopen the literal, which leaves the state unchanged
+                case STRING:
+                    if (c == '\'') {
+                        state = State.CODE;
+                    }
+                    break;
+                case QUOTED_IDENTIFIER:
+                    if (c == '"') {
+                        state = State.CODE;
+                    }
+                    break;
+                case BRACKETED_IDENTIFIER:
+                    if (c == ']' && next == ']') {
+                        i++;
+                    } else if (c == ']') {
+                        state = State.CODE;
+                    }
+                    break;
+                case BLOCK_COMMENT:
+                    //block comments nest in T-SQL
+                    if (c == '/' && next == '*') {
+                        commentDepth++;
+                        i++;
+                    } else if (c == '*' && next == '/') {
+                        if (--commentDepth == 0) {
+                            state = State.CODE;
+                        }
+                        i++;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
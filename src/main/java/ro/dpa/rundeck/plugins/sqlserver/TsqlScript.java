@@ -0,0 +1,357 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Runs a T-SQL script directly on the server, without a SQL Agent job. The script is split into batches on GO
+ * by a {@link TsqlBatchSplitter} and the batches are executed one after the other on the same connection.
+ * <p>
+ * Result sets are read with a forward-only, read-only statement, so the driver streams the rows from the server
+ * instead of buffering them. Rows and messages are handed to the {@link TsqlScriptListener} as they are read; only the
+ * first rows of each result set are forwarded (see maxLoggedRows), the others are only counted.
+ * <p>
+ * The script can change the session (SET options, USE, open transactions, temp tables), so its connection is closed
+ * afterwards instead of going back to the pool.
+ */
+public class TsqlScript {
+    private static final Logger logger = LoggerFactory.getLogger(TsqlScript.class);
+
+    private static final String PROPERTY_PREFIX = "ro.dpa.rundeck.sqlserver.script.";
+    private static final int DEFAULT_FETCH_SIZE = Integer.getInteger(PROPERTY_PREFIX + "fetchSize", 500);
+    private static final int DEFAULT_MAX_LOGGED_ROWS = Integer.getInteger(PROPERTY_PREFIX + "maxLoggedRows", 1000);
+    private static final String INLINE_SCRIPT_NAME = "script";
+
+    private String serverName;
+    private int port;
+    private String userName;
+    private String password;
+    private String database;
+    private String script;
+    private File scriptFile;
+    private String scriptName;
+    private int fetchSize;
+    private int maxLoggedRows;
+    private int queryTimeoutSeconds;
+    private TsqlScriptListener listener;
+    private SqlServerConnectionPool connectionPool;
+
+    //constructor is private, it can only be instantiated through the builder
+    private TsqlScript() {
+
+    }
+
+    /**
+     * Executes the batches of the script, stopping at the first one that fails.
+     *
+     * @throws SQLTimeoutException If a batch runs longer than the query timeout
+     * @throws SQLException If the script can't be read or a batch fails. The message tells the batch and its line.
+     * @throws InterruptedException If the thread is interrupted, the running batch is cancelled
+     */
+    public void execute() throws SQLException, InterruptedException {
+        logger.info("Executing T-SQL script with the following details: {}", this.toString());
+        long startedAt = System.currentTimeMillis();
+        int batchCount = 0;
+        PooledConnection pooled = connectionPool.borrow(this.serverName, this.port, this.userName, this.password);
+        try (Reader reader = this.openScript()) {
+            Connection conn = pooled.getConnection();
+            if (this.database != null) {
+                conn.setCatalog(this.database);
+            }
+            TsqlBatchSplitter splitter = new TsqlBatchSplitter(reader);
+            try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(this.fetchSize);
+                stmt.setQueryTimeout(this.queryTimeoutSeconds);
+                TsqlBatch batch;
+                while ((batch = splitter.next()) != null) {
+                    for (int i = 0; i < batch.getRepeatCount(); i++) {
+                        this.executeBatch(stmt, batch);
+                    }
+                    batchCount++;
+                }
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Could not read script '" + this.scriptName + "'", ex);
+        } finally {
+            closeQuietly(pooled.getConnection());
+            connectionPool.release(pooled);
+        }
+        logger.info("T-SQL script '{}' executed successfully: {} batches in {} ms", this.scriptName, batchCount,
+                System.currentTimeMillis() - startedAt);
+    }
+
+    private Reader openScript() throws IOException {
+        if (this.scriptFile != null) {
+            return new InputStreamReader(new FileInputStream(this.scriptFile), StandardCharsets.UTF_8);
+        }
+        return new StringReader(this.script);
+    }
+
+    /**
+     * Executes the batch and reads all its results: result sets, row counts and messages, in the order the
+     * server sends them
+     */
+    private void executeBatch(Statement stmt, TsqlBatch batch) throws SQLException, InterruptedException {
+        long startedAt = System.currentTimeMillis();
+        try {
+            boolean isResultSet = stmt.execute(batch.getSql());
+            while (true) {
+                this.forwardMessages(stmt, batch);
+                if (isResultSet) {
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        this.readRows(rs, batch);
+                    }
+                } else {
+                    int updateCount = stmt.getUpdateCount();
+                    if (updateCount == -1) {
+                        break;
+                    }
+                    this.onMessage(batch, "(" + updateCount + " rows affected)");
+                }
+                isResultSet = stmt.getMoreResults();
+            }
+            this.forwardMessages(stmt, batch);
+        } catch (InterruptedException ex) {
+            logger.info("Cancelling batch {} of script '{}'", batch.getNumber(), this.scriptName);
+            stmt.cancel();
+            throw ex;
+        } catch (SQLTimeoutException ex) {
+            throw new SQLTimeoutException(this.describe(batch) + " timed out after " + this.queryTimeoutSeconds + " seconds",
+                    ex.getSQLState(), ex.getErrorCode(), ex);
+        } catch (SQLException ex) {
+            throw new SQLException(this.describe(batch) + " failed: " + ex.getMessage(), ex.getSQLState(), ex.getErrorCode(), ex);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("{} executed in {} ms", this.describe(batch), System.currentTimeMillis() - startedAt);
+        }
+    }
+
+    private void readRows(ResultSet rs, TsqlBatch batch) throws SQLException, InterruptedException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        //reused for the column labels and then for every row
+        String[] values = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            values[i] = metaData.getColumnLabel(i + 1);
+        }
+        if (this.listener != null) {
+            this.listener.onResultColumns(this.scriptName, batch.getNumber(), values);
+        }
+
+        long rowCount = 0;
+        while (rs.next()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (this.listener != null && rowCount < this.maxLoggedRows) {
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = rs.getString(i + 1);
+                }
+                this.listener.onResultRow(this.scriptName, batch.getNumber(), values);
+            }
+            rowCount++;
+        }
+        if (rowCount > this.maxLoggedRows) {
+            this.onMessage(batch, "(" + rowCount + " rows, the first " + this.maxLoggedRows + " are logged)");
+        } else {
+            this.onMessage(batch, "(" + rowCount + " rows)");
+        }
+    }
+
+    /**
+     * Forwards the PRINT and informational messages received so far. The driver reports them as warnings of the
+     * statement, they are cleared so each one is forwarded once.
+     */
+    private void forwardMessages(Statement stmt, TsqlBatch batch) throws SQLException, InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        SQLWarning warning = stmt.getWarnings();
+        if (warning == null) {
+            return;
+        }
+        stmt.clearWarnings();
+        while (warning != null) {
+            this.onMessage(batch, warning.getMessage());
+            warning = warning.getNextWarning();
+        }
+    }
+
+    private void onMessage(TsqlBatch batch, String message) {
+        if (this.listener != null) {
+            this.listener.onScriptMessage(this.scriptName, batch.getNumber(), message);
+        }
+    }
+
+    private String describe(TsqlBatch batch) {
+        return "Batch " + batch.getNumber() + " (line " + batch.getStartLine() + ") of script '" + this.scriptName + "'";
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ex) {
+            logger.warn("Could not close script connection", ex);
+        }
+    }
+
+    public static class TsqlScriptBuilder {
+        private String nestedServerName;
+        private int nestedPort;
+        private String nestedUserName;
+        private String nestedPassword;
+        private String nestedDatabase;
+        private String nestedScript;
+        private File nestedScriptFile;
+        private int nestedFetchSize;
+        private int nestedMaxLoggedRows = -1;
+        private int nestedQueryTimeoutSeconds;
+        private TsqlScriptListener nestedListener;
+        private SqlServerConnectionPool nestedConnectionPool;
+
+        public TsqlScriptBuilder() {
+
+        }
+
+        public TsqlScriptBuilder serverName(String serverName) {
+            this.nestedServerName = serverName;
+            return this;
+        }
+
+        public TsqlScriptBuilder port(int port) {
+            this.nestedPort = port;
+            return this;
+        }
+
+        public TsqlScriptBuilder userName(String userName) {
+            this.nestedUserName = userName;
+            return this;
+        }
+
+        public TsqlScriptBuilder password(String password) {
+            this.nestedPassword = password;
+            return this;
+        }
+
+        /**
+         * The database the script starts in, the default database of the login if not set
+         */
+        public TsqlScriptBuilder database(String database) {
+            this.nestedDatabase = database;
+            return this;
+        }
+
+        /**
+         * The text of the script. Either the script or the script file must be set.
+         */
+        public TsqlScriptBuilder script(String script) {
+            this.nestedScript = script;
+            return this;
+        }
+
+        /**
+         * A UTF-8 script file, read while the script runs
+         */
+        public TsqlScriptBuilder scriptFile(File scriptFile) {
+            this.nestedScriptFile = scriptFile;
+            return this;
+        }
+
+        /**
+         * Rows fetched from the server at a time, a hint for the driver. 0 uses the plugin default.
+         */
+        public TsqlScriptBuilder fetchSize(int fetchSize) {
+            this.nestedFetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Rows of each result set forwarded to the listener, the plugin default if negative
+         */
+        public TsqlScriptBuilder maxLoggedRows(int maxLoggedRows) {
+            this.nestedMaxLoggedRows = maxLoggedRows;
+            return this;
+        }
+
+        /**
+         * Max time a batch may run, 0 for no timeout
+         */
+        public TsqlScriptBuilder queryTimeoutSeconds(int queryTimeoutSeconds) {
+            this.nestedQueryTimeoutSeconds = queryTimeoutSeconds;
+            return this;
+        }
+
+        public TsqlScriptBuilder listener(TsqlScriptListener listener) {
+            this.nestedListener = listener;
+            return this;
+        }
+
+        TsqlScriptBuilder connectionPool(SqlServerConnectionPool connectionPool) {
+            this.nestedConnectionPool = connectionPool;
+            return this;
+        }
+
+        public TsqlScript build() throws ConfigurationException {
+            TsqlScript tsqlScript = new TsqlScript();
+            //check for mandatory params
+            if (Strings.isNullOrEmpty(this.nestedServerName) || Strings.isNullOrEmpty(this.nestedUserName)
+                    || Strings.isNullOrEmpty(this.nestedPassword) || this.nestedPort == 0) {
+                throw new ConfigurationException("Following parameters are mandatory: serverName, port, userName, password");
+            }
+            if (Strings.isNullOrEmpty(this.nestedScript) == (this.nestedScriptFile == null)) {
+                throw new ConfigurationException("Either the script or the script file must be set");
+            }
+            if (this.nestedScriptFile != null && !this.nestedScriptFile.isFile()) {
+                throw new ConfigurationException("Script file not found: " + this.nestedScriptFile);
+            }
+
+            tsqlScript.serverName = this.nestedServerName;
+            tsqlScript.port = this.nestedPort;
+            tsqlScript.userName = this.nestedUserName;
+            tsqlScript.password = this.nestedPassword;
+            tsqlScript.database = Strings.emptyToNull(this.nestedDatabase);
+            tsqlScript.script = this.nestedScript;
+            tsqlScript.scriptFile = this.nestedScriptFile;
+            tsqlScript.scriptName = this.nestedScriptFile == null ? INLINE_SCRIPT_NAME : this.nestedScriptFile.getName();
+            tsqlScript.fetchSize = this.nestedFetchSize > 0 ? this.nestedFetchSize : DEFAULT_FETCH_SIZE;
+            tsqlScript.maxLoggedRows = this.nestedMaxLoggedRows >= 0 ? this.nestedMaxLoggedRows : DEFAULT_MAX_LOGGED_ROWS;
+            tsqlScript.queryTimeoutSeconds = Math.max(0, this.nestedQueryTimeoutSeconds);
+            tsqlScript.listener = this.nestedListener;
+            tsqlScript.connectionPool = this.nestedConnectionPool == null ? SqlServerConnectionPool.getInstance()
+                    : this.nestedConnectionPool;
+
+            return tsqlScript;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TsqlScript{" +
+                "serverName='" + serverName + '\'' +
+                ", port=" + port +
+                ", userName='" + userName + '\'' +
+                ", database='" + database + '\'' +
+                ", scriptName='" + scriptName + '\'' +
+                ", fetchSize=" + fetchSize +
+                ", maxLoggedRows=" + maxLoggedRows +
+                ", queryTimeoutSeconds=" + queryTimeoutSeconds +
+                '}';
+    }
+}
@@ -0,0 +1,27 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+/**
+ * Receives the output of a T-SQL script while it runs: the rows of its result sets and its messages
+ */
+public interface TsqlScriptListener {
+    /**
+     * Called before the rows of each result set
+     *
+     * @param scriptName The name of the script
+     * @param batchNumber The batch producing the result set, starting from 1
+     * @param columnNames The column labels
+     */
+    void onResultColumns(String scriptName, int batchNumber, String[] columnNames);
+
+    /**
+     * Called for each row as it is read. The values array is reused for the next row.
+     *
+     * @param values The values of the row as strings, null for NULL
+     */
+    void onResultRow(String scriptName, int batchNumber, String[] values);
+
+    /**
+     * Called for the PRINT and informational (severity 10 or lower) messages, and for the row counts
+     */
+    void onScriptMessage(String scriptName, int batchNumber, String message);
+}
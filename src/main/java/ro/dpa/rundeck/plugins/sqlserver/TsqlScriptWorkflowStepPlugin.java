@@ -0,0 +1,140 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepFailureReason;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import com.dtolabs.rundeck.core.plugins.configuration.Describable;
+import com.dtolabs.rundeck.core.plugins.configuration.Description;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.step.StepPlugin;
+import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
+import com.dtolabs.rundeck.plugins.util.PropertyBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ro.dpa.rundeck.plugins.params.ParamUtils;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+
+/**
+ * Workflow step that runs a T-SQL script directly on the server, without a SQL Agent job, see {@link TsqlScript}.
+ * The script is given inline or as a file on the Rundeck server, and is split into batches on GO.
+ */
+@Plugin(name = TsqlScriptWorkflowStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowStep)
+public class TsqlScriptWorkflowStepPlugin implements StepPlugin, Describable {
+    public static final String SERVICE_PROVIDER_NAME = "ro.dpa.rundeck.plugins.sqlserver.TsqlScriptWorkflowStepPlugin";
+
+    private static final Logger logger = LoggerFactory.getLogger(TsqlScriptWorkflowStepPlugin.class);
+    private static final String DATABASE = "database";
+    private static final String SCRIPT = "script";
+    private static final String SCRIPT_FILE = "scriptFile";
+    private static final String FETCH_SIZE = "fetchSize";
+    private static final String MAX_LOGGED_ROWS = "maxLoggedRows";
+
+    @Override
+    public void executeStep(PluginStepContext pluginStepContext, Map<String, Object> inputParams) throws StepException {
+        TsqlScript script = null;
+        try {
+            script = this.buildTsqlScript(pluginStepContext, inputParams);
+        } catch (ConfigurationException ex) {
+            logger.error("Could not configure T-SQL script", ex);
+            throw new StepException("Could not configure T-SQL script: " + ex.getMessage(), StepFailureReason.ConfigurationFailure,
+                    inputParams);
+        }
+        try {
+            script.execute();
+        } catch (ServerUnavailableException ex) {
+            logger.error("SQL Server is unreachable", ex);
+            throw new StepException(ex, SqlServerFailureReason.ServerUnavailable);
+        } catch (SQLTimeoutException ex) {
+            logger.error("T-SQL script timed out", ex);
+            throw new StepException(ex, SqlServerFailureReason.Timeout);
+        } catch (SQLException ex) {
+            logger.error("SQL execution error", ex);
+            throw new StepException(ex, StepFailureReason.PluginFailed);
+        } catch (InterruptedException ex) {
+            logger.error("Script execution was interrupted.", ex);
+            throw new StepException(ex, StepFailureReason.Interrupted);
+        }
+    }
+
+    private TsqlScript buildTsqlScript(PluginStepContext pluginStepContext, Map<String, Object> inputParams)
+            throws ConfigurationException {
+        String scriptFile = ParamUtils.getStringValue(SCRIPT_FILE, inputParams);
+        String maxLoggedRows = ParamUtils.getStringValue(MAX_LOGGED_ROWS, inputParams);
+
+        TsqlScript.TsqlScriptBuilder builder = new TsqlScript.TsqlScriptBuilder();
+        builder
+                .userName(ParamUtils.getStringValue(SqlServerJobProperties.USER, inputParams))
+                .password(ParamUtils.getStringValue(SqlServerJobProperties.PASSWORD, inputParams))
+                .serverName(ParamUtils.getStringValue(SqlServerJobProperties.HOST, inputParams))
+                .port(ParamUtils.getIntValue(SqlServerJobProperties.PORT, inputParams))
+                .database(ParamUtils.getStringValue(DATABASE, inputParams))
+                .script(ParamUtils.getStringValue(SCRIPT, inputParams))
+                .fetchSize(ParamUtils.getIntValue(FETCH_SIZE, inputParams))
+                .queryTimeoutSeconds(ParamUtils.getIntValue(SqlServerJobProperties.TIMEOUT, inputParams))
+                .listener(new PluginLoggerProgressListener(pluginStepContext.getLogger()));
+        if (scriptFile != null && !scriptFile.trim().isEmpty()) {
+            builder.scriptFile(new File(scriptFile.trim()));
+        }
+        if (maxLoggedRows != null) {
+            builder.maxLoggedRows(ParamUtils.getIntValue(MAX_LOGGED_ROWS, inputParams));
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public Description getDescription() {
+        DescriptionBuilder builder = DescriptionBuilder.builder()
+                .name(SERVICE_PROVIDER_NAME)
+                .title("T-SQL Script Plugin")
+                .description("Executes a T-SQL script, split into batches on GO, and logs its result sets and messages");
+        SqlServerJobProperties.addConnectionProperties(builder)
+                .property(PropertyBuilder.builder()
+                    .string(DATABASE)
+                    .title("Database")
+                    .description("The database the script starts in. If not provided, the default database of the user")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(SCRIPT)
+                    .title("Script")
+                    .description("The T-SQL script. Batches are separated by GO on its own line, GO n executes the batch n times")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .string(SCRIPT_FILE)
+                    .title("Script file")
+                    .description("Path of a UTF-8 script file on the Rundeck server, instead of the script property")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(FETCH_SIZE)
+                    .title("Fetch size")
+                    .description("Rows fetched from the server at a time when reading result sets")
+                    .defaultValue("500")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(MAX_LOGGED_ROWS)
+                    .title("Max logged rows")
+                    .description("Rows of each result set written to the log, the others are only counted")
+                    .defaultValue("1000")
+                    .required(false)
+                    .build())
+                .property(PropertyBuilder.builder()
+                    .integer(SqlServerJobProperties.TIMEOUT)
+                    .title("Timeout")
+                    .description("Max time, in seconds, each batch may run. When it expires the batch is cancelled and " +
+                            "the step fails. 0 for no timeout")
+                    .defaultValue("0")
+                    .required(false)
+                    .build());
+        return builder.build();
+    }
+}
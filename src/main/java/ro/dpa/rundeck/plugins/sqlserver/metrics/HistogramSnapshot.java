@@ -0,0 +1,55 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time view of a {@link Histogram}. Exposed over JMX as composite data.
+ */
+public class HistogramSnapshot {
+    private final long count;
+    private final double mean;
+    private final long max;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+
+    @ConstructorProperties({"count", "mean", "max", "p50", "p90", "p99"})
+    public HistogramSnapshot(long count, double mean, long max, long p50, long p90, long p99) {
+        this.count = count;
+        this.mean = mean;
+        this.max = max;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + String.format("%.1f", mean) + ", p50=" + p50 + ", p90=" + p90 +
+                ", p99=" + p99 + ", max=" + max;
+    }
+}
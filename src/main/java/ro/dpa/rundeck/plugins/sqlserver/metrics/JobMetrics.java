@@ -0,0 +1,46 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the runs of a single SQL Server job, updated through the {@link ServerMetrics} of its server
+ */
+public class JobMetrics implements JobMetricsMXBean {
+    final Histogram runDurationMillis = new Histogram();
+    final Histogram completionLagMillis = new Histogram();
+    final Histogram pollsPerRun = new Histogram();
+    final AtomicLong runsSucceeded = new AtomicLong();
+    final AtomicLong runsFailed = new AtomicLong();
+    final AtomicInteger runsInFlight = new AtomicInteger();
+
+    @Override
+    public HistogramSnapshot getRunDurationMillis() {
+        return runDurationMillis.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getCompletionLagMillis() {
+        return completionLagMillis.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getPollsPerRun() {
+        return pollsPerRun.snapshot();
+    }
+
+    @Override
+    public long getRunsSucceeded() {
+        return runsSucceeded.get();
+    }
+
+    @Override
+    public long getRunsFailed() {
+        return runsFailed.get();
+    }
+
+    @Override
+    public int getRunsInFlight() {
+        return runsInFlight.get();
+    }
+}
@@ -0,0 +1,18 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+/**
+ * JMX view of the {@link JobMetrics} of a SQL Server job
+ */
+public interface JobMetricsMXBean {
+    HistogramSnapshot getRunDurationMillis();
+
+    HistogramSnapshot getCompletionLagMillis();
+
+    HistogramSnapshot getPollsPerRun();
+
+    long getRunsSucceeded();
+
+    long getRunsFailed();
+
+    int getRunsInFlight();
+}
@@ -0,0 +1,136 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plugin-wide metrics registry, with a {@link ServerMetrics} per SQL Server instance (host and port) and a
+ * {@link JobMetrics} per job. Metrics are registered in the platform MBean server, under
+ * <b>ro.dpa.rundeck.sqlserver:type=Server,server=host:port</b> and
+ * <b>ro.dpa.rundeck.sqlserver:type=Job,server=host:port,job=name</b>.
+ * <p>
+ * They can also be written to the plugin log periodically, by setting the system property
+ * <b>ro.dpa.rundeck.sqlserver.metrics.dumpIntervalSeconds</b> (disabled by default).
+ */
+public final class PluginMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(PluginMetrics.class);
+
+    private static final String JMX_DOMAIN = "ro.dpa.rundeck.sqlserver";
+    private static final long DUMP_INTERVAL_SECONDS = Long.getLong("ro.dpa.rundeck.sqlserver.metrics.dumpIntervalSeconds", 0);
+
+    private static final ConcurrentMap<String, ServerMetrics> SERVERS = new ConcurrentHashMap<>();
+
+    static {
+        if (DUMP_INTERVAL_SECONDS > 0) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sqlserver-metrics-dump");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            dumper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (!SERVERS.isEmpty()) {
+                        logger.info("SQL Server plugin metrics:{}", dump());
+                    }
+                }
+            }, DUMP_INTERVAL_SECONDS, DUMP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private PluginMetrics() {
+
+    }
+
+    /**
+     * Returns the metrics of the given server, registering them over JMX on first use
+     */
+    public static ServerMetrics forServer(String host, int port) {
+        String serverName = host.toLowerCase() + ":" + port;
+        ServerMetrics metrics = SERVERS.get(serverName);
+        if (metrics == null) {
+            ServerMetrics created = new ServerMetrics(serverName);
+            metrics = SERVERS.putIfAbsent(serverName, created);
+            if (metrics == null) {
+                metrics = created;
+                register(created, "type=Server,server=" + ObjectName.quote(serverName));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Formats all the metrics, one line per server and per job
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (ServerMetrics server : new TreeMap<>(SERVERS).values()) {
+            dump.append("\n").append(server.getServerName())
+                    .append(": inFlight=").append(server.getJobsInFlight())
+                    .append(", started=").append(server.getJobsStarted())
+                    .append(", succeeded=").append(server.getJobsSucceeded())
+                    .append(", failed=").append(server.getJobsFailed())
+                    .append(", connectionsOpened=").append(server.getConnectionsOpened())
+                    .append(", connectionAcquireTimeouts=").append(server.getConnectionAcquireTimeouts())
+                    .append(", circuitOpen=").append(server.isCircuitOpen())
+                    .append(", circuitOpenings=").append(server.getCircuitOpenings())
+                    .append(", connectionsRejected=").append(server.getConnectionsRejected())
+                    .append(", monitorErrorsRecovered=").append(server.getMonitorErrorsRecovered())
+                    .append(", admissionQueueDepth=").append(server.getAdmissionQueueDepth())
+                    .append(", admissionsAbandoned=").append(server.getAdmissionsAbandoned())
+                    .append("\n  connectionAcquireMicros[").append(server.getConnectionAcquireMicros()).append("]")
+                    .append("\n  jobStartMicros[").append(server.getJobStartMicros()).append("]")
+                    .append("\n  statusCheckMicros[").append(server.getStatusCheckMicros()).append("]")
+                    .append("\n  completionLagMillis[").append(server.getCompletionLagMillis()).append("]")
+                    .append("\n  pollsPerRun[").append(server.getPollsPerRun()).append("]")
+                    .append("\n  admissionWaitMillis[").append(server.getAdmissionWaitMillis()).append("]");
+            for (Map.Entry<String, JobMetrics> job : server.getJobs().entrySet()) {
+                dump.append("\n  job ").append(job.getKey())
+                        .append(": inFlight=").append(job.getValue().getRunsInFlight())
+                        .append(", succeeded=").append(job.getValue().getRunsSucceeded())
+                        .append(", failed=").append(job.getValue().getRunsFailed())
+                        .append(", runDurationMillis[").append(job.getValue().getRunDurationMillis()).append("]")
+                        .append(", completionLagMillis[").append(job.getValue().getCompletionLagMillis()).append("]")
+                        .append(", pollsPerRun[").append(job.getValue().getPollsPerRun()).append("]");
+            }
+        }
+        return dump.toString();
+    }
+
+    static void registerJob(String serverName, String jobName, JobMetrics metrics) {
+        register(metrics, "type=Job,server=" + ObjectName.quote(serverName) + ",job=" + ObjectName.quote(jobName));
+    }
+
+    private static void register(Object mbean, String properties) {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            try {
+                mbeanServer.registerMBean(mbean, name);
+            } catch (InstanceAlreadyExistsException ex) {
+                //left behind by a previous version of the plugin, loaded by another class loader
+                mbeanServer.unregisterMBean(name);
+                mbeanServer.registerMBean(mbean, name);
+            }
+        } catch (JMException ex) {
+            logger.warn("Could not register metrics {} over JMX", properties, ex);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a SQL Server instance, and of the jobs started on it. Obtained with {@link PluginMetrics#forServer(String, int)}.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private final String serverName;
+    private final Histogram connectionAcquireMicros = new Histogram();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionAcquireTimeouts = new AtomicLong();
+    private final Histogram jobStartMicros = new Histogram();
+    private final Histogram statusCheckMicros = new Histogram();
+    private final Histogram completionLagMillis = new Histogram();
+    private final Histogram pollsPerRun = new Histogram();
+    private final AtomicLong jobsStarted = new AtomicLong();
+    private final AtomicLong jobsSucceeded = new AtomicLong();
+    private final AtomicLong jobsFailed = new AtomicLong();
+    private final AtomicInteger jobsInFlight = new AtomicInteger();
+    private final Histogram admissionWaitMillis = new Histogram();
+    private final AtomicInteger admissionQueueDepth = new AtomicInteger();
+    private final AtomicLong admissionsAbandoned = new AtomicLong();
+    private volatile boolean circuitOpen;
+    private final AtomicLong circuitOpenings = new AtomicLong();
+    private final AtomicLong connectionsRejected = new AtomicLong();
+    private final AtomicLong monitorErrorsRecovered = new AtomicLong();
+    private final ConcurrentMap<String, JobMetrics> jobs = new ConcurrentHashMap<>();
+
+    ServerMetrics(String serverName) {
+        this.serverName = serverName;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Returns the metrics of the given job, registering them over JMX on first use
+     */
+    public JobMetrics forJob(String jobName) {
+        JobMetrics metrics = jobs.get(jobName);
+        if (metrics == null) {
+            JobMetrics created = new JobMetrics();
+            metrics = jobs.putIfAbsent(jobName, created);
+            if (metrics == null) {
+                metrics = created;
+                PluginMetrics.registerJob(serverName, jobName, created);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @param nanos Time spent waiting for a free connection, validating it or opening a new one
+     * @param opened Whether a new physical connection was opened
+     */
+    public void connectionAcquired(long nanos, boolean opened) {
+        connectionAcquireMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (opened) {
+            connectionsOpened.incrementAndGet();
+        }
+    }
+
+    public void connectionAcquireTimedOut() {
+        connectionAcquireTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Records a step admitted without waiting, by the admission control of the server
+     */
+    public void admittedWithoutWaiting() {
+        admissionWaitMillis.record(0);
+    }
+
+    public void admissionQueued() {
+        admissionQueueDepth.incrementAndGet();
+    }
+
+    /**
+     * @param nanos Time the step waited in the admission queue
+     * @param admitted Whether the step was admitted, or gave up because of its timeout or an interruption
+     */
+    public void admissionDequeued(long nanos, boolean admitted) {
+        admissionQueueDepth.decrementAndGet();
+        if (admitted) {
+            admissionWaitMillis.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        } else {
+            admissionsAbandoned.incrementAndGet();
+        }
+    }
+
+    public void circuitOpened() {
+        circuitOpen = true;
+        circuitOpenings.incrementAndGet();
+    }
+
+    public void circuitClosed() {
+        circuitOpen = false;
+    }
+
+    /**
+     * A connection was refused without trying, because the circuit breaker of the server is open
+     */
+    public void connectionRejected() {
+        connectionsRejected.incrementAndGet();
+    }
+
+    /**
+     * A step checks its run again after a transient error, instead of failing
+     */
+    public void monitorErrorRecovered() {
+        monitorErrorsRecovered.incrementAndGet();
+    }
+
+    public void runEntered(JobMetrics job) {
+        jobsInFlight.incrementAndGet();
+        job.runsInFlight.incrementAndGet();
+    }
+
+    public void runExited(JobMetrics job) {
+        jobsInFlight.decrementAndGet();
+        job.runsInFlight.decrementAndGet();
+    }
+
+    public void jobStarted(long nanos) {
+        jobStartMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        jobsStarted.incrementAndGet();
+    }
+
+    public void statusChecked(long nanos) {
+        statusCheckMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records the end of a run
+     *
+     * @param job
+     * @param succeeded
+     * @param runMillis Time from the start of the job until its end was noticed
+     * @param polls Status checks made by the step, 0 if the step didn't poll (e.g. with the shared monitor)
+     * @param completionLagMillis Time from the end of the job until it was noticed, negative if not known
+     */
+    public void runFinished(JobMetrics job, boolean succeeded, long runMillis, int polls, long completionLagMillis) {
+        (succeeded ? jobsSucceeded : jobsFailed).incrementAndGet();
+        (succeeded ? job.runsSucceeded : job.runsFailed).incrementAndGet();
+        job.runDurationMillis.record(runMillis);
+        if (polls > 0) {
+            pollsPerRun.record(polls);
+            job.pollsPerRun.record(polls);
+        }
+        if (completionLagMillis >= 0) {
+            this.completionLagMillis.record(completionLagMillis);
+            job.completionLagMillis.record(completionLagMillis);
+        }
+    }
+
+    Map<String, JobMetrics> getJobs() {
+        return new TreeMap<>(jobs);
+    }
+
+    @Override
+    public HistogramSnapshot getConnectionAcquireMicros() {
+        return connectionAcquireMicros.snapshot();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    @Override
+    public long getConnectionAcquireTimeouts() {
+        return connectionAcquireTimeouts.get();
+    }
+
+    @Override
+    public HistogramSnapshot getJobStartMicros() {
+        return jobStartMicros.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getStatusCheckMicros() {
+        return statusCheckMicros.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getCompletionLagMillis() {
+        return completionLagMillis.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getPollsPerRun() {
+        return pollsPerRun.snapshot();
+    }
+
+    @Override
+    public long getJobsStarted() {
+        return jobsStarted.get();
+    }
+
+    @Override
+    public long getJobsSucceeded() {
+        return jobsSucceeded.get();
+    }
+
+    @Override
+    public long getJobsFailed() {
+        return jobsFailed.get();
+    }
+
+    @Override
+    public int getJobsInFlight() {
+        return jobsInFlight.get();
+    }
+
+    @Override
+    public HistogramSnapshot getAdmissionWaitMillis() {
+        return admissionWaitMillis.snapshot();
+    }
+
+    @Override
+    public int getAdmissionQueueDepth() {
+        return admissionQueueDepth.get();
+    }
+
+    @Override
+    public long getAdmissionsAbandoned() {
+        return admissionsAbandoned.get();
+    }
+
+    @Override
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    @Override
+    public long getCircuitOpenings() {
+        return circuitOpenings.get();
+    }
+
+    @Override
+    public long getConnectionsRejected() {
+        return connectionsRejected.get();
+    }
+
+    @Override
+    public long getMonitorErrorsRecovered() {
+        return monitorErrorsRecovered.get();
+    }
+}
@@ -0,0 +1,42 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+/**
+ * JMX view of the {@link ServerMetrics} of a SQL Server instance. Latencies are in microseconds, unless the name says otherwise.
+ */
+public interface ServerMetricsMXBean {
+    HistogramSnapshot getConnectionAcquireMicros();
+
+    long getConnectionsOpened();
+
+    long getConnectionAcquireTimeouts();
+
+    HistogramSnapshot getJobStartMicros();
+
+    HistogramSnapshot getStatusCheckMicros();
+
+    HistogramSnapshot getCompletionLagMillis();
+
+    HistogramSnapshot getPollsPerRun();
+
+    long getJobsStarted();
+
+    long getJobsSucceeded();
+
+    long getJobsFailed();
+
+    int getJobsInFlight();
+
+    HistogramSnapshot getAdmissionWaitMillis();
+
+    int getAdmissionQueueDepth();
+
+    long getAdmissionsAbandoned();
+
+    boolean isCircuitOpen();
+
+    long getCircuitOpenings();
+
+    long getConnectionsRejected();
+
+    long getMonitorErrorsRecovered();
+}
@@ -0,0 +1,51 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BackoffPollScheduleTest {
+
+    private static final long MAX_DELAY = 30000;
+
+    @Test
+    public void testFirstCheckIsFast() {
+        PollSchedule schedule = new BackoffPollSchedule(MAX_DELAY);
+
+        assertTrue(schedule.nextDelayMillis(null) <= BackoffPollSchedule.INITIAL_DELAY_MILLIS * 1.2);
+    }
+
+    @Test
+    public void testDelayGrowsUpToTheCeiling() {
+        PollSchedule schedule = new BackoffPollSchedule(MAX_DELAY);
+        schedule.nextDelayMillis(null);
+
+        long delay = 0;
+        for (int i = 0; i < 20; i++) {
+            delay = schedule.nextDelayMillis(CurrentExecutionStatus.Executing);
+            assertTrue(delay <= MAX_DELAY);
+        }
+        assertTrue(delay >= MAX_DELAY * 0.8);
+    }
+
+    @Test
+    public void testCompletionActionsResetTheBackoff() {
+        PollSchedule schedule = new BackoffPollSchedule(MAX_DELAY);
+        for (int i = 0; i < 20; i++) {
+            schedule.nextDelayMillis(CurrentExecutionStatus.Executing);
+        }
+
+        long delay = schedule.nextDelayMillis(CurrentExecutionStatus.PerformingCompletionActions);
+
+        assertTrue(delay <= BackoffPollSchedule.INITIAL_DELAY_MILLIS * 1.2);
+    }
+
+    @Test
+    public void testSuspendedJobIsCheckedAtTheCeiling() {
+        PollSchedule schedule = new BackoffPollSchedule(MAX_DELAY);
+
+        long delay = schedule.nextDelayMillis(CurrentExecutionStatus.Suspended);
+
+        assertTrue(delay >= MAX_DELAY * 0.8 && delay <= MAX_DELAY);
+    }
+}
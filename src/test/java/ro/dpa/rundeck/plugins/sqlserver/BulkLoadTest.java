@@ -0,0 +1,128 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkLoadTest {
+    private static final int RANGES = 4;
+    private static final long BLOCKED_CONNECT_MILLIS = 30000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SqlServerConnectionPool pool;
+    private final AtomicInteger connects = new AtomicInteger();
+    private final CountDownLatch interruptedConnects = new CountDownLatch(RANGES - 1);
+
+    @Before
+    public void setUp() throws Exception {
+        final Connection columnsConnection = this.newColumnsConnection();
+        pool = new SqlServerConnectionPool(new SqlServerConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection create(String host, int port, String user, String password,
+                                     AuthenticationMode authentication) throws SQLException {
+                int connect = connects.getAndIncrement();
+                if (connect == 0) {
+                    return columnsConnection;
+                }
+                //the last range to connect fails at once, bulk copy rejects a connection not opened by the driver.
+                //The other ranges hang until they are interrupted
+                if (connect == RANGES) {
+                    return mock(Connection.class);
+                }
+                try {
+                    Thread.sleep(BLOCKED_CONNECT_MILLIS);
+                } catch (InterruptedException ex) {
+                    interruptedConnects.countDown();
+                }
+                throw new SQLException("Connection timed out");
+            }
+        }, RANGES, 60000, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testFailedRangeCancelsTheOthersAtOnce() throws Exception {
+        BulkLoad bulkLoad = new BulkLoad.BulkLoadBuilder()
+                .serverName("server")
+                .port(1433)
+                .userName("user")
+                .password("password")
+                .tableName("dbo.Sales")
+                .file(this.writeFile(1000))
+                .parallelism(RANGES)
+                .minRangeBytes(1)
+                .connectionPool(pool)
+                .build();
+
+        long startedAt = System.currentTimeMillis();
+        try {
+            bulkLoad.execute();
+            fail("The bulk load should have failed");
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage().contains("failed"));
+        }
+
+        //the ranges still connecting were not waited for, and were interrupted
+        assertTrue(System.currentTimeMillis() - startedAt < BLOCKED_CONNECT_MILLIS / 2);
+        assertTrue(interruptedConnects.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Connection used to read the columns of the table. It reports itself closed, so the pool doesn't keep it idle
+     * for a range.
+     */
+    private Connection newColumnsConnection() throws SQLException {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(2);
+        when(metaData.getColumnName(1)).thenReturn("Id");
+        when(metaData.getColumnType(1)).thenReturn(Types.INTEGER);
+        when(metaData.getColumnName(2)).thenReturn("Name");
+        when(metaData.getColumnType(2)).thenReturn(Types.NVARCHAR);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metaData);
+        Statement stmt = mock(Statement.class);
+        when(stmt.executeQuery(anyString())).thenReturn(rs);
+        Connection conn = mock(Connection.class);
+        when(conn.createStatement()).thenReturn(stmt);
+        when(conn.isClosed()).thenReturn(true);
+        return conn;
+    }
+
+    private File writeFile(int rows) throws Exception {
+        File file = folder.newFile("sales.csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= rows; i++) {
+                writer.write(i + ",customer " + i + "\r\n");
+            }
+        }
+        return file;
+    }
+}
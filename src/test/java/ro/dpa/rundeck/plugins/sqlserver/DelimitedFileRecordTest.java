@@ -0,0 +1,127 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DelimitedFileRecordTest {
+
+    private static final List<DelimitedFileRecord.Column> COLUMNS = Arrays.asList(
+            new DelimitedFileRecord.Column("Id", Types.INTEGER, 10, 0),
+            new DelimitedFileRecord.Column("Name", Types.NVARCHAR, 50, 0),
+            new DelimitedFileRecord.Column("Amount", Types.DECIMAL, 18, 2),
+            new DelimitedFileRecord.Column("SoldAt", Types.TIMESTAMP, 23, 3));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeFile(int rows) throws Exception {
+        File file = folder.newFile("sales.csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= rows; i++) {
+                writer.write(i + ",customer " + i + "," + i + ".25,2017-05-01 10:00:00\r\n");
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void testFieldsAreParsedAndConverted() throws Exception {
+        File file = folder.newFile("quoted.csv");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            out.write(("1,\"Smith, \"\"Jr\"\"\",10.50,2017-05-01 10:00:00\n" +
+                    "\n" +
+                    "2,Ionescu,,2017-05-02 11:30:00.5").getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DelimitedFileRecord record = new DelimitedFileRecord(channel, new FileRange(1, 0, channel.size()), ',', COLUMNS);
+
+            assertTrue(record.next());
+            assertArrayEquals(new Object[]{1, "Smith, \"Jr\"", new BigDecimal("10.50"), Timestamp.valueOf("2017-05-01 10:00:00")},
+                    record.getRowData());
+            assertTrue(record.next());
+            assertArrayEquals(new Object[]{2, "Ionescu", null, Timestamp.valueOf("2017-05-02 11:30:00.5")}, record.getRowData());
+            assertFalse(record.next());
+            assertEquals(2, record.getRowCount());
+            assertEquals(Types.DECIMAL, record.getColumnType(3));
+            assertEquals(Arrays.asList(1, 2, 3, 4), Arrays.asList(record.getColumnOrdinals().toArray()));
+        }
+    }
+
+    @Test
+    public void testRangesCoverEveryLineOnce() throws Exception {
+        File file = this.writeFile(10000);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<FileRange> ranges = FileRange.split(channel, 0, 7, 1024);
+            assertEquals(7, ranges.size());
+
+            long idSum = 0;
+            long rowCount = 0;
+            for (FileRange range : ranges) {
+                DelimitedFileRecord record = new DelimitedFileRecord(channel, range, ',', COLUMNS);
+                while (record.next()) {
+                    idSum += (Integer) record.getRowData()[0];
+                }
+                rowCount += record.getRowCount();
+            }
+
+            assertEquals(10000, rowCount);
+            assertEquals(10000L * 10001 / 2, idSum);
+            assertEquals(channel.size(), ranges.get(ranges.size() - 1).getEnd());
+        }
+    }
+
+    @Test
+    public void testSmallFileIsASingleRange() throws Exception {
+        File file = this.writeFile(100);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long dataStart = FileRange.nextLineStart(channel, 0);
+            List<FileRange> ranges = FileRange.split(channel, dataStart, 4, 1024 * 1024);
+
+            assertEquals(1, ranges.size());
+            assertEquals(dataStart, ranges.get(0).getStart());
+            assertEquals(Files.size(file.toPath()), ranges.get(0).getEnd());
+        }
+    }
+
+    @Test
+    public void testInvalidLineStopsTheLoad() throws Exception {
+        File file = folder.newFile("invalid.csv");
+        Files.write(file.toPath(), "1,a,1.00,2017-05-01 10:00:00\nx,b,2.00,2017-05-01 10:00:00\n".getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DelimitedFileRecord record = new DelimitedFileRecord(channel, new FileRange(1, 0, channel.size()), ',', COLUMNS);
+            assertTrue(record.next());
+            record.getRowData();
+            assertTrue(record.next());
+            try {
+                record.getRowData();
+                fail("The id is not a number");
+            } catch (IllegalStateException ex) {
+                assertNotNull(record.getFailure());
+                assertTrue(record.getFailure().getMessage().contains("column Id at offset 29"));
+            }
+        }
+    }
+}
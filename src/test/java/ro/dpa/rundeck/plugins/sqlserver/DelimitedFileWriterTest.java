@@ -0,0 +1,77 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DelimitedFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFieldsAreQuotedOnlyWhenNeeded() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DelimitedFileWriter writer = new DelimitedFileWriter(Channels.newChannel(out), ',')) {
+            writer.writeRow(new String[]{"Id", "Name", "Note"});
+            writer.writeRow(new String[]{"1", "Smith, \"Jr\"", null});
+            writer.writeRow(new String[]{"2", "Bra\u0219ov", "two\nlines"});
+            assertEquals(3, writer.getRowCount());
+        }
+
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals("Id,Name,Note\r\n" +
+                "1,\"Smith, \"\"Jr\"\"\",\r\n" +
+                "2,Bra\u0219ov,\"two\nlines\"\r\n", text);
+        assertEquals(Arrays.asList("1", "Smith, \"Jr\"", ""), DelimitedFileRecord.parseLine("1,\"Smith, \"\"Jr\"\"\",", ','));
+    }
+
+    @Test
+    public void testManyRowsAreWrittenThroughTheBuffer() throws Exception {
+        File file = folder.newFile("export.tsv.gz");
+        DelimitedFileWriter writer = new DelimitedFileWriter(Channels.newChannel(new GZIPOutputStream(new FileOutputStream(file))), '\t');
+        String[] values = new String[3];
+        for (int i = 0; i < 200000; i++) {
+            values[0] = String.valueOf(i);
+            values[1] = "customer\t" + i;
+            values[2] = "\u00fc";
+            writer.writeRow(values);
+        }
+        writer.close();
+
+        //each line is the id, the quoted name, a two byte char and the line separator
+        long expectedBytes = 0;
+        for (int i = 0; i < 200000; i++) {
+            expectedBytes += String.valueOf(i).length() + 1 + ("\"customer\t" + i + "\"").length() + 1 + 2 + 2;
+        }
+        assertEquals(expectedBytes, writer.getBytesWritten());
+        assertTrue(file.length() < expectedBytes / 4);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)),
+                StandardCharsets.UTF_8))) {
+            long count = 0;
+            String line;
+            String last = null;
+            while ((line = reader.readLine()) != null) {
+                count++;
+                last = line;
+            }
+            assertEquals(200000, count);
+            assertEquals(Arrays.asList("199999", "customer\t199999", "\u00fc"), DelimitedFileRecord.parseLine(last, '\t'));
+        }
+    }
+}
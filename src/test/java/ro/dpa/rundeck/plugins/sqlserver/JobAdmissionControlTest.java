@@ -0,0 +1,119 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.PluginMetrics;
+import ro.dpa.rundeck.plugins.sqlserver.metrics.ServerMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JobAdmissionControlTest {
+
+    private static void awaitQueueDepth(JobAdmissionControl admission, int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (admission.getQueueDepth() != depth) {
+            assertTrue("Queue depth " + depth + " not reached", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testStepsOverTheLimitWaitUntilTimeout() throws Exception {
+        ServerMetrics metrics = PluginMetrics.forServer("admission-timeout", 1433);
+        JobAdmissionControl admission = new JobAdmissionControl(2, metrics);
+
+        assertTrue(admission.acquire(0, 1000));
+        assertTrue(admission.acquire(0, 1000));
+        long startedAt = System.currentTimeMillis();
+        assertFalse(admission.acquire(10, 100));
+        assertTrue(System.currentTimeMillis() - startedAt >= 100);
+
+        assertEquals(2, admission.getRunningJobs());
+        assertEquals(0, admission.getQueueDepth());
+        assertEquals(0, metrics.getAdmissionQueueDepth());
+        assertEquals(1, metrics.getAdmissionsAbandoned());
+
+        admission.release();
+        assertTrue(admission.acquire(0, 0));
+        assertEquals(3, metrics.getAdmissionWaitMillis().getCount());
+    }
+
+    @Test
+    public void testWaitingStepsAreAdmittedByPriorityThenArrival() throws Exception {
+        final JobAdmissionControl admission = new JobAdmissionControl(1, PluginMetrics.forServer("admission-order", 1433));
+        final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+        assertTrue(admission.acquire(0, 1000));
+
+        String[] names = {"low-1", "normal-1", "high", "normal-2", "low-2"};
+        int[] priorities = {-1, 0, 5, 0, -1};
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            final int priority = priorities[i];
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (admission.acquire(priority, 5000)) {
+                            admitted.add(name);
+                            admission.release();
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            awaitQueueDepth(admission, i + 1);
+        }
+
+        admission.release();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(Arrays.asList("high", "normal-1", "normal-2", "low-1", "low-2"), admitted);
+        assertEquals(0, admission.getRunningJobs());
+    }
+
+    @Test
+    public void testInterruptedStepLeavesTheQueue() throws Exception {
+        final JobAdmissionControl admission = new JobAdmissionControl(1, PluginMetrics.forServer("admission-interrupt", 1433));
+        final boolean[] interrupted = new boolean[1];
+        assertTrue(admission.acquire(0, 1000));
+
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    admission.acquire(0, Long.MAX_VALUE);
+                } catch (InterruptedException ex) {
+                    interrupted[0] = true;
+                }
+            }
+        });
+        waiting.start();
+        awaitQueueDepth(admission, 1);
+        waiting.interrupt();
+        waiting.join(5000);
+
+        assertTrue(interrupted[0]);
+        assertEquals(0, admission.getQueueDepth());
+        admission.release();
+        assertEquals(0, admission.getRunningJobs());
+    }
+
+    @Test
+    public void testNoLimitNeverQueues() throws Exception {
+        JobAdmissionControl admission = new JobAdmissionControl(JobAdmissionControl.UNLIMITED,
+                PluginMetrics.forServer("admission-unlimited", 1433));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(admission.acquire(0, 0));
+        }
+        assertEquals(0, admission.getQueueDepth());
+    }
+}
@@ -0,0 +1,78 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class JobCancellationTest {
+
+    private SqlServerJob buildSqlServerJob(SimulatedSqlAgent agent, CompletionDetectionMode completionDetectionMode,
+                                           long timeoutMillis) throws Exception {
+        return new SqlServerJob.SqlServerJobBuilder()
+                .serverName("cancel-server-" + completionDetectionMode)
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName("job-0")
+                .statusQueryMode(StatusQueryMode.ACTIVITY)
+                .completionDetectionMode(completionDetectionMode)
+                .timeoutMillis(timeoutMillis)
+                .daoFactory(agent)
+                .build();
+    }
+
+    private void assertCanceled(SimulatedSqlAgent agent) throws SQLException {
+        assertFalse(agent.isRunning("job-0"));
+        try (SqlServerJobDao dao = agent.create("cancel-server", 1433, "rundeck", "secret")) {
+            assertEquals(ExecutionStatus.Canceled, ExecutionStatus.valueOf(dao.getLastExecutionStatus(dao.getJobId("job-0"))));
+        }
+    }
+
+    @Test
+    public void testJobIsStoppedWhenTheTimeoutExpires() throws Exception {
+        for (CompletionDetectionMode mode : CompletionDetectionMode.values()) {
+            SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1).jobDurationMillis(60000, 60000).build();
+            long startedAt = System.currentTimeMillis();
+            try {
+                this.buildSqlServerJob(agent, mode, 300).execute();
+                fail("Expected the job to time out in " + mode + " mode");
+            } catch (SQLTimeoutException ex) {
+                assertTrue(mode + " mode took too long to time out", System.currentTimeMillis() - startedAt < 5000);
+            }
+            this.assertCanceled(agent);
+        }
+    }
+
+    @Test
+    public void testJobIsStoppedWhenTheStepIsInterrupted() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1).jobDurationMillis(60000, 60000).build();
+        final SqlServerJob job = this.buildSqlServerJob(agent, CompletionDetectionMode.POLL, 0);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Thread step = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.execute();
+                } catch (Exception ex) {
+                    error.set(ex);
+                }
+            }
+        });
+        step.start();
+        while (!agent.isRunning("job-0")) {
+            Thread.sleep(10);
+        }
+
+        //what Rundeck does when the execution is killed
+        step.interrupt();
+        step.join(5000);
+
+        assertFalse(step.isAlive());
+        assertTrue(String.valueOf(error.get()), error.get() instanceof InterruptedException);
+        this.assertCanceled(agent);
+    }
+}
@@ -0,0 +1,149 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JobMetadataCacheTest {
+
+    private JobMetadataCache cache;
+    private List<JobMetadata> jobs;
+    private List<Timestamp> metadataQueries;
+    private boolean permissionDenied;
+    private int jobIdQueries;
+    private SqlServerJobDao dao;
+
+    @Before
+    public void setUp() {
+        cache = new JobMetadataCache("server");
+        jobs = new ArrayList<>();
+        metadataQueries = new ArrayList<>();
+        dao = new SuccessSqlServerJobDao() {
+            @Override
+            public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException {
+                metadataQueries.add(modifiedSince);
+                if (permissionDenied) {
+                    throw new SQLException("The SELECT permission was denied", "42000", 229);
+                }
+                List<JobMetadata> modified = new ArrayList<>();
+                for (JobMetadata job : jobs) {
+                    if (!job.getDateModified().before(modifiedSince)) {
+                        modified.add(job);
+                    }
+                }
+                return modified;
+            }
+
+            @Override
+            public String getJobId(String jobName) {
+                jobIdQueries++;
+                return "LOAD".equalsIgnoreCase(jobName) ? "ID-LOAD" : null;
+            }
+        };
+    }
+
+    @Test
+    public void testCachedJobIsResolvedWithoutQuery() throws Exception {
+        jobs.add(job("ID-LOAD", "Load", 1000, "extract", "transform"));
+
+        JobMetadata first = cache.resolve(dao, "Load");
+        JobMetadata second = cache.resolve(dao, "load");
+
+        assertEquals("ID-LOAD", first.getJobId());
+        assertSame(first, second);
+        assertEquals(1, metadataQueries.size());
+        assertTrue(second.hasStep("TRANSFORM"));
+        assertFalse(second.hasStep("missing"));
+    }
+
+    @Test
+    public void testUnknownJobTriggersFullRefresh() throws Exception {
+        jobs.add(job("ID-LOAD", "Load", 1000, "extract"));
+        cache.resolve(dao, "Load");
+        jobs.add(job("ID-EXPORT", "Export", 500, "export"));
+
+        JobMetadata export = cache.resolve(dao, "Export");
+
+        assertEquals("ID-EXPORT", export.getJobId());
+        assertEquals(0, metadataQueries.get(1).getTime());
+        assertNull(cache.resolve(dao, "missing"));
+    }
+
+    @Test
+    public void testRenamedJobIsReplaced() throws Exception {
+        jobs.add(job("ID-LOAD", "Load", 1000, "extract"));
+        cache.resolve(dao, "Load");
+        cache.invalidate("Load");
+        jobs.set(0, job("ID-LOAD", "Load v2", 2000, "extract"));
+
+        assertEquals("ID-LOAD", cache.resolve(dao, "Load v2").getJobId());
+        assertNull(cache.resolve(dao, "Load"));
+    }
+
+    @Test
+    public void testPermissionDeniedFallsBackToHelpJob() throws Exception {
+        permissionDenied = true;
+
+        JobMetadata job = cache.resolve(dao, "Load");
+        cache.resolve(dao, "Load");
+
+        assertEquals("ID-LOAD", job.getJobId());
+        assertFalse(job.areStepsKnown());
+        assertEquals(1, metadataQueries.size());
+        assertEquals(1, jobIdQueries);
+    }
+
+    @Test
+    public void testSlowRefreshDoesNotBlockCachedJobs() throws Exception {
+        jobs.add(job("ID-LOAD", "Load", 1000, "extract"));
+        cache.resolve(dao, "Load");
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch serverAnswers = new CountDownLatch(1);
+        final SqlServerJobDao hungDao = new SuccessSqlServerJobDao() {
+            @Override
+            public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException {
+                refreshStarted.countDown();
+                try {
+                    serverAnswers.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ArrayList<>();
+            }
+        };
+        Thread discovery = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.getJobs(hungDao);
+                } catch (SQLException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        discovery.start();
+        assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+
+        try {
+            JobMetadata job = cache.resolve(dao, "Load");
+            assertEquals("ID-LOAD", job.getJobId());
+            assertTrue(discovery.isAlive());
+        } finally {
+            serverAnswers.countDown();
+            discovery.join(5000);
+        }
+    }
+
+    private static JobMetadata job(String jobId, String name, long dateModified, String... steps) {
+        return new JobMetadata(jobId, name, new Timestamp(dateModified), Arrays.asList(steps));
+    }
+}
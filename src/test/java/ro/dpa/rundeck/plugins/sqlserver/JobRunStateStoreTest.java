@@ -0,0 +1,126 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import static org.junit.Assert.*;
+
+public class JobRunStateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SqlServerJob buildSqlServerJob(SimulatedSqlAgent agent, JobRunStateStore store) throws Exception {
+        return this.buildSqlServerJob(agent, store, StatusQueryMode.ACTIVITY);
+    }
+
+    private SqlServerJob buildSqlServerJob(SimulatedSqlAgent agent, JobRunStateStore store, StatusQueryMode statusQueryMode)
+            throws Exception {
+        return new SqlServerJob.SqlServerJobBuilder()
+                .serverName("reattach-server")
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName("job-0")
+                .statusQueryMode(statusQueryMode)
+                .timeoutMillis(60000)
+                .stateStore(store)
+                .executionId("42")
+                .daoFactory(agent)
+                .build();
+    }
+
+    @Test
+    public void testRecordRoundTrip() throws Exception {
+        JobRunStateStore store = new JobRunStateStore(folder.newFolder("runs"));
+        store.save(new JobRunState("Server", 1433, "nightly load", "6F9619FF-8B86-D011-B42D-00C04FC964FF",
+                new Timestamp(1000), 2000, 15, "42"));
+
+        JobRunState state = store.load("server", 1433, "nightly load");
+        assertEquals("6F9619FF-8B86-D011-B42D-00C04FC964FF", state.getJobId());
+        assertEquals(new Timestamp(1000), state.getRequestedAfter());
+        assertEquals(2000, state.getStartedAtMillis());
+        assertEquals(15, state.getLastHistoryInstanceId());
+        assertEquals("42", state.getExecutionId());
+
+        store.remove("server", 1433, "nightly load");
+        assertNull(store.load("server", 1433, "nightly load"));
+    }
+
+    @Test
+    public void testStepExecutedAgainReattachesToTheRunningJob() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1).jobDurationMillis(800, 800).build();
+        JobRunStateStore store = new JobRunStateStore(folder.newFolder("runs"));
+        //the run started by the execution that was lost with the Rundeck restart
+        try (SqlServerJobDao dao = agent.create("reattach-server", 1433, "rundeck", "secret")) {
+            String jobId = dao.getJobId("job-0");
+            Timestamp requestedAfter = dao.getServerTime();
+            dao.startJob(jobId, null);
+            store.save(new JobRunState("reattach-server", 1433, "job-0", jobId, requestedAfter, System.currentTimeMillis(),
+                    0, "41"));
+        }
+
+        //starting the job again would be refused by SQL Agent, since it is running
+        this.buildSqlServerJob(agent, store).execute();
+
+        assertNull(store.load("reattach-server", 1433, "job-0"));
+    }
+
+    @Test
+    public void testStaleRecordIsReplacedByANewRun() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1).jobDurationMillis(100, 100).build();
+        JobRunStateStore store = new JobRunStateStore(folder.newFolder("runs"));
+        String jobId;
+        try (SqlServerJobDao dao = agent.create("reattach-server", 1433, "rundeck", "secret")) {
+            jobId = dao.getJobId("job-0");
+        }
+        store.save(new JobRunState("reattach-server", 1433, "job-0", jobId, new Timestamp(0), 0, 0, "41"));
+
+        this.buildSqlServerJob(agent, store).execute();
+
+        assertTrue(agent.getLastRunStopMillis("job-0") > 0);
+        assertNull(store.load("reattach-server", 1433, "job-0"));
+    }
+
+    @Test
+    public void testStaleRecordDoesNotAdoptARunStartedOutsideThePlugin() throws Exception {
+        this.assertForeignRunIsLeftAlone(StatusQueryMode.ACTIVITY, new Timestamp(System.currentTimeMillis() - 3600000));
+    }
+
+    @Test
+    public void testStaleUntrackedRecordDoesNotAdoptARunStartedOutsideThePlugin() throws Exception {
+        this.assertForeignRunIsLeftAlone(StatusQueryMode.HELP_JOB, null);
+    }
+
+    /**
+     * A record left behind by an execution lost an hour ago, while the job runs again, started by its schedule
+     */
+    private void assertForeignRunIsLeftAlone(StatusQueryMode statusQueryMode, Timestamp recordedRequestedAfter)
+            throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1).jobDurationMillis(2000, 2000).build();
+        JobRunStateStore store = new JobRunStateStore(folder.newFolder("runs"));
+        try (SqlServerJobDao dao = agent.create("reattach-server", 1433, "rundeck", "secret")) {
+            String jobId = dao.getJobId("job-0");
+            store.save(new JobRunState("reattach-server", 1433, "job-0", jobId, recordedRequestedAfter,
+                    System.currentTimeMillis() - 3600000, 0, "41"));
+            dao.startJob(jobId, null);
+        }
+        Thread.sleep(200);
+        assertTrue(agent.isRunning("job-0"));
+
+        try {
+            this.buildSqlServerJob(agent, store, statusQueryMode).execute();
+            fail("The job is already running");
+        } catch (SQLException ex) {
+            //refused by SQL Agent, the step doesn't report the outcome of the other run
+            assertTrue(ex.getMessage(), ex.getMessage().contains("already running"));
+        }
+
+        assertTrue(agent.isRunning("job-0"));
+        assertNull(store.load("reattach-server", 1433, "job-0"));
+    }
+}
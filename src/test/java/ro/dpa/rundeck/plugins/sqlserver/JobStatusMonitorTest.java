@@ -0,0 +1,160 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JobStatusMonitorTest {
+
+    private static final Timestamp REQUESTED_AFTER = new Timestamp(1000000);
+
+    private ScheduledExecutorService scheduler;
+    private JobStatusMonitor monitor;
+    private Map<String, JobRunStatus> statuses;
+    private int queryCount;
+    private boolean failQueries;
+
+    @Before
+    public void setUp() {
+        statuses = new HashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        monitor = new JobStatusMonitor("server", 1433, "user", "password", new SqlServerJobDaoFactory() {
+            @Override
+            public SqlServerJobDao create(String serverName, int port, String userName, String password) {
+                return new SuccessSqlServerJobDao() {
+                    @Override
+                    public Map<String, JobRunStatus> getLatestJobRunStatuses(Collection<String> jobNames, Timestamp requestedAfter)
+                            throws SQLException {
+                        queryCount++;
+                        if (failQueries) {
+                            throw new SQLException("connection reset");
+                        }
+                        return new HashMap<>(statuses);
+                    }
+                };
+            }
+        }, scheduler, 3600000);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testAllJobsAreCheckedWithOneQuery() throws Exception {
+        ListenableFuture<JobRunStatus> first = monitor.register("first", REQUESTED_AFTER);
+        ListenableFuture<JobRunStatus> second = monitor.register("second", REQUESTED_AFTER);
+        statuses.put("first", finished(ExecutionStatus.Succeeded, REQUESTED_AFTER));
+        statuses.put("second", running());
+
+        monitor.tick();
+
+        assertEquals(1, queryCount);
+        assertEquals(ExecutionStatus.Succeeded, first.get().getOutcome());
+        assertFalse(second.isDone());
+        assertEquals(1, monitor.getWaiterCount());
+    }
+
+    @Test
+    public void testRunRequestedBeforeRegistrationIsIgnored() {
+        ListenableFuture<JobRunStatus> future = monitor.register("job", REQUESTED_AFTER);
+        statuses.put("job", finished(ExecutionStatus.Failed, new Timestamp(REQUESTED_AFTER.getTime() - 1)));
+
+        monitor.tick();
+
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void testCancelledWaiterIsDropped() {
+        ListenableFuture<JobRunStatus> future = monitor.register("job", REQUESTED_AFTER);
+        future.cancel(false);
+
+        monitor.tick();
+
+        assertEquals(0, monitor.getWaiterCount());
+        assertEquals(0, queryCount);
+    }
+
+    @Test
+    public void testWaitersFailAfterRepeatedQueryFailures() throws Exception {
+        ListenableFuture<JobRunStatus> future = monitor.register("job", REQUESTED_AFTER);
+        failQueries = true;
+
+        for (int i = 0; i < 5; i++) {
+            assertFalse(future.isDone());
+            monitor.tick();
+        }
+
+        try {
+            future.get();
+            fail("The waiter should have failed");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof SQLException);
+        }
+    }
+
+    @Test
+    public void testStepOutlivesOutagesFurtherApartThanTheRecoveryWindow() throws Exception {
+        final SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1)
+                .jobDurationMillis(4000, 4000).build();
+        JobStatusMonitor fastMonitor = new JobStatusMonitor("outage-server", 1433, "user", "password", agent, scheduler, 50);
+        SqlServerJob job = new SqlServerJob.SqlServerJobBuilder()
+                .serverName("outage-server")
+                .port(1433)
+                .userName("user")
+                .password("password")
+                .jobName("job-0")
+                .statusQueryMode(StatusQueryMode.ACTIVITY)
+                .completionDetectionMode(CompletionDetectionMode.SHARED_MONITOR)
+                .maxPollIntervalMillis(100)
+                .daoFactory(agent)
+                .statusMonitor(fastMonitor)
+                .recoveryMillis(1500)
+                .build();
+        //each outage makes the monitor give up, the second one starts 2 s after the first, past the recovery window
+        scheduleOutage(agent, 300, 700);
+        scheduleOutage(agent, 2300, 2700);
+
+        job.execute();
+
+        assertTrue(agent.getLastRunStopMillis("job-0") > 0);
+    }
+
+    private void scheduleOutage(final SimulatedSqlAgent agent, long fromMillis, long toMillis) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                agent.setUnreachable(true);
+            }
+        }, fromMillis, TimeUnit.MILLISECONDS);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                agent.setUnreachable(false);
+            }
+        }, toMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static JobRunStatus finished(ExecutionStatus outcome, Timestamp requestedDate) {
+        return new JobRunStatus(CurrentExecutionStatus.Idle, outcome, requestedDate, requestedDate, requestedDate);
+    }
+
+    private static JobRunStatus running() {
+        return new JobRunStatus(CurrentExecutionStatus.Executing, null, REQUESTED_AFTER, REQUESTED_AFTER, null);
+    }
+}
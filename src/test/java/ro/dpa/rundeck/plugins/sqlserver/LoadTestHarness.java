@@ -0,0 +1,301 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of {@link SqlServerJob} against a {@link SimulatedSqlAgent}. Executions run concurrently, each one on
+ * its own thread like Rundeck runs the workflow steps, and the harness reports the throughput, the detection
+ * latency (from the end of the run on the agent to the moment the step returns) and the thread and connection usage.
+ * <p>
+ * Run it from the test classpath, e.g.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=ro.dpa.rundeck.plugins.sqlserver.LoadTestHarness \
+ *     -Dexec.args="--executions 5000 --concurrency 1000 --mode SHARED_MONITOR --latencyMedian 2 --latencyP99 40"
+ * </pre>
+ * Each run uses its own server name, so the caches and the shared monitor of previous runs are not reused.
+ */
+public class LoadTestHarness {
+
+    public enum WaitMode {
+        POLL_HELP_JOB(StatusQueryMode.HELP_JOB, CompletionDetectionMode.POLL),
+        POLL_ACTIVITY(StatusQueryMode.ACTIVITY, CompletionDetectionMode.POLL),
+        LONG_POLL(StatusQueryMode.ACTIVITY, CompletionDetectionMode.LONG_POLL),
+        SHARED_MONITOR(StatusQueryMode.ACTIVITY, CompletionDetectionMode.SHARED_MONITOR);
+
+        private final StatusQueryMode statusQueryMode;
+        private final CompletionDetectionMode completionDetectionMode;
+
+        WaitMode(StatusQueryMode statusQueryMode, CompletionDetectionMode completionDetectionMode) {
+            this.statusQueryMode = statusQueryMode;
+            this.completionDetectionMode = completionDetectionMode;
+        }
+    }
+
+    private static final long JOB_RELEASE_CHECK_MILLIS = 100;
+    private static final AtomicInteger RUN_COUNTER = new AtomicInteger();
+
+    private final SimulatedSqlAgent agent;
+    private final WaitMode waitMode;
+    private final String serverName;
+
+    public LoadTestHarness(SimulatedSqlAgent agent, WaitMode waitMode) {
+        this.agent = agent;
+        this.waitMode = waitMode;
+        this.serverName = "simulated-" + RUN_COUNTER.incrementAndGet();
+    }
+
+    /**
+     * Runs the executions, at most concurrency at a time. The agent must have at least concurrency jobs,
+     * since a job can't be started again while it runs.
+     */
+    public Report run(int executions, int concurrency) throws InterruptedException {
+        List<String> jobNames = agent.getJobNames();
+        if (jobNames.size() < concurrency) {
+            throw new IllegalArgumentException("The agent has " + jobNames.size() + " jobs, at least " + concurrency + " are needed");
+        }
+        final BlockingQueue<String> freeJobs = new ArrayBlockingQueue<>(jobNames.size(), false, jobNames);
+        final AtomicLong historyRows = new AtomicLong();
+        final JobProgressListener progressListener = new JobProgressListener() {
+            @Override
+            public void onStepHistory(String jobName, JobStepHistory history) {
+                historyRows.incrementAndGet();
+            }
+        };
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baselineThreads = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        ExecutorService steps = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "load-step-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long startedAt = System.currentTimeMillis();
+        List<Future<Outcome>> futures = new ArrayList<>(executions);
+        try {
+            for (int i = 0; i < executions; i++) {
+                futures.add(steps.submit(new Callable<Outcome>() {
+                    @Override
+                    public Outcome call() throws Exception {
+                        String jobName = freeJobs.take();
+                        try {
+                            return execute(jobName, progressListener);
+                        } finally {
+                            //a step that failed with an error leaves its run going, it can't be started again before it stops
+                            while (agent.isRunning(jobName)) {
+                                Thread.sleep(JOB_RELEASE_CHECK_MILLIS);
+                            }
+                            freeJobs.put(jobName);
+                        }
+                    }
+                }));
+            }
+
+            Report report = new Report();
+            long[] detectionLatencies = new long[executions];
+            int detected = 0;
+            for (Future<Outcome> future : futures) {
+                Outcome outcome;
+                try {
+                    outcome = future.get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Load test execution failed unexpectedly", ex.getCause());
+                }
+                report.count(outcome);
+                if (outcome.detectionLatencyMillis >= 0) {
+                    detectionLatencies[detected++] = outcome.detectionLatencyMillis;
+                }
+            }
+            report.elapsedMillis = System.currentTimeMillis() - startedAt;
+            report.executions = executions;
+            report.concurrency = concurrency;
+            report.detectionLatencies = Arrays.copyOf(detectionLatencies, detected);
+            Arrays.sort(report.detectionLatencies);
+            report.historyRows = historyRows.get();
+            report.calls = agent.getCallCount();
+            report.peakConnections = agent.getPeakConnections();
+            report.refusedConnections = agent.getRefusedConnectionCount();
+            report.peakExecutingRuns = agent.getPeakExecutingRuns();
+            report.peakWaitingRuns = agent.getPeakWaitingRuns();
+            report.baselineThreads = baselineThreads;
+            report.peakThreads = threads.getPeakThreadCount();
+            return report;
+        } finally {
+            steps.shutdownNow();
+        }
+    }
+
+    private Outcome execute(String jobName, JobProgressListener progressListener) throws Exception {
+        SqlServerJob job = new SqlServerJob.SqlServerJobBuilder()
+                .serverName(this.serverName)
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName(jobName)
+                .statusQueryMode(this.waitMode.statusQueryMode)
+                .completionDetectionMode(this.waitMode.completionDetectionMode)
+                .progressListener(progressListener)
+                .daoFactory(this.agent)
+                .build();
+        Outcome outcome = new Outcome();
+        try {
+            job.execute();
+            outcome.succeeded = true;
+        } catch (SQLException ex) {
+            outcome.error = ex;
+        }
+        long stoppedAt = agent.getLastRunStopMillis(jobName);
+        outcome.detectionLatencyMillis = stoppedAt < 0 ? -1 : System.currentTimeMillis() - stoppedAt;
+        return outcome;
+    }
+
+    private static class Outcome {
+        private boolean succeeded;
+        private SQLException error;
+        private long detectionLatencyMillis;
+    }
+
+    /**
+     * Results of a load test run. Detection latencies are only known for the runs that finished on the agent.
+     */
+    public static class Report {
+        private int executions;
+        private int concurrency;
+        private long elapsedMillis;
+        private int succeeded;
+        private int failed;
+        private final Map<String, Integer> errors = new HashMap<>();
+        private long[] detectionLatencies;
+        private long historyRows;
+        private long calls;
+        private int peakConnections;
+        private long refusedConnections;
+        private int peakExecutingRuns;
+        private int peakWaitingRuns;
+        private int baselineThreads;
+        private int peakThreads;
+
+        private void count(Outcome outcome) {
+            if (outcome.succeeded) {
+                succeeded++;
+                return;
+            }
+            failed++;
+            //the job failures are reported by the job itself, the rest are errors of the calls
+            SQLException cause = outcome.error;
+            while (cause.getCause() instanceof SQLException) {
+                cause = (SQLException) cause.getCause();
+            }
+            String kind = cause.getErrorCode() == 0 ? "job failed" : "error " + cause.getErrorCode();
+            Integer count = errors.get(kind);
+            errors.put(kind, count == null ? 1 : count + 1);
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public double getThroughputPerSecond() {
+            return elapsedMillis == 0 ? 0 : executions * 1000.0 / elapsedMillis;
+        }
+
+        public long getDetectionLatencyPercentile(double percentile) {
+            if (detectionLatencies.length == 0) {
+                return -1;
+            }
+            int index = (int) Math.ceil(percentile / 100 * detectionLatencies.length) - 1;
+            return detectionLatencies[Math.max(0, index)];
+        }
+
+        public long getHistoryRows() {
+            return historyRows;
+        }
+
+        public int getPeakConnections() {
+            return peakConnections;
+        }
+
+        public int getPeakThreads() {
+            return peakThreads;
+        }
+
+        @Override
+        public String toString() {
+            return "executions=" + executions + ", concurrency=" + concurrency + ", elapsed=" + elapsedMillis + " ms\n" +
+                    "  succeeded=" + succeeded + ", failed=" + failed + " " + errors + "\n" +
+                    String.format("  throughput=%.1f executions/s, calls=%d (%.1f per execution), history rows=%d%n",
+                            getThroughputPerSecond(), calls, executions == 0 ? 0 : (double) calls / executions, historyRows) +
+                    "  detection latency ms: p50=" + getDetectionLatencyPercentile(50) + ", p90=" + getDetectionLatencyPercentile(90) +
+                    ", p99=" + getDetectionLatencyPercentile(99) + ", max=" + getDetectionLatencyPercentile(100) + "\n" +
+                    "  connections: peak=" + peakConnections + ", refused=" + refusedConnections +
+                    "; agent runs: peak executing=" + peakExecutingRuns + ", peak waiting for worker=" + peakWaitingRuns + "\n" +
+                    "  threads: peak=" + peakThreads + " (" + baselineThreads + " before the run)";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value pairs, got " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        int executions = intOption(options, "executions", 2000);
+        int concurrency = intOption(options, "concurrency", 500);
+        WaitMode waitMode = WaitMode.valueOf(stringOption(options, "mode", WaitMode.POLL_ACTIVITY.name()).toUpperCase());
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder()
+                .jobs(intOption(options, "jobs", concurrency))
+                .jobDurationMillis(intOption(options, "minDuration", 1000), intOption(options, "maxDuration", 5000))
+                .latencyMillis(intOption(options, "latencyMedian", 2), intOption(options, "latencyP99", 20))
+                .failureRate(Double.parseDouble(stringOption(options, "failureRate", "0")))
+                .errorRate(Double.parseDouble(stringOption(options, "errorRate", "0")))
+                .pickupDelayMillis(intOption(options, "pickupDelay", 100))
+                .maxWorkers(intOption(options, "maxWorkers", 0))
+                .maxConnections(intOption(options, "maxConnections", 0))
+                .build();
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + options.keySet());
+        }
+
+        System.out.println("Running " + executions + " executions in " + waitMode + " mode...");
+        System.out.println(new LoadTestHarness(agent, waitMode).run(executions, concurrency));
+    }
+
+    private static String stringOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        return Integer.parseInt(stringOption(options, name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,59 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Small runs of the load test, to keep the harness and the simulated agent working
+ */
+public class LoadTestHarnessTest {
+
+    private static SimulatedSqlAgent.SimulatedSqlAgentBuilder agent() {
+        return new SimulatedSqlAgent.SimulatedSqlAgentBuilder()
+                .jobs(20)
+                .jobDurationMillis(600, 900)
+                .latencyMillis(1, 5);
+    }
+
+    @Test
+    public void testPollingDetectsEveryRun() throws Exception {
+        LoadTestHarness.Report report = new LoadTestHarness(agent().build(), LoadTestHarness.WaitMode.POLL_ACTIVITY)
+                .run(40, 20);
+
+        assertEquals(40, report.getSucceeded());
+        assertEquals(0, report.getFailed());
+        //one step row and the job outcome per run
+        assertEquals(80, report.getHistoryRows());
+        assertTrue(report.toString(), report.getPeakConnections() <= 20);
+        assertTrue(report.toString(), report.getDetectionLatencyPercentile(99) >= 0);
+    }
+
+    @Test
+    public void testSharedMonitorWithFailuresAndLimitedWorkers() throws Exception {
+        SimulatedSqlAgent agent = agent().failureRate(0.5).maxWorkers(5).pickupDelayMillis(50).build();
+
+        LoadTestHarness.Report report = new LoadTestHarness(agent, LoadTestHarness.WaitMode.SHARED_MONITOR).run(20, 20);
+
+        assertEquals(report.toString(), 20, report.getSucceeded() + report.getFailed());
+        assertTrue(report.toString(), agent.getPeakExecutingRuns() <= 5);
+    }
+
+    @Test
+    public void testStartingARunningJobIsRefused() throws Exception {
+        SimulatedSqlAgent agent = agent().build();
+        String jobId;
+        try (SqlServerJobDao dao = agent.create("simulated", 1433, "rundeck", "secret")) {
+            jobId = dao.getJobId("job-0");
+            dao.startJob(jobId, null);
+            try {
+                dao.startJob(jobId, null);
+                fail("Expected the second start to be refused");
+            } catch (SQLException ex) {
+                assertEquals(SimulatedSqlAgent.JOB_ALREADY_RUNNING_ERROR, ex.getErrorCode());
+            }
+        }
+    }
+}
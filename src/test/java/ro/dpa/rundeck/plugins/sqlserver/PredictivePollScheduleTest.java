@@ -0,0 +1,96 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PredictivePollScheduleTest {
+
+    private static final long MAX_DELAY = 30000;
+    //an hour long job, finishing within a minute of its median
+    private static final JobDurationStats HOUR_LONG_JOB = new JobDurationStats(20, 3570000, 3600000, 3630000);
+
+    private PollSchedule scheduleStartedAgo(long elapsedMillis) {
+        return new PredictivePollSchedule(HOUR_LONG_JOB, System.currentTimeMillis() - elapsedMillis, MAX_DELAY);
+    }
+
+    @Test
+    public void testChecksAreSparseBeforeTheExpectedEnd() {
+        long delay = this.scheduleStartedAgo(60000).nextDelayMillis(CurrentExecutionStatus.Executing);
+
+        //a tenth of the median, longer than the max poll interval
+        assertTrue(String.valueOf(delay), delay > MAX_DELAY && delay <= 360000);
+    }
+
+    @Test
+    public void testSparseChecksDoNotOvershootTheWindow() {
+        long delay = this.scheduleStartedAgo(3560000).nextDelayMillis(CurrentExecutionStatus.Executing);
+
+        assertTrue(String.valueOf(delay), delay <= 9000);
+    }
+
+    @Test
+    public void testChecksAreDenseAroundTheExpectedEnd() {
+        PollSchedule schedule = this.scheduleStartedAgo(3600000);
+
+        assertEquals(PredictivePollSchedule.DENSE_DELAY_MILLIS, schedule.nextDelayMillis(CurrentExecutionStatus.Executing));
+        assertEquals(PredictivePollSchedule.DENSE_DELAY_MILLIS,
+                schedule.nextDelayMillis(CurrentExecutionStatus.PerformingCompletionActions));
+    }
+
+    @Test
+    public void testLateJobFallsBackToTheBackoff() {
+        PollSchedule schedule = this.scheduleStartedAgo(4000000);
+
+        long delay = schedule.nextDelayMillis(CurrentExecutionStatus.Executing);
+
+        assertTrue(String.valueOf(delay), delay < MAX_DELAY);
+        assertTrue(schedule.nextDelayMillis(CurrentExecutionStatus.Suspended) >= MAX_DELAY * 0.8);
+    }
+
+    @Test
+    public void testStrategyWithoutHistoryIsAdaptive() {
+        assertTrue(PollStrategy.PREDICTIVE.newSchedule(MAX_DELAY, null, 0) instanceof BackoffPollSchedule);
+        assertTrue(PollStrategy.PREDICTIVE.newSchedule(MAX_DELAY, HOUR_LONG_JOB, 0) instanceof PredictivePollSchedule);
+    }
+
+    @Test
+    public void testStatsAreGroupedByStartStep() {
+        List<JobStepHistory> rows = new ArrayList<>();
+        //the oldest run lost its first step to the row limit
+        addRun(rows, 2, 3, ExecutionStatus.Succeeded, 5);
+        for (int duration = 60; duration <= 100; duration += 10) {
+            addRun(rows, 1, 3, ExecutionStatus.Succeeded, duration);
+        }
+        addRun(rows, 1, 3, ExecutionStatus.Failed, 2);
+        for (int duration = 10; duration <= 12; duration++) {
+            addRun(rows, 3, 3, ExecutionStatus.Succeeded, duration);
+        }
+        addRun(rows, 2, 3, ExecutionStatus.Succeeded, 30);
+        //a run in progress
+        rows.add(new JobStepHistory(rows.size() + 1, 1, "step 1", ExecutionStatus.Succeeded, 20, null));
+
+        Map<String, JobDurationStats> stats = JobDurationStatsCache.computeStats(rows, rows.size());
+
+        assertEquals(2, stats.size());
+        JobDurationStats fromFirstStep = stats.get("STEP 1");
+        assertEquals(5, fromFirstStep.getSampleCount());
+        assertEquals(60000, fromFirstStep.getP10Millis());
+        assertEquals(80000, fromFirstStep.getMedianMillis());
+        assertEquals(100000, fromFirstStep.getP90Millis());
+        assertEquals(11000, stats.get("step 3").getMedianMillis());
+        //one run is not enough
+        assertNull(stats.get("step 2"));
+    }
+
+    private static void addRun(List<JobStepHistory> rows, int startStep, int lastStep, ExecutionStatus outcome, int durationSeconds) {
+        for (int step = startStep; step <= lastStep; step++) {
+            rows.add(new JobStepHistory(rows.size() + 1, step, "step " + step, ExecutionStatus.Succeeded, 1, null));
+        }
+        rows.add(new JobStepHistory(rows.size() + 1, 0, "(Job outcome)", outcome, durationSeconds, null));
+    }
+}
@@ -0,0 +1,681 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process SQL Agent, answering the calls of {@link SqlServerJobDao} from an in-memory msdb, for load tests
+ * that don't need a real SQL Server.
+ * <p>
+ * Runs go through the same states as on a real server: SQL Agent picks the request up after a delay (sp_help_job
+ * still reports the job idle and sysjobactivity has no row), the run waits for a worker thread while all of them
+ * are busy, executes for a random duration and writes its history when it stops. A job can't be started again
+ * while it runs. Every call waits for a round trip drawn from a log-normal latency distribution and can fail with
+ * an injected deadlock error; connections above the configured limit are refused. While the server is made
+ * unreachable, every call fails with a connection error.
+ * The simulation is evaluated lazily, against the wall clock, on each call.
+ */
+public class SimulatedSqlAgent implements SqlServerJobDaoFactory {
+    static final int JOB_NOT_FOUND_ERROR = 14262;
+    static final int JOB_ALREADY_RUNNING_ERROR = 22022;
+    static final int JOB_NOT_RUNNING_ERROR = 22022;
+    static final int DEADLOCK_VICTIM_ERROR = 1205;
+    static final int USER_CONNECTIONS_EXHAUSTED_ERROR = 17809;
+
+    //sysjobactivity is checked with this granularity by the long poll batch
+    private static final long LONG_POLL_CHECK_MILLIS = 250;
+    //z-score of the 99th percentile of the standard normal distribution
+    private static final double P99_Z_SCORE = 2.326;
+
+    private final Map<String, Job> jobsById = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Job> jobsByName = new HashMap<>();
+    private final List<String> jobNames = new ArrayList<>();
+    private final Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+
+    private long minDurationMillis;
+    private long maxDurationMillis;
+    private double failureRate;
+    private double errorRate;
+    private double latencyMu;
+    private double latencySigma;
+    private boolean latencyEnabled;
+    private long pickupDelayMillis;
+    private int maxWorkers;
+    private int maxConnections;
+
+    //simulation state, guarded by this
+    private final PriorityQueue<Run> pickups = new PriorityQueue<>(16, new Comparator<Run>() {
+        @Override
+        public int compare(Run r1, Run r2) {
+            return Long.compare(r1.requestedAt, r2.requestedAt);
+        }
+    });
+    private final Deque<Run> waitingForWorker = new ArrayDeque<>();
+    private final PriorityQueue<Run> executing = new PriorityQueue<>(16, new Comparator<Run>() {
+        @Override
+        public int compare(Run r1, Run r2) {
+            return Long.compare(r1.stopAt, r2.stopAt);
+        }
+    });
+    private long lastInstanceId;
+    private int peakExecutingRuns;
+    private int peakWaitingRuns;
+
+    private final AtomicLong calls = new AtomicLong();
+    private volatile boolean unreachable;
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong refusedConnections = new AtomicLong();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger peakConnections = new AtomicInteger();
+
+    //constructor is private, it can only be instantiated through the builder
+    private SimulatedSqlAgent() {
+
+    }
+
+    @Override
+    public SqlServerJobDao create(String serverName, int port, String userName, String password) throws SQLException {
+        this.connect();
+        return new SimulatedJobDao();
+    }
+
+    private void connect() throws SQLException {
+        int open = openConnections.incrementAndGet();
+        if (maxConnections > 0 && open > maxConnections) {
+            openConnections.decrementAndGet();
+            refusedConnections.incrementAndGet();
+            throw new SQLException("Could not connect because the maximum number of '" + maxConnections +
+                    "' user connections has already been reached.", "08001", USER_CONNECTIONS_EXHAUSTED_ERROR);
+        }
+        int peak = peakConnections.get();
+        while (open > peak && !peakConnections.compareAndSet(peak, open)) {
+            peak = peakConnections.get();
+        }
+    }
+
+    /**
+     * Simulates a network outage, the runs go on meanwhile
+     */
+    public void setUnreachable(boolean unreachable) {
+        this.unreachable = unreachable;
+    }
+
+    public List<String> getJobNames() {
+        return Collections.unmodifiableList(jobNames);
+    }
+
+    /**
+     * @return When the last run of the job stopped, -1 if the job never ran or its last run didn't stop yet
+     */
+    public synchronized long getLastRunStopMillis(String jobName) {
+        Run run = jobsByName.get(jobName).lastRun;
+        return run == null || run.outcome == null ? -1 : run.stopAt;
+    }
+
+    public synchronized boolean isRunning(String jobName) {
+        this.advance(System.currentTimeMillis());
+        Run run = jobsByName.get(jobName).lastRun;
+        return run != null && run.outcome == null;
+    }
+
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public long getInjectedErrorCount() {
+        return injectedErrors.get();
+    }
+
+    public long getRefusedConnectionCount() {
+        return refusedConnections.get();
+    }
+
+    public int getPeakConnections() {
+        return peakConnections.get();
+    }
+
+    public synchronized int getPeakExecutingRuns() {
+        return peakExecutingRuns;
+    }
+
+    public synchronized int getPeakWaitingRuns() {
+        return peakWaitingRuns;
+    }
+
+    /**
+     * Applies all the pickups and completions due until the given time, in the order they happened
+     */
+    private synchronized void advance(long now) {
+        while (true) {
+            Run pickup = pickups.peek();
+            Run stopping = executing.peek();
+            long pickupAt = pickup == null ? Long.MAX_VALUE : pickup.requestedAt + pickupDelayMillis;
+            long stopAt = stopping == null ? Long.MAX_VALUE : stopping.stopAt;
+            if (Math.min(pickupAt, stopAt) > now) {
+                return;
+            }
+            if (stopAt <= pickupAt) {
+                executing.poll();
+                this.finish(stopping, ThreadLocalRandom.current().nextDouble() < failureRate
+                        ? ExecutionStatus.Failed : ExecutionStatus.Succeeded);
+                this.assignWorkers(stopAt);
+            } else {
+                pickups.poll();
+                pickup.pickedUp = true;
+                waitingForWorker.add(pickup);
+                this.assignWorkers(pickupAt);
+            }
+        }
+    }
+
+    private void assignWorkers(long at) {
+        while (!waitingForWorker.isEmpty() && (maxWorkers <= 0 || executing.size() < maxWorkers)) {
+            Run run = waitingForWorker.poll();
+            run.startedAt = at;
+            run.stopAt = at + run.durationMillis;
+            executing.add(run);
+        }
+        peakExecutingRuns = Math.max(peakExecutingRuns, executing.size());
+        peakWaitingRuns = Math.max(peakWaitingRuns, waitingForWorker.size());
+    }
+
+    private void finish(Run run, ExecutionStatus outcome) {
+        int durationSeconds = (int) ((run.stopAt - run.startedAt) / 1000);
+        Job job = run.job;
+        String stepMessage;
+        String jobMessage;
+        if (outcome == ExecutionStatus.Canceled) {
+            stepMessage = "Executed as user: rundeck. The step was cancelled (stopped) as the result of a stop job request.";
+            jobMessage = "The job was stopped prior to completion by User rundeck.";
+        } else if (outcome == ExecutionStatus.Failed) {
+            stepMessage = "Executed as user: rundeck. Simulated step failure. The step failed.";
+            jobMessage = "The job failed. The Job was invoked by User rundeck.";
+        } else {
+            stepMessage = "Executed as user: rundeck. The step succeeded.";
+            jobMessage = "The job succeeded. The Job was invoked by User rundeck.";
+        }
+        job.history.add(new JobStepHistory(++lastInstanceId, 1, Job.STEP_NAME, outcome, durationSeconds, stepMessage));
+        job.history.add(new JobStepHistory(++lastInstanceId, 0, "(Job outcome)", outcome, durationSeconds, jobMessage));
+        run.outcome = outcome;
+        job.lastOutcome = outcome;
+        job.lastFinishedRun = run;
+    }
+
+    private Job getJobById(String jobId) throws SQLException {
+        Job job = jobsById.get(jobId);
+        if (job == null) {
+            throw new SQLException("The specified @job_id ('" + jobId + "') does not exist.", "42000", JOB_NOT_FOUND_ERROR);
+        }
+        return job;
+    }
+
+    private synchronized void startRun(String jobId) throws SQLException {
+        long now = System.currentTimeMillis();
+        this.advance(now);
+        Job job = this.getJobById(jobId);
+        if (job.lastRun != null && job.lastRun.outcome == null) {
+            throw new SQLException("SQLServerAgent Error: Request to run job " + job.name +
+                    " refused because the job is already running from a request by User rundeck.", "42000",
+                    JOB_ALREADY_RUNNING_ERROR);
+        }
+        long durationMillis = minDurationMillis
+                + (long) (ThreadLocalRandom.current().nextDouble() * (maxDurationMillis - minDurationMillis));
+        Run run = new Run(job, now, durationMillis);
+        job.lastRun = run;
+        pickups.add(run);
+    }
+
+    /**
+     * Cancels the run of the job, wherever it is: waiting for the pickup, for a worker, or executing
+     */
+    private synchronized void stopRun(String jobId) throws SQLException {
+        long now = System.currentTimeMillis();
+        this.advance(now);
+        Job job = this.getJobById(jobId);
+        Run run = job.lastRun;
+        if (run == null || run.outcome != null) {
+            throw new SQLException("SQLServerAgent Error: Request to stop job " + job.name +
+                    " (from User rundeck) refused because the job is not currently running.", "42000", JOB_NOT_RUNNING_ERROR);
+        }
+        pickups.remove(run);
+        waitingForWorker.remove(run);
+        executing.remove(run);
+        if (run.startedAt < 0) {
+            run.startedAt = now;
+        }
+        run.stopAt = now;
+        run.pickedUp = true;
+        this.finish(run, ExecutionStatus.Canceled);
+        this.assignWorkers(now);
+    }
+
+    private synchronized CurrentExecutionStatus getCurrentExecutionStatus(String jobId) throws SQLException {
+        this.advance(System.currentTimeMillis());
+        Run run = this.getJobById(jobId).lastRun;
+        if (run == null || run.outcome != null || !run.pickedUp) {
+            return CurrentExecutionStatus.Idle;
+        }
+        return run.startedAt < 0 ? CurrentExecutionStatus.WaitingForThread : CurrentExecutionStatus.Executing;
+    }
+
+    private synchronized ExecutionStatus getLastOutcome(String jobId) throws SQLException {
+        this.advance(System.currentTimeMillis());
+        ExecutionStatus outcome = this.getJobById(jobId).lastOutcome;
+        return outcome == null ? ExecutionStatus.Unknown : outcome;
+    }
+
+    /**
+     * @return The sysjobactivity row of the last run, as read by {@link SqlServerJobDaoImpl}. Null if there is none
+     */
+    private synchronized JobRunStatus getRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+        this.advance(System.currentTimeMillis());
+        Run run = this.getJobById(jobId).lastRun;
+        if (run == null || !run.pickedUp || run.requestedAt < requestedAfter.getTime()) {
+            return null;
+        }
+        Timestamp requestedDate = new Timestamp(run.requestedAt);
+        if (run.outcome != null) {
+            return new JobRunStatus(CurrentExecutionStatus.Idle, run.outcome, requestedDate, new Timestamp(run.startedAt),
+                    new Timestamp(run.stopAt));
+        }
+        if (run.startedAt < 0) {
+            return new JobRunStatus(CurrentExecutionStatus.WaitingForThread, null, requestedDate, null, null);
+        }
+        return new JobRunStatus(CurrentExecutionStatus.Executing, null, requestedDate, new Timestamp(run.startedAt), null);
+    }
+
+    private synchronized List<JobStepHistory> getHistory(String jobId, long afterInstanceId) throws SQLException {
+        this.advance(System.currentTimeMillis());
+        List<JobStepHistory> rows = new ArrayList<>();
+        for (JobStepHistory row : this.getJobById(jobId).history) {
+            if (row.getInstanceId() > afterInstanceId) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The step logs to table, overwriting the output of the previous run
+     */
+    private synchronized String getStepOutput(String jobId, Timestamp modifiedSince) throws SQLException {
+        this.advance(System.currentTimeMillis());
+        Run run = this.getJobById(jobId).lastFinishedRun;
+        if (run == null || run.stopAt < modifiedSince.getTime()) {
+            return null;
+        }
+        return "Executed as user: rundeck.\r\nProcessed " + run.durationMillis + " rows.\r\nDone.";
+    }
+
+    private synchronized List<JobLastRun> getLastRuns() {
+        this.advance(System.currentTimeMillis());
+        List<JobLastRun> runs = new ArrayList<>();
+        for (Job job : jobsById.values()) {
+            //sysjobservers is only updated when a run finishes
+            Run run = job.lastFinishedRun;
+            runs.add(run == null ? new JobLastRun(job.id, ExecutionStatus.Unknown, null, 0)
+                    : new JobLastRun(job.id, run.outcome, new Timestamp(run.startedAt), (int) ((run.stopAt - run.startedAt) / 1000)));
+        }
+        return runs;
+    }
+
+    private static class Job {
+        private static final String STEP_NAME = "Step 1";
+
+        private final String id;
+        private final String name;
+        private final List<JobStepHistory> history = new ArrayList<>();
+        private Run lastRun;
+        private Run lastFinishedRun;
+        private ExecutionStatus lastOutcome;
+
+        Job(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static class Run {
+        private final Job job;
+        private final long requestedAt;
+        private final long durationMillis;
+        private boolean pickedUp;
+        private long startedAt = -1;
+        private long stopAt = -1;
+        private ExecutionStatus outcome;
+
+        Run(Job job, long requestedAt, long durationMillis) {
+            this.job = job;
+            this.requestedAt = requestedAt;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /**
+     * A connection to the simulated server. Like a real connection, it must not be used by several threads at once.
+     * Like the real DAO, it connects again when it is used after being closed.
+     */
+    private class SimulatedJobDao implements SqlServerJobDao {
+        private boolean closed;
+
+        @Override
+        public void startJob(String jobId, String stepName) throws SQLException {
+            this.roundTrip();
+            startRun(jobId);
+        }
+
+        @Override
+        public long startJobAndGetLastHistoryInstanceId(String jobId, String stepName) throws SQLException {
+            this.roundTrip();
+            List<JobStepHistory> rows = getHistory(jobId, 0);
+            startRun(jobId);
+            return rows.isEmpty() ? 0 : rows.get(rows.size() - 1).getInstanceId();
+        }
+
+        @Override
+        public void stopJob(String jobId) throws SQLException {
+            this.roundTrip();
+            stopRun(jobId);
+        }
+
+        @Override
+        public int getCurrentExecutionStatus(String jobId) throws SQLException {
+            this.roundTrip();
+            return SimulatedSqlAgent.this.getCurrentExecutionStatus(jobId).value();
+        }
+
+        @Override
+        public int getLastExecutionStatus(String jobId) throws SQLException {
+            this.roundTrip();
+            return getLastOutcome(jobId).value();
+        }
+
+        @Override
+        public JobRunStatus getHelpJobStatus(String jobId, JobHistoryFeed feed) throws SQLException {
+            this.roundTrip();
+            CurrentExecutionStatus currentStatus = SimulatedSqlAgent.this.getCurrentExecutionStatus(jobId);
+            for (JobStepHistory row : getHistory(jobId, feed.getLastInstanceId())) {
+                feed.accept(row);
+            }
+            return CurrentExecutionStatus.Idle != currentStatus ? JobRunStatus.unfinished(currentStatus)
+                    : new JobRunStatus(currentStatus, getLastOutcome(jobId), null, null, null);
+        }
+
+        @Override
+        public Timestamp getServerTime() throws SQLException {
+            this.roundTrip();
+            return new Timestamp(System.currentTimeMillis());
+        }
+
+        @Override
+        public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+            this.roundTrip();
+            JobRunStatus status = getRunStatus(jobId, requestedAfter);
+            return status == null ? JobRunStatus.unfinished(CurrentExecutionStatus.Idle) : status;
+        }
+
+        @Override
+        public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter, JobHistoryFeed feed) throws SQLException {
+            JobRunStatus status = this.getJobRunStatus(jobId, requestedAfter);
+            for (JobStepHistory row : getHistory(jobId, feed.getLastInstanceId())) {
+                feed.accept(row);
+            }
+            return status;
+        }
+
+        @Override
+        public Map<String, JobRunStatus> getLatestJobRunStatuses(Collection<String> jobIds, Timestamp requestedAfter) throws SQLException {
+            this.roundTrip();
+            Map<String, JobRunStatus> statuses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String jobId : jobIds) {
+                JobRunStatus status = getRunStatus(jobId, requestedAfter);
+                if (status != null) {
+                    statuses.put(jobId, status);
+                }
+            }
+            return statuses;
+        }
+
+        @Override
+        public JobRunStatus waitForJobRunCompletion(String jobId, Timestamp requestedAfter, int timeoutSeconds) throws SQLException {
+            this.roundTrip();
+            long deadline = System.currentTimeMillis() + timeoutSeconds * 1000L;
+            while (true) {
+                JobRunStatus status = getRunStatus(jobId, requestedAfter);
+                long now = System.currentTimeMillis();
+                if ((status != null && status.isFinished()) || now >= deadline) {
+                    return status == null ? JobRunStatus.unfinished(CurrentExecutionStatus.Idle) : status;
+                }
+                sleep(Math.min(LONG_POLL_CHECK_MILLIS, deadline - now));
+            }
+        }
+
+        @Override
+        public long getLastHistoryInstanceId(String jobId) throws SQLException {
+            this.roundTrip();
+            List<JobStepHistory> rows = getHistory(jobId, 0);
+            return rows.isEmpty() ? 0 : rows.get(rows.size() - 1).getInstanceId();
+        }
+
+        @Override
+        public void readJobHistory(String jobId, JobHistoryFeed feed) throws SQLException {
+            this.roundTrip();
+            for (JobStepHistory row : getHistory(jobId, feed.getLastInstanceId())) {
+                feed.accept(row);
+            }
+        }
+
+        @Override
+        public void readStepOutputLogs(String jobId, Timestamp modifiedSince, StepOutputFeed feed) throws SQLException {
+            this.roundTrip();
+            String output = getStepOutput(jobId, modifiedSince);
+            if (output != null) {
+                try {
+                    feed.accept(1, Job.STEP_NAME, new StringReader(output));
+                } catch (IOException ex) {
+                    throw new SQLException(ex);
+                }
+            }
+        }
+
+        @Override
+        public List<JobStepHistory> getRecentJobHistory(String jobId, int maxRows) throws SQLException {
+            this.roundTrip();
+            List<JobStepHistory> rows = getHistory(jobId, 0);
+            return new ArrayList<>(rows.subList(Math.max(0, rows.size() - maxRows), rows.size()));
+        }
+
+        @Override
+        public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException {
+            this.roundTrip();
+            List<JobMetadata> jobs = new ArrayList<>();
+            if (!createdAt.before(modifiedSince)) {
+                for (Job job : jobsByName.values()) {
+                    jobs.add(new JobMetadata(job.id, job.name, createdAt, Collections.singletonList(Job.STEP_NAME)));
+                }
+            }
+            return jobs;
+        }
+
+        @Override
+        public List<JobLastRun> getLastJobRuns() throws SQLException {
+            this.roundTrip();
+            return getLastRuns();
+        }
+
+        @Override
+        public String getJobId(String jobName) throws SQLException {
+            this.roundTrip();
+            Job job = jobsByName.get(jobName);
+            return job == null ? null : job.id;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                openConnections.decrementAndGet();
+            }
+        }
+
+        private void roundTrip() throws SQLException {
+            calls.incrementAndGet();
+            if (unreachable) {
+                throw new SQLException("Connection reset", "08S01");
+            }
+            if (closed) {
+                connect();
+                closed = false;
+            }
+            if (latencyEnabled) {
+                sleep((long) Math.exp(latencyMu + latencySigma * ThreadLocalRandom.current().nextGaussian()));
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                throw new SQLException("Transaction (Process ID 61) was deadlocked on lock resources with another process " +
+                        "and has been chosen as the deadlock victim. Rerun the transaction.", "40001", DEADLOCK_VICTIM_ERROR);
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws SQLException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(ex);
+        }
+    }
+
+    public static class SimulatedSqlAgentBuilder {
+        private int nestedJobs = 100;
+        private long nestedMinDurationMillis = 1000;
+        private long nestedMaxDurationMillis = 5000;
+        private double nestedFailureRate;
+        private double nestedErrorRate;
+        private long nestedLatencyMedianMillis;
+        private long nestedLatencyP99Millis;
+        private long nestedPickupDelayMillis;
+        private int nestedMaxWorkers;
+        private int nestedMaxConnections;
+
+        public SimulatedSqlAgentBuilder() {
+
+        }
+
+        /**
+         * Number of jobs defined on the server, named job-0, job-1...
+         */
+        public SimulatedSqlAgentBuilder jobs(int jobs) {
+            this.nestedJobs = jobs;
+            return this;
+        }
+
+        /**
+         * Run durations are uniformly distributed between the two values
+         */
+        public SimulatedSqlAgentBuilder jobDurationMillis(long minDurationMillis, long maxDurationMillis) {
+            this.nestedMinDurationMillis = minDurationMillis;
+            this.nestedMaxDurationMillis = maxDurationMillis;
+            return this;
+        }
+
+        /**
+         * Share of the runs that fail
+         */
+        public SimulatedSqlAgentBuilder failureRate(double failureRate) {
+            this.nestedFailureRate = failureRate;
+            return this;
+        }
+
+        /**
+         * Share of the calls that fail with a deadlock error
+         */
+        public SimulatedSqlAgentBuilder errorRate(double errorRate) {
+            this.nestedErrorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Log-normal round trip latency, given by its median and 99th percentile. No latency if the median is 0.
+         */
+        public SimulatedSqlAgentBuilder latencyMillis(long medianMillis, long p99Millis) {
+            this.nestedLatencyMedianMillis = medianMillis;
+            this.nestedLatencyP99Millis = p99Millis;
+            return this;
+        }
+
+        /**
+         * Time between sp_start_job and the moment SQL Agent records the run
+         */
+        public SimulatedSqlAgentBuilder pickupDelayMillis(long pickupDelayMillis) {
+            this.nestedPickupDelayMillis = pickupDelayMillis;
+            return this;
+        }
+
+        /**
+         * Max runs executing at the same time, the others wait for a worker thread. Unlimited if 0.
+         */
+        public SimulatedSqlAgentBuilder maxWorkers(int maxWorkers) {
+            this.nestedMaxWorkers = maxWorkers;
+            return this;
+        }
+
+        /**
+         * Max open connections, the server refuses the others. Unlimited if 0.
+         */
+        public SimulatedSqlAgentBuilder maxConnections(int maxConnections) {
+            this.nestedMaxConnections = maxConnections;
+            return this;
+        }
+
+        public SimulatedSqlAgent build() {
+            if (this.nestedJobs <= 0 || this.nestedMinDurationMillis < 0 || this.nestedMaxDurationMillis < this.nestedMinDurationMillis
+                    || this.nestedLatencyP99Millis < this.nestedLatencyMedianMillis) {
+                throw new IllegalArgumentException("Invalid simulated agent: jobs=" + nestedJobs + ", duration=["
+                        + nestedMinDurationMillis + ", " + nestedMaxDurationMillis + "], latency median="
+                        + nestedLatencyMedianMillis + ", p99=" + nestedLatencyP99Millis);
+            }
+            SimulatedSqlAgent agent = new SimulatedSqlAgent();
+            for (int i = 0; i < this.nestedJobs; i++) {
+                Job job = new Job(String.format("%08X-5EED-4A6E-8000-000000000000", i), "job-" + i);
+                agent.jobsById.put(job.id, job);
+                agent.jobsByName.put(job.name, job);
+                agent.jobNames.add(job.name);
+            }
+            agent.minDurationMillis = this.nestedMinDurationMillis;
+            agent.maxDurationMillis = this.nestedMaxDurationMillis;
+            agent.failureRate = this.nestedFailureRate;
+            agent.errorRate = this.nestedErrorRate;
+            agent.latencyEnabled = this.nestedLatencyMedianMillis > 0;
+            if (agent.latencyEnabled) {
+                agent.latencyMu = Math.log(this.nestedLatencyMedianMillis);
+                agent.latencySigma = Math.log((double) this.nestedLatencyP99Millis / this.nestedLatencyMedianMillis) / P99_Z_SCORE;
+            }
+            agent.pickupDelayMillis = this.nestedPickupDelayMillis;
+            agent.maxWorkers = this.nestedMaxWorkers;
+            agent.maxConnections = this.nestedMaxConnections;
+
+            return agent;
+        }
+    }
+}
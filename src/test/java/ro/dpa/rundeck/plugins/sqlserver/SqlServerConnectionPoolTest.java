@@ -0,0 +1,367 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SqlServerConnectionPoolTest {
+
+    private List<TrackingConnection> created;
+    private int connectAttempts;
+    private List<AuthenticationMode> connectAuthentications;
+    //thrown by the connection factory if set
+    private SQLException connectFailure;
+    private SqlServerConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        created = new ArrayList<>();
+        connectAuthentications = new ArrayList<>();
+        pool = new SqlServerConnectionPool(new SqlServerConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection create(String host, int port, String user, String password,
+                                     AuthenticationMode authentication) throws SQLException {
+                connectAttempts++;
+                connectAuthentications.add(authentication);
+                if (connectFailure != null) {
+                    throw connectFailure;
+                }
+                TrackingConnection conn = new TrackingConnection();
+                created.add(conn);
+                return conn;
+            }
+        }, 2, 60000, 100, 3, 200);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testReleasedConnectionIsReused() throws Exception {
+        PooledConnection first = pool.borrow("server", 1433, "user", "password");
+        pool.release(first);
+        PooledConnection second = pool.borrow("SERVER", 1433, "user", "password");
+
+        assertSame(first.getConnection(), second.getConnection());
+        assertEquals(1, created.size());
+    }
+
+    @Test
+    public void testDifferentCredentialsDoNotShareConnections() throws Exception {
+        pool.release(pool.borrow("server", 1433, "user", "password"));
+        pool.borrow("server", 1433, "user", "wrongPassword");
+
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void testSsisDaoConnectsWithWindowsAuthentication() throws Exception {
+        new SsisPackageDaoImpl(pool, "server", 1433, "CORP\\svc_ssis", "password", AuthenticationMode.NTLM).close();
+        pool.release(pool.borrow("server", 1433, "CORP\\svc_ssis", "password"));
+
+        assertEquals(Arrays.asList(AuthenticationMode.NTLM, AuthenticationMode.SQL_SERVER), connectAuthentications);
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void testConnectionUrl() {
+        assertEquals("jdbc:sqlserver://server:1433;integratedSecurity=true;authenticationScheme=NTLM;domain=CORP;"
+                        + "user=svc_ssis;password=secret;",
+                SqlServerConnectionPool.connectionUrl("server", 1433, "CORP\\svc_ssis", "secret", AuthenticationMode.NTLM));
+        assertEquals("jdbc:sqlserver://server:1433;integratedSecurity=true;authenticationScheme=NTLM;"
+                        + "user=svc_ssis;password=secret;",
+                SqlServerConnectionPool.connectionUrl("server", 1433, "svc_ssis", "secret", AuthenticationMode.NTLM));
+        assertEquals("jdbc:sqlserver://server:1433;username=sa;password=secret;",
+                SqlServerConnectionPool.connectionUrl("server", 1433, "sa", "secret", AuthenticationMode.SQL_SERVER));
+    }
+
+    @Test
+    public void testBorrowTimesOutWhenServerIsAtMaxSize() throws Exception {
+        pool.borrow("server", 1433, "user", "password");
+        pool.borrow("server", 1433, "user", "password");
+        try {
+            pool.borrow("server", 1433, "user", "password");
+            fail("The pool is exhausted");
+        } catch (SQLTransientConnectionException ex) {
+            //the running jobs are checked again once a connection is free
+            assertTrue(TransientErrorRecovery.isTransient(ex));
+        }
+    }
+
+    @Test
+    public void testInvalidConnectionIsReplacedOnBorrow() throws Exception {
+        PooledConnection first = pool.borrow("server", 1433, "user", "password");
+        pool.release(first);
+        first.markReturned(0);
+        created.get(0).valid = false;
+
+        PooledConnection second = pool.borrow("server", 1433, "user", "password");
+
+        assertNotSame(first.getConnection(), second.getConnection());
+        assertTrue(created.get(0).closed);
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        PooledConnection pooled = pool.borrow("server", 1433, "user", "password");
+        pool.release(pooled);
+        pooled.markReturned(System.currentTimeMillis() - 120000);
+
+        pool.evictIdle();
+
+        assertTrue(created.get(0).closed);
+        assertEquals(0, pool.getIdleCount("server", 1433, "user", "password"));
+    }
+
+    @Test
+    public void testShutdownClosesIdleAndReleasedConnections() throws Exception {
+        PooledConnection idle = pool.borrow("server", 1433, "user", "password");
+        PooledConnection inUse = pool.borrow("server", 1433, "user", "password");
+        pool.release(idle);
+
+        pool.shutdown();
+        assertTrue(created.get(0).closed);
+        assertFalse(created.get(1).closed);
+
+        pool.release(inUse);
+        assertTrue(created.get(1).closed);
+    }
+
+    @Test
+    public void testStatementIsPreparedOncePerConnection() throws Exception {
+        PooledConnection pooled = pool.borrow("server", 1433, "user", "password");
+        PreparedStatement first = pooled.prepareStatement("SELECT 1");
+        pool.release(pooled);
+        pooled = pool.borrow("server", 1433, "user", "password");
+        PreparedStatement second = pooled.prepareStatement("SELECT 1");
+
+        assertSame(first, second);
+        assertEquals(Arrays.asList("SELECT 1"), created.get(0).preparedSql);
+    }
+
+    @Test
+    public void testDaoCallsReuseTheCachedStatement() throws Exception {
+        try (SqlServerJobDao dao = new SqlServerJobDaoImpl(pool, "server", 1433, "user", "password")) {
+            dao.stopJob("job-1");
+        }
+        try (SqlServerJobDao dao = new SqlServerJobDaoImpl(pool, "server", 1433, "user", "password")) {
+            dao.stopJob("job-2");
+        }
+
+        //the job id is a parameter, so both calls run the same statement
+        assertEquals(1, created.size());
+        assertEquals(1, created.get(0).preparedSql.size());
+    }
+
+    @Test
+    public void testClosedDaoBorrowsTheConnectionAgain() throws Exception {
+        SqlServerJobDao dao = new SqlServerJobDaoImpl(pool, "server", 1433, "user", "password");
+        dao.stopJob("job-1");
+        dao.close();
+        assertEquals(1, pool.getIdleCount("server", 1433, "user", "password"));
+
+        dao.stopJob("job-2");
+        assertEquals(0, pool.getIdleCount("server", 1433, "user", "password"));
+        dao.close();
+        //closing twice doesn't hand the connection back twice
+        dao.close();
+
+        assertEquals(1, created.size());
+        assertEquals(1, pool.getIdleCount("server", 1433, "user", "password"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStatementIsClosedWhenCacheIsFull() throws Exception {
+        PooledConnection pooled = pool.borrow("server", 1433, "user", "password");
+        List<PreparedStatement> statements = new ArrayList<>();
+        for (int i = 0; i < PooledConnection.STATEMENT_CACHE_SIZE; i++) {
+            statements.add(pooled.prepareStatement("SELECT " + i));
+        }
+        //used again, so the second statement is now the least recently used
+        pooled.prepareStatement("SELECT 0");
+
+        pooled.prepareStatement("SELECT " + PooledConnection.STATEMENT_CACHE_SIZE);
+
+        assertFalse(statements.get(0).isClosed());
+        assertTrue(statements.get(1).isClosed());
+        assertFalse(statements.get(2).isClosed());
+        PreparedStatement prepared = pooled.prepareStatement("SELECT 1");
+        assertNotSame(statements.get(1), prepared);
+        assertFalse(prepared.isClosed());
+    }
+
+    @Test
+    public void testCachedStatementsAreClosedWithTheConnection() throws Exception {
+        PooledConnection pooled = pool.borrow("server", 1433, "user", "password");
+        PreparedStatement stmt = pooled.prepareStatement("SELECT 1");
+        PreparedStatement call = pooled.prepareCall("{call sp_help_job}");
+        pool.release(pooled);
+        pooled.markReturned(System.currentTimeMillis() - 120000);
+
+        pool.evictIdle();
+
+        assertTrue(created.get(0).closed);
+        assertTrue(stmt.isClosed());
+        assertTrue(call.isClosed());
+    }
+
+    @Test
+    public void testUnreachableServerFailsFastUntilProbeSucceeds() throws Exception {
+        connectFailure = new SQLException("The TCP/IP connection to the host server, port 1433 has failed", "08S01");
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.borrow("server", 1433, "user", "password");
+                fail("The server is unreachable");
+            } catch (ServerUnavailableException ex) {
+                fail("The breaker opens after 3 failures");
+            } catch (SQLException ex) {
+                assertSame(connectFailure, ex);
+            }
+        }
+
+        //other credentials don't get through either, and the permits were given back
+        for (int i = 0; i < 5; i++) {
+            try {
+                pool.borrow("server", 1433, i % 2 == 0 ? "user" : "otherUser", "password");
+                fail("The breaker is open");
+            } catch (ServerUnavailableException ex) {
+                assertTrue(ex.getRetryAfterMillis() <= 200);
+                assertTrue(ex.getMessage().contains("has failed"));
+            }
+        }
+        assertEquals(3, connectAttempts);
+
+        //the first borrow after the open interval probes the server, the others still fail fast until it succeeds
+        Thread.sleep(250);
+        connectFailure = null;
+        PooledConnection probe = pool.borrow("server", 1433, "user", "password");
+        assertEquals(4, connectAttempts);
+        pool.release(probe);
+        pool.release(pool.borrow("server", 1433, "otherUser", "password"));
+        assertEquals(5, connectAttempts);
+    }
+
+    @Test
+    public void testFailedProbeKeepsTheBreakerOpen() throws Exception {
+        connectFailure = new SQLException("Connection refused", "08S01");
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.borrow("server", 1433, "user", "password");
+            } catch (SQLException ex) {
+                //expected
+            }
+        }
+        Thread.sleep(250);
+        try {
+            pool.borrow("server", 1433, "user", "password");
+            fail("The probe fails");
+        } catch (ServerUnavailableException ex) {
+            fail("The probe is let through");
+        } catch (SQLException ex) {
+            assertSame(connectFailure, ex);
+        }
+        try {
+            pool.borrow("server", 1433, "user", "password");
+            fail("The breaker opens again after a failed probe");
+        } catch (ServerUnavailableException ex) {
+            assertEquals(4, connectAttempts);
+        }
+    }
+
+    @Test
+    public void testRejectedLoginDoesNotOpenTheBreaker() throws Exception {
+        connectFailure = new SQLException("Login failed for user 'user'", "S0001", 18456);
+        for (int i = 0; i < 5; i++) {
+            try {
+                pool.borrow("server", 1433, "user", "wrongPassword");
+                fail("The login is rejected");
+            } catch (ServerUnavailableException ex) {
+                fail("The server is reachable");
+            } catch (SQLException ex) {
+                assertSame(connectFailure, ex);
+            }
+        }
+        assertEquals(5, connectAttempts);
+    }
+
+    private static class TrackingConnection extends FakeConnection {
+        private boolean valid = true;
+        private boolean closed;
+        private final List<String> preparedSql = new ArrayList<>();
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) {
+            preparedSql.add(sql);
+            return trackingStatement(PreparedStatement.class);
+        }
+
+        @Override
+        public CallableStatement prepareCall(String sql) {
+            preparedSql.add(sql);
+            return trackingStatement(CallableStatement.class);
+        }
+
+        @Override
+        public boolean isValid(int timeout) {
+            return valid;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /**
+     * Statement that can be closed, and executed without results, e.g. sp_stop_job
+     */
+    private static <T extends PreparedStatement> T trackingStatement(Class<T> type) {
+        final boolean[] closed = new boolean[1];
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "close":
+                        closed[0] = true;
+                        return null;
+                    case "isClosed":
+                        return closed[0];
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "execute":
+                        return false;
+                    case "toString":
+                        return "TrackingStatement{closed=" + closed[0] + '}';
+                    default:
+                        if (method.getName().startsWith("set")) {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,93 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+@RunWith(PowerMockRunner.class)
+//the metrics are registered in the platform MBean server, which must be loaded by the system class loader
+@PowerMockIgnore("javax.management.*")
+public class SqlServerJobGroupTest {
+
+    private SqlServerJob buildSqlServerJob(SqlServerJobDao dao) throws Exception {
+        SqlServerJob.SqlServerJobBuilder builder = new SqlServerJob.SqlServerJobBuilder();
+        SqlServerJob job = PowerMockito.spy(builder.jobName("jobName")
+                .statusQueryMode(StatusQueryMode.ACTIVITY)
+                .stepName("step")
+                .serverName("server")
+                .userName("username")
+                .password("password")
+                .port(9999)
+                .build());
+        PowerMockito.doReturn(dao).when(job, "getSqlServerJobDao");
+        return job;
+    }
+
+    @Test
+    public void testAllJobsSucceed() throws Exception {
+        SqlServerJobGroup group = new SqlServerJobGroup.SqlServerJobGroupBuilder()
+                .job(this.buildSqlServerJob(new SuccessSqlServerJobDao()))
+                .job(this.buildSqlServerJob(new SuccessSqlServerJobDao()))
+                .job(this.buildSqlServerJob(new SuccessSqlServerJobDao()))
+                .maxParallelism(2)
+                .build();
+
+        group.execute();
+    }
+
+    @Test
+    public void testCollectAllReportsEveryFailure() throws Exception {
+        SqlServerJobGroup group = new SqlServerJobGroup.SqlServerJobGroupBuilder()
+                .job(this.buildSqlServerJob(new FailedSqlServerJobDao()))
+                .job(this.buildSqlServerJob(new SuccessSqlServerJobDao()))
+                .job(this.buildSqlServerJob(new FailedSqlServerJobDao()))
+                .errorMode(SqlServerJobGroup.ErrorMode.COLLECT_ALL)
+                .build();
+
+        try {
+            group.execute();
+            fail("Expected the group to fail");
+        } catch (SQLException ex) {
+            assertNotNull(ex.getNextException());
+            assertNotNull(ex.getNextException().getNextException());
+            assertEquals(null, ex.getNextException().getNextException().getNextException());
+        }
+    }
+
+    @Test
+    public void testAnySucceedsDespiteFailures() throws Exception {
+        SqlServerJobGroup group = new SqlServerJobGroup.SqlServerJobGroupBuilder()
+                .job(this.buildSqlServerJob(new FailedSqlServerJobDao()))
+                .job(this.buildSqlServerJob(new SuccessSqlServerJobDao()))
+                .waitMode(SqlServerJobGroup.WaitMode.ANY)
+                .errorMode(SqlServerJobGroup.ErrorMode.COLLECT_ALL)
+                .maxParallelism(1)
+                .build();
+
+        group.execute();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testFailFast() throws Exception {
+        SqlServerJobGroup group = new SqlServerJobGroup.SqlServerJobGroupBuilder()
+                .job(this.buildSqlServerJob(new FailedSqlServerJobDao()))
+                .job(this.buildSqlServerJob(new SuccessSqlServerJobDao()))
+                .build();
+
+        group.execute();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testEmptyGroup() throws Exception {
+        new SqlServerJobGroup.SqlServerJobGroupBuilder().build();
+    }
+}
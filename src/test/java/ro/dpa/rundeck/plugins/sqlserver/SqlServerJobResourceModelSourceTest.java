@@ -0,0 +1,120 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.common.INodeSet;
+import com.dtolabs.rundeck.core.resources.ResourceModelSourceException;
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+public class SqlServerJobResourceModelSourceTest {
+
+    /**
+     * Serves the servers from the simulated agent, except the ones made to fail or hang
+     */
+    private static class ServerFaults implements SqlServerJobDaoFactory {
+        private final SimulatedSqlAgent agent;
+        private volatile String failingServer;
+        private volatile String hangingServer;
+
+        ServerFaults(SimulatedSqlAgent agent) {
+            this.agent = agent;
+        }
+
+        @Override
+        public SqlServerJobDao create(String serverName, int port, String userName, String password) throws SQLException {
+            if (serverName.equals(failingServer)) {
+                throw new SQLException("Login timeout expired", "08S01");
+            }
+            if (serverName.equals(hangingServer)) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException ex) {
+                    throw new SQLException("Interrupted", ex);
+                }
+            }
+            return agent.create(serverName, port, userName, password);
+        }
+    }
+
+    private SqlServerJobResourceModelSource buildSource(SqlServerJobDaoFactory daoFactory, String... servers) throws Exception {
+        SqlServerJobResourceModelSource.SqlServerJobResourceModelSourceBuilder builder =
+                new SqlServerJobResourceModelSource.SqlServerJobResourceModelSourceBuilder()
+                        .userName("rundeck")
+                        .password("secret")
+                        .maxParallelism(2)
+                        .serverTimeoutMillis(300)
+                        .daoFactory(daoFactory);
+        for (String server : servers) {
+            builder.server(server, 1433);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testJobsOfEveryServerAreListed() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(3).jobDurationMillis(10, 10).build();
+        SqlServerJobResourceModelSource source = this.buildSource(agent, "inventory-a", "inventory-b", "inventory-c");
+
+        INodeSet nodes = source.getNodes();
+
+        assertEquals(9, nodes.getNodes().size());
+        INodeEntry node = nodes.getNode("inventory-b:1433/job-1");
+        assertEquals("inventory-b", node.getHostname());
+        assertEquals("job-1", node.getAttributes().get(SqlServerJobResourceModelSource.JOB_NAME_ATTRIBUTE));
+        assertEquals("Unknown", node.getAttributes().get(SqlServerJobResourceModelSource.LAST_OUTCOME_ATTRIBUTE));
+        assertTrue(node.getTags().contains(SqlServerJobResourceModelSource.JOB_TAG));
+
+        //the outcome of a new run is listed by the next refresh
+        new SqlServerJob.SqlServerJobBuilder()
+                .serverName("inventory-b")
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName("job-1")
+                .statusQueryMode(StatusQueryMode.ACTIVITY)
+                .daoFactory(agent)
+                .build()
+                .execute();
+        node = source.getNodes().getNode("inventory-b:1433/job-1");
+        assertEquals("Succeeded", node.getAttributes().get(SqlServerJobResourceModelSource.LAST_OUTCOME_ATTRIBUTE));
+        assertTrue(node.getTags().contains("last-succeeded"));
+    }
+
+    @Test
+    public void testFailedServerKeepsItsPreviousJobs() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(2).build();
+        ServerFaults faults = new ServerFaults(agent);
+        SqlServerJobResourceModelSource source = this.buildSource(faults, "flaky-a", "flaky-b");
+        assertEquals(4, source.getNodes().getNodes().size());
+
+        faults.failingServer = "flaky-a";
+
+        assertEquals(4, source.getNodes().getNodes().size());
+    }
+
+    @Test
+    public void testHangingServerTimesOut() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(2).build();
+        ServerFaults faults = new ServerFaults(agent);
+        faults.hangingServer = "hanging-a";
+        SqlServerJobResourceModelSource source = this.buildSource(faults, "hanging-a", "hanging-b", "hanging-c");
+
+        long startedAt = System.currentTimeMillis();
+        INodeSet nodes = source.getNodes();
+
+        assertTrue(System.currentTimeMillis() - startedAt < 5000);
+        assertEquals(4, nodes.getNodes().size());
+        assertNull(nodes.getNode("hanging-a:1433/job-0"));
+    }
+
+    @Test(expected = ResourceModelSourceException.class)
+    public void testNoServerAnswers() throws Exception {
+        ServerFaults faults = new ServerFaults(new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(2).build());
+        faults.failingServer = "down-a";
+
+        this.buildSource(faults, "down-a").getNodes();
+    }
+}
@@ -4,19 +4,35 @@ import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by dumitru.pascu on 3/29/2017.
  */
 @RunWith(PowerMockRunner.class)
+//the metrics are registered in the platform MBean server, which must be loaded by the system class loader
+@PowerMockIgnore("javax.management.*")
 public class SqlServerJobTest {
 
     private SqlServerJob buildValidSqlServerJob() throws ConfigurationException {
+        return this.buildValidSqlServerJob(StatusQueryMode.HELP_JOB);
+    }
+
+    private SqlServerJob buildValidSqlServerJob(StatusQueryMode statusQueryMode) throws ConfigurationException {
         SqlServerJob.SqlServerJobBuilder builder = new SqlServerJob.SqlServerJobBuilder();
         return builder.jobName("jobName")
+                .statusQueryMode(statusQueryMode)
                 .stepName("step")
                 .serverName("server")
                 .userName("username")
@@ -54,8 +70,193 @@ public class SqlServerJobTest {
         jobUnderTest.execute();
     }
 
+    @Test
+    public void testSuccessulExecutionWithActivityQuery() throws Exception {
+        SqlServerJobDao mockDao = new SuccessSqlServerJobDao();
+        SqlServerJob jobUnderTest = PowerMockito.spy(this.buildValidSqlServerJob(StatusQueryMode.ACTIVITY));
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testFailedExecutionWithActivityQuery() throws Exception {
+        SqlServerJobDao mockDao = new FailedSqlServerJobDao();
+        SqlServerJob jobUnderTest = PowerMockito.spy(this.buildValidSqlServerJob(StatusQueryMode.ACTIVITY));
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+    }
+
+    @Test
+    public void testSuccessulExecutionWithLongPoll() throws Exception {
+        SqlServerJobDao mockDao = new SuccessSqlServerJobDao();
+        SqlServerJob jobUnderTest = PowerMockito.spy(new SqlServerJob.SqlServerJobBuilder()
+                .jobName("jobName")
+                .serverName("server")
+                .userName("username")
+                .password("password")
+                .port(9999)
+                .completionDetectionMode(CompletionDetectionMode.LONG_POLL)
+                .build());
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testUnknownStepFailsBeforeStartingTheJob() throws Exception {
+        SqlServerJobDao mockDao = new SuccessSqlServerJobDao() {
+            @Override
+            public void startJob(String jobId, String stepName) throws SQLException {
+                throw new AssertionError("The job should not be started");
+            }
+        };
+        SqlServerJob jobUnderTest = PowerMockito.spy(new SqlServerJob.SqlServerJobBuilder()
+                .jobName("jobName")
+                .stepName("missingStep")
+                .serverName("server")
+                .userName("username")
+                .password("password")
+                .port(9999)
+                .build());
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+    }
+
+    @Test
+    public void testStepHistoryIsStreamedOnce() throws Exception {
+        RecordingProgressListener listener = new RecordingProgressListener();
+        SqlServerJob jobUnderTest = PowerMockito.spy(new SqlServerJob.SqlServerJobBuilder()
+                .jobName("jobName")
+                .serverName("server")
+                .userName("username")
+                .password("password")
+                .port(9999)
+                .statusQueryMode(StatusQueryMode.ACTIVITY)
+                .progressListener(listener)
+                .build());
+        PowerMockito.doReturn(new SuccessSqlServerJobDao()).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+
+        assertEquals(2, listener.history.size());
+        assertEquals(11, listener.history.get(0).getInstanceId());
+        assertTrue(listener.history.get(1).isJobOutcome());
+    }
+
+    @Test
+    public void testFailureReportsTheFailedStep() throws Exception {
+        RecordingProgressListener listener = new RecordingProgressListener();
+        SqlServerJob jobUnderTest = PowerMockito.spy(new SqlServerJob.SqlServerJobBuilder()
+                .jobName("jobName")
+                .serverName("server")
+                .userName("username")
+                .password("password")
+                .port(9999)
+                .statusQueryMode(StatusQueryMode.ACTIVITY)
+                .progressListener(listener)
+                .build());
+        PowerMockito.doReturn(new FailedSqlServerJobDao()).when(jobUnderTest, "getSqlServerJobDao");
+        try {
+            jobUnderTest.execute();
+            fail("Expected the job to fail");
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("at step 'step'"));
+        }
+    }
+
+    @Test
+    public void testTransientErrorsWhileMonitoringResumeTheSameRun() throws Exception {
+        final int[] startCount = new int[1];
+        final int[] statusChecks = new int[1];
+        SqlServerJobDao mockDao = new SuccessSqlServerJobDao() {
+            @Override
+            public void startJob(String jobId, String stepName) throws SQLException {
+                startCount[0]++;
+            }
+
+            @Override
+            public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+                statusChecks[0]++;
+                if (statusChecks[0] == 1) {
+                    throw new SQLException("Transaction was deadlocked on lock resources with another process " +
+                            "and has been chosen as the deadlock victim", "40001", 1205);
+                }
+                return super.getJobRunStatus(jobId, requestedAfter);
+            }
+        };
+        SqlServerJob jobUnderTest = PowerMockito.spy(this.buildValidSqlServerJob(StatusQueryMode.ACTIVITY));
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+
+        assertEquals(1, startCount[0]);
+        assertEquals(2, statusChecks[0]);
+    }
+
+    @Test
+    public void testConnectionLossDuringLongPollResumesTheSameRun() throws Exception {
+        final int[] startCount = new int[1];
+        final int[] waits = new int[1];
+        SqlServerJobDao mockDao = new SuccessSqlServerJobDao() {
+            @Override
+            public void startJob(String jobId, String stepName) throws SQLException {
+                startCount[0]++;
+            }
+
+            @Override
+            public JobRunStatus waitForJobRunCompletion(String jobId, Timestamp requestedAfter, int timeoutSeconds)
+                    throws SQLException {
+                waits[0]++;
+                if (waits[0] == 1) {
+                    throw new SQLException("Connection reset", "08S01");
+                }
+                return super.waitForJobRunCompletion(jobId, requestedAfter, timeoutSeconds);
+            }
+        };
+        SqlServerJob jobUnderTest = PowerMockito.spy(new SqlServerJob.SqlServerJobBuilder()
+                .jobName("jobName")
+                .serverName("server")
+                .userName("username")
+                .password("password")
+                .port(9999)
+                .completionDetectionMode(CompletionDetectionMode.LONG_POLL)
+                .build());
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        jobUnderTest.execute();
+
+        assertEquals(1, startCount[0]);
+        assertEquals(2, waits[0]);
+    }
+
+    @Test
+    public void testOtherErrorsWhileMonitoringFailTheStep() throws Exception {
+        final SQLException invalidObject = new SQLException("Invalid object name 'msdb.dbo.sysjobactivity'", "S0002", 208);
+        SqlServerJobDao mockDao = new SuccessSqlServerJobDao() {
+            @Override
+            public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+                throw invalidObject;
+            }
+        };
+        SqlServerJob jobUnderTest = PowerMockito.spy(this.buildValidSqlServerJob(StatusQueryMode.ACTIVITY));
+        PowerMockito.doReturn(mockDao).when(jobUnderTest, "getSqlServerJobDao");
+        try {
+            jobUnderTest.execute();
+            fail("Expected the step to fail");
+        } catch (SQLException ex) {
+            assertEquals(invalidObject, ex.getCause());
+        }
+        assertFalse(TransientErrorRecovery.isTransient(invalidObject));
+        assertTrue(TransientErrorRecovery.isTransient(new SQLException("Could not monitor", new SQLException("Failover", "S0001", 983))));
+    }
+
     @Test(expected = ConfigurationException.class)
     public void testFailedJobConfiguration() throws ConfigurationException {
         this.buildInvalidSqlServerJob();
     }
+
+    private static class RecordingProgressListener implements JobProgressListener {
+        private final List<JobStepHistory> history = new ArrayList<>();
+
+        @Override
+        public void onStepHistory(String jobName, JobStepHistory row) {
+            history.add(row);
+        }
+    }
 }
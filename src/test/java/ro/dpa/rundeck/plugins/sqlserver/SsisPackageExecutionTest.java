@@ -0,0 +1,202 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import com.dtolabs.rundeck.core.plugins.configuration.ConfigurationException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(PowerMockRunner.class)
+public class SsisPackageExecutionTest {
+
+    private SsisPackageExecution buildSsisPackageExecution(SsisEventMessageListener listener) throws ConfigurationException {
+        return this.newBuilder(listener).build();
+    }
+
+    private SsisPackageExecution.SsisPackageExecutionBuilder newBuilder(SsisEventMessageListener listener) {
+        return new SsisPackageExecution.SsisPackageExecutionBuilder()
+                .serverName("server")
+                .port(9999)
+                .userName("username")
+                .password("password")
+                .folderName("folder")
+                .projectName("project")
+                .packageName("package.dtsx")
+                .parameter("$Project::ConnectionString", "Data Source=server;Initial Catalog=db")
+                .parameter("$ServerOption::LOGGING_LEVEL", "1")
+                .parameter("BatchSize", "1000")
+                .maxPollIntervalMillis(1000)
+                .messageListener(listener);
+    }
+
+    @Test
+    public void testSuccessfulExecution() throws Exception {
+        FakeSsisPackageDao dao = new FakeSsisPackageDao(SsisExecutionStatus.Succeeded);
+        RecordingMessageListener listener = new RecordingMessageListener();
+        SsisPackageExecution executionUnderTest = PowerMockito.spy(this.buildSsisPackageExecution(listener));
+        PowerMockito.doReturn(dao).when(executionUnderTest, "getSsisPackageDao");
+
+        executionUnderTest.execute();
+
+        assertEquals(42, executionUnderTest.getExecutionId());
+        assertEquals("[20:ConnectionString=Data Source=server;Initial Catalog=db, 50:LOGGING_LEVEL=1, 30:BatchSize=1000]",
+                dao.parameters.toString());
+        //each message is streamed once, although the status was checked twice
+        assertEquals(2, listener.messages.size());
+    }
+
+    @Test
+    public void testFailedExecutionReportsTheLastError() throws Exception {
+        FakeSsisPackageDao dao = new FakeSsisPackageDao(SsisExecutionStatus.Failed);
+        SsisPackageExecution executionUnderTest = PowerMockito.spy(this.buildSsisPackageExecution(new RecordingMessageListener()));
+        PowerMockito.doReturn(dao).when(executionUnderTest, "getSsisPackageDao");
+
+        try {
+            executionUnderTest.execute();
+            fail("Expected the execution to fail");
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Data flow failed"));
+        }
+    }
+
+    @Test
+    public void testExecutionNotFoundFailsAfterAFewChecks() throws Exception {
+        FakeSsisPackageDao dao = new FakeSsisPackageDao(SsisExecutionStatus.Unknown);
+        SsisPackageExecution executionUnderTest = PowerMockito.spy(this.buildSsisPackageExecution(new RecordingMessageListener()));
+        PowerMockito.doReturn(dao).when(executionUnderTest, "getSsisPackageDao");
+
+        try {
+            executionUnderTest.execute();
+            fail("Expected the execution to fail");
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("not found in SSISDB.catalog.executions"));
+        }
+        assertEquals(3, dao.statusChecks);
+    }
+
+    @Test
+    public void testTimeoutStopsTheExecution() throws Exception {
+        FakeSsisPackageDao dao = new FakeSsisPackageDao(SsisExecutionStatus.Running);
+        SsisPackageExecution executionUnderTest = PowerMockito.spy(this.newBuilder(new RecordingMessageListener())
+                .timeoutMillis(1500)
+                .build());
+        PowerMockito.doReturn(dao).when(executionUnderTest, "getSsisPackageDao");
+
+        try {
+            executionUnderTest.execute();
+            fail("Expected the execution to time out");
+        } catch (SQLTimeoutException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("was stopped"));
+        }
+        assertTrue(dao.stopped);
+    }
+
+    @Test
+    public void testTransientErrorIsRecovered() throws Exception {
+        FakeSsisPackageDao dao = new FakeSsisPackageDao(SsisExecutionStatus.Succeeded);
+        dao.failure = new SQLException("Connection reset", "08S01");
+        SsisPackageExecution executionUnderTest = PowerMockito.spy(this.buildSsisPackageExecution(new RecordingMessageListener()));
+        PowerMockito.doReturn(dao).when(executionUnderTest, "getSsisPackageDao");
+
+        executionUnderTest.execute();
+
+        //the failed check, then the one that finds the package finished
+        assertEquals(2, dao.statusChecks);
+        assertFalse(dao.stopped);
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testMissingPackage() throws ConfigurationException {
+        new SsisPackageExecution.SsisPackageExecutionBuilder()
+                .serverName("server")
+                .port(9999)
+                .userName("username")
+                .password("password")
+                .folderName("folder")
+                .projectName("project")
+                .build();
+    }
+
+    private static class FakeSsisPackageDao implements SsisPackageDao {
+        private final SsisExecutionStatus finalStatus;
+        private final List<String> parameters = new ArrayList<>();
+        private int statusChecks;
+        //thrown by the first status check if set
+        private SQLException failure;
+        private boolean stopped;
+
+        FakeSsisPackageDao(SsisExecutionStatus finalStatus) {
+            this.finalStatus = finalStatus;
+        }
+
+        @Override
+        public long createExecution(String folderName, String projectName, String packageName, boolean use32BitRuntime,
+                                    Long referenceId) throws SQLException {
+            return 42;
+        }
+
+        @Override
+        public void setExecutionParameterValue(long executionId, int objectType, String parameterName, String value) throws SQLException {
+            parameters.add(objectType + ":" + parameterName + "=" + value);
+        }
+
+        @Override
+        public void startExecution(long executionId) throws SQLException {
+
+        }
+
+        @Override
+        public SsisExecutionStatus getExecutionStatus(long executionId, SsisEventMessageFeed feed) throws SQLException {
+            statusChecks++;
+            if (stopped) {
+                return SsisExecutionStatus.Canceled;
+            }
+            if (failure != null) {
+                SQLException ex = failure;
+                failure = null;
+                throw ex;
+            }
+            if (finalStatus == SsisExecutionStatus.Unknown) {
+                return finalStatus;
+            }
+            //the DAO returns all the messages above the high-water mark, the feed skips the ones already seen
+            feed.accept(new SsisEventMessage(1, 70, "package", "Validation has started."));
+            if (statusChecks == 1) {
+                return SsisExecutionStatus.Running;
+            }
+            feed.accept(finalStatus == SsisExecutionStatus.Failed
+                    ? new SsisEventMessage(2, SsisEventMessage.ERROR, "Data Flow Task", "Data flow failed")
+                    : new SsisEventMessage(2, 70, "package", "Finished, success."));
+            return finalStatus;
+        }
+
+        @Override
+        public void stopOperation(long executionId) throws SQLException {
+            stopped = true;
+        }
+
+        @Override
+        public void close() throws SQLException {
+
+        }
+    }
+
+    private static class RecordingMessageListener implements SsisEventMessageListener {
+        private final List<SsisEventMessage> messages = new ArrayList<>();
+
+        @Override
+        public void onEventMessage(String packageName, SsisEventMessage message) {
+            messages.add(message);
+        }
+    }
+}
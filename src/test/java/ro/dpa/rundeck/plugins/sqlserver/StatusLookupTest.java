@@ -0,0 +1,40 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatusLookupTest {
+
+    @Test
+    public void testEveryCodeMapsBackToItsStatus() {
+        for (ExecutionStatus status : ExecutionStatus.values()) {
+            assertSame(status, ExecutionStatus.valueOf(status.value()));
+        }
+        for (CurrentExecutionStatus status : CurrentExecutionStatus.values()) {
+            assertSame(status, CurrentExecutionStatus.valueOf(status.value()));
+        }
+        for (SsisExecutionStatus status : SsisExecutionStatus.values()) {
+            assertSame(status, SsisExecutionStatus.valueOf(status.value()));
+        }
+    }
+
+    @Test
+    public void testUndefinedCodesAreUnknown() {
+        for (int code : new int[]{-5, -1, 0, 10, 100, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertSame(CurrentExecutionStatus.Unknown, CurrentExecutionStatus.valueOf(code));
+            assertSame(SsisExecutionStatus.Unknown, SsisExecutionStatus.valueOf(code));
+        }
+        assertSame(ExecutionStatus.Unknown, ExecutionStatus.valueOf(-1));
+        assertSame(ExecutionStatus.Unknown, ExecutionStatus.valueOf(6));
+    }
+
+    @Test
+    public void testUnfinishedStatusesAreShared() {
+        JobRunStatus status = JobRunStatus.unfinished(CurrentExecutionStatus.Executing);
+
+        assertSame(status, JobRunStatus.unfinished(CurrentExecutionStatus.Executing));
+        assertSame(CurrentExecutionStatus.Executing, status.getCurrentStatus());
+        assertFalse(status.isFinished());
+    }
+}
@@ -0,0 +1,119 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StepOutputFeedTest {
+
+    private static class RecordingOutputListener implements StepOutputListener {
+        private final List<String> lines = new ArrayList<>();
+
+        @Override
+        public void onStepOutputLine(String jobName, int stepId, String stepName, String line) {
+            lines.add(stepId + ":" + line);
+        }
+    }
+
+    /**
+     * A log of the given size, generated while it is read like the driver streams it from the server
+     */
+    private static class GeneratedLog extends Reader {
+        private static final String LINE = "Processed batch of 10000 rows into dbo.FactSales\r\n";
+        private final long size;
+        private long position;
+        private int largestRead;
+
+        GeneratedLog(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position >= size) {
+                return -1;
+            }
+            int count = (int) Math.min(length, size - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = LINE.charAt((int) (position++ % LINE.length()));
+            }
+            largestRead = Math.max(largestRead, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    @Test
+    public void testLinesAreSplitAcrossChunks() throws Exception {
+        RecordingOutputListener listener = new RecordingOutputListener();
+        StepOutputFeed feed = new StepOutputFeed("job", listener);
+
+        feed.accept(1, "load", new StringReader("first\r\nsecond\n\nlast"));
+        feed.accept(2, "report", new StringReader("only\r\n"));
+
+        assertEquals("[1:first, 1:second, 1:, 1:last, 2:only]", listener.lines.toString());
+    }
+
+    @Test
+    public void testLongLinesAreSplit() throws Exception {
+        RecordingOutputListener listener = new RecordingOutputListener();
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < StepOutputFeed.MAX_LINE_CHARS * 2 + 10; i++) {
+            log.append('x');
+        }
+
+        new StepOutputFeed("job", listener).accept(1, "load", new StringReader(log.toString()));
+
+        assertEquals(3, listener.lines.size());
+        assertEquals(10 + "1:".length(), listener.lines.get(2).length());
+    }
+
+    @Test
+    public void testLargeLogIsReadInChunks() throws Exception {
+        final long[] lines = new long[1];
+        StepOutputFeed feed = new StepOutputFeed("job", new StepOutputListener() {
+            @Override
+            public void onStepOutputLine(String jobName, int stepId, String stepName, String line) {
+                lines[0]++;
+            }
+        });
+        //a million lines, about 100 MB as a single string
+        long size = 1000000L * GeneratedLog.LINE.length();
+        GeneratedLog log = new GeneratedLog(size);
+
+        feed.accept(1, "load", log);
+
+        assertEquals(size, feed.getCharsRead());
+        assertEquals(size / GeneratedLog.LINE.length(), lines[0]);
+        assertEquals(StepOutputFeed.CHUNK_CHARS, log.largestRead);
+    }
+
+    @Test
+    public void testOutputOfTheRunIsStreamedOnceItFinishes() throws Exception {
+        SimulatedSqlAgent agent = new SimulatedSqlAgent.SimulatedSqlAgentBuilder().jobs(1).jobDurationMillis(100, 100).build();
+        RecordingOutputListener listener = new RecordingOutputListener();
+
+        new SqlServerJob.SqlServerJobBuilder()
+                .serverName("output-server")
+                .port(1433)
+                .userName("rundeck")
+                .password("secret")
+                .jobName("job-0")
+                .stepOutputListener(listener)
+                .daoFactory(agent)
+                .build()
+                .execute();
+
+        assertEquals(3, listener.lines.size());
+        assertEquals("1:Done.", listener.lines.get(2));
+    }
+}
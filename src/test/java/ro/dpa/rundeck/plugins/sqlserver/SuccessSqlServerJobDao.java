@@ -1,34 +1,122 @@
 package ro.dpa.rundeck.plugins.sqlserver;
 
-import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by dumitru.pascu on 3/31/2017.
  */
 public class SuccessSqlServerJobDao implements SqlServerJobDao {
+    static final String JOB_ID = "6F9619FF-8B86-D011-B42D-00C04FC964FF";
+
+    @Override
+    public void startJob(String jobId, String stepName) throws SQLException {
+
+    }
+
+    @Override
+    public long startJobAndGetLastHistoryInstanceId(String jobId, String stepName) throws SQLException {
+        long lastInstanceId = this.getLastHistoryInstanceId(jobId);
+        this.startJob(jobId, stepName);
+        return lastInstanceId;
+    }
+
     @Override
-    public void startJob(String jobName, String stepName) throws SQLException {
+    public void stopJob(String jobId) throws SQLException {
 
     }
 
     @Override
-    public int getCurrentExecutionStatus(String jobName) throws SQLException {
-        return ExecutionStatus.Idle.value();
+    public int getCurrentExecutionStatus(String jobId) throws SQLException {
+        return CurrentExecutionStatus.Idle.value();
     }
 
     @Override
-    public int getLastExecutionStatus(String jobName) throws SQLException {
+    public int getLastExecutionStatus(String jobId) throws SQLException {
         return ExecutionStatus.Succeeded.value();
     }
 
     @Override
-    public Connection getConnection(String serverName, int port, String userName, String password) throws SQLException {
-        return new FakeConnection();
+    public JobRunStatus getHelpJobStatus(String jobId, JobHistoryFeed feed) throws SQLException {
+        CurrentExecutionStatus currentStatus = CurrentExecutionStatus.valueOf(this.getCurrentExecutionStatus(jobId));
+        this.readJobHistory(jobId, feed);
+        return CurrentExecutionStatus.Idle != currentStatus ? JobRunStatus.unfinished(currentStatus)
+                : new JobRunStatus(currentStatus, ExecutionStatus.valueOf(this.getLastExecutionStatus(jobId)), null, null, null);
+    }
+
+    @Override
+    public Timestamp getServerTime() throws SQLException {
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    @Override
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter) throws SQLException {
+        return new JobRunStatus(CurrentExecutionStatus.Idle, ExecutionStatus.Succeeded, requestedAfter, requestedAfter, requestedAfter);
+    }
+
+    @Override
+    public JobRunStatus getJobRunStatus(String jobId, Timestamp requestedAfter, JobHistoryFeed feed) throws SQLException {
+        this.readJobHistory(jobId, feed);
+        return this.getJobRunStatus(jobId, requestedAfter);
+    }
+
+    @Override
+    public Map<String, JobRunStatus> getLatestJobRunStatuses(Collection<String> jobIds, Timestamp requestedAfter) throws SQLException {
+        Map<String, JobRunStatus> statuses = new HashMap<>();
+        for (String jobId : jobIds) {
+            statuses.put(jobId, this.getJobRunStatus(jobId, requestedAfter));
+        }
+        return statuses;
+    }
+
+    @Override
+    public JobRunStatus waitForJobRunCompletion(String jobId, Timestamp requestedAfter, int timeoutSeconds) throws SQLException {
+        return this.getJobRunStatus(jobId, requestedAfter);
+    }
+
+    @Override
+    public long getLastHistoryInstanceId(String jobId) throws SQLException {
+        return 10;
+    }
+
+    @Override
+    public void readJobHistory(String jobId, JobHistoryFeed feed) throws SQLException {
+        feed.accept(new JobStepHistory(11, 1, "step", ExecutionStatus.Succeeded, 5, "Executed as user: test"));
+        feed.accept(new JobStepHistory(12, 0, "(Job outcome)", ExecutionStatus.Succeeded, 5, "The job succeeded."));
+    }
+
+    @Override
+    public void readStepOutputLogs(String jobId, Timestamp modifiedSince, StepOutputFeed feed) throws SQLException {
+
+    }
+
+    @Override
+    public List<JobStepHistory> getRecentJobHistory(String jobId, int maxRows) throws SQLException {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<JobMetadata> getJobMetadata(Timestamp modifiedSince) throws SQLException {
+        return Collections.singletonList(new JobMetadata(JOB_ID, "jobName", new Timestamp(0), Collections.singletonList("step")));
+    }
+
+    @Override
+    public List<JobLastRun> getLastJobRuns() throws SQLException {
+        return Collections.singletonList(new JobLastRun(JOB_ID, ExecutionStatus.Succeeded, new Timestamp(0), 5));
+    }
+
+    @Override
+    public String getJobId(String jobName) throws SQLException {
+        return JOB_ID;
     }
 
     @Override
-    public void close() throws Exception {
+    public void close() throws SQLException {
 
     }
 }
@@ -0,0 +1,128 @@
+package ro.dpa.rundeck.plugins.sqlserver;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TsqlBatchSplitterTest {
+
+    /**
+     * A script of the given number of batches, generated while it is read
+     */
+    private static class GeneratedScript extends Reader {
+        private static final String BATCH = "INSERT INTO dbo.Staging (Id) VALUES (1)\r\nGO\r\n";
+        private final int batches;
+        private int position;
+        private int largestRead;
+
+        GeneratedScript(int batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            long size = (long) batches * BATCH.length();
+            if (position >= size) {
+                return -1;
+            }
+            largestRead = Math.max(largestRead, length);
+            int count = (int) Math.min(length, size - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = BATCH.charAt((position + i) % BATCH.length());
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    private static List<TsqlBatch> split(String script) throws IOException {
+        TsqlBatchSplitter splitter = new TsqlBatchSplitter(new StringReader(script));
+        List<TsqlBatch> batches = new ArrayList<>();
+        TsqlBatch batch;
+        while ((batch = splitter.next()) != null) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    @Test
+    public void testBatchesAreSplitOnGo() throws Exception {
+        List<TsqlBatch> batches = split("CREATE TABLE #t (id int)\r\n" +
+                "go\r\n" +
+                "\r\n" +
+                "INSERT INTO #t VALUES (1)\r\n" +
+                "  GO 3  -- three rows\r\n" +
+                "SELECT * FROM #t");
+
+        assertEquals(3, batches.size());
+        assertEquals("CREATE TABLE #t (id int)\n", batches.get(0).getSql());
+        assertEquals(1, batches.get(0).getStartLine());
+        assertEquals(1, batches.get(0).getRepeatCount());
+        assertEquals("INSERT INTO #t VALUES (1)\n", batches.get(1).getSql());
+        assertEquals(4, batches.get(1).getStartLine());
+        assertEquals(3, batches.get(1).getRepeatCount());
+        assertEquals("SELECT * FROM #t\n", batches.get(2).getSql());
+        assertEquals(6, batches.get(2).getStartLine());
+        assertEquals(3, batches.get(2).getNumber());
+    }
+
+    @Test
+    public void testGoInsideLiteralsAndCommentsIsNotASeparator() throws Exception {
+        String script = "PRINT 'first line\n" +
+                "GO\n" +
+                "last line'\n" +
+                "/* outer /* nested */\n" +
+                "GO\n" +
+                "*/\n" +
+                "SELECT 1 AS [a]]'\n" +
+                "GO] -- it's a comment\n" +
+                "-- GO\n" +
+                "GO\n" +
+                "SELECT 2\n";
+
+        List<TsqlBatch> batches = split(script);
+
+        assertEquals(2, batches.size());
+        assertTrue(batches.get(0).getSql().startsWith("PRINT 'first line\nGO\nlast line'\n"));
+        assertTrue(batches.get(0).getSql().endsWith("-- GO\n"));
+        assertEquals("SELECT 2\n", batches.get(1).getSql());
+        assertEquals(11, batches.get(1).getStartLine());
+    }
+
+    @Test
+    public void testBlankBatchesAreSkipped() throws Exception {
+        List<TsqlBatch> batches = split("\uFEFFGO\n\n  \nGO\nGOTO done\ndone:\nGO\n\n");
+
+        assertEquals(1, batches.size());
+        assertEquals("GOTO done\ndone:\n", batches.get(0).getSql());
+        assertEquals(5, batches.get(0).getStartLine());
+        assertTrue(split("").isEmpty());
+    }
+
+    @Test
+    public void testLargeScriptIsReadInChunks() throws Exception {
+        GeneratedScript script = new GeneratedScript(200000);
+        TsqlBatchSplitter splitter = new TsqlBatchSplitter(script);
+
+        int count = 0;
+        TsqlBatch batch;
+        while ((batch = splitter.next()) != null) {
+            count++;
+            assertEquals("INSERT INTO dbo.Staging (Id) VALUES (1)\n", batch.getSql());
+        }
+
+        assertEquals(200000, count);
+        assertTrue(script.largestRead <= TsqlBatchSplitter.CHUNK_CHARS);
+    }
+}
@@ -0,0 +1,42 @@
+package ro.dpa.rundeck.plugins.sqlserver.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue("value " + value, value <= Histogram.upperBoundOf(bucket));
+            assertTrue("value " + value, bucket == 0 || value > Histogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertEquals(1000, snapshot.getMax());
+        //buckets are accurate to 1/8 of the value
+        assertEquals(500, snapshot.getP50(), 500 / 8);
+        assertEquals(900, snapshot.getP90(), 900 / 8);
+        assertEquals(990, snapshot.getP99(), 990 / 8);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        HistogramSnapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getP99());
+    }
+}